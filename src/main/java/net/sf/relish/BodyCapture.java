@@ -0,0 +1,243 @@
+package net.sf.relish;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Captures a body, such as an HTTP body or the output of a process, as it streams by computing its size, SHA-256 digest, CRC-32, and line count instead
+ * of buffering it. Optionally keeps the first and/or last bytes of the body in memory and/or copies the body to a temp file. Memory use is constant no
+ * matter how big the body is. This class is immutable and thread safe.
+ */
+public final class BodyCapture {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final int headSize;
+	private final int tailSize;
+	private final boolean spillToFile;
+
+	/**
+	 * @param headSize
+	 *            The number of bytes at the start of the body to keep in memory. 0 to keep none.
+	 * @param spillToFile
+	 *            True to copy the body to a temp file. The caller must delete the file, which is returned by {@link BodySummary#getFile()}.
+	 */
+	public BodyCapture(int headSize, boolean spillToFile) {
+		this(headSize, 0, spillToFile);
+	}
+
+	/**
+	 * @param headSize
+	 *            The number of bytes at the start of the body to keep in memory. 0 to keep none.
+	 * @param tailSize
+	 *            The number of bytes at the end of the body to keep in memory. 0 to keep none.
+	 * @param spillToFile
+	 *            True to copy the body to a temp file. The caller must delete the file, which is returned by {@link BodySummary#getFile()}.
+	 */
+	public BodyCapture(int headSize, int tailSize, boolean spillToFile) {
+		this.headSize = validateGreaterThan("headSize", headSize, -1);
+		this.tailSize = validateGreaterThan("tailSize", tailSize, -1);
+		this.spillToFile = spillToFile;
+	}
+
+	/**
+	 * @return The number of bytes at the start of the body that are kept in memory
+	 */
+	public int getHeadSize() {
+		return headSize;
+	}
+
+	/**
+	 * @return The number of bytes at the end of the body that are kept in memory
+	 */
+	public int getTailSize() {
+		return tailSize;
+	}
+
+	/**
+	 * @return True if the body is copied to a temp file
+	 */
+	public boolean isSpillToFile() {
+		return spillToFile;
+	}
+
+	/**
+	 * Reads the input stream to the end. The stream is not closed.
+	 * 
+	 * @return The summary of the body read from the input stream
+	 */
+	public BodySummary capture(InputStream in) throws IOException {
+
+		MessageDigest sha256 = newSha256();
+		CRC32 crc32 = new CRC32();
+		byte[] head = new byte[headSize];
+		int headLength = 0;
+		// ring buffer holding the last tailSize bytes read
+		byte[] tail = new byte[tailSize];
+		long size = 0;
+		long newlineCount = 0;
+		byte lastByte = '\n';
+
+		File file = null;
+		OutputStream out = null;
+		boolean success = false;
+		try {
+			if (spillToFile) {
+				file = File.createTempFile("relish-body-", ".tmp");
+				out = new FileOutputStream(file);
+			}
+
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int len = in.read(buffer); len >= 0; len = in.read(buffer)) {
+				sha256.update(buffer, 0, len);
+				crc32.update(buffer, 0, len);
+				if (headLength < headSize) {
+					int count = Math.min(len, headSize - headLength);
+					System.arraycopy(buffer, 0, head, headLength, count);
+					headLength += count;
+				}
+				if (tailSize > 0) {
+					copyToRing(buffer, len, tail, size);
+				}
+				for (int i = 0; i < len; i++) {
+					if (buffer[i] == '\n') {
+						newlineCount++;
+					}
+				}
+				if (out != null) {
+					out.write(buffer, 0, len);
+				}
+				if (len > 0) {
+					lastByte = buffer[len - 1];
+				}
+				size += len;
+			}
+
+			if (out != null) {
+				out.close();
+			}
+			success = true;
+		} finally {
+			if (!success) {
+				closeQuietly(out);
+				if (file != null) {
+					file.delete();
+				}
+			}
+		}
+
+		if (headLength < headSize) {
+			byte[] shortHead = new byte[headLength];
+			System.arraycopy(head, 0, shortHead, 0, headLength);
+			head = shortHead;
+		}
+
+		return new BodySummary(size, toHex(sha256.digest()), toHex(crc32.getValue()), head, unwrapRing(tail, size), lineCount(newlineCount, lastByte), file);
+	}
+
+	/**
+	 * @return A summary of a body that is already in memory. The head is the entire body.
+	 */
+	static BodySummary summarize(byte[] body) {
+
+		if (body == null) {
+			body = new byte[0];
+		}
+
+		MessageDigest sha256 = newSha256();
+		sha256.update(body);
+		CRC32 crc32 = new CRC32();
+		crc32.update(body);
+
+		long newlineCount = 0;
+		for (byte b : body) {
+			if (b == '\n') {
+				newlineCount++;
+			}
+		}
+
+		return new BodySummary(body.length, toHex(sha256.digest()), toHex(crc32.getValue()), body.clone(), body.clone(), lineCount(newlineCount,
+				body.length == 0 ? (byte) '\n' : body[body.length - 1]), null);
+	}
+
+	/**
+	 * @return The number of lines: the number of newlines plus one if the body does not end with a newline. An empty body has no lines.
+	 */
+	private static long lineCount(long newlineCount, byte lastByte) {
+		return lastByte == '\n' ? newlineCount : newlineCount + 1;
+	}
+
+	/**
+	 * Writes bytes into a ring buffer that already holds the last bytes of a body
+	 *
+	 * @param position
+	 *            The number of body bytes written to the ring before these
+	 */
+	private static void copyToRing(byte[] buffer, int len, byte[] ring, long position) {
+
+		int offset = Math.max(0, len - ring.length);
+		int ringIndex = (int) ((position + offset) % ring.length);
+		for (int remaining = len - offset; remaining > 0;) {
+			int count = Math.min(remaining, ring.length - ringIndex);
+			System.arraycopy(buffer, offset, ring, ringIndex, count);
+			offset += count;
+			remaining -= count;
+			ringIndex = 0;
+		}
+	}
+
+	/**
+	 * @return The bytes in a ring buffer in the order they were written
+	 */
+	private static byte[] unwrapRing(byte[] ring, long size) {
+
+		if (ring.length == 0) {
+			return ring;
+		}
+		if (size <= ring.length) {
+			byte[] tail = new byte[(int) size];
+			System.arraycopy(ring, 0, tail, 0, tail.length);
+			return tail;
+		}
+
+		byte[] tail = new byte[ring.length];
+		int start = (int) (size % ring.length);
+		System.arraycopy(ring, start, tail, 0, ring.length - start);
+		System.arraycopy(ring, 0, tail, ring.length - start, start);
+		return tail;
+	}
+
+	private static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RelishException(e, "SHA-256 is not available in this JVM");
+		}
+	}
+
+	private static String toHex(long crc) {
+
+		String hex = Long.toHexString(crc);
+		return "00000000".substring(hex.length()) + hex;
+	}
+
+	private static String toHex(byte[] bytes) {
+
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+
+		return new String(hex);
+	}
+}
@@ -0,0 +1,91 @@
+package net.sf.relish;
+
+import java.io.File;
+
+/**
+ * Summary of a body captured by {@link BodyCapture} without keeping the whole body in memory. This class is immutable and thread safe.
+ */
+public final class BodySummary {
+
+	private final long size;
+	private final String sha256;
+	private final String crc32;
+	private final byte[] head;
+	private final byte[] tail;
+	private final long lineCount;
+	private final File file;
+
+	BodySummary(long size, String sha256, String crc32, byte[] head, byte[] tail, long lineCount, File file) {
+		this.size = size;
+		this.sha256 = sha256;
+		this.crc32 = crc32;
+		this.head = head;
+		this.tail = tail;
+		this.lineCount = lineCount;
+		this.file = file;
+	}
+
+	/**
+	 * @return A summary of a body that is already in memory. The head and tail are the entire body.
+	 */
+	public static BodySummary of(byte[] body) {
+		return BodyCapture.summarize(body);
+	}
+
+	/**
+	 * @return The size of the body in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The SHA-256 digest of the body as lower case hex
+	 */
+	public String getSha256() {
+		return sha256;
+	}
+
+	/**
+	 * @return The CRC-32 of the body as 8 lower case hex digits
+	 */
+	public String getCrc32() {
+		return crc32;
+	}
+
+	/**
+	 * @return The first bytes of the body. Empty if no bytes were kept.
+	 */
+	public byte[] getHead() {
+		return head.clone();
+	}
+
+	/**
+	 * @return The last bytes of the body. Empty if no bytes were kept.
+	 */
+	public byte[] getTail() {
+		return tail.clone();
+	}
+
+	/**
+	 * @return The number of lines in the body: the number of newlines plus one if the body does not end with a newline. An empty body has no lines.
+	 */
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return The temp file the body was written to or null if the body was not spilled to a file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "size=" + size + ", lines=" + lineCount + ", sha256=" + sha256 + ", crc32=" + crc32;
+	}
+}
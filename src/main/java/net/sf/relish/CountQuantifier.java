@@ -41,4 +41,38 @@ public enum CountQuantifier {
 			throw new RelishException("Unknown enum value: %s. THIS IS A BUG!!", this);
 		}
 	}
+
+	/**
+	 * @return A new {@link Matcher}, the type of which depends on the enum, for the specified value.
+	 */
+	public Matcher<Long> newMatcher(long expected) {
+
+		switch (this) {
+		case AT_LEAST:
+			return gte(expected);
+		case AT_MOST:
+			return lte(expected);
+		case EXACTLY:
+			return equalTo(expected);
+		default:
+			throw new RelishException("Unknown enum value: %s. THIS IS A BUG!!", this);
+		}
+	}
+
+	/**
+	 * @return A new {@link Matcher}, the type of which depends on the enum, for the specified value.
+	 */
+	public Matcher<Double> newMatcher(double expected) {
+
+		switch (this) {
+		case AT_LEAST:
+			return gte(expected);
+		case AT_MOST:
+			return lte(expected);
+		case EXACTLY:
+			return equalTo(expected);
+		default:
+			throw new RelishException("Unknown enum value: %s. THIS IS A BUG!!", this);
+		}
+	}
 }
@@ -0,0 +1,237 @@
+package net.sf.relish;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non-negative long values, typically durations in nanoseconds. Values are counted in log-linear buckets: each power of 2 range is
+ * split into 64 equal sub-buckets so any value is reported within 1/64 (about 1.6%) of what was recorded no matter how large it is. Recording is a few atomic
+ * increments and never allocates so it is safe to call from request handling threads. This class is thread safe.
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts.incrementAndGet(bucketIndex(value));
+		totalCount.incrementAndGet();
+		sum.addAndGet(value);
+
+		for (long current = min.get(); value < current && !min.compareAndSet(current, value); current = min.get()) {
+		}
+		for (long current = max.get(); value > current && !max.compareAndSet(current, value); current = max.get()) {
+		}
+	}
+
+	/**
+	 * Records a value measured by a caller that tries to do something every expectedInterval but may fall behind because each attempt waits for the previous
+	 * one. If value is longer than expectedInterval the attempts that should have been made while waiting are recorded too, each with the time it would have
+	 * waited. This corrects for coordinated omission: without it a stall is recorded once instead of once for every attempt it delayed.
+	 *
+	 * @param value
+	 *            The measured value
+	 * @param expectedInterval
+	 *            The expected interval between attempts in the same unit as value. 0 or less to record only value.
+	 */
+	public void recordCorrected(long value, long expectedInterval) {
+
+		record(value);
+		if (expectedInterval <= 0) {
+			return;
+		}
+
+		for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+			record(missed);
+		}
+	}
+
+	/**
+	 * Adds all the values recorded by another histogram to this one
+	 */
+	public void add(Histogram other) {
+
+		validateNotNull("other", other);
+
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long bucketCount = other.counts.get(i);
+			if (bucketCount > 0) {
+				counts.addAndGet(i, bucketCount);
+				count += bucketCount;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+
+		totalCount.addAndGet(count);
+		sum.addAndGet(other.sum.get());
+
+		long otherMin = other.min.get();
+		long otherMax = other.max.get();
+		for (long current = min.get(); otherMin < current && !min.compareAndSet(current, otherMin); current = min.get()) {
+		}
+		for (long current = max.get(); otherMax > current && !max.compareAndSet(current, otherMax); current = max.get()) {
+		}
+	}
+
+	/**
+	 * @return The number of values recorded
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return The smallest value recorded or 0 if none have been recorded
+	 */
+	public long getMin() {
+		return getCount() == 0 ? 0 : min.get();
+	}
+
+	/**
+	 * @return The largest value recorded or 0 if none have been recorded
+	 */
+	public long getMax() {
+		return getCount() == 0 ? 0 : max.get();
+	}
+
+	/**
+	 * @return The mean of the values recorded or 0 if none have been recorded
+	 */
+	public double getMean() {
+
+		long count = getCount();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            The percentile: 50 for the median, 99.9 for the 99.9th percentile, etc
+	 * @return The value at the percentile using the nearest rank method or 0 if no values have been recorded. The value is the highest value in the bucket
+	 *         the percentile falls in, capped at the largest value recorded, so it is never less than the exact value.
+	 */
+	public long getValueAtPercentile(double percentile) {
+
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100 but was " + percentile);
+		}
+
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.max(getMin(), Math.min(getMax(), bucketHighestValue(i)));
+			}
+		}
+
+		// values were recorded while we were counting
+		return getMax();
+	}
+
+	/**
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @return The value of the statistic. The mean is rounded to the nearest whole value.
+	 */
+	public long getStatistic(String statistic) {
+
+		validateNotNull("statistic", statistic);
+		if ("min".equals(statistic)) {
+			return getMin();
+		}
+		if ("mean".equals(statistic)) {
+			return Math.round(getMean());
+		}
+		if ("max".equals(statistic)) {
+			return getMax();
+		}
+		if (statistic.startsWith("p")) {
+			try {
+				return getValueAtPercentile(Double.parseDouble(statistic.substring(1)));
+			} catch (NumberFormatException e) {
+				// fall through to the exception below
+			}
+		}
+		throw new IllegalArgumentException("statistic must be min, mean, max, or a percentile like p99 but was " + statistic);
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded while this runs may or may not be cleared.
+	 */
+	public void reset() {
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+	/**
+	 * @param unit
+	 *            The unit of the recorded values
+	 * @return Single line summary of the recorded values in milliseconds: count, min, mean, median, 90th, 99th, and 99.9th percentiles, and max
+	 */
+	public String toReport(TimeUnit unit) {
+
+		validateNotNull("unit", unit);
+		return String.format("count=%d, min=%.3fms, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, p99.9=%.3fms, max=%.3fms", getCount(),
+				toMillis(getMin(), unit), getMean() * unit.toNanos(1) / 1000000.0, toMillis(getValueAtPercentile(50), unit),
+				toMillis(getValueAtPercentile(90), unit), toMillis(getValueAtPercentile(99), unit), toMillis(getValueAtPercentile(99.9), unit),
+				toMillis(getMax(), unit));
+	}
+
+	private static double toMillis(long value, TimeUnit unit) {
+		return unit.toNanos(value) / 1000000.0;
+	}
+
+	static int bucketIndex(long value) {
+
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	static long bucketHighestValue(int index) {
+
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+		long subBucket = index - shift * HALF_SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
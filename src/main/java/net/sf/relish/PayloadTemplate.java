@@ -0,0 +1,389 @@
+package net.sf.relish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A payload template that is parsed once and then rendered any number of times. Each render writes directly into a reusable byte buffer so no parsing or
+ * {@link String} allocation happens per message. Placeholders have the form <code>${name}</code> or <code>${name:args}</code>:
+ * <ul>
+ * <li><code>${seq}</code>: The sequence number passed to {@link #render(long)}</li>
+ * <li><code>${seq%N}</code>: The sequence number modulo N. Useful for cycling through N device IDs.</li>
+ * <li><code>${millis}</code>: {@link System#currentTimeMillis()}</li>
+ * <li><code>${nanos}</code>: {@link System#nanoTime()}</li>
+ * <li><code>${random:MIN-MAX}</code>: A random integer between MIN and MAX, inclusive</li>
+ * <li><code>${hex:N}</code>: N random lower case hexadecimal digits</li>
+ * <li><code>${cycle:a|b|c}</code>: The values a, b, c, a, b, ... chosen by sequence number</li>
+ * </ul>
+ * Use <code>$${</code> for a literal <code>${</code>. This class is not thread safe.
+ */
+public final class PayloadTemplate {
+
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(DataFormat.ASCII);
+	private static final int MAX_LONG_DIGITS = 20;
+
+	private final Segment[] segments;
+	private final byte[] buffer;
+	private int length;
+	private long randomState;
+
+	/**
+	 * Parses the template. If the format is {@link DataFormat#JSON} the first rendered payload is validated as JSON. This is the only time the template is
+	 * validated.
+	 *
+	 * @param format
+	 *            The format of the template. {@link DataFormat#BINARY} is not supported.
+	 * @param template
+	 *            The template text
+	 */
+	public static PayloadTemplate compile(DataFormat format, String template) {
+
+		validateFormat(format);
+		RelishUtil.validateNotEmpty("template", template);
+
+		PayloadTemplate payloadTemplate = new PayloadTemplate(parse(template));
+		if (format == DataFormat.JSON) {
+			payloadTemplate.render(1);
+			format.textToBytes(new String(payloadTemplate.buffer, 0, payloadTemplate.length, DataFormat.UTF8));
+		}
+
+		return payloadTemplate;
+	}
+
+	private PayloadTemplate(Segment[] segments) {
+
+		this.segments = segments;
+		int maxLength = 0;
+		for (Segment segment : segments) {
+			maxLength += segment.maxLength();
+		}
+		this.buffer = new byte[maxLength];
+		this.randomState = (System.nanoTime() ^ System.identityHashCode(this)) | 1;
+	}
+
+	/**
+	 * Renders the template into this template's buffer. The rendered bytes are valid until the next call to this method.
+	 *
+	 * @param sequence
+	 *            The sequence number of the payload. Typically the first is 1, the second is 2, etc.
+	 * @return The number of bytes rendered
+	 */
+	public int render(long sequence) {
+
+		int pos = 0;
+		for (Segment segment : segments) {
+			pos = segment.write(this, buffer, pos, sequence);
+		}
+
+		length = pos;
+		return length;
+	}
+
+	/**
+	 * @return The buffer the payload is rendered into. Only the first {@link #getLength()} bytes are valid.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The number of bytes rendered by the last call to {@link #render(long)}
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Renders the template and returns a copy of the rendered bytes. Use this when the payload must outlive the next render, for example when it is queued
+	 * for publishing.
+	 */
+	public byte[] renderToBytes(long sequence) {
+
+		render(sequence);
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private long nextRandom() {
+
+		// xorshift64* - cheap and good enough for test data
+		long x = randomState;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		randomState = x;
+		return (x * 0x2545F4914F6CDD1DL) >>> 1;
+	}
+
+	private static void validateFormat(DataFormat format) {
+
+		RelishUtil.validateNotNull("format", format);
+		if (format == DataFormat.BINARY) {
+			throw new RelishException("Payload templates do not support the %s format", format);
+		}
+	}
+
+	private static Segment[] parse(String template) {
+
+		List<Segment> segments = new ArrayList<Segment>();
+		StringBuilder literal = new StringBuilder();
+
+		int i = 0;
+		while (i < template.length()) {
+			if (template.startsWith("$${", i)) {
+				literal.append("${");
+				i += 3;
+			} else if (template.startsWith("${", i)) {
+				int end = template.indexOf('}', i + 2);
+				if (end < 0) {
+					throw new RelishException("Unterminated placeholder at index %d in payload template: %s", i, template);
+				}
+				if (literal.length() > 0) {
+					segments.add(new LiteralSegment(literal.toString().getBytes(DataFormat.UTF8)));
+					literal.setLength(0);
+				}
+				segments.add(newPlaceholder(template.substring(i + 2, end).trim()));
+				i = end + 1;
+			} else {
+				literal.append(template.charAt(i++));
+			}
+		}
+
+		if (literal.length() > 0) {
+			segments.add(new LiteralSegment(literal.toString().getBytes(DataFormat.UTF8)));
+		}
+
+		return segments.toArray(new Segment[segments.size()]);
+	}
+
+	private static Segment newPlaceholder(String placeholder) {
+
+		int colon = placeholder.indexOf(':');
+		String name = colon < 0 ? placeholder : placeholder.substring(0, colon);
+		String args = colon < 0 ? null : placeholder.substring(colon + 1);
+
+		try {
+			if ("seq".equals(name)) {
+				return new SequenceSegment(0);
+			}
+			if (name.startsWith("seq%")) {
+				return new SequenceSegment(RelishUtil.validateGreaterThan("modulus", Long.parseLong(name.substring(4)), 0L));
+			}
+			if ("millis".equals(name)) {
+				return new ClockSegment(false);
+			}
+			if ("nanos".equals(name)) {
+				return new ClockSegment(true);
+			}
+			if ("random".equals(name) && args != null) {
+				int dash = args.indexOf('-', 1);
+				long min = Long.parseLong(args.substring(0, dash).trim());
+				long max = Long.parseLong(args.substring(dash + 1).trim());
+				if (max < min) {
+					throw new RelishException("Invalid range in payload template placeholder: %s", placeholder);
+				}
+				return new RandomSegment(min, max);
+			}
+			if ("hex".equals(name) && args != null) {
+				return new HexSegment(RelishUtil.validateGreaterThan("hex digits", Integer.parseInt(args.trim()), 0));
+			}
+			if ("cycle".equals(name) && args != null) {
+				String[] values = args.split("\\|", -1);
+				byte[][] bytes = new byte[values.length][];
+				for (int i = 0; i < values.length; i++) {
+					bytes[i] = values[i].getBytes(DataFormat.UTF8);
+				}
+				return new CycleSegment(bytes);
+			}
+		} catch (RuntimeException e) {
+			if (e instanceof RelishException) {
+				throw e;
+			}
+			throw new RelishException(e, "Invalid payload template placeholder: %s", placeholder);
+		}
+
+		throw new RelishException("Unknown payload template placeholder: %s", placeholder);
+	}
+
+	/**
+	 * Writes the decimal digits of value into buf starting at pos
+	 *
+	 * @return The position after the last digit written
+	 */
+	static int writeDecimal(byte[] buf, int pos, long value) {
+
+		if (value == Long.MIN_VALUE) {
+			byte[] min = Long.toString(value).getBytes(DataFormat.ASCII);
+			System.arraycopy(min, 0, buf, pos, min.length);
+			return pos + min.length;
+		}
+
+		if (value < 0) {
+			buf[pos++] = '-';
+			value = -value;
+		}
+
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+
+		int end = pos + digits;
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+
+		return end;
+	}
+
+	private static abstract class Segment {
+
+		/**
+		 * @return The most bytes this segment will ever write
+		 */
+		abstract int maxLength();
+
+		/**
+		 * Writes this segment into buf at pos
+		 *
+		 * @return The position after the last byte written
+		 */
+		abstract int write(PayloadTemplate template, byte[] buf, int pos, long sequence);
+	}
+
+	private static final class LiteralSegment extends Segment {
+
+		private final byte[] bytes;
+
+		LiteralSegment(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		int maxLength() {
+			return bytes.length;
+		}
+
+		@Override
+		int write(PayloadTemplate template, byte[] buf, int pos, long sequence) {
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			return pos + bytes.length;
+		}
+	}
+
+	private static final class SequenceSegment extends Segment {
+
+		private final long modulus;
+
+		SequenceSegment(long modulus) {
+			this.modulus = modulus;
+		}
+
+		@Override
+		int maxLength() {
+			return MAX_LONG_DIGITS;
+		}
+
+		@Override
+		int write(PayloadTemplate template, byte[] buf, int pos, long sequence) {
+			return writeDecimal(buf, pos, modulus == 0 ? sequence : sequence % modulus);
+		}
+	}
+
+	private static final class ClockSegment extends Segment {
+
+		private final boolean nanos;
+
+		ClockSegment(boolean nanos) {
+			this.nanos = nanos;
+		}
+
+		@Override
+		int maxLength() {
+			return MAX_LONG_DIGITS;
+		}
+
+		@Override
+		int write(PayloadTemplate template, byte[] buf, int pos, long sequence) {
+			return writeDecimal(buf, pos, nanos ? System.nanoTime() : System.currentTimeMillis());
+		}
+	}
+
+	private static final class RandomSegment extends Segment {
+
+		private final long min;
+		private final long span;
+
+		RandomSegment(long min, long max) {
+			this.min = min;
+			this.span = max - min + 1;
+		}
+
+		@Override
+		int maxLength() {
+			return MAX_LONG_DIGITS;
+		}
+
+		@Override
+		int write(PayloadTemplate template, byte[] buf, int pos, long sequence) {
+			long random = template.nextRandom();
+			return writeDecimal(buf, pos, span <= 0 ? min + random : min + random % span);
+		}
+	}
+
+	private static final class HexSegment extends Segment {
+
+		private final int digits;
+
+		HexSegment(int digits) {
+			this.digits = digits;
+		}
+
+		@Override
+		int maxLength() {
+			return digits;
+		}
+
+		@Override
+		int write(PayloadTemplate template, byte[] buf, int pos, long sequence) {
+
+			long random = 0;
+			for (int i = 0; i < digits; i++) {
+				if (i % 15 == 0) {
+					random = template.nextRandom();
+				}
+				buf[pos++] = HEX_DIGITS[(int) (random & 0xf)];
+				random >>>= 4;
+			}
+			return pos;
+		}
+	}
+
+	private static final class CycleSegment extends Segment {
+
+		private final byte[][] values;
+
+		CycleSegment(byte[][] values) {
+			this.values = values;
+		}
+
+		@Override
+		int maxLength() {
+			int max = 0;
+			for (byte[] value : values) {
+				max = Math.max(max, value.length);
+			}
+			return max;
+		}
+
+		@Override
+		int write(PayloadTemplate template, byte[] buf, int pos, long sequence) {
+
+			long index = (sequence - 1) % values.length;
+			byte[] value = values[(int) (index < 0 ? index + values.length : index)];
+			System.arraycopy(value, 0, buf, pos, value.length);
+			return pos + value.length;
+		}
+	}
+}
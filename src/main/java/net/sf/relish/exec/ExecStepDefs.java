@@ -4,27 +4,113 @@ import static net.sf.relish.RelishUtil.*;
 import static net.sf.relish.matcher.RelishMatchers.*;
 import static org.hamcrest.CoreMatchers.*;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
+import net.sf.relish.BodyCapture;
+import net.sf.relish.BodySummary;
+import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
 import net.sf.relish.RelishException;
 import net.sf.relish.RelishUtil;
+import net.sf.relish.transformer.CountQuantifierTransformer;
+import cucumber.api.Transform;
+import cucumber.api.java.After;
 import cucumber.api.java.en.Given;
 import cucumber.api.java.en.Then;
+import cucumber.api.java.en.When;
 
 /**
  * Cucumber step definitions for the exec feature which allows interacting with external applications
  */
 public final class ExecStepDefs {
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	private final Map<String, ProcessResult> processResultByName = new HashMap<String, ExecStepDefs.ProcessResult>();
+	private final Map<String, RunningApplication> runningApplicationByName = new HashMap<String, RunningApplication>();
+	private BodyCapture outputCapture;
+	private Charset charset = Charset.defaultCharset();
+
+	/**
+	 * Runs after each relish scenario. Kills applications still running in the background and deletes the temp files output was captured in.
+	 */
+	@After
+	public void after() {
+
+		for (RunningApplication app : runningApplicationByName.values()) {
+			app.process.destroy();
+			try {
+				app.finish(app.process.waitFor()).deleteFile();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				// the output of a killed application is not used and a failed capture deletes its own file
+			}
+		}
+		runningApplicationByName.clear();
+		for (ProcessResult result : processResultByName.values()) {
+			result.deleteFile();
+		}
+		processResultByName.clear();
+	}
+
+	/**
+	 * Sets how the output of applications executed after this step is captured. By default the whole output is kept in memory, which is the only policy
+	 * where the output can be matched by {@link #applicationOutputShouldMatchThisText(String, String) the output should match step} no matter how big it is.
+	 * The other policies use constant memory so applications that print gigabytes can be run. All policies record the size and line count of the output.
+	 *
+	 * @param policy
+	 *            <ul>
+	 *            <li>in full: Keeps the whole output in memory</li>
+	 *            <li>keeping the first N and last M bytes: Keeps only the first N and last M bytes in memory. Use the output start and end steps to validate
+	 *            it.</li>
+	 *            <li>in a temp file: Copies the output to a temp file, which is read when the output is validated or piped to another application</li>
+	 *            </ul>
+	 * @param headSize
+	 *            The number of bytes at the start of the output to keep in memory
+	 * @param tailSize
+	 *            The number of bytes at the end of the output to keep in memory
+	 */
+	@Given("^application output is captured (in full|keeping the first (\\d+) and last (\\d+) bytes|in a temp file)$")
+	public void applicationOutputIsCaptured(String policy, Integer headSize, Integer tailSize) {
+
+		if ("in full".equals(policy)) {
+			outputCapture = null;
+		} else if ("in a temp file".equals(policy)) {
+			outputCapture = new BodyCapture(0, 0, true);
+		} else {
+			outputCapture = new BodyCapture(headSize, tailSize, false);
+		}
+	}
+
+	/**
+	 * Sets the charset used to encode the input to applications executed after this step and to decode their output. By default the platform charset is
+	 * used.
+	 *
+	 * @param charsetName
+	 *            The name of the charset, for example UTF-8 or ISO-8859-1
+	 */
+	@Given("^application charset is \"(\\S+)\"$")
+	public void applicationCharsetIs(String charsetName) {
+
+		try {
+			charset = Charset.forName(charsetName);
+		} catch (IllegalArgumentException e) {
+			throw new RelishException(e, "Charset %s is not supported", charsetName);
+		}
+	}
 
 	/**
 	 * Executes the application with no console input
@@ -56,9 +142,7 @@ public final class ExecStepDefs {
 	@Given("^application \"(\\S.*)\" is executed with command line \"(\\S.*)\" with input that is the output of the \"(\\S.*)\" application$")
 	public void applicationIsExecutedWithCommandLineWithInputThatIsTheOutputOfTheApplication(String appName, String commandLine, String pipeFromApp) {
 
-		ProcessResult result = getProcessResult(pipeFromApp);
-		String input = result.output;
-		exec(appName, commandLine, input);
+		exec(appName, commandLine, getProcessResult(pipeFromApp).openOutput(pipeFromApp));
 	}
 
 	/**
@@ -76,7 +160,94 @@ public final class ExecStepDefs {
 	public void applicationIsExecutedWithCommandLineWithInputThatIsThisText(String appName, String commandLine, String input) {
 
 		RelishUtil.validateNotEmpty("input", input);
-		exec(appName, commandLine, input);
+		exec(appName, commandLine, new ByteArrayInputStream(input.getBytes(charset)));
+	}
+
+	/**
+	 * Starts the application and returns without waiting for it to exit. Use the steps for waiting for output, sending signals, and waiting for exit to
+	 * interact with it. Once it has exited, and a step has waited for its exit, its exit code and output can be validated the same as an application that was
+	 * executed in the foreground. Applications still running at the end of the scenario are killed.
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param commandLine
+	 *            Command line to execute. The command line args are space delimited. If an arg contains a space escape it with '\\'. For example: 'ls a b c'
+	 *            will execute ls with args 'a', 'b', and 'c' but 'ls a\\ b\\ c' will execute ls with one arg of 'a b c'.
+	 */
+	@Given("^application \"(\\S.*)\" is started in the background with command line \"(\\S.*)\"$")
+	public void applicationIsStartedInTheBackground(String appName, String commandLine) {
+
+		if (runningApplicationByName.containsKey(appName)) {
+			throw new RelishException("You may not start application %s because it is already running", appName);
+		}
+
+		try {
+			runningApplicationByName.put(appName, start(commandLine, null, new OutputLineMatcher(charset)));
+		} catch (Exception e) {
+			throw new RelishException(e, "Failed to start application: %s", commandLine);
+		}
+	}
+
+	/**
+	 * Waits for a line of output from an application running in the background to contain a match for a regular expression. Each line is checked once as it
+	 * arrives. Lines output before this step started are also checked.
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param regex
+	 *            The regular expression. It only has to match part of a line.
+	 * @param timeout
+	 *            The maximum time to wait. If null this waits until the application's output ends.
+	 * @param timeUnit
+	 *            The unit of timeout
+	 */
+	@Then("^application \"(\\S.*)\" output should contain \"(.+)\"(?: within (\\d+) (seconds|milliseconds))?$")
+	public void applicationOutputShouldContain(String appName, String regex, Long timeout, TimeUnit timeUnit) throws InterruptedException {
+
+		RunningApplication app = getRunningApplication(appName);
+		boolean found = timeout == null ? app.lineMatcher.awaitLine(Pattern.compile(regex), Long.MAX_VALUE, TimeUnit.NANOSECONDS) : app.lineMatcher.awaitLine(
+				Pattern.compile(regex), timeout, timeUnit);
+		assertThat(found, equalTo(true), "Output of application %s did not contain %s", appName, regex);
+	}
+
+	/**
+	 * Sends a signal to an application running in the background. Signals are sent with the kill command when the process ID is available. Otherwise only
+	 * TERM and KILL can be sent and both destroy the process.
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param signal
+	 *            The name of the signal without the SIG prefix, for example TERM, KILL, INT, or HUP
+	 */
+	@When("^application \"(\\S.*)\" is sent signal ([A-Z0-9]+)$")
+	public void applicationIsSentSignal(String appName, String signal) {
+
+		getRunningApplication(appName).signal(signal);
+	}
+
+	/**
+	 * Waits for an application running in the background to exit. Afterward its exit code and output can be validated.
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param timeout
+	 *            The maximum time to wait. If null this waits forever.
+	 * @param timeUnit
+	 *            The unit of timeout
+	 */
+	@Then("^application \"(\\S.*)\" should exit(?: within (\\d+) (seconds|milliseconds))?$")
+	public void applicationShouldExit(String appName, Long timeout, TimeUnit timeUnit) throws InterruptedException {
+
+		RunningApplication app = getRunningApplication(appName);
+		Integer exitCode = app.awaitExit(timeout == null ? Long.MAX_VALUE : timeUnit.toMillis(timeout));
+		assertThat(exitCode, notNullValue(), "Application %s did not exit", appName);
+
+		runningApplicationByName.remove(appName);
+		try {
+			putProcessResult(appName, app.finish(exitCode));
+		} catch (Exception e) {
+			throw new RelishException(e, "Failed to read the output of application %s", appName);
+		}
 	}
 
 	/**
@@ -95,7 +266,8 @@ public final class ExecStepDefs {
 	}
 
 	/**
-	 * Validates the output of the application matches a specified regular expression
+	 * Validates the output of the application matches a specified regular expression. The whole output must have been captured: in full, in a temp file, or
+	 * in the bytes kept at the start if the output was no longer than that.
 	 * 
 	 * @param appName
 	 *            Name given to the application for reference in the DSL
@@ -106,13 +278,79 @@ public final class ExecStepDefs {
 	public void applicationOutputShouldMatchThisText(String appName, String outputMatchingRegex) {
 
 		ProcessResult result = getProcessResult(appName);
-		String output = DataFormat.TEXT.normalizeText(result.output);
+		InputStream in = result.openOutput(appName);
+		String output;
+		try {
+			output = DataFormat.TEXT.normalizeText(new String(readFromInputStream(in), result.charset));
+		} finally {
+			closeQuietly(in);
+		}
 		outputMatchingRegex = DataFormat.TEXT.normalizeRegex(outputMatchingRegex);
 		assertThat(output, matches(outputMatchingRegex), "Output does not match for application %s", appName);
 	}
 
+	/**
+	 * Validates the start or end of the output of the application. Use this when only the first and last bytes of the output were kept.
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param part
+	 *            start or end
+	 * @param regex
+	 *            The regular expression the bytes kept at the start or end of the output must match
+	 */
+	@Then("^application \"(\\S.*)\" output (start|end) should match this text:$")
+	public void applicationOutputPartShouldMatchThisText(String appName, String part, String regex) {
+
+		ProcessResult result = getProcessResult(appName);
+		BodySummary summary = result.getSummary();
+		byte[] bytes = "start".equals(part) ? summary.getHead() : summary.getTail();
+		if (bytes.length == 0 && summary.getSize() > 0) {
+			throw new RelishException("Application %s did not keep the %s of its output", appName, part);
+		}
+		String output = DataFormat.TEXT.normalizeText(new String(bytes, result.charset));
+		assertThat(output, matches(DataFormat.TEXT.normalizeRegex(regex)), "Output %s does not match for application %s", part, appName);
+	}
+
+	/**
+	 * Validates the number of bytes the application output
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param sizeQuantifier
+	 *            How to evaluate the size
+	 * @param size
+	 *            The number of bytes
+	 */
+	@Then("^application \"(\\S.*)\" output size should be (at least|at most|exactly) (\\d+) bytes$")
+	public void applicationOutputSizeShouldBe(String appName, @Transform(CountQuantifierTransformer.class) CountQuantifier sizeQuantifier, long size) {
+
+		assertThat(getProcessResult(appName).getSummary().getSize(), sizeQuantifier.newMatcher(size), "Output size does not match for application %s", appName);
+	}
+
+	/**
+	 * Validates the number of lines the application output. The last line counts even if it does not end with a newline.
+	 *
+	 * @param appName
+	 *            Name given to the application for reference in the DSL
+	 * @param lineQuantifier
+	 *            How to evaluate the line count
+	 * @param lineCount
+	 *            The number of lines
+	 */
+	@Then("^application \"(\\S.*)\" output should have (at least|at most|exactly) (\\d+) lines?$")
+	public void applicationOutputLineCountShouldBe(String appName, @Transform(CountQuantifierTransformer.class) CountQuantifier lineQuantifier,
+			long lineCount) {
+
+		assertThat(getProcessResult(appName).getSummary().getLineCount(), lineQuantifier.newMatcher(lineCount),
+				"Output line count does not match for application %s", appName);
+	}
+
 	private ProcessResult getProcessResult(String appName) {
 
+		if (runningApplicationByName.containsKey(appName)) {
+			throw new RelishException("Application %s is running in the background so wait for it to exit first", appName);
+		}
 		ProcessResult result = processResultByName.get(appName);
 		if (result == null) {
 			throw new RelishException("Application %s has not been executed", appName);
@@ -120,34 +358,60 @@ public final class ExecStepDefs {
 		return result;
 	}
 
-	private void exec(String appName, String commandLine, String input) {
+	private RunningApplication getRunningApplication(String appName) {
 
-		try {
-			String[] command = buildProcessCommand(commandLine);
-			ProcessBuilder builder = new ProcessBuilder(command);
-			builder.redirectErrorStream(true);
-			Process process = builder.start();
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			StreamCopyThread copyIn = new StreamCopyThread(process.getInputStream(), baos);
-			copyIn.start();
-			StreamCopyThread copyOut = null;
-			if (input != null) {
-				copyOut = new StreamCopyThread(new ByteArrayInputStream(input.getBytes()), process.getOutputStream());
-				copyOut.start();
-			}
+		RunningApplication app = runningApplicationByName.get(appName);
+		if (app == null) {
+			throw new RelishException("Application %s is not running in the background", appName);
+		}
+		return app;
+	}
 
-			int exitCode = process.waitFor();
-			if (copyOut != null) {
-				copyOut.join();
-			}
-			copyIn.join();
-			String output = new String(baos.toByteArray());
+	private void putProcessResult(String appName, ProcessResult result) {
+
+		ProcessResult previous = processResultByName.put(appName, result);
+		if (previous != null) {
+			previous.deleteFile();
+		}
+	}
 
-			processResultByName.put(appName, new ProcessResult(exitCode, output));
+	private void exec(String appName, String commandLine, InputStream input) {
 
+		try {
+			RunningApplication app = start(commandLine, input, null);
+			putProcessResult(appName, app.finish(app.process.waitFor()));
 		} catch (Exception e) {
 			throw new RelishException(e, "Failed to execute application: %s", commandLine);
+		} finally {
+			closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Starts the application and the threads that copy its input and output
+	 *
+	 * @param input
+	 *            The application's input or null if it has none
+	 * @param lineMatcher
+	 *            Watches the output as it arrives or null if it is not needed
+	 */
+	private RunningApplication start(String commandLine, InputStream input, OutputLineMatcher lineMatcher) throws IOException {
+
+		String[] command = buildProcessCommand(commandLine);
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+
+		InputStream output = lineMatcher == null ? process.getInputStream() : lineMatcher.watch(process.getInputStream());
+		OutputCaptureThread captureOutput = new OutputCaptureThread(output, outputCapture);
+		captureOutput.start();
+		StreamCopyThread copyInput = null;
+		if (input != null) {
+			copyInput = new StreamCopyThread(input, process.getOutputStream());
+			copyInput.start();
 		}
+
+		return new RunningApplication(process, captureOutput, copyInput, lineMatcher, charset);
 	}
 
 	private String[] buildProcessCommand(String commandLine) {
@@ -163,22 +427,164 @@ public final class ExecStepDefs {
 	private static class ProcessResult {
 
 		private final int exitCode;
-		private final String output;
+		// null unless the output was captured in full
+		private final byte[] output;
+		// null if the output was captured in full
+		private final BodySummary summary;
+		private final Charset charset;
 
-		public ProcessResult(int exitCode, String output) {
+		public ProcessResult(int exitCode, byte[] output, BodySummary summary, Charset charset) {
 			this.exitCode = exitCode;
 			this.output = output;
+			this.summary = summary;
+			this.charset = charset;
+		}
+
+		BodySummary getSummary() {
+			return summary == null ? BodySummary.of(output) : summary;
+		}
+
+		/**
+		 * @return The whole output
+		 */
+		InputStream openOutput(String appName) {
+
+			if (output != null) {
+				return new ByteArrayInputStream(output);
+			}
+			if (summary.getFile() != null) {
+				try {
+					return new FileInputStream(summary.getFile());
+				} catch (FileNotFoundException e) {
+					throw new RelishException(e, "The output file of application %s no longer exists", appName);
+				}
+			}
+			if (summary.getHead().length == summary.getSize()) {
+				return new ByteArrayInputStream(summary.getHead());
+			}
+			throw new RelishException("Only the start and end of the output of application %s were kept", appName);
+		}
+
+		void deleteFile() {
+
+			if (summary != null && summary.getFile() != null) {
+				summary.getFile().delete();
+			}
 		}
 	}
 
+	/**
+	 * An application that has been started and the threads copying its input and output
+	 */
+	private static class RunningApplication {
+
+		private final Process process;
+		private final OutputCaptureThread captureOutput;
+		private final StreamCopyThread copyInput;
+		private final OutputLineMatcher lineMatcher;
+		private final Charset charset;
+
+		public RunningApplication(Process process, OutputCaptureThread captureOutput, StreamCopyThread copyInput, OutputLineMatcher lineMatcher,
+				Charset charset) {
+			this.process = process;
+			this.captureOutput = captureOutput;
+			this.copyInput = copyInput;
+			this.lineMatcher = lineMatcher;
+			this.charset = charset;
+		}
+
+		/**
+		 * Waits for the threads copying input and output to finish. The process must have exited.
+		 */
+		ProcessResult finish(int exitCode) throws Exception {
+
+			if (copyInput != null) {
+				copyInput.join();
+			}
+			captureOutput.join();
+			if (captureOutput.failure != null) {
+				throw captureOutput.failure;
+			}
+			return new ProcessResult(exitCode, captureOutput.output, captureOutput.summary, charset);
+		}
+
+		/**
+		 * @return The exit code or null if the process did not exit within the timeout
+		 */
+		Integer awaitExit(long timeoutMillis) throws InterruptedException {
+
+			// Process.waitFor with a timeout is not available in Java 6
+			long deadline = System.currentTimeMillis() + Math.min(timeoutMillis, Long.MAX_VALUE / 2);
+			for (;;) {
+				try {
+					return process.exitValue();
+				} catch (IllegalThreadStateException e) {
+					// still running
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return null;
+				}
+				Thread.sleep(Math.min(remaining, 10));
+			}
+		}
+
+		void signal(String signal) {
+
+			Long pid = getPid();
+			if (pid == null) {
+				if (!"TERM".equals(signal) && !"KILL".equals(signal)) {
+					throw new RelishException("Only TERM and KILL signals can be sent because the process ID is not available");
+				}
+				process.destroy();
+				return;
+			}
+
+			try {
+				Process kill = new ProcessBuilder("kill", "-" + signal, pid.toString()).redirectErrorStream(true).start();
+				String output = new String(readFromInputStream(kill.getInputStream()), charset);
+				if (kill.waitFor() != 0) {
+					throw new RelishException("Failed to send signal %s to process %d: %s", signal, pid, output.trim());
+				}
+			} catch (IOException e) {
+				throw new RelishException(e, "Failed to send signal %s to process %d", signal, pid);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RelishException(e, "Interrupted sending signal %s to process %d", signal, pid);
+			}
+		}
+
+		/**
+		 * @return The process ID or null if it is not available. Process.pid() was added in Java 9. Before that it is a private field on UNIX.
+		 */
+		private Long getPid() {
+
+			try {
+				return ((Number) Process.class.getMethod("pid").invoke(process)).longValue();
+			} catch (Exception e) {
+				// not Java 9 or later
+			}
+			try {
+				Field field = process.getClass().getDeclaredField("pid");
+				field.setAccessible(true);
+				return ((Number) field.get(process)).longValue();
+			} catch (Exception e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Copies a stream to another in blocks and closes both. Failures are ignored because the process may exit without reading all of its input.
+	 */
 	private static class StreamCopyThread extends Thread {
 
 		private final InputStream in;
 		private final OutputStream out;
 
 		public StreamCopyThread(InputStream in, OutputStream out) {
-			this.in = new BufferedInputStream(in);
-			this.out = new BufferedOutputStream(out);
+			this.in = in;
+			this.out = out;
 		}
 
 		/**
@@ -187,8 +593,9 @@ public final class ExecStepDefs {
 		@Override
 		public void run() {
 			try {
-				for (int i = in.read(); i >= 0; i = in.read()) {
-					out.write(i);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				for (int len = in.read(buffer); len >= 0; len = in.read(buffer)) {
+					out.write(buffer, 0, len);
 				}
 			} catch (Exception ignore) {
 			} finally {
@@ -197,4 +604,48 @@ public final class ExecStepDefs {
 			}
 		}
 	}
+
+	/**
+	 * Reads a process's output to the end in blocks, either into memory or through a {@link BodyCapture}
+	 */
+	private static class OutputCaptureThread extends Thread {
+
+		private final InputStream in;
+		private final BodyCapture capture;
+		private volatile byte[] output;
+		private volatile BodySummary summary;
+		private volatile IOException failure;
+
+		/**
+		 * @param capture
+		 *            How to capture the output or null to read it all into memory
+		 */
+		public OutputCaptureThread(InputStream in, BodyCapture capture) {
+			this.in = in;
+			this.capture = capture;
+		}
+
+		/**
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				if (capture == null) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+					byte[] buffer = new byte[BUFFER_SIZE];
+					for (int len = in.read(buffer); len >= 0; len = in.read(buffer)) {
+						out.write(buffer, 0, len);
+					}
+					output = out.toByteArray();
+				} else {
+					summary = capture.capture(in);
+				}
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				RelishUtil.closeQuietly(in);
+			}
+		}
+	}
 }
@@ -0,0 +1,175 @@
+package net.sf.relish.exec;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the output of a running application into lines as it arrives and lets other threads wait for a line matching a regular expression. Each waiting
+ * thread checks each line once, as it arrives, so waiting does not rescan the output. At least the most recent {@value #MAX_LINES_KEPT} lines are kept so a
+ * thread that starts waiting after a line arrived still sees it. Lines longer than {@value #MAX_LINE_LENGTH} bytes are split so output without newlines does
+ * not use unbounded memory. This class is thread safe.
+ */
+final class OutputLineMatcher {
+
+	/**
+	 * The minimum number of recent lines kept for threads that start waiting after the lines arrived
+	 */
+	static final int MAX_LINES_KEPT = 10000;
+	/**
+	 * The maximum length of a line in bytes. Longer lines are split into lines of this length.
+	 */
+	static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	private final Charset charset;
+	private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+	private final List<String> lines = new ArrayList<String>();
+	// the number of lines dropped from the start of lines
+	private long firstLineNumber;
+	private boolean closed;
+
+	/**
+	 * @param charset
+	 *            The charset used to decode the output
+	 */
+	OutputLineMatcher(Charset charset) {
+		this.charset = validateNotNull("charset", charset);
+	}
+
+	/**
+	 * @return A stream that reads the specified stream and passes everything read to this matcher. This matcher is closed when the stream reaches its end or
+	 *         is closed.
+	 */
+	InputStream watch(InputStream in) {
+
+		return new FilterInputStream(in) {
+
+			@Override
+			public int read() throws IOException {
+
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+
+				int count = super.read(b, off, len);
+				if (count < 0) {
+					OutputLineMatcher.this.close();
+				} else {
+					write(b, off, count);
+				}
+				return count;
+			}
+
+			@Override
+			public void close() throws IOException {
+
+				OutputLineMatcher.this.close();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * Adds output. Complete lines, and lines split because they reached {@link #MAX_LINE_LENGTH}, are passed to waiting threads.
+	 */
+	synchronized void write(byte[] b, int off, int len) {
+
+		int lineStart = off;
+		for (int i = off; i < off + len; i++) {
+			if (b[i] == '\n') {
+				partialLine.write(b, lineStart, i - lineStart);
+				endLine();
+				lineStart = i + 1;
+			} else if (partialLine.size() + i + 1 - lineStart >= MAX_LINE_LENGTH) {
+				partialLine.write(b, lineStart, i + 1 - lineStart);
+				endLine();
+				lineStart = i + 1;
+			}
+		}
+		partialLine.write(b, lineStart, off + len - lineStart);
+	}
+
+	/**
+	 * Ends the output. A last line without a newline is passed to waiting threads and waiting threads whose line has not arrived give up.
+	 */
+	synchronized void close() {
+
+		if (closed) {
+			return;
+		}
+		if (partialLine.size() > 0) {
+			endLine();
+		}
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until a line of output contains a match for a regular expression
+	 *
+	 * @param regex
+	 *            The regular expression. It only has to match part of a line.
+	 * @param timeout
+	 *            The maximum time to wait
+	 * @param timeUnit
+	 *            The unit of timeout
+	 * @return True if a matching line arrived, false if the output ended or the timeout expired first
+	 */
+	synchronized boolean awaitLine(Pattern regex, long timeout, TimeUnit timeUnit) throws InterruptedException {
+
+		// capped so a very long timeout does not overflow
+		long deadlineNanos = System.nanoTime() + Math.min(timeUnit.toNanos(timeout), Long.MAX_VALUE / 2);
+		long lineNumber = firstLineNumber;
+		for (;;) {
+			// lines dropped while this thread waited are skipped
+			lineNumber = Math.max(lineNumber, firstLineNumber);
+			for (; lineNumber < firstLineNumber + lines.size(); lineNumber++) {
+				if (regex.matcher(lines.get((int) (lineNumber - firstLineNumber))).find()) {
+					return true;
+				}
+			}
+			if (closed) {
+				return false;
+			}
+
+			long remainingNanos = deadlineNanos - System.nanoTime();
+			if (remainingNanos <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+		}
+	}
+
+	/**
+	 * @return The number of complete lines received, counting each piece of a split line
+	 */
+	synchronized long getLineCount() {
+		return firstLineNumber + lines.size();
+	}
+
+	private void endLine() {
+
+		byte[] bytes = partialLine.toByteArray();
+		partialLine.reset();
+		int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		lines.add(new String(bytes, 0, length, charset));
+
+		if (lines.size() >= MAX_LINES_KEPT * 2) {
+			// dropped in bulk so each line is only moved once
+			lines.subList(0, MAX_LINES_KEPT).clear();
+			firstLineNumber += MAX_LINES_KEPT;
+		}
+		notifyAll();
+	}
+}
@@ -17,8 +17,10 @@ import java.util.concurrent.TimeUnit;
 import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
 import net.sf.relish.ExpandingArrayList;
+import net.sf.relish.PayloadTemplate;
 import net.sf.relish.RelishException;
 import net.sf.relish.RelishUtil;
+import net.sf.relish.mqttclient.PublishTimeline;
 import net.sf.relish.transformer.CountQuantifierTransformer;
 import net.sf.relish.transformer.IsNullTransformer;
 import net.sf.relish.transformer.NullSafeIntegerTransformer;
@@ -65,6 +67,7 @@ public final class MqttBrokerStepDefs {
 		if (broker != null) {
 			broker.shutdown(5000);
 		}
+		PublishTimeline.clear();
 	}
 
 	/**
@@ -128,7 +131,9 @@ public final class MqttBrokerStepDefs {
 		QoS theQos = QoS.lookup(qos);
 		byte[] payload = format.textToBytes(body);
 		PublishMessage message = new PublishMessage(topicName, theQos, payload, retained);
-		getRequiredClient().publish(message);
+		MqttClient theClient = getRequiredClient();
+		PublishTimeline.recordPublish(topicName, payload);
+		theClient.publish(message);
 	}
 
 	/**
@@ -153,7 +158,38 @@ public final class MqttBrokerStepDefs {
 		}
 		byte[] payload = RelishUtil.getFileContents(file);
 		PublishMessage message = new PublishMessage(topicName, theQos, payload, retained);
-		getRequiredClient().publish(message);
+		MqttClient theClient = getRequiredClient();
+		PublishTimeline.recordPublish(topicName, payload);
+		theClient.publish(message);
+	}
+
+	/**
+	 * Makes the broker publish a number of messages with payloads rendered from a {@link PayloadTemplate template}. The template is parsed once and each
+	 * message gets its own rendering. The sequence number used for <code>${seq}</code> is 1 for the first message, 2 for the second, etc.
+	 *
+	 * @param count
+	 *            The number of messages to publish
+	 * @param retained
+	 *            If included the retained flag will be set in the message headers
+	 * @param qos
+	 *            The QoS to publish the messages at (0 or 1)
+	 * @param topicName
+	 *            The topic the messages are published to
+	 * @param format
+	 *            The format of the message bodies
+	 * @param template
+	 *            The payload template
+	 */
+	@When("^MQTT broker publishes (\\d+)( retained)? messages? at QoS ([01]) to \"(\\S.*)\" using this (XML|JSON|text) template:$")
+	public void mqttBrokerPublishesMessagesFromTemplate(int count, @Transform(RetainedTransformer.class) boolean retained, int qos, String topicName,
+			DataFormat format, String template) {
+
+		MqttClient theClient = getRequiredClient();
+		PayloadTemplate payloadTemplate = PayloadTemplate.compile(format, template);
+		QoS theQos = QoS.lookup(qos);
+		for (int i = 1; i <= count; i++) {
+			theClient.publish(new PublishMessage(topicName, theQos, payloadTemplate.renderToBytes(i), retained));
+		}
 	}
 
 	/**
@@ -0,0 +1,93 @@
+package net.sf.relish.mqttclient;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics for the delivery of one message to a number of subscribers. Delivery times are measured from the time the message was published to the time
+ * each subscriber received it, all using {@link System#nanoTime()}. The spread is the time between the first and the last subscriber receiving the message.
+ */
+final class DeliverySpread {
+
+	private final long[] sortedDeliveryNanos;
+
+	/**
+	 * @param publishNanos
+	 *            The time the message was published
+	 * @param receiveNanos
+	 *            The time each subscriber received the message. May not be empty.
+	 */
+	DeliverySpread(long publishNanos, long[] receiveNanos) {
+
+		sortedDeliveryNanos = receiveNanos.clone();
+		Arrays.sort(sortedDeliveryNanos);
+
+		for (int i = 0; i < sortedDeliveryNanos.length; i++) {
+			sortedDeliveryNanos[i] -= publishNanos;
+		}
+	}
+
+	/**
+	 * @return The number of subscribers
+	 */
+	int getSubscriberCount() {
+		return sortedDeliveryNanos.length;
+	}
+
+	/**
+	 * @return The fastest delivery time in nanoseconds
+	 */
+	long getMinNanos() {
+		return sortedDeliveryNanos[0];
+	}
+
+	/**
+	 * @return The slowest delivery time in nanoseconds
+	 */
+	long getMaxNanos() {
+		return sortedDeliveryNanos[sortedDeliveryNanos.length - 1];
+	}
+
+	/**
+	 * @return The median delivery time in nanoseconds
+	 */
+	long getMedianNanos() {
+		return getPercentileNanos(50);
+	}
+
+	/**
+	 * @return The 99th percentile delivery time in nanoseconds
+	 */
+	long getP99Nanos() {
+		return getPercentileNanos(99);
+	}
+
+	/**
+	 * @return The time in nanoseconds between the first and last subscriber receiving the message
+	 */
+	long getSpreadNanos() {
+		return getMaxNanos() - getMinNanos();
+	}
+
+	/**
+	 * @return The delivery time, in nanoseconds, that the specified percentage of subscribers received the message within. Uses the nearest rank method.
+	 */
+	long getPercentileNanos(double percentile) {
+
+		int rank = (int) Math.ceil(percentile / 100.0 * sortedDeliveryNanos.length);
+		return sortedDeliveryNanos[Math.max(0, rank - 1)];
+	}
+
+	/**
+	 * @return A human readable summary of the delivery times in milliseconds
+	 */
+	String toReport(String description) {
+
+		return String.format("%s: subscribers=%d, delivery times (ms, from publish): min=%.3f, median=%.3f, max=%.3f, p99=%.3f, spread=%.3f", description,
+				getSubscriberCount(), millis(getMinNanos()), millis(getMedianNanos()), millis(getMaxNanos()), millis(getP99Nanos()), millis(getSpreadNanos()));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,380 @@
+package net.sf.relish.mqttclient;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact store for messages received by an MQTT client. Instead of keeping each received message object with its frame buffer and topic string this stores:
+ * <ul>
+ * <li>Each distinct topic once, mapped to an int ID</li>
+ * <li>Each distinct payload once, deduplicated by content, in off heap memory</li>
+ * <li>Per message only primitive columns: topic ID, payload ID, QoS/retain flags, and receive timestamp</li>
+ * </ul>
+ * Messages are indexed per topic in the order they are received. All methods are thread safe.
+ */
+final class MessageCaptureStore {
+
+	static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private static final int RETAIN_FLAG = 0x80;
+	private static final int QOS_MASK = 0x03;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int chunkSize;
+
+	// topics
+	private final Map<String, Integer> topicIdByName = new HashMap<String, Integer>();
+	private int[][] messageIdsByTopic = new int[INITIAL_CAPACITY][];
+	private int[] messageCountByTopic = new int[INITIAL_CAPACITY];
+
+	// messages
+	private int messageCount;
+	private int[] messageTopicIds = new int[INITIAL_CAPACITY];
+	private int[] messagePayloadIds = new int[INITIAL_CAPACITY];
+	private byte[] messageFlags = new byte[INITIAL_CAPACITY];
+	private long[] messageTimestamps = new long[INITIAL_CAPACITY];
+
+	// payloads
+	private int payloadCount;
+	private long[] payloadAddresses = new long[INITIAL_CAPACITY];
+	private int[] payloadLengths = new int[INITIAL_CAPACITY];
+	private int[] payloadHashes = new int[INITIAL_CAPACITY];
+	private int[] payloadNextInBucket = new int[INITIAL_CAPACITY];
+	private int[] payloadBuckets = newBuckets(INITIAL_CAPACITY * 2);
+
+	// off heap arena
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private ByteBuffer currentChunk;
+	private int currentChunkIndex;
+
+	MessageCaptureStore() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            The size of each off heap chunk payloads are stored in. Payloads larger than this get a chunk to themselves.
+	 */
+	MessageCaptureStore(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Adds a received message to the store
+	 *
+	 * @param topic
+	 *            The topic the message was received from
+	 * @param payload
+	 *            The message payload. This is copied so the caller may reuse it.
+	 * @param qos
+	 *            The QoS the message was received at
+	 * @param retain
+	 *            The message's retain flag
+	 * @param timestampNanos
+	 *            When the message was received, from {@link System#nanoTime()}
+	 * @return The index of the message within its topic. The first message from a topic is index 1, the second is index 2, etc.
+	 */
+	synchronized int add(String topic, byte[] payload, int qos, boolean retain, long timestampNanos) {
+
+		int topicId = getOrCreateTopicId(topic);
+		int payloadId = getOrCreatePayloadId(payload);
+
+		if (messageCount == messageTopicIds.length) {
+			int newLength = messageCount * 2;
+			messageTopicIds = Arrays.copyOf(messageTopicIds, newLength);
+			messagePayloadIds = Arrays.copyOf(messagePayloadIds, newLength);
+			messageFlags = Arrays.copyOf(messageFlags, newLength);
+			messageTimestamps = Arrays.copyOf(messageTimestamps, newLength);
+		}
+
+		int messageId = messageCount++;
+		messageTopicIds[messageId] = topicId;
+		messagePayloadIds[messageId] = payloadId;
+		messageFlags[messageId] = (byte) ((qos & QOS_MASK) | (retain ? RETAIN_FLAG : 0));
+		messageTimestamps[messageId] = timestampNanos;
+
+		int[] ids = messageIdsByTopic[topicId];
+		int count = messageCountByTopic[topicId];
+		if (count == ids.length) {
+			ids = messageIdsByTopic[topicId] = Arrays.copyOf(ids, count * 2);
+		}
+		ids[count] = messageId;
+		messageCountByTopic[topicId] = count + 1;
+
+		return count + 1;
+	}
+
+	/**
+	 * @return The number of messages received from the topic
+	 */
+	synchronized int getMessageCount(String topic) {
+
+		Integer topicId = topicIdByName.get(topic);
+		return topicId == null ? 0 : messageCountByTopic[topicId];
+	}
+
+	/**
+	 * @return The number of distinct payloads stored
+	 */
+	synchronized int getPayloadCount() {
+		return payloadCount;
+	}
+
+	/**
+	 * @return The total number of messages stored across all topics
+	 */
+	synchronized int getTotalMessageCount() {
+		return messageCount;
+	}
+
+	/**
+	 * @param topic
+	 *            The topic the message was received from
+	 * @param index
+	 *            The index of the message within the topic. The first message is index 1, the second is index 2, etc.
+	 * @return The message or null if it has not been received
+	 */
+	synchronized CapturedMessage getMessage(String topic, int index) {
+
+		Integer topicId = topicIdByName.get(topic);
+		if (topicId == null || index < 1 || index > messageCountByTopic[topicId]) {
+			return null;
+		}
+
+		int messageId = messageIdsByTopic[topicId][index - 1];
+		int flags = messageFlags[messageId];
+		return new CapturedMessage(topic, readPayload(messagePayloadIds[messageId]), flags & QOS_MASK, (flags & RETAIN_FLAG) != 0,
+				messageTimestamps[messageId]);
+	}
+
+	/**
+	 * Finds the first message from a topic with a payload that was received at or after a time. Messages are searched from the most recently received so
+	 * only those received since the time are looked at.
+	 *
+	 * @param topic
+	 *            The topic the message was received from
+	 * @param payload
+	 *            The payload of the message
+	 * @param sinceNanos
+	 *            The earliest receive time to consider, from {@link System#nanoTime()}
+	 * @return The time the message was received or null if it has not been
+	 */
+	synchronized Long getFirstReceiveTime(String topic, byte[] payload, long sinceNanos) {
+
+		Integer topicId = topicIdByName.get(topic);
+		int payloadId = findPayloadId(payload);
+		if (topicId == null || payloadId < 0) {
+			return null;
+		}
+
+		Long receiveTime = null;
+		int[] ids = messageIdsByTopic[topicId];
+		for (int i = messageCountByTopic[topicId] - 1; i >= 0 && messageTimestamps[ids[i]] - sinceNanos >= 0; i--) {
+			if (messagePayloadIds[ids[i]] == payloadId) {
+				receiveTime = messageTimestamps[ids[i]];
+			}
+		}
+
+		return receiveTime;
+	}
+
+	/**
+	 * Removes all messages and releases the off heap memory
+	 */
+	synchronized void clear() {
+
+		topicIdByName.clear();
+		messageIdsByTopic = new int[INITIAL_CAPACITY][];
+		messageCountByTopic = new int[INITIAL_CAPACITY];
+
+		messageCount = 0;
+		messageTopicIds = new int[INITIAL_CAPACITY];
+		messagePayloadIds = new int[INITIAL_CAPACITY];
+		messageFlags = new byte[INITIAL_CAPACITY];
+		messageTimestamps = new long[INITIAL_CAPACITY];
+
+		payloadCount = 0;
+		payloadAddresses = new long[INITIAL_CAPACITY];
+		payloadLengths = new int[INITIAL_CAPACITY];
+		payloadHashes = new int[INITIAL_CAPACITY];
+		payloadNextInBucket = new int[INITIAL_CAPACITY];
+		payloadBuckets = newBuckets(INITIAL_CAPACITY * 2);
+
+		chunks.clear();
+		currentChunk = null;
+	}
+
+	private int getOrCreateTopicId(String topic) {
+
+		Integer topicId = topicIdByName.get(topic);
+		if (topicId != null) {
+			return topicId;
+		}
+
+		int id = topicIdByName.size();
+		topicIdByName.put(topic, id);
+
+		if (id == messageIdsByTopic.length) {
+			messageIdsByTopic = Arrays.copyOf(messageIdsByTopic, id * 2);
+			messageCountByTopic = Arrays.copyOf(messageCountByTopic, id * 2);
+		}
+		messageIdsByTopic[id] = new int[16];
+
+		return id;
+	}
+
+	private int getOrCreatePayloadId(byte[] payload) {
+
+		int existing = findPayloadId(payload);
+		if (existing >= 0) {
+			return existing;
+		}
+
+		int hash = Arrays.hashCode(payload);
+		int bucket = hash & (payloadBuckets.length - 1);
+		if (payloadCount == payloadAddresses.length) {
+			int newLength = payloadCount * 2;
+			payloadAddresses = Arrays.copyOf(payloadAddresses, newLength);
+			payloadLengths = Arrays.copyOf(payloadLengths, newLength);
+			payloadHashes = Arrays.copyOf(payloadHashes, newLength);
+			payloadNextInBucket = Arrays.copyOf(payloadNextInBucket, newLength);
+		}
+
+		int id = payloadCount++;
+		payloadAddresses[id] = writeToArena(payload);
+		payloadLengths[id] = payload.length;
+		payloadHashes[id] = hash;
+		payloadNextInBucket[id] = payloadBuckets[bucket];
+		payloadBuckets[bucket] = id;
+
+		if (payloadCount > payloadBuckets.length * 3 / 4) {
+			rehashPayloads();
+		}
+
+		return id;
+	}
+
+	private int findPayloadId(byte[] payload) {
+
+		int hash = Arrays.hashCode(payload);
+		for (int id = payloadBuckets[hash & (payloadBuckets.length - 1)]; id >= 0; id = payloadNextInBucket[id]) {
+			if (payloadHashes[id] == hash && payloadEquals(id, payload)) {
+				return id;
+			}
+		}
+
+		return -1;
+	}
+
+	private void rehashPayloads() {
+
+		payloadBuckets = newBuckets(payloadBuckets.length * 2);
+		for (int id = 0; id < payloadCount; id++) {
+			int bucket = payloadHashes[id] & (payloadBuckets.length - 1);
+			payloadNextInBucket[id] = payloadBuckets[bucket];
+			payloadBuckets[bucket] = id;
+		}
+	}
+
+	private boolean payloadEquals(int payloadId, byte[] payload) {
+
+		if (payloadLengths[payloadId] != payload.length) {
+			return false;
+		}
+
+		long address = payloadAddresses[payloadId];
+		ByteBuffer chunk = chunks.get((int) (address >>> 32));
+		int offset = (int) address;
+		for (int i = 0; i < payload.length; i++) {
+			if (chunk.get(offset + i) != payload[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private byte[] readPayload(int payloadId) {
+
+		long address = payloadAddresses[payloadId];
+		ByteBuffer chunk = chunks.get((int) (address >>> 32)).duplicate();
+		chunk.position((int) address);
+		byte[] payload = new byte[payloadLengths[payloadId]];
+		chunk.get(payload);
+		return payload;
+	}
+
+	private long writeToArena(byte[] payload) {
+
+		if (payload.length > chunkSize) {
+			ByteBuffer chunk = ByteBuffer.allocateDirect(payload.length);
+			chunk.put(payload);
+			chunks.add(chunk);
+			return (long) (chunks.size() - 1) << 32;
+		}
+
+		if (currentChunk == null || currentChunk.remaining() < payload.length) {
+			currentChunk = ByteBuffer.allocateDirect(chunkSize);
+			currentChunkIndex = chunks.size();
+			chunks.add(currentChunk);
+		}
+
+		long address = ((long) currentChunkIndex << 32) | currentChunk.position();
+		currentChunk.put(payload);
+		return address;
+	}
+
+	private static int[] newBuckets(int size) {
+
+		int[] buckets = new int[size];
+		Arrays.fill(buckets, -1);
+		return buckets;
+	}
+
+	/**
+	 * A message read back from the store. The payload is a copy.
+	 */
+	static final class CapturedMessage {
+
+		private final String topic;
+		private final byte[] payload;
+		private final int qos;
+		private final boolean retain;
+		private final long timestampNanos;
+
+		CapturedMessage(String topic, byte[] payload, int qos, boolean retain, long timestampNanos) {
+			this.topic = topic;
+			this.payload = payload;
+			this.qos = qos;
+			this.retain = retain;
+			this.timestampNanos = timestampNanos;
+		}
+
+		String getTopic() {
+			return topic;
+		}
+
+		byte[] getPayload() {
+			return payload;
+		}
+
+		int getQos() {
+			return qos;
+		}
+
+		boolean isRetain() {
+			return retain;
+		}
+
+		/**
+		 * @return When the message was received, from {@link System#nanoTime()}
+		 */
+		long getTimestampNanos() {
+			return timestampNanos;
+		}
+	}
+}
@@ -5,20 +5,20 @@ import static net.sf.relish.matcher.RelishMatchers.*;
 import static org.hamcrest.CoreMatchers.*;
 
 import java.io.File;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
-import net.sf.relish.ExpandingArrayList;
+import net.sf.relish.PayloadTemplate;
 import net.sf.relish.RelishException;
 import net.sf.relish.RelishUtil;
 import net.sf.relish.mqttbroker.MqttBrokerStepDefs.RetainedTransformer;
+import net.sf.relish.mqttclient.MessageCaptureStore.CapturedMessage;
 import net.sf.relish.transformer.CountQuantifierTransformer;
 import net.sf.relish.transformer.IsNotNullTransformer;
 import net.sf.relish.transformer.IsNullTransformer;
@@ -43,6 +43,8 @@ import cucumber.api.java.en.When;
 public final class MqttClientStepDefs {
 
 	private final Map<String, ClientInfo> clientInfoById = new HashMap<String, ClientInfo>();
+	private DeliverySpread deliverySpread;
+	private String deliverySpreadDescription;
 
 	/**
 	 * Cleans up resources created by the step defs
@@ -54,9 +56,12 @@ public final class MqttClientStepDefs {
 			if (info.client != null) {
 				info.client.close();
 			}
+			info.receivedMessages.clear();
 		}
 
 		clientInfoById.clear();
+		PublishTimeline.clear();
+		deliverySpread = null;
 	}
 
 	/**
@@ -184,6 +189,41 @@ public final class MqttClientStepDefs {
 		info.client.unsubscribe(new String[] { topic });
 	}
 
+	/**
+	 * Connects a set of MQTT clients to a broker. Each client uses a clean session.
+	 *
+	 * @param clientIds
+	 *            The IDs of the clients to connect. This is a comma separated list where each entry may contain a range in the form <code>{N..M}</code>. For
+	 *            example <code>dev{1..100}</code> is the 100 clients dev1 thru dev100.
+	 * @param brokerUri
+	 *            The URI of the broker to connect to
+	 */
+	@Given("^MQTT clients \"(\\S.*)\" are connected to \"(tcp://\\S+:[0-9]{1,5})\"$")
+	public void mqttClientsAreConnected(String clientIds, String brokerUri) {
+
+		for (String clientId : expandClientIds(clientIds)) {
+			mqttClientIsConnected(clientId, true, brokerUri, null, null);
+		}
+	}
+
+	/**
+	 * Subscribes a set of clients to the topic
+	 *
+	 * @param clientIds
+	 *            The IDs of the clients to subscribe. See {@link #mqttClientsAreConnected(String, String)} for the format.
+	 * @param topic
+	 *            The topic for the clients to subscribe to
+	 * @param qos
+	 *            The QoS the clients request the subscription to be at
+	 */
+	@Given("^MQTT clients \"(\\S.*)\" are subscribed to topic \"(.*)\" at QoS ([01])$")
+	public void mqttClientsAreSubscribedToTopic(String clientIds, String topic, int qos) {
+
+		for (String clientId : expandClientIds(clientIds)) {
+			mqttClientIsSubscribedToTopic(clientId, topic, qos);
+		}
+	}
+
 	/**
 	 * Makes the client publish a message with a payload to the client
 	 *
@@ -206,7 +246,9 @@ public final class MqttClientStepDefs {
 
 		ClientInfo info = getOrCreateClientInfo(clientId);
 		info.assertConnected();
-		info.client.publish(new PublishMessage(topic, QoS.lookup(qos), format.textToBytes(payload), retained));
+		byte[] bytes = format.textToBytes(payload);
+		PublishTimeline.recordPublish(topic, bytes);
+		info.client.publish(new PublishMessage(topic, QoS.lookup(qos), bytes, retained));
 	}
 
 	/**
@@ -234,9 +276,42 @@ public final class MqttClientStepDefs {
 			throw new RelishException("File %s does not exist", filename);
 		}
 		byte[] payload = RelishUtil.getFileContents(file);
+		PublishTimeline.recordPublish(topic, payload);
 		info.client.publish(new PublishMessage(topic, QoS.lookup(qos), payload, retained));
 	}
 
+	/**
+	 * Makes the client publish a number of messages with payloads rendered from a {@link PayloadTemplate template}. The template is parsed once and each
+	 * message gets its own rendering. The sequence number used for <code>${seq}</code> is 1 for the first message, 2 for the second, etc.
+	 *
+	 * @param clientId
+	 *            The ID of the client to publish the messages
+	 * @param count
+	 *            The number of messages to publish
+	 * @param retained
+	 *            If included the retained flag will be set in the message headers
+	 * @param qos
+	 *            The QoS to publish the messages at (0 or 1)
+	 * @param topic
+	 *            The topic to publish the messages to
+	 * @param format
+	 *            The format of the message bodies
+	 * @param template
+	 *            The payload template
+	 */
+	@When("^MQTT client \"(\\S.*)\" publishes (\\d+)( retained)? messages? at QoS ([01]) to \"(\\S.*)\" using this (XML|JSON|text) template:$")
+	public void mqttClientPublishesMessagesFromTemplate(String clientId, int count, @Transform(RetainedTransformer.class) boolean retained, int qos,
+			String topic, DataFormat format, String template) {
+
+		ClientInfo info = getOrCreateClientInfo(clientId);
+		info.assertConnected();
+		PayloadTemplate payloadTemplate = PayloadTemplate.compile(format, template);
+		QoS theQos = QoS.lookup(qos);
+		for (int i = 1; i <= count; i++) {
+			info.client.publish(new PublishMessage(topic, theQos, payloadTemplate.renderToBytes(i), retained));
+		}
+	}
+
 	/**
 	 * Validates whether the {@link PublishMessage#isRetain() retained flag} is set on messages received by the client.
 	 *
@@ -260,7 +335,7 @@ public final class MqttClientStepDefs {
 		ClientInfo info = getOrCreateClientInfo(clientId);
 		int end = getEndIndex(startIndex, endIndex);
 		for (int i = startIndex; i <= end; i++) {
-			PublishMessage msg = info.getRequiredMessage(topic, i);
+			CapturedMessage msg = info.getRequiredMessage(topic, i);
 			assertThat(msg.isRetain(), equalTo(retained), "MQTT client %s message %d from %s retained does not match", clientId, i, topic);
 		}
 	}
@@ -287,8 +362,8 @@ public final class MqttClientStepDefs {
 		ClientInfo info = getOrCreateClientInfo(clientId);
 		int end = getEndIndex(startIndex, endIndex);
 		for (int i = startIndex; i <= end; i++) {
-			PublishMessage msg = info.getRequiredMessage(topic, i);
-			assertThat(msg.getQoS(), equalTo(QoS.lookup(qos)), "MQTT client %s message %d from %s QoS does not match", clientId, i, topic);
+			CapturedMessage msg = info.getRequiredMessage(topic, i);
+			assertThat(msg.getQos(), equalTo(qos), "MQTT client %s message %d from %s QoS does not match", clientId, i, topic);
 		}
 	}
 
@@ -318,7 +393,7 @@ public final class MqttClientStepDefs {
 		ClientInfo info = getOrCreateClientInfo(clientId);
 		int end = getEndIndex(startIndex, endIndex);
 		for (int i = startIndex; i <= end; i++) {
-			PublishMessage msg = info.getRequiredMessage(topic, i);
+			CapturedMessage msg = info.getRequiredMessage(topic, i);
 			bodyRegex = format.normalizeRegex(bodyRegex);
 			String payload = format.bytesToText(msg.getPayload());
 			assertThat(payload, matches(bodyRegex), "MQTT client %s message %d from %s payload does not match", clientId, i, topic);
@@ -376,6 +451,117 @@ public final class MqttClientStepDefs {
 		assertThatWithin(timeout, timeoutUnit, callable, gte(count), "MQTT client %s message count from %s does not match", clientId, topic);
 	}
 
+	/**
+	 * Waits for every client in a set to receive the last message published to a topic then validates the delivery spread: the time between the first and the
+	 * last client receiving the message. The message must have been published by the mock broker or an MQTT client using a single message publish step. Each
+	 * client's copy of the message is found by its payload so messages received before it, such as retained messages, do not affect the result. Use
+	 * {@link #printMqttDeliverySpread()} to report the delivery times.
+	 *
+	 * @param clientIds
+	 *            The IDs of the clients that should receive the message. See {@link #mqttClientsAreConnected(String, String)} for the format.
+	 * @param topic
+	 *            The topic the message was published to
+	 * @param timeout
+	 *            The value of the max time to wait for all the clients to receive the message
+	 * @param timeoutUnit
+	 *            The unit of measure for the timeout value (seconds or milliseconds)
+	 * @param maxSpread
+	 *            The max time between the first and last client receiving the message
+	 * @param maxSpreadUnit
+	 *            The unit of measure for the max spread (seconds or milliseconds)
+	 */
+	@Then("^MQTT clients \"(\\S.*)\" should receive the last message published to \"(\\S.*)\" within (\\d+) (seconds|milliseconds) with a delivery spread of at most (\\d+) (seconds|milliseconds)$")
+	public void mqttClientsShouldReceiveLastMessageWithDeliverySpread(String clientIds, final String topic, int timeout, TimeUnit timeoutUnit, long maxSpread,
+			TimeUnit maxSpreadUnit) {
+
+		final PublishTimeline.Publish publish = PublishTimeline.getLastPublish(topic);
+		if (publish == null) {
+			throw new RelishException("No message has been published to %s by the MQTT broker or an MQTT client", topic);
+		}
+
+		final List<ClientInfo> infos = new ArrayList<ClientInfo>();
+		for (String clientId : expandClientIds(clientIds)) {
+			infos.add(getOrCreateClientInfo(clientId));
+		}
+
+		final long[] receiveTimes = new long[infos.size()];
+		Callable<Integer> callable = new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+				int count = 0;
+				for (int i = 0; i < receiveTimes.length; i++) {
+					Long receiveTime = infos.get(i).receivedMessages.getFirstReceiveTime(topic, publish.getPayload(), publish.getPublishNanos());
+					if (receiveTime != null) {
+						receiveTimes[i] = receiveTime;
+						count++;
+					}
+				}
+				return count;
+			}
+		};
+
+		assertThatWithin(timeout, timeoutUnit, callable, gte(infos.size()),
+				"MQTT clients %s count that received the last message published to %s does not match", clientIds, topic);
+
+		deliverySpread = new DeliverySpread(publish.getPublishNanos(), receiveTimes);
+		deliverySpreadDescription = String.format("MQTT clients %s last message from %s", clientIds, topic);
+		assertThat(deliverySpread.getSpreadNanos(), lte(maxSpreadUnit.toNanos(maxSpread)),
+				"MQTT clients %s delivery spread of the last message published to %s does not match", clientIds, topic);
+	}
+
+	/**
+	 * Prints the min, median, max, and 99th percentile delivery times and the delivery spread measured by the last delivery spread step
+	 */
+	@Then("^print MQTT delivery spread$")
+	public void printMqttDeliverySpread() {
+
+		if (deliverySpread == null) {
+			throw new RelishException("No MQTT delivery spread has been measured");
+		}
+		System.out.println(deliverySpread.toReport(deliverySpreadDescription));
+	}
+
+	/**
+	 * @return The client IDs in a comma separated list with any <code>{N..M}</code> ranges expanded
+	 */
+	static List<String> expandClientIds(String clientIds) {
+
+		List<String> ids = new ArrayList<String>();
+		for (String entry : quickSplit(clientIds, ',')) {
+			entry = entry.trim();
+			int start = entry.indexOf('{');
+			int end = entry.indexOf('}', start);
+			int dots = entry.indexOf("..", start);
+			if (start < 0 || end < 0 || dots < 0 || dots > end) {
+				if (!entry.isEmpty()) {
+					ids.add(entry);
+				}
+				continue;
+			}
+
+			String prefix = entry.substring(0, start);
+			String suffix = entry.substring(end + 1);
+			int first;
+			int last;
+			try {
+				first = Integer.parseInt(entry.substring(start + 1, dots).trim());
+				last = Integer.parseInt(entry.substring(dots + 2, end).trim());
+			} catch (NumberFormatException e) {
+				throw new RelishException(e, "Invalid range in MQTT client IDs: %s", entry);
+			}
+			for (int i = first; i <= last; i++) {
+				ids.add(prefix + i + suffix);
+			}
+		}
+
+		if (ids.isEmpty()) {
+			throw new RelishException("No MQTT client IDs in: %s", clientIds);
+		}
+
+		return ids;
+	}
+
 	private ClientInfo getOrCreateClientInfo(String clientId) {
 
 		ClientInfo info = clientInfoById.get(clientId);
@@ -402,16 +588,7 @@ public final class MqttClientStepDefs {
 		@Override
 		public void publishReceived(MqttClient client, PublishMessage message) {
 
-			List<PublishMessage> msgs = info.receivedMessagesByTopic.get(message.getTopic());
-			if (msgs == null) {
-				msgs = Collections.synchronizedList(new ExpandingArrayList<PublishMessage>());
-				List<PublishMessage> old = info.receivedMessagesByTopic.putIfAbsent(message.getTopic(), msgs);
-				if (old != null) {
-					msgs = old;
-				}
-			}
-
-			msgs.add(message);
+			info.receivedMessages.add(message.getTopic(), message.getPayload(), message.getQoS().value(), message.isRetain(), System.nanoTime());
 			message.ack();
 		}
 
@@ -423,7 +600,7 @@ public final class MqttClientStepDefs {
 
 	private static final class ClientInfo {
 
-		private final ConcurrentHashMap<String, List<PublishMessage>> receivedMessagesByTopic = new ConcurrentHashMap<String, List<PublishMessage>>();
+		private final MessageCaptureStore receivedMessages = new MessageCaptureStore();
 		private final String clientId;
 		private volatile MqttClient client;
 
@@ -450,14 +627,9 @@ public final class MqttClientStepDefs {
 			}
 		}
 
-		PublishMessage getRequiredMessage(String topic, int index) {
-
-			List<PublishMessage> msgs = receivedMessagesByTopic.get(topic);
-			if (msgs == null) {
-				throw new RelishException("MQTT client %s has not received message %d from topic %s", clientId, index, topic);
-			}
+		CapturedMessage getRequiredMessage(String topic, int index) {
 
-			PublishMessage msg = msgs.get(index - 1);
+			CapturedMessage msg = receivedMessages.getMessage(topic, index);
 			if (msg == null) {
 				throw new RelishException("MQTT client %s has not received message %d from topic %s", clientId, index, topic);
 			}
@@ -467,8 +639,7 @@ public final class MqttClientStepDefs {
 
 		int getMessageCount(String topic) {
 
-			List<PublishMessage> msgs = receivedMessagesByTopic.get(topic);
-			return msgs == null ? 0 : msgs.size();
+			return receivedMessages.getMessageCount(topic);
 		}
 	}
 }
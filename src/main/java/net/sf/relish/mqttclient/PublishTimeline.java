@@ -0,0 +1,74 @@
+package net.sf.relish.mqttclient;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records when the last single message was published to each topic using {@link System#nanoTime()}. This is the clock received messages are timestamped
+ * with so delivery times can be calculated for messages published by either the mock broker or an MQTT client. Only one publish is kept per topic, with its
+ * payload, so subscribers can find their copy of the message by content no matter how many other messages they received from the topic. Bulk publishes are
+ * not recorded. The timeline is shared by all step defs and is cleared after each scenario.
+ */
+public final class PublishTimeline {
+
+	private static final ConcurrentHashMap<String, Publish> lastPublishByTopic = new ConcurrentHashMap<String, Publish>();
+
+	private PublishTimeline() {
+	}
+
+	/**
+	 * Records that a message is being published to a topic now. This replaces any publish previously recorded for the topic.
+	 *
+	 * @param topic
+	 *            The topic the message is published to
+	 * @param payload
+	 *            The message payload. This is not copied so the caller must not change it.
+	 */
+	public static void recordPublish(String topic, byte[] payload) {
+
+		lastPublishByTopic.put(topic, new Publish(payload, System.nanoTime()));
+	}
+
+	/**
+	 * @param topic
+	 *            The topic the message was published to
+	 * @return The last message recorded as published to the topic or null if none has been
+	 */
+	public static Publish getLastPublish(String topic) {
+		return lastPublishByTopic.get(topic);
+	}
+
+	/**
+	 * Clears all recorded publishes
+	 */
+	public static void clear() {
+		lastPublishByTopic.clear();
+	}
+
+	/**
+	 * A message published to a topic
+	 */
+	public static final class Publish {
+
+		private final byte[] payload;
+		private final long publishNanos;
+
+		Publish(byte[] payload, long publishNanos) {
+			this.payload = payload;
+			this.publishNanos = publishNanos;
+		}
+
+		/**
+		 * @return The message payload
+		 */
+		public byte[] getPayload() {
+			return payload;
+		}
+
+		/**
+		 * @return When the message was published, from {@link System#nanoTime()}
+		 */
+		public long getPublishNanos() {
+			return publishNanos;
+		}
+	}
+}
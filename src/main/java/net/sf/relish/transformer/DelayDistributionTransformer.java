@@ -0,0 +1,20 @@
+package net.sf.relish.transformer;
+
+import net.sf.relish.web.DelayDistribution;
+
+import cucumber.api.Transformer;
+
+/**
+ * Cucumber {@link Transformer} that converts delay descriptions like "by 200 milliseconds" into a {@link DelayDistribution}. See
+ * {@link DelayDistribution#parse(String)} for the supported descriptions.
+ */
+public final class DelayDistributionTransformer extends Transformer<DelayDistribution> {
+
+	/**
+	 * @see cucumber.api.Transformer#transform(java.lang.String)
+	 */
+	@Override
+	public DelayDistribution transform(String value) {
+		return DelayDistribution.parse(value);
+	}
+}
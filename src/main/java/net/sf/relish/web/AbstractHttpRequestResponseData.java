@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import net.sf.relish.BodySummary;
 import net.sf.relish.NameValuePair;
 
 /**
@@ -14,6 +15,7 @@ abstract class AbstractHttpRequestResponseData {
 
 	private final Map<String, NameValuePair> headersByName = new HashMap<String, NameValuePair>();
 	private byte[] body;
+	private BodySummary bodySummary;
 
 	public AbstractHttpRequestResponseData() {
 	}
@@ -74,6 +76,21 @@ abstract class AbstractHttpRequestResponseData {
 		this.body = copy(body);
 	}
 
+	/**
+	 * @return The summary of a body that was captured by streaming instead of being kept in memory. Null if the body was not captured this way.
+	 */
+	public final synchronized BodySummary getBodySummary() {
+		return bodySummary;
+	}
+
+	/**
+	 * @param bodySummary
+	 *            The summary of a body that was captured by streaming instead of being kept in memory
+	 */
+	public final synchronized void setBodySummary(BodySummary bodySummary) {
+		this.bodySummary = bodySummary;
+	}
+
 	private byte[] copy(byte[] src) {
 
 		if (src == null) {
@@ -1,10 +1,18 @@
 package net.sf.relish.web;
 
 import static net.sf.relish.RelishUtil.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import net.sf.relish.RelishException;
 
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 
 /**
  * Abstract class for web servers/services that run a Jetty server
@@ -13,6 +21,9 @@ public abstract class AbstractWebServer {
 
 	protected Server server;
 
+	private WebServerSettings settings = WebServerSettings.fromSystemProperties();
+	private final ConcurrentMap<Integer, ConnectionStats> connectionStatsByPort = new ConcurrentHashMap<Integer, ConnectionStats>();
+
 	/**
 	 * Starts the Jetty server on the specified port with the specified handler
 	 */
@@ -25,11 +36,98 @@ public abstract class AbstractWebServer {
 		validateInRange("serverPort", serverPort, 1, 0xffff);
 		validateNotNull("handler", handler);
 
-		server = new Server(serverPort);
+		connectionStatsByPort.clear();
+		server = new Server();
+		server.setThreadPool(settings.newThreadPool());
+		server.addConnector(newConnector(serverPort));
 		server.setHandler(handler);
 		server.start();
 	}
 
+	/**
+	 * Adds a connector for another port to the running server. Requests on every port go to the same handler.
+	 */
+	protected final void addPort(int serverPort) throws Exception {
+
+		validateInRange("serverPort", serverPort, 1, 0xffff);
+		if (server == null) {
+			throw new RelishException("You may not add port %d to the web server because it is not running.", serverPort);
+		}
+		if (findConnector(serverPort) != null) {
+			throw new RelishException("You may not add port %d to the web server because it is already listening on that port.", serverPort);
+		}
+
+		Connector connector = newConnector(serverPort);
+		server.addConnector(connector);
+		connector.start();
+	}
+
+	/**
+	 * Opens or closes one of the server's ports without affecting the others. Closing a port closes its connections and refuses new ones.
+	 *
+	 * @param serverPort
+	 *            The port to open or close. The server must have been started on or had this port added.
+	 * @param open
+	 *            True to open the port, false to close it
+	 */
+	public final void setPortOpen(int serverPort, boolean open) throws Exception {
+
+		Connector connector = findConnector(serverPort);
+		if (connector == null) {
+			throw new RelishException("You may not %s port %d because the web server is not running on that port.", open ? "open" : "close", serverPort);
+		}
+
+		if (open && !connector.isStarted()) {
+			connector.start();
+		} else if (!open && connector.isStarted()) {
+			connector.stop();
+		}
+	}
+
+	/**
+	 * @return The connection statistics for the specified port since the server was last started, or null if the server has not listened on the port since
+	 *         then. The statistics are kept after the server is stopped.
+	 */
+	public final ConnectionStats getConnectionStats(int serverPort) {
+		return connectionStatsByPort.get(serverPort);
+	}
+
+	/**
+	 * @return True if the server is running and the port was started or added, whether or not the port is open
+	 */
+	protected final boolean hasPort(int serverPort) {
+		return findConnector(serverPort) != null;
+	}
+
+	/**
+	 * @return True if the server is running and accepting connections on the specified port
+	 */
+	public final boolean isPortOpen(int serverPort) {
+
+		Connector connector = findConnector(serverPort);
+		return connector != null && connector.isStarted();
+	}
+
+	/**
+	 * @return The connector and thread pool settings used when the server is started. Initially these are read from the "relish.web.*" system properties.
+	 */
+	public final WebServerSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @param settings
+	 *            The connector and thread pool settings to use the next time the server is started
+	 */
+	public final void setSettings(WebServerSettings settings) {
+
+		if (server != null) {
+			throw new RelishException("You may not change the web server settings because the server is already running.");
+		}
+
+		this.settings = validateNotNull("settings", settings);
+	}
+
 	/**
 	 * Stops the Jetty server if it is running
 	 */
@@ -50,4 +148,73 @@ public abstract class AbstractWebServer {
 	public final boolean isRunning() {
 		return server == null ? false : server.isRunning();
 	}
+
+	private Connector newConnector(int serverPort) {
+
+		SelectChannelConnector connector = new StatsConnector(connectionStatsByPort, serverPort);
+		connector.setPort(serverPort);
+		settings.configure(connector);
+		return connector;
+	}
+
+	private Connector findConnector(int serverPort) {
+
+		if (server == null) {
+			return null;
+		}
+
+		for (Connector connector : server.getConnectors()) {
+			if (connector.getPort() == serverPort) {
+				return connector;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Records {@link ConnectionStats} as connections are opened and closed. Connections still open when the connector stops are recorded as closed then
+	 * because Jetty does not report them.
+	 */
+	private static final class StatsConnector extends SelectChannelConnector {
+
+		private final ConnectionStats stats = new ConnectionStats();
+		private final ConcurrentMap<Connection, Boolean> openConnections = new ConcurrentHashMap<Connection, Boolean>();
+
+		StatsConnector(ConcurrentMap<Integer, ConnectionStats> connectionStatsByPort, int serverPort) {
+			connectionStatsByPort.put(serverPort, stats);
+		}
+
+		@Override
+		protected void connectionOpened(Connection connection) {
+
+			super.connectionOpened(connection);
+			openConnections.put(connection, Boolean.TRUE);
+			stats.connectionOpened();
+		}
+
+		@Override
+		protected void connectionClosed(Connection connection) {
+
+			super.connectionClosed(connection);
+			recordClosed(connection);
+		}
+
+		@Override
+		protected void doStop() throws Exception {
+
+			super.doStop();
+			for (Connection connection : openConnections.keySet()) {
+				recordClosed(connection);
+			}
+		}
+
+		private void recordClosed(Connection connection) {
+
+			if (openConnections.remove(connection) != null) {
+				int requests = connection instanceof AbstractHttpConnection ? ((AbstractHttpConnection) connection).getRequests() : 0;
+				stats.connectionClosed(System.currentTimeMillis() - connection.getTimeStamp(), requests);
+			}
+		}
+	}
 }
@@ -0,0 +1,108 @@
+package net.sf.relish.web;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.relish.Histogram;
+
+/**
+ * Connection statistics for a web server port: how many connections clients opened, how many were open at once, how long they lived, and how many requests
+ * each carried. A client that reuses connections shows few connections carrying many requests each. Recorded by the connector as connections open and close.
+ * This class is thread safe.
+ */
+public final class ConnectionStats {
+
+	private final AtomicLong acceptedCount = new AtomicLong();
+	private final AtomicInteger openCount = new AtomicInteger();
+	private final AtomicInteger peakOpenCount = new AtomicInteger();
+	private final Histogram lifetimeMillis = new Histogram();
+	private final Histogram requestsPerConnection = new Histogram();
+
+	/**
+	 * Records a connection being accepted
+	 */
+	void connectionOpened() {
+
+		acceptedCount.incrementAndGet();
+		int open = openCount.incrementAndGet();
+		for (int peak = peakOpenCount.get(); open > peak && !peakOpenCount.compareAndSet(peak, open); peak = peakOpenCount.get()) {
+		}
+	}
+
+	/**
+	 * Records a connection being closed
+	 *
+	 * @param lifetime
+	 *            Milliseconds the connection was open
+	 * @param requests
+	 *            The number of requests received on the connection
+	 */
+	void connectionClosed(long lifetime, int requests) {
+
+		openCount.decrementAndGet();
+		lifetimeMillis.record(lifetime);
+		requestsPerConnection.record(requests);
+	}
+
+	/**
+	 * Adds the statistics from another instance to this one. Used to combine the statistics of several ports.
+	 */
+	public void add(ConnectionStats other) {
+
+		validateNotNull("other", other);
+
+		acceptedCount.addAndGet(other.getAcceptedCount());
+		openCount.addAndGet(other.getOpenCount());
+		peakOpenCount.addAndGet(other.getPeakOpenCount());
+		lifetimeMillis.add(other.lifetimeMillis);
+		requestsPerConnection.add(other.requestsPerConnection);
+	}
+
+	/**
+	 * @return The number of connections accepted
+	 */
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	/**
+	 * @return The number of connections currently open
+	 */
+	public int getOpenCount() {
+		return openCount.get();
+	}
+
+	/**
+	 * @return The largest number of connections open at the same time. For combined statistics this is the sum of each port's peak.
+	 */
+	public int getPeakOpenCount() {
+		return peakOpenCount.get();
+	}
+
+	/**
+	 * @return Histogram of the milliseconds closed connections were open
+	 */
+	public Histogram getLifetimeMillis() {
+		return lifetimeMillis;
+	}
+
+	/**
+	 * @return Histogram of the number of requests received on each closed connection
+	 */
+	public Histogram getRequestsPerConnection() {
+		return requestsPerConnection;
+	}
+
+	/**
+	 * @return Multi-line summary of the statistics
+	 */
+	public String toReport() {
+
+		return String.format("accepted=%d, open=%d, peak open=%d%nlifetime: %s%nrequests per closed connection: count=%d, min=%d, mean=%.1f, max=%d",
+				getAcceptedCount(), getOpenCount(), getPeakOpenCount(), lifetimeMillis.toReport(TimeUnit.MILLISECONDS), requestsPerConnection.getCount(),
+				requestsPerConnection.getMin(), requestsPerConnection.getMean(), requestsPerConnection.getMax());
+	}
+}
@@ -0,0 +1,142 @@
+package net.sf.relish.web;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.relish.RelishException;
+
+/**
+ * A distribution of response delays. Each call to {@link #sampleMillis()} returns a new delay from the distribution. Instances are immutable and thread safe.
+ */
+public abstract class DelayDistribution {
+
+	// z score of the 99th percentile of the standard normal distribution
+	private static final double Z_99 = 2.3263478740408408;
+
+	private static final Random RANDOM = new Random();
+
+	private static final Pattern FIXED = Pattern.compile("by (\\d+) (seconds|milliseconds)");
+	private static final Pattern UNIFORM = Pattern.compile("uniformly between (\\d+) and (\\d+) (seconds|milliseconds)");
+	private static final Pattern NORMAL = Pattern.compile("normally with mean (\\d+) and standard deviation (\\d+) (seconds|milliseconds)");
+	private static final Pattern LOGNORMAL = Pattern.compile("lognormally with p50 (\\d+) and p99 (\\d+) (seconds|milliseconds)");
+
+	/**
+	 * @return A delay in milliseconds sampled from this distribution. Never negative.
+	 */
+	public abstract long sampleMillis();
+
+	/**
+	 * @return A distribution that always returns delayMillis
+	 */
+	public static DelayDistribution fixed(final long delayMillis) {
+
+		validateGreaterThan("delayMillis", delayMillis, -1L);
+		return new DelayDistribution() {
+
+			@Override
+			public long sampleMillis() {
+				return delayMillis;
+			}
+		};
+	}
+
+	/**
+	 * @return A distribution where every delay from minMillis to maxMillis, inclusive, is equally likely
+	 */
+	public static DelayDistribution uniform(final long minMillis, long maxMillis) {
+
+		validateGreaterThan("minMillis", minMillis, -1L);
+		validateGreaterThan("maxMillis", maxMillis, minMillis - 1);
+		final long span = maxMillis - minMillis + 1;
+		return new DelayDistribution() {
+
+			@Override
+			public long sampleMillis() {
+				return minMillis + (long) (RANDOM.nextDouble() * span);
+			}
+		};
+	}
+
+	/**
+	 * @return A normal distribution. Samples below zero are returned as zero.
+	 */
+	public static DelayDistribution normal(final long meanMillis, final long standardDeviationMillis) {
+
+		validateGreaterThan("meanMillis", meanMillis, -1L);
+		validateGreaterThan("standardDeviationMillis", standardDeviationMillis, -1L);
+		return new DelayDistribution() {
+
+			@Override
+			public long sampleMillis() {
+				return Math.max(0, Math.round(meanMillis + RANDOM.nextGaussian() * standardDeviationMillis));
+			}
+		};
+	}
+
+	/**
+	 * @return A log-normal distribution with the specified median and 99th percentile. This is the usual shape of real service latencies: most responses are
+	 *         near the median with a long tail of slow ones.
+	 */
+	public static DelayDistribution lognormal(long p50Millis, long p99Millis) {
+
+		validateGreaterThan("p50Millis", p50Millis, 0L);
+		validateGreaterThan("p99Millis", p99Millis, p50Millis - 1);
+
+		final double mu = Math.log(p50Millis);
+		final double sigma = (Math.log(p99Millis) - mu) / Z_99;
+		return new DelayDistribution() {
+
+			@Override
+			public long sampleMillis() {
+				return Math.round(Math.exp(mu + RANDOM.nextGaussian() * sigma));
+			}
+		};
+	}
+
+	/**
+	 * Parses a delay description. Descriptions have one of these forms:
+	 * <ul>
+	 * <li>by 200 milliseconds</li>
+	 * <li>uniformly between 100 and 300 milliseconds</li>
+	 * <li>normally with mean 200 and standard deviation 50 milliseconds</li>
+	 * <li>lognormally with p50 100 and p99 2000 milliseconds</li>
+	 * </ul>
+	 * The unit may be "seconds" or "milliseconds".
+	 */
+	public static DelayDistribution parse(String description) {
+
+		String value = validateNotNull("description", description).trim();
+
+		Matcher matcher = FIXED.matcher(value);
+		if (matcher.matches()) {
+			return fixed(toMillis(matcher, 1));
+		}
+
+		matcher = UNIFORM.matcher(value);
+		if (matcher.matches()) {
+			return uniform(toMillis(matcher, 1), toMillis(matcher, 2));
+		}
+
+		matcher = NORMAL.matcher(value);
+		if (matcher.matches()) {
+			return normal(toMillis(matcher, 1), toMillis(matcher, 2));
+		}
+
+		matcher = LOGNORMAL.matcher(value);
+		if (matcher.matches()) {
+			return lognormal(toMillis(matcher, 1), toMillis(matcher, 2));
+		}
+
+		throw new RelishException("Invalid delay: %s", description);
+	}
+
+	private static long toMillis(Matcher matcher, int group) {
+
+		TimeUnit unit = TimeUnit.valueOf(matcher.group(matcher.groupCount()).toUpperCase());
+		return unit.toMillis(Long.parseLong(matcher.group(group)));
+	}
+}
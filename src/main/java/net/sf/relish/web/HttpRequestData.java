@@ -1,5 +1,7 @@
 package net.sf.relish.web;
 
+import java.io.File;
+
 /**
  * Contains the info for an HTTP Request. This class is thread safe.
  */
@@ -7,6 +9,9 @@ public final class HttpRequestData extends AbstractHttpRequestResponseData {
 
 	private HttpMethod requestMethod;
 	private String url;
+	private File bodyFile;
+	private boolean bodyFileChunked;
+	private boolean bodyFileGzipped;
 
 	/**
 	 * @return The request's HTTP method (GET, POST, etc)
@@ -37,4 +42,40 @@ public final class HttpRequestData extends AbstractHttpRequestResponseData {
 	public synchronized String getUrl() {
 		return url;
 	}
+
+	/**
+	 * @return The file sent as the request body or null if the body is not a file. When set the file is sent instead of {@link #getBody()}.
+	 */
+	public synchronized File getBodyFile() {
+		return bodyFile;
+	}
+
+	/**
+	 * @param bodyFile
+	 *            The file to send as the request body instead of {@link #getBody()}. The file is streamed when the request is sent so it is never held in
+	 *            memory. Null to send {@link #getBody()}.
+	 * @param chunked
+	 *            True to send the file with chunked transfer encoding instead of a Content-Length
+	 * @param gzipped
+	 *            True to gzip the file as it is sent. Gzipped bodies are always chunked.
+	 */
+	public synchronized void setBodyFile(File bodyFile, boolean chunked, boolean gzipped) {
+		this.bodyFile = bodyFile;
+		this.bodyFileChunked = chunked;
+		this.bodyFileGzipped = gzipped;
+	}
+
+	/**
+	 * @return True if the {@link #getBodyFile() body file} is sent with chunked transfer encoding
+	 */
+	public synchronized boolean isBodyFileChunked() {
+		return bodyFileChunked || bodyFileGzipped;
+	}
+
+	/**
+	 * @return True if the {@link #getBodyFile() body file} is gzipped as it is sent
+	 */
+	public synchronized boolean isBodyFileGzipped() {
+		return bodyFileGzipped;
+	}
 }
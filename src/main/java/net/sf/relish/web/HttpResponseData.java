@@ -1,5 +1,7 @@
 package net.sf.relish.web;
 
+import java.io.File;
+
 /**
  * Contains the info for an HTTP response. This class is thread safe
  */
@@ -7,6 +9,15 @@ public final class HttpResponseData extends AbstractHttpRequestResponseData {
 
 	private int statusCode = 200;
 	private long delayMillis;
+	private DelayDistribution delayDistribution;
+	private File bodyFile;
+	private boolean bodyFileChunked;
+	private boolean bodyFileGzipped;
+	private long connectNanos;
+	private long firstByteNanos;
+	private long totalNanos;
+	private long uploadBytes;
+	private long uploadNanos;
 
 	public HttpResponseData() {
 	}
@@ -52,5 +63,132 @@ public final class HttpResponseData extends AbstractHttpRequestResponseData {
 	 */
 	public synchronized void setDelayMillis(long delayMillis) {
 		this.delayMillis = delayMillis;
+		this.delayDistribution = null;
+	}
+
+	/**
+	 * @return The distribution response delays are sampled from or null if the delay is always {@link #getDelayMillis()}
+	 */
+	public synchronized DelayDistribution getDelayDistribution() {
+		return delayDistribution;
+	}
+
+	/**
+	 * @param delayDistribution
+	 *            The distribution to sample response delays from. If null {@link #getDelayMillis()} is used.
+	 */
+	public synchronized void setDelayDistribution(DelayDistribution delayDistribution) {
+		this.delayDistribution = delayDistribution;
+	}
+
+	/**
+	 * @return Millis to delay this response. If a {@link #setDelayDistribution(DelayDistribution) delay distribution} is set this is a new sample from it
+	 *         each time this is called, otherwise it is {@link #getDelayMillis()}.
+	 */
+	public synchronized long sampleDelayMillis() {
+		return delayDistribution == null ? delayMillis : delayDistribution.sampleMillis();
+	}
+
+	/**
+	 * @return The file sent as the response body or null if the body is not a file. When set the file is sent instead of {@link #getBody()}.
+	 */
+	public synchronized File getBodyFile() {
+		return bodyFile;
+	}
+
+	/**
+	 * @param bodyFile
+	 *            The file to send as the response body instead of {@link #getBody()}. The file is streamed when the response is sent so it is never held in
+	 *            memory. Null to send {@link #getBody()}.
+	 * @param chunked
+	 *            True to send the file with chunked transfer encoding instead of a Content-Length
+	 * @param gzipped
+	 *            True to gzip the file as it is sent to clients that accept gzip encoding
+	 */
+	public synchronized void setBodyFile(File bodyFile, boolean chunked, boolean gzipped) {
+		this.bodyFile = bodyFile;
+		this.bodyFileChunked = chunked;
+		this.bodyFileGzipped = gzipped;
+	}
+
+	/**
+	 * @return True if the {@link #getBodyFile() body file} is sent with chunked transfer encoding
+	 */
+	public synchronized boolean isBodyFileChunked() {
+		return bodyFileChunked;
+	}
+
+	/**
+	 * @return True if the {@link #getBodyFile() body file} is gzipped as it is sent to clients that accept gzip encoding
+	 */
+	public synchronized boolean isBodyFileGzipped() {
+		return bodyFileGzipped;
+	}
+
+	/**
+	 * @return Nanoseconds the web client took to open the connection the response was received on. 0 if the connection was reused or the time was not
+	 *         measured.
+	 */
+	public synchronized long getConnectNanos() {
+		return connectNanos;
+	}
+
+	/**
+	 * @return Nanoseconds from when the web client started the request until the first byte of the response arrived, including the connect time. 0 if not
+	 *         measured.
+	 */
+	public synchronized long getFirstByteNanos() {
+		return firstByteNanos;
+	}
+
+	/**
+	 * @return Nanoseconds from when the web client started the request until the whole response was read. 0 if not measured.
+	 */
+	public synchronized long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Sets the times measured by the web client. All times are measured from when the request was started.
+	 *
+	 * @param connectNanos
+	 *            Nanoseconds taken to open the connection. 0 if an open connection was reused.
+	 * @param firstByteNanos
+	 *            Nanoseconds until the first byte of the response arrived
+	 * @param totalNanos
+	 *            Nanoseconds until the whole response was read
+	 */
+	public synchronized void setTimings(long connectNanos, long firstByteNanos, long totalNanos) {
+		this.connectNanos = connectNanos;
+		this.firstByteNanos = firstByteNanos;
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * @return The number of request body bytes the web client streamed from a file before this response. For gzipped bodies this is the compressed size. 0
+	 *         if the request body was not a file.
+	 */
+	public synchronized long getUploadBytes() {
+		return uploadBytes;
+	}
+
+	/**
+	 * @return Nanoseconds the web client took to stream the request body from a file. 0 if the request body was not a file.
+	 */
+	public synchronized long getUploadNanos() {
+		return uploadNanos;
+	}
+
+	/**
+	 * Sets the upload measured by the web client when it streamed the request body from a file
+	 *
+	 * @param uploadBytes
+	 *            The number of body bytes sent. For gzipped bodies this is the compressed size.
+	 * @param uploadNanos
+	 *            Nanoseconds from when the first body byte was written until the last one was
+	 */
+	public synchronized void setUpload(long uploadBytes, long uploadNanos) {
+		this.uploadBytes = uploadBytes;
+		this.uploadNanos = uploadNanos;
 	}
 }
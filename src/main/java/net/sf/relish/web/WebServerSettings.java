@@ -0,0 +1,198 @@
+package net.sf.relish.web;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.relish.RelishException;
+
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Tuning settings for the Jetty connector and thread pool used by {@link AbstractWebServer}. Settings that are not set use Jetty's defaults. The initial value
+ * of each setting is read from the system property "relish.web." + the setting's name, for example -Drelish.web.maxThreads=500. This class is not thread
+ * safe.
+ */
+public final class WebServerSettings {
+
+	/**
+	 * Number of threads accepting connections. In Jetty 8 this is also the number of selector sets.
+	 */
+	public static final String ACCEPTORS = "acceptors";
+	/**
+	 * Minimum number of threads in the request thread pool
+	 */
+	public static final String MIN_THREADS = "minThreads";
+	/**
+	 * Maximum number of threads in the request thread pool
+	 */
+	public static final String MAX_THREADS = "maxThreads";
+	/**
+	 * Size of the operating system's queue of connections waiting to be accepted
+	 */
+	public static final String ACCEPT_QUEUE_SIZE = "acceptQueueSize";
+	/**
+	 * Milliseconds an idle keep-alive connection is kept open
+	 */
+	public static final String MAX_IDLE_TIME_MILLIS = "maxIdleTimeMillis";
+	/**
+	 * Size in bytes of the buffer for request headers
+	 */
+	public static final String REQUEST_HEADER_SIZE = "requestHeaderSize";
+	/**
+	 * Size in bytes of the buffer for request bodies
+	 */
+	public static final String REQUEST_BUFFER_SIZE = "requestBufferSize";
+	/**
+	 * Size in bytes of the buffer for response headers
+	 */
+	public static final String RESPONSE_HEADER_SIZE = "responseHeaderSize";
+	/**
+	 * Size in bytes of the buffer for response bodies
+	 */
+	public static final String RESPONSE_BUFFER_SIZE = "responseBufferSize";
+
+	/**
+	 * Prefix of the system properties settings are read from
+	 */
+	public static final String SYSTEM_PROPERTY_PREFIX = "relish.web.";
+
+	private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(ACCEPTORS, MIN_THREADS, MAX_THREADS, ACCEPT_QUEUE_SIZE,
+			MAX_IDLE_TIME_MILLIS, REQUEST_HEADER_SIZE, REQUEST_BUFFER_SIZE, RESPONSE_HEADER_SIZE, RESPONSE_BUFFER_SIZE));
+
+	private final Map<String, Integer> valueByName = new LinkedHashMap<String, Integer>();
+
+	/**
+	 * Creates an instance with no settings set
+	 */
+	public WebServerSettings() {
+	}
+
+	/**
+	 * @return A new instance with the settings from the "relish.web.*" system properties
+	 */
+	public static WebServerSettings fromSystemProperties() {
+
+		WebServerSettings settings = new WebServerSettings();
+		for (String name : NAMES) {
+			String value = System.getProperty(SYSTEM_PROPERTY_PREFIX + name);
+			if (value != null) {
+				settings.set(name, value);
+			}
+		}
+
+		return settings;
+	}
+
+	/**
+	 * @return The names of all the settings
+	 */
+	public static List<String> getNames() {
+		return NAMES;
+	}
+
+	/**
+	 * Sets a setting from its text value
+	 *
+	 * @param name
+	 *            The setting's name. One of {@link #getNames()}.
+	 * @param value
+	 *            The setting's value
+	 */
+	public void set(String name, String value) {
+
+		validateNotNull("value", value);
+		try {
+			set(name, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			throw new RelishException("Invalid value for web server setting %s: %s", name, value);
+		}
+	}
+
+	/**
+	 * Sets a setting
+	 *
+	 * @param name
+	 *            The setting's name. One of {@link #getNames()}.
+	 * @param value
+	 *            The setting's value. {@link #ACCEPT_QUEUE_SIZE} may be 0. All others must be greater than 0.
+	 */
+	public void set(String name, int value) {
+
+		if (!NAMES.contains(name)) {
+			throw new RelishException("Unknown web server setting %s. Valid settings are: %s", name, NAMES);
+		}
+
+		validateGreaterThan(name, value, ACCEPT_QUEUE_SIZE.equals(name) ? -1 : 0);
+		valueByName.put(name, value);
+	}
+
+	/**
+	 * @return The value of the setting or null if it is not set
+	 */
+	public Integer get(String name) {
+		return valueByName.get(name);
+	}
+
+	/**
+	 * Applies the connector settings to a connector
+	 */
+	public void configure(AbstractConnector connector) {
+
+		if (valueByName.containsKey(ACCEPTORS)) {
+			connector.setAcceptors(get(ACCEPTORS));
+		}
+		if (valueByName.containsKey(ACCEPT_QUEUE_SIZE)) {
+			connector.setAcceptQueueSize(get(ACCEPT_QUEUE_SIZE));
+		}
+		if (valueByName.containsKey(MAX_IDLE_TIME_MILLIS)) {
+			connector.setMaxIdleTime(get(MAX_IDLE_TIME_MILLIS));
+		}
+		if (valueByName.containsKey(REQUEST_HEADER_SIZE)) {
+			connector.setRequestHeaderSize(get(REQUEST_HEADER_SIZE));
+		}
+		if (valueByName.containsKey(REQUEST_BUFFER_SIZE)) {
+			connector.setRequestBufferSize(get(REQUEST_BUFFER_SIZE));
+		}
+		if (valueByName.containsKey(RESPONSE_HEADER_SIZE)) {
+			connector.setResponseHeaderSize(get(RESPONSE_HEADER_SIZE));
+		}
+		if (valueByName.containsKey(RESPONSE_BUFFER_SIZE)) {
+			connector.setResponseBufferSize(get(RESPONSE_BUFFER_SIZE));
+		}
+	}
+
+	/**
+	 * @return A new thread pool with the thread pool settings applied
+	 */
+	public QueuedThreadPool newThreadPool() {
+
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+
+		Integer minThreads = get(MIN_THREADS);
+		Integer maxThreads = get(MAX_THREADS);
+		int effectiveMin = minThreads == null ? threadPool.getMinThreads() : minThreads;
+		int effectiveMax = maxThreads == null ? threadPool.getMaxThreads() : maxThreads;
+		if (effectiveMin > effectiveMax) {
+			throw new RelishException("Web server setting %s (%d) may not be greater than %s (%d)", MIN_THREADS, effectiveMin, MAX_THREADS, effectiveMax);
+		}
+
+		threadPool.setMaxThreads(effectiveMax);
+		threadPool.setMinThreads(effectiveMin);
+
+		return threadPool;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return valueByName.toString();
+	}
+}
@@ -1,9 +1,12 @@
 package net.sf.relish.web.app;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import net.sf.relish.NameValuePair;
 import net.sf.relish.RelishException;
+import net.sf.relish.web.WebServerSettings;
 
 import cucumber.api.java.After;
 import cucumber.api.java.en.Given;
@@ -11,6 +14,7 @@ import cucumber.api.java.en.Given;
 public final class WebAppStepDefs {
 
 	private final Map<String, WebAppServer> serverByContextRootOrWarFile = new HashMap<String, WebAppServer>();
+	private final WebServerSettings serverSettings = WebServerSettings.fromSystemProperties();
 
 	/**
 	 * Runs after each relish scenario
@@ -42,11 +46,28 @@ public final class WebAppStepDefs {
 		}
 
 		server = new WebAppServer();
+		server.setSettings(serverSettings);
 		serverByContextRootOrWarFile.put(contextRootOrWarFile, server);
 
 		server.startServer(contextRootOrWarFile, serverPort);
 	}
 
+	/**
+	 * Tunes the Jetty connector and thread pool used by web apps started after this step. Settings not in the table use the value from the "relish.web.*"
+	 * system property with the same name or Jetty's default if there is no system property.
+	 * 
+	 * @param settings
+	 *            The settings to change. Valid names are acceptors, minThreads, maxThreads, acceptQueueSize, maxIdleTimeMillis, requestHeaderSize,
+	 *            requestBufferSize, responseHeaderSize, and responseBufferSize.
+	 */
+	@Given("^web apps use these server settings:$")
+	public void webAppsUseTheseServerSettings(List<NameValuePair> settings) {
+
+		for (NameValuePair setting : settings) {
+			serverSettings.set(setting.getName(), setting.getValue());
+		}
+	}
+
 	/**
 	 * Stops a web app previously started with "Web app "..." is running on port ##".
 	 * 
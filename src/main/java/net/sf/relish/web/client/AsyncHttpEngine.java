@@ -0,0 +1,247 @@
+package net.sf.relish.web.client;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.relish.NameValuePair;
+import net.sf.relish.RelishException;
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Sends web client requests with Jetty's non-blocking {@link HttpClient}. Connections are multiplexed by a selector so a request waiting for a slow response
+ * does not hold a thread, and thousands of requests can be outstanding at once with a small thread pool. Response bodies are read into memory. This class is
+ * thread safe.
+ */
+final class AsyncHttpEngine {
+
+	private static final int MAX_THREADS = 16;
+
+	private final HttpClient client;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicInteger peakOutstanding = new AtomicInteger();
+
+	/**
+	 * Starts the engine
+	 *
+	 * @param maxConnectionsPerHost
+	 *            The maximum number of connections open to each host. Requests wait in a queue for a connection when the limit is reached.
+	 * @param timeoutMillis
+	 *            How long a request may wait for its response before it fails
+	 */
+	AsyncHttpEngine(int maxConnectionsPerHost, long timeoutMillis) throws Exception {
+
+		validateGreaterThan("maxConnectionsPerHost", maxConnectionsPerHost, 0);
+		validateGreaterThan("timeoutMillis", timeoutMillis, 0L);
+
+		QueuedThreadPool threadPool = new QueuedThreadPool(MAX_THREADS);
+		threadPool.setName("relish-web-client");
+		threadPool.setDaemon(true);
+
+		client = new HttpClient();
+		client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+		client.setMaxConnectionsPerAddress(maxConnectionsPerHost);
+		client.setTimeout(timeoutMillis);
+		client.setThreadPool(threadPool);
+		client.start();
+	}
+
+	/**
+	 * Sends requests without waiting for earlier responses and waits until all of them have completed
+	 *
+	 * @param requests
+	 *            The requests to send. Their URLs must be http URLs.
+	 * @param maxOutstanding
+	 *            The maximum number of requests waiting for a response at the same time
+	 * @return The responses in the same order as the requests
+	 * @throws Exception
+	 *             The failure of the first request in the list that failed, after all the requests have completed
+	 */
+	List<HttpResponseData> sendAll(List<HttpRequestData> requests, int maxOutstanding) throws Exception {
+
+		validateNotNull("requests", requests);
+		validateGreaterThan("maxOutstanding", maxOutstanding, 0);
+
+		Semaphore permits = new Semaphore(maxOutstanding);
+		CountDownLatch done = new CountDownLatch(requests.size());
+		List<ResponseExchange> exchanges = new ArrayList<ResponseExchange>(requests.size());
+		try {
+			for (HttpRequestData requestData : requests) {
+				permits.acquire();
+				ResponseExchange exchange = new ResponseExchange(requestData, permits, done);
+				exchanges.add(exchange);
+				started();
+				try {
+					exchange.startNanos = System.nanoTime();
+					client.send(exchange);
+				} catch (IOException e) {
+					exchange.complete(e);
+				}
+			}
+		} finally {
+			// wait for the requests that were sent even if this thread is interrupted so none of them outlive the step
+			for (int i = exchanges.size(); i < requests.size(); i++) {
+				done.countDown();
+			}
+			boolean interrupted = false;
+			for (;;) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		List<HttpResponseData> responses = new ArrayList<HttpResponseData>(exchanges.size());
+		for (ResponseExchange exchange : exchanges) {
+			if (exchange.failure != null) {
+				if (exchange.failure instanceof Exception) {
+					throw (Exception) exchange.failure;
+				}
+				throw new RelishException(exchange.failure, "Web client request to %s failed", exchange.url);
+			}
+			responses.add(exchange.responseData);
+		}
+		return responses;
+	}
+
+	/**
+	 * @return The largest number of requests that were waiting for a response at the same time
+	 */
+	int getPeakOutstanding() {
+		return peakOutstanding.get();
+	}
+
+	/**
+	 * Stops the engine. Outstanding requests fail.
+	 */
+	void stop() {
+
+		try {
+			client.stop();
+		} catch (Exception e) {
+			throw new RelishException(e, "Failed to stop the web client asynchronous engine");
+		}
+	}
+
+	private void started() {
+
+		int current = outstanding.incrementAndGet();
+		for (int peak = peakOutstanding.get(); current > peak && !peakOutstanding.compareAndSet(peak, current); peak = peakOutstanding.get()) {
+		}
+	}
+
+	/**
+	 * One request and its response. Jetty calls the callbacks on its threads as the response arrives.
+	 */
+	private final class ResponseExchange extends HttpExchange {
+
+		private final String url;
+		private final Semaphore permits;
+		private final CountDownLatch done;
+		private final AtomicBoolean completed = new AtomicBoolean();
+		private final HttpResponseData responseData = new HttpResponseData();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private volatile long startNanos;
+		private volatile long firstByteNanos;
+		private volatile Throwable failure;
+
+		ResponseExchange(HttpRequestData requestData, Semaphore permits, CountDownLatch done) {
+
+			this.url = requestData.getUrl();
+			this.permits = permits;
+			this.done = done;
+
+			setURL(url);
+			setMethod(requestData.getRequestMethod().toString());
+			for (NameValuePair header : requestData.getHeaders()) {
+				setRequestHeader(header.getName(), header.getValue());
+			}
+			byte[] requestBody = requestData.getBody();
+			if (requestBody != null) {
+				setRequestContent(new ByteArrayBuffer(requestBody));
+			}
+		}
+
+		@Override
+		protected void onResponseStatus(Buffer version, int status, Buffer reason) throws IOException {
+
+			firstByteNanos = System.nanoTime() - startNanos;
+			responseData.setStatusCode(status);
+		}
+
+		@Override
+		protected void onResponseHeader(Buffer name, Buffer value) throws IOException {
+			responseData.setHeader(name.toString(), value.toString());
+		}
+
+		@Override
+		protected void onResponseContent(Buffer content) throws IOException {
+
+			synchronized (body) {
+				body.write(content.asArray());
+			}
+		}
+
+		@Override
+		protected void onResponseComplete() throws IOException {
+
+			synchronized (body) {
+				responseData.setBody(body.toByteArray());
+			}
+			// the connect time is not reported by Jetty
+			responseData.setTimings(0, firstByteNanos, System.nanoTime() - startNanos);
+			complete(null);
+		}
+
+		@Override
+		protected void onConnectionFailed(Throwable x) {
+			complete(x);
+		}
+
+		@Override
+		protected void onException(Throwable x) {
+			complete(x);
+		}
+
+		@Override
+		protected void onExpire() {
+			complete(new RelishException("Web client request to %s timed out", url));
+		}
+
+		/**
+		 * Only the first call has any effect so a callback after the exchange is over cannot change its outcome
+		 *
+		 * @param failure
+		 *            Why the request failed or null if it succeeded
+		 */
+		void complete(Throwable failure) {
+
+			if (completed.compareAndSet(false, true)) {
+				this.failure = failure;
+				outstanding.decrementAndGet();
+				permits.release();
+				done.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package net.sf.relish.web.client;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.relish.DataFormat;
+import net.sf.relish.Histogram;
+import net.sf.relish.RelishException;
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpRequestData;
+
+/**
+ * Sends one request for each row of a table and checks each response's status code as it arrives. Rows are read from an iterator one at a time as threads
+ * become free, and only the counts, a latency {@link Histogram}, the status codes seen, and the first failures are kept, so a table of any size runs in
+ * constant memory.
+ * <p>
+ * Each row is a map from column name to value. The columns are:
+ * <ul>
+ * <li>Method: The HTTP method. Required.</li>
+ * <li>URL: The URL to send the request to. Required.</li>
+ * <li>Header &lt;name&gt;: The value of the request header &lt;name&gt;. Any number of these columns may be used.</li>
+ * <li>Body: The request body as text</li>
+ * <li>Body File: The path of a file holding the request body. The file is streamed when the request is sent. Only one of Body and Body File may have a
+ * value in each row.</li>
+ * <li>Expected Status: The status code the response must have. If empty the response must have a status code less than 400.</li>
+ * </ul>
+ * Empty values are the same as missing columns. A request fails if it throws or its status code does not match. A row that is not valid stops the run. This
+ * class is thread safe.
+ */
+final class BulkRequestRunner {
+
+	/**
+	 * The maximum number of failures kept for reporting
+	 */
+	static final int MAX_FAILURES_KEPT = 100;
+
+	private static final String HEADER_PREFIX = "Header ";
+
+	private final RequestSender sender;
+	private final int concurrency;
+
+	private final Histogram latencyNanos = new Histogram();
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong passedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final SortedMap<Integer, Long> statusCounts = new TreeMap<Integer, Long>();
+	private final List<String> failures = new ArrayList<String>();
+
+	/**
+	 * @param sender
+	 *            Sends each request
+	 * @param concurrency
+	 *            The maximum number of requests sent at the same time
+	 */
+	BulkRequestRunner(RequestSender sender, int concurrency) {
+
+		this.sender = validateNotNull("sender", sender);
+		this.concurrency = validateGreaterThan("concurrency", concurrency, 0);
+	}
+
+	/**
+	 * Sends a request for each row and waits until every response has been checked
+	 *
+	 * @param rows
+	 *            The rows. The iterator is only used by the calling thread.
+	 */
+	void run(Iterator<Map<String, String>> rows) throws InterruptedException {
+
+		validateNotNull("rows", rows);
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		// bounds the rows read ahead of the threads sending them
+		final Semaphore permits = new Semaphore(concurrency);
+		try {
+			for (int rowNumber = 1; rows.hasNext(); rowNumber++) {
+				final BulkRequest request = new BulkRequest(rowNumber, rows.next());
+				permits.acquire();
+				sentCount.incrementAndGet();
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							send(request);
+						} finally {
+							permits.release();
+						}
+					}
+				});
+			}
+
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return Histogram of nanoseconds from when each request was sent until its response was received or it failed
+	 */
+	Histogram getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * @return The number of requests sent
+	 */
+	long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * @return The number of requests whose response had the expected status code
+	 */
+	long getPassedCount() {
+		return passedCount.get();
+	}
+
+	/**
+	 * @return The number of requests that threw or whose response did not have the expected status code
+	 */
+	long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return The number of responses received with each status code
+	 */
+	SortedMap<Integer, Long> getStatusCounts() {
+
+		synchronized (statusCounts) {
+			return new TreeMap<Integer, Long>(statusCounts);
+		}
+	}
+
+	/**
+	 * @return Descriptions of the first {@value #MAX_FAILURES_KEPT} failures in the order they happened
+	 */
+	List<String> getFailures() {
+
+		synchronized (failures) {
+			return new ArrayList<String>(failures);
+		}
+	}
+
+	/**
+	 * @return Multi-line summary of the results including the failures that were kept
+	 */
+	String toReport() {
+
+		StringBuilder report = new StringBuilder(String.format("sent=%d, passed=%d, failed=%d, status codes=%s%nlatency: %s", getSentCount(),
+				getPassedCount(), getFailedCount(), getStatusCounts(), latencyNanos.toReport(TimeUnit.NANOSECONDS)));
+		List<String> kept = getFailures();
+		if (!kept.isEmpty()) {
+			report.append(String.format("%nfirst %d failures:", kept.size()));
+			for (String failure : kept) {
+				report.append(String.format("%n  %s", failure));
+			}
+		}
+		return report.toString();
+	}
+
+	private void send(BulkRequest request) {
+
+		String failure;
+		long startNanos = System.nanoTime();
+		try {
+			int status = sender.send(request.requestData).getStatusCode();
+			synchronized (statusCounts) {
+				Long count = statusCounts.get(status);
+				statusCounts.put(status, count == null ? 1 : count + 1);
+			}
+			if (request.expectedStatus == null ? status < 400 : status == request.expectedStatus) {
+				failure = null;
+			} else {
+				failure = String.format("expected status %s but was %d", request.expectedStatus == null ? "< 400" : request.expectedStatus, status);
+			}
+		} catch (Exception e) {
+			failure = String.format("failed: %s", e);
+		}
+		latencyNanos.record(System.nanoTime() - startNanos);
+
+		if (failure == null) {
+			passedCount.incrementAndGet();
+			return;
+		}
+
+		failedCount.incrementAndGet();
+		synchronized (failures) {
+			if (failures.size() < MAX_FAILURES_KEPT) {
+				failures.add(String.format("row %d: %s %s %s", request.rowNumber, request.requestData.getRequestMethod(), request.requestData.getUrl(),
+						failure));
+			}
+		}
+	}
+
+	/**
+	 * The request built from one row
+	 */
+	private static final class BulkRequest {
+
+		private final int rowNumber;
+		private final HttpRequestData requestData = new HttpRequestData();
+		private final Integer expectedStatus;
+
+		BulkRequest(int rowNumber, Map<String, String> row) {
+
+			this.rowNumber = rowNumber;
+
+			String body = null;
+			String bodyFile = null;
+			String expected = null;
+			for (Map.Entry<String, String> column : row.entrySet()) {
+				String name = column.getKey().trim();
+				String value = column.getValue() == null ? "" : column.getValue().trim();
+				if (value.isEmpty()) {
+					continue;
+				}
+				if ("Method".equals(name)) {
+					try {
+						requestData.setRequestMethod(HttpMethod.valueOf(value.toUpperCase()));
+					} catch (IllegalArgumentException e) {
+						throw new RelishException("Row %d has an unknown HTTP method: %s", rowNumber, value);
+					}
+				} else if ("URL".equals(name)) {
+					requestData.setUrl(value);
+				} else if ("Body".equals(name)) {
+					body = column.getValue();
+				} else if ("Body File".equals(name)) {
+					bodyFile = value;
+				} else if ("Expected Status".equals(name)) {
+					expected = value;
+				} else if (name.startsWith(HEADER_PREFIX)) {
+					requestData.setHeader(name.substring(HEADER_PREFIX.length()).trim(), value);
+				} else {
+					throw new RelishException("Row %d has an unknown column: %s", rowNumber, name);
+				}
+			}
+
+			if (requestData.getRequestMethod() == null || requestData.getUrl() == null) {
+				throw new RelishException("Row %d must have a Method and a URL", rowNumber);
+			}
+			if (body != null && bodyFile != null) {
+				throw new RelishException("Row %d can not have both a Body and a Body File", rowNumber);
+			}
+			if (body != null) {
+				requestData.setBody(DataFormat.TEXT.textToBytes(body));
+			} else if (bodyFile != null) {
+				File file = new File(bodyFile);
+				if (!file.isFile()) {
+					throw new RelishException("Row %d body file %s does not exist", rowNumber, file.getAbsolutePath());
+				}
+				// streamed when the request is sent so large bodies are never held in memory
+				requestData.setBodyFile(file, false, false);
+			}
+
+			try {
+				this.expectedStatus = expected == null ? null : Integer.valueOf(expected);
+			} catch (NumberFormatException e) {
+				throw new RelishException("Row %d has an expected status that is not a number: %s", rowNumber, expected);
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package net.sf.relish.web.client;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import net.sf.relish.RelishException;
+
+/**
+ * Reads the rows of a CSV file one at a time so files of any size can be processed in constant memory. The first row holds the column names and each
+ * following row is returned as a map from column name to value. Follows RFC 4180: fields may be quoted with double quotes, quoted fields may contain commas,
+ * line breaks, and doubled double quotes, and lines may end with CRLF or LF. Blank lines are skipped. This class is not thread safe.
+ */
+final class CsvRowIterator implements Iterator<Map<String, String>>, Closeable {
+
+	private final Reader reader;
+	private final List<String> columnNames;
+	private List<String> nextRow;
+	private int pushedBack = -2;
+	private int lineNumber = 1;
+
+	/**
+	 * Reads the column names
+	 *
+	 * @param reader
+	 *            The CSV text. It should be buffered. It is closed by {@link #close()}.
+	 */
+	CsvRowIterator(Reader reader) throws IOException {
+
+		this.reader = validateNotNull("reader", reader);
+		this.columnNames = readRow();
+		if (columnNames == null) {
+			throw new RelishException("CSV has no header row");
+		}
+		this.nextRow = readRow();
+	}
+
+	/**
+	 * @return The column names from the header row
+	 */
+	List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	/**
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		return nextRow != null;
+	}
+
+	/**
+	 * @return The next row. Columns missing from the end of the row are not in the map.
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public Map<String, String> next() {
+
+		if (nextRow == null) {
+			throw new NoSuchElementException();
+		}
+
+		if (nextRow.size() > columnNames.size()) {
+			throw new RelishException("CSV line %d has %d fields but there are only %d columns", lineNumber - 1, nextRow.size(), columnNames.size());
+		}
+		Map<String, String> row = new LinkedHashMap<String, String>();
+		for (int i = 0; i < nextRow.size(); i++) {
+			row.put(columnNames.get(i), nextRow.get(i));
+		}
+
+		try {
+			nextRow = readRow();
+		} catch (IOException e) {
+			throw new RelishException(e, "Failed to read CSV line %d", lineNumber);
+		}
+		return row;
+	}
+
+	/**
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * @return The fields of the next row or null at the end of the file
+	 */
+	private List<String> readRow() throws IOException {
+
+		for (;;) {
+			int c = read();
+			if (c == -1) {
+				return null;
+			}
+			if (c == '\r' || c == '\n') {
+				// blank line
+				endLine(c);
+				continue;
+			}
+			pushedBack = c;
+			break;
+		}
+
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		boolean inQuotes = false;
+		for (;;) {
+			int c = read();
+			if (inQuotes) {
+				if (c == -1) {
+					throw new RelishException("CSV line %d has a quoted field that is not closed", lineNumber);
+				}
+				if (c == '"') {
+					int next = read();
+					if (next == '"') {
+						field.append('"');
+					} else {
+						inQuotes = false;
+						pushedBack = next;
+					}
+				} else {
+					if (c == '\n') {
+						lineNumber++;
+					}
+					field.append((char) c);
+				}
+				continue;
+			}
+
+			if (c == '"' && field.length() == 0 && !quoted) {
+				quoted = true;
+				inQuotes = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+				quoted = false;
+			} else if (c == '\r' || c == '\n' || c == -1) {
+				fields.add(field.toString());
+				endLine(c);
+				return fields;
+			} else {
+				field.append((char) c);
+			}
+		}
+	}
+
+	private void endLine(int c) throws IOException {
+
+		if (c == '\r') {
+			int next = read();
+			if (next != '\n') {
+				pushedBack = next;
+			}
+		}
+		if (c != -1) {
+			lineNumber++;
+		}
+	}
+
+	private int read() throws IOException {
+
+		if (pushedBack != -2) {
+			int c = pushedBack;
+			pushedBack = -2;
+			return c;
+		}
+		return reader.read();
+	}
+}
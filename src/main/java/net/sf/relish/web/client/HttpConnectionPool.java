@@ -0,0 +1,649 @@
+package net.sf.relish.web.client;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.relish.BodyCapture;
+import net.sf.relish.NameValuePair;
+import net.sf.relish.RelishException;
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+
+/**
+ * HTTP/1.1 client that keeps connections open between requests and reuses them. Each host has its own pool with a limit on the number of connections open to
+ * it at once. Requests wait for a connection when the limit is reached and fail if none becomes free within the lease timeout. Response bodies are always
+ * read to the end so the connection can go back to the pool. A connection whose exchange fails for any reason is closed. Idle connections older than the
+ * idle timeout are closed instead of being reused. A pooled connection the server has closed is discovered when a request fails on it before any response
+ * arrives; the request is then resent on a new connection. This class is thread safe.
+ */
+final class HttpConnectionPool {
+
+	private static final String CHARSET = "ISO-8859-1";
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	/**
+	 * How long a request waits for a free connection by default
+	 */
+	static final long DEFAULT_LEASE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private final int maxConnectionsPerHost;
+	private final long idleTimeoutNanos;
+	private final long leaseTimeoutNanos;
+	private final Map<String, HostPool> hostPoolByAddress = new HashMap<String, HostPool>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong newConnectionCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Creates a pool where requests wait up to {@link #DEFAULT_LEASE_TIMEOUT_MILLIS} for a connection
+	 *
+	 * @param maxConnectionsPerHost
+	 *            The maximum number of connections open to each host, in use or idle
+	 * @param idleTimeoutMillis
+	 *            Connections idle longer than this are closed instead of being reused
+	 */
+	HttpConnectionPool(int maxConnectionsPerHost, long idleTimeoutMillis) {
+		this(maxConnectionsPerHost, idleTimeoutMillis, DEFAULT_LEASE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param maxConnectionsPerHost
+	 *            The maximum number of connections open to each host, in use or idle
+	 * @param idleTimeoutMillis
+	 *            Connections idle longer than this are closed instead of being reused
+	 * @param leaseTimeoutMillis
+	 *            How long a request waits for a connection when all the connections to its host are in use before it fails
+	 */
+	HttpConnectionPool(int maxConnectionsPerHost, long idleTimeoutMillis, long leaseTimeoutMillis) {
+
+		this.maxConnectionsPerHost = validateGreaterThan("maxConnectionsPerHost", maxConnectionsPerHost, 0);
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(validateGreaterThan("idleTimeoutMillis", idleTimeoutMillis, 0L));
+		this.leaseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(validateGreaterThan("leaseTimeoutMillis", leaseTimeoutMillis, 0L));
+	}
+
+	/**
+	 * Sends a request and reads the whole response into memory
+	 *
+	 * @param requestData
+	 *            The request. Its URL must be an http URL.
+	 */
+	HttpResponseData send(HttpRequestData requestData) throws IOException, InterruptedException {
+		return send(requestData, null);
+	}
+
+	/**
+	 * Sends a request and reads the whole response
+	 *
+	 * @param requestData
+	 *            The request. Its URL must be an http URL.
+	 * @param bodyCapture
+	 *            How to capture the response body as it streams by instead of reading it into memory. Null to read it into memory.
+	 */
+	HttpResponseData send(HttpRequestData requestData, BodyCapture bodyCapture) throws IOException, InterruptedException {
+
+		URL url = new URL(requestData.getUrl());
+		if (!"http".equalsIgnoreCase(url.getProtocol())) {
+			throw new RelishException("The web client connection pool only supports http URLs: %s", url);
+		}
+
+		String host = url.getHost();
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		HostPool hostPool = getHostPool(host + ":" + port);
+
+		for (;;) {
+			PooledConnection connection = hostPool.lease();
+			long startNanos = System.nanoTime();
+			long connectNanos = 0;
+			boolean reused = connection != null;
+			boolean released = false;
+			try {
+				if (reused) {
+					hitCount.incrementAndGet();
+				} else {
+					connection = new PooledConnection(new Socket(host, port));
+					connectNanos = System.nanoTime() - startNanos;
+					newConnectionCount.incrementAndGet();
+				}
+
+				HttpResponseData responseData = connection.exchange(url, requestData, bodyCapture, startNanos, connectNanos);
+				hostPool.release(connection);
+				released = true;
+				return responseData;
+			} catch (IOException e) {
+				if (reused && !connection.responseStarted) {
+					// the server closed the connection while it was idle in the pool so try again on a new connection
+					evictionCount.incrementAndGet();
+					continue;
+				}
+				throw e;
+			} finally {
+				// whatever went wrong the connection is in an unknown state so it is closed and its place in the pool given up
+				if (!released) {
+					hostPool.discard(connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of requests sent on a connection that was reused from the pool
+	 */
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of connections opened
+	 */
+	long getNewConnectionCount() {
+		return newConnectionCount.get();
+	}
+
+	/**
+	 * @return The number of pooled connections closed because they were idle too long or the server had closed them
+	 */
+	long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return The number of idle connections in the pool for all hosts
+	 */
+	int getIdleCount() {
+
+		int count = 0;
+		for (HostPool hostPool : getHostPools()) {
+			count += hostPool.getIdleCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Closes all idle connections. Connections in use are closed when they are released.
+	 */
+	void close() {
+
+		for (HostPool hostPool : getHostPools()) {
+			hostPool.close();
+		}
+	}
+
+	/**
+	 * @return Single line summary of the pool statistics
+	 */
+	String toReport() {
+		return String.format("hits=%d, new connections=%d, evictions=%d, idle=%d", getHitCount(), getNewConnectionCount(), getEvictionCount(), getIdleCount());
+	}
+
+	private synchronized HostPool getHostPool(String address) {
+
+		HostPool hostPool = hostPoolByAddress.get(address);
+		if (hostPool == null) {
+			hostPool = new HostPool(address);
+			hostPoolByAddress.put(address, hostPool);
+		}
+		return hostPool;
+	}
+
+	private synchronized List<HostPool> getHostPools() {
+		return new ArrayList<HostPool>(hostPoolByAddress.values());
+	}
+
+	private static void closeSocket(Socket socket) {
+
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * The connections to one host
+	 */
+	private final class HostPool {
+
+		private final String address;
+		// most recently used first so the warmest connections are reused and the rest can time out
+		private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+		private int openCount;
+		private boolean closed;
+
+		HostPool(String address) {
+			this.address = address;
+		}
+
+		/**
+		 * Waits until a connection is available. Every leased connection must be given back with {@link #release(PooledConnection)} or
+		 * {@link #discard(PooledConnection)}.
+		 *
+		 * @return An idle connection or null if the caller may open a new connection
+		 * @throws RelishException
+		 *             If no connection became available within the lease timeout
+		 */
+		synchronized PooledConnection lease() throws InterruptedException {
+
+			long deadline = System.nanoTime() + leaseTimeoutNanos;
+			for (;;) {
+				evictExpired();
+				PooledConnection connection = idle.pollFirst();
+				if (connection != null) {
+					return connection;
+				}
+				if (openCount < maxConnectionsPerHost) {
+					openCount++;
+					return null;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new RelishException("Web client timed out after %d milliseconds waiting for one of the %d connections to %s to become free",
+							TimeUnit.NANOSECONDS.toMillis(leaseTimeoutNanos), maxConnectionsPerHost, address);
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+
+		/**
+		 * Returns a connection to the pool after a successful exchange
+		 */
+		synchronized void release(PooledConnection connection) {
+
+			if (closed || !connection.reusable) {
+				closeSocket(connection.socket);
+				openCount--;
+			} else {
+				connection.idleSinceNanos = System.nanoTime();
+				idle.addFirst(connection);
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Gives up a leased connection without returning it to the pool
+		 *
+		 * @param connection
+		 *            The connection to close or null if opening the connection failed
+		 */
+		synchronized void discard(PooledConnection connection) {
+
+			if (connection != null) {
+				closeSocket(connection.socket);
+			}
+			openCount--;
+			notifyAll();
+		}
+
+		synchronized int getIdleCount() {
+			return idle.size();
+		}
+
+		synchronized void close() {
+
+			closed = true;
+			for (PooledConnection connection : idle) {
+				closeSocket(connection.socket);
+				openCount--;
+			}
+			idle.clear();
+			notifyAll();
+		}
+
+		private void evictExpired() {
+
+			long now = System.nanoTime();
+			while (!idle.isEmpty() && now - idle.peekLast().idleSinceNanos > idleTimeoutNanos) {
+				closeSocket(idle.pollLast().socket);
+				openCount--;
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * A connection and the HTTP/1.1 exchange of one request and response on it
+	 */
+	private static final class PooledConnection {
+
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+		private long idleSinceNanos;
+		private boolean responseStarted;
+		private boolean reusable;
+		private long uploadBytes;
+		private long uploadNanos;
+
+		PooledConnection(Socket socket) throws IOException {
+
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		/**
+		 * @param bodyCapture
+		 *            How to capture the response body or null to read it into memory
+		 * @param startNanos
+		 *            When the request was started. Response timings are measured from this.
+		 * @param connectNanos
+		 *            Nanoseconds taken to open the connection or 0 if it was reused
+		 */
+		HttpResponseData exchange(URL url, HttpRequestData requestData, BodyCapture bodyCapture, long startNanos, long connectNanos) throws IOException {
+
+			responseStarted = false;
+			reusable = false;
+			uploadBytes = 0;
+			uploadNanos = 0;
+
+			HttpMethod method = requestData.getRequestMethod();
+			writeRequest(url, method, requestData);
+
+			String statusLine = readLine();
+			if (statusLine == null) {
+				throw new EOFException("Connection closed before the response was received");
+			}
+			long firstByteNanos = System.nanoTime() - startNanos;
+			responseStarted = true;
+
+			String[] statusParts = statusLine.split(" ", 3);
+			if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/")) {
+				throw new IOException("Invalid HTTP status line: " + statusLine);
+			}
+
+			HttpResponseData responseData = new HttpResponseData();
+			int statusCode = Integer.parseInt(statusParts[1]);
+			responseData.setStatusCode(statusCode);
+
+			long contentLength = -1;
+			boolean chunked = false;
+			boolean close = "HTTP/1.0".equals(statusParts[0]) || "close".equalsIgnoreCase(requestData.getHeaderValue("Connection"));
+			for (String line = readLine(); line != null && !line.isEmpty(); line = readLine()) {
+				int colon = line.indexOf(':');
+				if (colon <= 0) {
+					continue;
+				}
+				String name = line.substring(0, colon).trim();
+				String value = line.substring(colon + 1).trim();
+				responseData.setHeader(name, value);
+
+				if ("Content-Length".equalsIgnoreCase(name)) {
+					contentLength = Long.parseLong(value);
+				} else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+					chunked = value.toLowerCase().contains("chunked");
+				} else if ("Connection".equalsIgnoreCase(name)) {
+					close = "close".equalsIgnoreCase(value);
+				}
+			}
+
+			long bodyLength;
+			if (method == HttpMethod.HEAD || statusCode < 200 || statusCode == 204 || statusCode == 304) {
+				bodyLength = 0;
+			} else if (chunked) {
+				bodyLength = BodyInputStream.CHUNKED;
+			} else if (contentLength >= 0) {
+				bodyLength = contentLength;
+			} else {
+				bodyLength = BodyInputStream.UNTIL_CLOSED;
+				close = true;
+			}
+
+			// the body is always read to the end so the next response on this connection starts at the right place
+			InputStream body = new BodyInputStream(bodyLength);
+			if (bodyCapture == null) {
+				ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				for (int len = body.read(buffer); len >= 0; len = body.read(buffer)) {
+					bodyBytes.write(buffer, 0, len);
+				}
+				responseData.setBody(bodyBytes.toByteArray());
+			} else {
+				responseData.setBodySummary(bodyCapture.capture(body));
+			}
+			responseData.setTimings(connectNanos, firstByteNanos, System.nanoTime() - startNanos);
+			responseData.setUpload(uploadBytes, uploadNanos);
+
+			reusable = !close;
+			return responseData;
+		}
+
+		private void writeRequest(URL url, HttpMethod method, HttpRequestData requestData) throws IOException {
+
+			String file = url.getFile().isEmpty() ? "/" : url.getFile();
+			File bodyFile = requestData.getBodyFile();
+			byte[] body = bodyFile == null ? requestData.getBody() : null;
+			boolean chunked = bodyFile != null && requestData.isBodyFileChunked();
+			boolean gzip = bodyFile != null && requestData.isBodyFileGzipped();
+
+			writeLine(method + " " + file + " HTTP/1.1");
+			boolean hasHost = false;
+			boolean hasContentLength = false;
+			for (NameValuePair header : requestData.getHeaders()) {
+				hasHost |= "Host".equalsIgnoreCase(header.getName());
+				hasContentLength |= "Content-Length".equalsIgnoreCase(header.getName()) || "Transfer-Encoding".equalsIgnoreCase(header.getName());
+				writeLine(header.getName() + ": " + header.getValue());
+			}
+			if (!hasHost) {
+				writeLine("Host: " + (url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort()));
+			}
+			if (body != null && !hasContentLength) {
+				writeLine("Content-Length: " + body.length);
+			}
+			if (bodyFile != null && !hasContentLength) {
+				writeLine(chunked ? "Transfer-Encoding: chunked" : "Content-Length: " + bodyFile.length());
+			}
+			if (gzip && requestData.getHeader("Content-Encoding") == null) {
+				writeLine("Content-Encoding: gzip");
+			}
+			out.write(CRLF);
+			if (body != null) {
+				out.write(body);
+			}
+			if (bodyFile != null) {
+				long startNanos = System.nanoTime();
+				if (chunked) {
+					ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+					uploadBytes = RequestBodyWriter.write(bodyFile, gzip, chunkedOut);
+					chunkedOut.finish();
+				} else {
+					uploadBytes = RequestBodyWriter.write(bodyFile, false, out);
+				}
+				out.flush();
+				uploadNanos = System.nanoTime() - startNanos;
+			}
+			out.flush();
+		}
+
+		private void writeLine(String line) throws IOException {
+
+			out.write(line.getBytes(CHARSET));
+			out.write(CRLF);
+		}
+
+		/**
+		 * @return The next line without its line terminator or null at the end of the stream
+		 */
+		private String readLine() throws IOException {
+
+			ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+			for (;;) {
+				int b = in.read();
+				if (b == -1) {
+					if (line.size() == 0) {
+						return null;
+					}
+					break;
+				}
+				if (b == '\n') {
+					break;
+				}
+				if (b != '\r') {
+					line.write(b);
+				}
+			}
+
+			try {
+				return line.toString(CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				throw new RelishException(e, "%s is not supported", CHARSET);
+			}
+		}
+
+		/**
+		 * Writes a request body with chunked transfer encoding. Each write is sent as one chunk so the caller's buffer size sets the chunk size.
+		 */
+		private static final class ChunkedOutputStream extends FilterOutputStream {
+
+			ChunkedOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+
+				if (len == 0) {
+					// a zero length chunk would end the body
+					return;
+				}
+				out.write(Integer.toHexString(len).getBytes(CHARSET));
+				out.write(CRLF);
+				out.write(b, off, len);
+				out.write(CRLF);
+			}
+
+			/**
+			 * Writes the last chunk. The underlying stream is not closed.
+			 */
+			void finish() throws IOException {
+
+				out.write('0');
+				out.write(CRLF);
+				out.write(CRLF);
+			}
+		}
+
+		/**
+		 * Reads one response body from the connection and ends at the end of the body, not the end of the connection. Throws {@link EOFException} if the
+		 * connection closes before the end of the body.
+		 */
+		private final class BodyInputStream extends InputStream {
+
+			static final long CHUNKED = -1;
+			static final long UNTIL_CLOSED = -2;
+
+			private final boolean chunked;
+			private final boolean untilClosed;
+			// bytes left in the body or in the current chunk
+			private long remaining;
+			private boolean done;
+
+			/**
+			 * @param length
+			 *            The length of the body, {@link #CHUNKED}, or {@link #UNTIL_CLOSED}
+			 */
+			BodyInputStream(long length) {
+
+				this.chunked = length == CHUNKED;
+				this.untilClosed = length == UNTIL_CLOSED;
+				this.remaining = length < 0 ? 0 : length;
+				this.done = length == 0;
+			}
+
+			@Override
+			public int read() throws IOException {
+
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+
+				if (done) {
+					return -1;
+				}
+				if (len == 0) {
+					return 0;
+				}
+
+				if (untilClosed) {
+					int count = in.read(b, off, len);
+					done = count < 0;
+					return count;
+				}
+
+				if (remaining == 0) {
+					// chunked and at the end of a chunk
+					if (!nextChunk()) {
+						done = true;
+						return -1;
+					}
+				}
+
+				int count = in.read(b, off, (int) Math.min(len, remaining));
+				if (count < 0) {
+					throw new EOFException("Connection closed before the whole response body was received");
+				}
+				remaining -= count;
+				if (remaining == 0 && !chunked) {
+					done = true;
+				}
+				return count;
+			}
+
+			/**
+			 * Reads the next chunk size line, and the line ending the previous chunk if there was one
+			 *
+			 * @return False if the last chunk has been read
+			 */
+			private boolean nextChunk() throws IOException {
+
+				String sizeLine = readLine();
+				if (sizeLine != null && sizeLine.isEmpty()) {
+					sizeLine = readLine();
+				}
+				if (sizeLine == null) {
+					throw new EOFException("Connection closed in the middle of a chunked response body");
+				}
+
+				int extension = sizeLine.indexOf(';');
+				remaining = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+				if (remaining > 0) {
+					return true;
+				}
+
+				// skip the trailers
+				for (String line = readLine(); line != null && !line.isEmpty(); line = readLine()) {
+				}
+				return false;
+			}
+		}
+	}
+}
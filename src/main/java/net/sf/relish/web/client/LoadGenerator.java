@@ -0,0 +1,184 @@
+package net.sf.relish.web.client;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.sf.relish.Histogram;
+import net.sf.relish.web.HttpRequestData;
+
+/**
+ * Sends the same request at a fixed rate for a fixed time. This is an open model: requests are scheduled on a timetable that does not depend on when
+ * earlier responses arrive, so a slow server does not slow the load down. Latency is measured from the time each request was scheduled to be sent, not the
+ * time it actually was. Time a request spent waiting for a free thread or connection because the server fell behind is included, which corrects for
+ * coordinated omission. Latencies go into a {@link Histogram}. A request fails if it throws or gets a status code of 400 or more. This class is thread safe.
+ */
+final class LoadGenerator {
+
+	private final HttpRequestData requestData;
+	private final int requestsPerSecond;
+	private final long durationNanos;
+	private final int maxInFlight;
+
+	private final Histogram latencyNanos = new Histogram();
+	private final Histogram serviceNanos = new Histogram();
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong maxScheduleLagNanos = new AtomicLong();
+	private volatile long elapsedNanos;
+
+	/**
+	 * @param requestData
+	 *            The request to send. It is shared by all the requests sent so it must not be changed while the load runs.
+	 * @param requestsPerSecond
+	 *            The rate requests are scheduled at
+	 * @param durationMillis
+	 *            How long to schedule requests for
+	 * @param maxInFlight
+	 *            The number of threads sending requests. Requests scheduled while all threads are busy wait for one, and the wait counts toward their latency.
+	 */
+	LoadGenerator(HttpRequestData requestData, int requestsPerSecond, long durationMillis, int maxInFlight) {
+
+		this.requestData = validateNotNull("requestData", requestData);
+		this.requestsPerSecond = validateGreaterThan("requestsPerSecond", requestsPerSecond, 0);
+		this.durationNanos = TimeUnit.MILLISECONDS.toNanos(validateGreaterThan("durationMillis", durationMillis, 0L));
+		this.maxInFlight = validateGreaterThan("maxInFlight", maxInFlight, 0);
+	}
+
+	/**
+	 * Sends the requests and waits until every response has been received or has failed
+	 *
+	 * @param sender
+	 *            Sends each request
+	 */
+	void run(final RequestSender sender) throws InterruptedException {
+
+		validateNotNull("sender", sender);
+
+		long requestCount = Math.max(1, durationNanos * requestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		executor.allowCoreThreadTimeOut(true);
+
+		long startNanos = System.nanoTime();
+		try {
+			for (long i = 0; i < requestCount; i++) {
+				// computed from the start time so rounding and oversleeping do not accumulate
+				final long intendedNanos = startNanos + i * TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+				for (long wait = intendedNanos - System.nanoTime(); wait > 0; wait = intendedNanos - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+				}
+				recordScheduleLag(System.nanoTime() - intendedNanos);
+
+				sentCount.incrementAndGet();
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						send(sender, intendedNanos);
+					}
+				});
+			}
+
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+			}
+		} finally {
+			executor.shutdownNow();
+			elapsedNanos = System.nanoTime() - startNanos;
+		}
+	}
+
+	/**
+	 * @return Histogram of nanoseconds from when each request was scheduled to be sent until its response was received or it failed
+	 */
+	Histogram getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * @return Histogram of nanoseconds from when each request was actually sent until its response was received or it failed. Unlike the latency this does not
+	 *         include time spent waiting for a thread, so comparing the two shows how far the client fell behind.
+	 */
+	Histogram getServiceNanos() {
+		return serviceNanos;
+	}
+
+	/**
+	 * @return The number of requests sent
+	 */
+	long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * @return The number of requests that completed, whether they failed or not
+	 */
+	long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * @return The number of requests that threw or got a status code of 400 or more
+	 */
+	long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return Failed requests as a percentage of completed requests
+	 */
+	double getErrorPercent() {
+
+		long completed = getCompletedCount();
+		return completed == 0 ? 0 : 100.0 * getFailedCount() / completed;
+	}
+
+	/**
+	 * @return The rate requests completed at over the whole run
+	 */
+	double getAchievedRequestsPerSecond() {
+		return elapsedNanos == 0 ? 0 : getCompletedCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	/**
+	 * @return Multi-line summary of the results
+	 */
+	String toReport() {
+
+		return String.format("target rate=%d/s, achieved rate=%.1f/s, sent=%d, completed=%d, failed=%d (%.2f%%), max schedule lag=%.3fms%nlatency: %s%nservice time: %s",
+				requestsPerSecond, getAchievedRequestsPerSecond(), getSentCount(), getCompletedCount(), getFailedCount(), getErrorPercent(),
+				maxScheduleLagNanos.get() / 1000000.0, latencyNanos.toReport(TimeUnit.NANOSECONDS), serviceNanos.toReport(TimeUnit.NANOSECONDS));
+	}
+
+	private void send(RequestSender sender, long intendedNanos) {
+
+		long sendNanos = System.nanoTime();
+		boolean failed;
+		try {
+			failed = sender.send(requestData).getStatusCode() >= 400;
+		} catch (Exception e) {
+			failed = true;
+		}
+
+		long endNanos = System.nanoTime();
+		latencyNanos.record(endNanos - intendedNanos);
+		serviceNanos.record(endNanos - sendNanos);
+		if (failed) {
+			failedCount.incrementAndGet();
+		}
+		completedCount.incrementAndGet();
+	}
+
+	private void recordScheduleLag(long lagNanos) {
+		for (long max = maxScheduleLagNanos.get(); lagNanos > max && !maxScheduleLagNanos.compareAndSet(max, lagNanos); max = maxScheduleLagNanos.get()) {
+		}
+	}
+}
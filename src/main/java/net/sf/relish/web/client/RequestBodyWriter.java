@@ -0,0 +1,70 @@
+package net.sf.relish.web.client;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Streams a file as the body of a web client request without reading the file into the heap. The file is read through a small fixed size buffer and
+ * optionally gzipped on the fly.
+ */
+final class RequestBodyWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private RequestBodyWriter() {
+	}
+
+	/**
+	 * Writes the file to the stream. The stream is flushed but not closed.
+	 *
+	 * @param file
+	 *            The file to send
+	 * @param gzip
+	 *            True to gzip the file as it is written
+	 * @param out
+	 *            The stream to write to. Any transfer encoding must already be applied by the stream.
+	 * @return The number of bytes written to out. For gzipped bodies this is the compressed size.
+	 */
+	static long write(File file, boolean gzip, OutputStream out) throws IOException {
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if (!gzip) {
+				long count = copy(channel, out);
+				out.flush();
+				return count;
+			}
+
+			CountingOutputStream countingOut = new CountingOutputStream(out);
+			GZIPOutputStream gzipOut = new GZIPOutputStream(countingOut, BUFFER_SIZE);
+			copy(channel, gzipOut);
+			gzipOut.finish();
+			gzipOut.flush();
+			return countingOut.getByteCount();
+		} finally {
+			closeQuietly(randomAccessFile);
+		}
+	}
+
+	private static long copy(FileChannel channel, OutputStream out) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long count = 0;
+		for (int len = channel.read(buffer); len >= 0; len = channel.read(buffer)) {
+			out.write(buffer.array(), 0, len);
+			count += len;
+			buffer.clear();
+		}
+		return count;
+	}
+}
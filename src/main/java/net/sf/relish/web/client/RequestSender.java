@@ -0,0 +1,15 @@
+package net.sf.relish.web.client;
+
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+
+/**
+ * Sends one web client request with whichever engine the web client is configured to use
+ */
+interface RequestSender {
+
+	/**
+	 * @return The whole response
+	 */
+	HttpResponseData send(HttpRequestData requestData) throws Exception;
+}
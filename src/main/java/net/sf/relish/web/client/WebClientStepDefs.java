@@ -4,17 +4,36 @@ import static net.sf.relish.RelishUtil.*;
 import static net.sf.relish.matcher.RelishMatchers.*;
 import static org.hamcrest.CoreMatchers.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import net.sf.relish.BodyCapture;
+import net.sf.relish.BodySummary;
 import net.sf.relish.RelishUtil;
 import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
 import net.sf.relish.ExpandingArrayList;
+import net.sf.relish.Histogram;
 import net.sf.relish.NameValuePair;
+import net.sf.relish.PayloadTemplate;
 import net.sf.relish.RelishException;
 import net.sf.relish.TableMatcher;
 import net.sf.relish.transformer.CountQuantifierTransformer;
@@ -23,14 +42,87 @@ import net.sf.relish.web.HttpRequestData;
 import net.sf.relish.web.HttpResponseData;
 
 import cucumber.api.Transform;
+import cucumber.api.java.After;
 import cucumber.api.java.en.Given;
 import cucumber.api.java.en.Then;
 import cucumber.api.java.en.When;
 
 public final class WebClientStepDefs {
 
+	private static final int STREAMING_CHUNK_SIZE = 64 * 1024;
+
 	private final List<HttpRequestData> requests = new ExpandingArrayList<HttpRequestData>();
 	private final List<HttpResponseData> responses = new ExpandingArrayList<HttpResponseData>();
+	private HttpConnectionPool connectionPool;
+	private AsyncHttpEngine asyncEngine;
+	private LoadGenerator loadGenerator;
+	private BulkRequestRunner bulkRunner;
+	private BodyCapture bodyCapture;
+
+	/**
+	 * Runs after each relish scenario
+	 */
+	@After
+	public void after() {
+		closeEngines();
+	}
+
+	/**
+	 * Sends all following web client requests over pooled keep-alive connections instead of opening a new connection for each request. Responses are read
+	 * to the end so their connections can be reused.
+	 *
+	 * @param maxConnectionsPerHost
+	 *            The maximum number of connections open to each host at the same time. Requests wait for a connection when the limit is reached. If null there
+	 *            is no limit.
+	 * @param idleTimeout
+	 *            How long an idle connection is kept in the pool before it is closed. If null idle connections are kept for 60 seconds.
+	 * @param idleTimeoutUnit
+	 *            The unit of idleTimeout
+	 */
+	@Given("^web client uses a connection pool(?: with at most (\\d+) connections? per host)?(?: keeping idle connections for (\\d+) (seconds|milliseconds))?$")
+	public void webClientUsesConnectionPool(Integer maxConnectionsPerHost, Integer idleTimeout, TimeUnit idleTimeoutUnit) {
+
+		closeEngines();
+		connectionPool = new HttpConnectionPool(maxConnectionsPerHost == null ? Integer.MAX_VALUE : maxConnectionsPerHost,
+				idleTimeout == null ? TimeUnit.SECONDS.toMillis(60) : idleTimeoutUnit.toMillis(idleTimeout));
+	}
+
+	/**
+	 * Sends all following web client requests with a non-blocking engine instead of a thread per request. A range of requests is sent all at once, or up to
+	 * the step's concurrency at a time, and a few selector threads handle all the connections, so thousands of slow requests such as long polls can be
+	 * outstanding at the same time. Response bodies are read into memory so this cannot be combined with streaming response bodies.
+	 *
+	 * @param maxConnectionsPerHost
+	 *            The maximum number of connections open to each host at the same time. Requests wait for a connection when the limit is reached. If null there
+	 *            is no limit.
+	 * @param timeout
+	 *            How long a request may wait for its response before it fails. If null requests time out after 5 minutes.
+	 * @param timeoutUnit
+	 *            The unit of timeout
+	 */
+	@Given("^web client uses the asynchronous engine(?: with at most (\\d+) connections? per host)?(?: timing out requests after (\\d+) (seconds|milliseconds))?$")
+	public void webClientUsesAsyncEngine(Integer maxConnectionsPerHost, Integer timeout, TimeUnit timeoutUnit) throws Exception {
+
+		closeEngines();
+		asyncEngine = new AsyncHttpEngine(maxConnectionsPerHost == null ? Integer.MAX_VALUE : maxConnectionsPerHost,
+				timeout == null ? TimeUnit.MINUTES.toMillis(5) : timeoutUnit.toMillis(timeout));
+	}
+
+	/**
+	 * Makes the web client stream response bodies instead of reading them into memory. Only the size, SHA-256 digest, CRC-32, line count, and optionally the
+	 * first and last bytes of each body are kept so very large downloads do not use up the heap. Use the body size, digest, lines, and start and end steps to
+	 * validate these responses.
+	 *
+	 * @param headSize
+	 *            The number of bytes at the start of each body to keep in memory. If null none are kept.
+	 * @param tailSize
+	 *            The number of bytes at the end of each body to keep in memory. If null none are kept.
+	 */
+	@Given("^web client streams response bodies(?: keeping the (?:first (\\d+))?(?: and )?(?:last (\\d+))? bytes)?$")
+	public void webClientStreamsResponseBodies(Integer headSize, Integer tailSize) {
+
+		bodyCapture = new BodyCapture(headSize == null ? 0 : headSize, tailSize == null ? 0 : tailSize, false);
+	}
 
 	/**
 	 * Configures the specified web client request body
@@ -55,6 +147,61 @@ public final class WebClientStepDefs {
 		}
 	}
 
+	/**
+	 * Configures the specified web client request bodies from a {@link PayloadTemplate template}. The template is parsed once and each request in the range
+	 * gets its own rendering. The sequence number used for <code>${seq}</code> is the request index.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param format
+	 *            The format of the request body
+	 * @param template
+	 *            The request body template
+	 */
+	@Given("^web client requests? (\\d+)(?: thru (\\d+))? body is this (JSON|XML|text) template:$")
+	public void webClientRequestBodyIsTemplate(int startIndex, Integer endIndex, DataFormat format, String template) {
+
+		PayloadTemplate payloadTemplate = PayloadTemplate.compile(format, template);
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			getOrCreateRequestData(i).setBody(payloadTemplate.renderToBytes(i));
+		}
+	}
+
+	/**
+	 * Configures the specified web client requests to send a file as the request body. The file is streamed from disk when the request is sent so it may be
+	 * larger than the heap. The upload size and time are recorded with the response. Files can not be sent with the asynchronous engine, and files over 2 GB
+	 * must be sent chunked unless a connection pool is used.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param path
+	 *            The path to the file
+	 * @param chunked
+	 *            Not null to send the file with chunked transfer encoding instead of a Content-Length
+	 * @param gzipped
+	 *            Not null to gzip the file as it is sent. Gzipped files are always sent chunked with a Content-Encoding of gzip.
+	 */
+	@Given("^web client requests? (\\d+)(?: thru (\\d+))? body is file \"(.+?)\"( sent chunked)?( gzipped)?$")
+	public void webClientRequestBodyIsFile(int startIndex, Integer endIndex, String path, String chunked, String gzipped) {
+
+		File file = new File(path);
+		if (!file.isFile()) {
+			throw new RelishException("Web client request body file %s does not exist", file.getAbsolutePath());
+		}
+
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			getOrCreateRequestData(i).setBodyFile(file, chunked != null, gzipped != null);
+		}
+	}
+
 	/**
 	 * Configures a request header for the specified web client.
 	 * 
@@ -106,7 +253,7 @@ public final class WebClientStepDefs {
 	}
 
 	/**
-	 * Sends a web client request to a specified URL
+	 * Sends a web client request to a specified URL. Each response is stored at the index of its request.
 	 * 
 	 * @param startIndex
 	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
@@ -117,40 +264,281 @@ public final class WebClientStepDefs {
 	 *            The URL to send the request to
 	 * @param method
 	 *            The HTTP method used to send the request
+	 * @param concurrency
+	 *            The maximum number of requests in the range to send at the same time. If null the requests are sent one at a time in order.
 	 */
-	@When("^web client requests? (\\d+)(?: thru (\\d+))?(?: is| are)? sent to \"(http://.*)\" using method \"(GET|POST|HEAD|PUT|OPTIONS|DELETE|TRACE|CONNECT|MOVE)\"$")
-	public void webClientRequestIsSentTo(int startIndex, Integer endIndex, String url, HttpMethod method) throws Exception {
+	@When("^web client requests? (\\d+)(?: thru (\\d+))?(?: is| are)? sent to \"(http://.*)\" using method \"(GET|POST|HEAD|PUT|OPTIONS|DELETE|TRACE|CONNECT|MOVE)\"(?: with concurrency (\\d+))?$")
+	public void webClientRequestIsSentTo(int startIndex, Integer endIndex, String url, HttpMethod method, Integer concurrency) throws Exception {
 
 		int end = getEndIndex(startIndex, endIndex);
 		for (int i = startIndex; i <= end; i++) {
-
 			HttpRequestData requestData = getOrCreateRequestData(i);
 			requestData.setUrl(url);
 			requestData.setRequestMethod(method);
-			byte[] body = requestData.getBody();
-			HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-			conn.setDoOutput(body != null);
-			conn.setRequestMethod(requestData.getRequestMethod().toString());
-			for (NameValuePair header : requestData.getHeaders()) {
-				conn.setRequestProperty(header.getName(), header.getValue());
+		}
+
+		if (asyncEngine != null) {
+			List<HttpRequestData> range = new ArrayList<HttpRequestData>();
+			for (int i = startIndex; i <= end; i++) {
+				range.add(getOrCreateRequestData(i));
 			}
-			conn.connect();
+			List<HttpResponseData> rangeResponses = sendAsync(range, concurrency == null ? Integer.MAX_VALUE : validateGreaterThan("concurrency",
+					concurrency, 0));
+			for (int i = startIndex; i <= end; i++) {
+				responses.set(i - 1, rangeResponses.get(i - startIndex));
+			}
+			return;
+		}
+
+		if (concurrency == null || validateGreaterThan("concurrency", concurrency, 0) == 1 || startIndex == end) {
+			for (int i = startIndex; i <= end; i++) {
+				responses.set(i - 1, sendRequest(getOrCreateRequestData(i)));
+			}
+			return;
+		}
 
-			if (body != null) {
-				RelishUtil.writeToOutputStream(conn.getOutputStream(), requestData.getBody());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, end - startIndex + 1));
+		try {
+			List<Future<HttpResponseData>> futures = new ArrayList<Future<HttpResponseData>>();
+			for (int i = startIndex; i <= end; i++) {
+				final HttpRequestData requestData = getOrCreateRequestData(i);
+				futures.add(executor.submit(new Callable<HttpResponseData>() {
+
+					@Override
+					public HttpResponseData call() throws Exception {
+						return sendRequest(requestData);
+					}
+				}));
 			}
 
-			HttpResponseData responseData = getOrCreateResponseData(responses.size() + 1);
-			int statusCode = conn.getResponseCode();
-			responseData.setStatusCode(statusCode);
-			for (String name : conn.getHeaderFields().keySet()) {
-				if (name != null) {
-					responseData.setHeader(name, conn.getHeaderField(name));
+			// responses are stored on this thread because the response list is not thread safe
+			for (int i = startIndex; i <= end; i++) {
+				try {
+					responses.set(i - 1, futures.get(i - startIndex).get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception) {
+						throw (Exception) cause;
+					}
+					throw new RelishException(cause, "Web client request %d failed", i);
 				}
 			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sends requests at a fixed rate for a fixed time and records their latency. Requests are sent on a timetable that does not wait for earlier responses,
+	 * so a slow server does not slow the load down, and latency is measured from when each request was scheduled to be sent. Uses the connection pool if one
+	 * is configured.
+	 *
+	 * @param method
+	 *            The HTTP method used to send the requests
+	 * @param url
+	 *            The URL to send the requests to
+	 * @param requestsPerSecond
+	 *            The rate requests are sent at
+	 * @param duration
+	 *            How long to send requests for
+	 * @param durationUnit
+	 *            The unit of duration
+	 * @param templateIndex
+	 *            The index of a configured web client request whose headers and body, or body file, are sent with every request. If null requests have no
+	 *            headers or body.
+	 * @param maxInFlight
+	 *            The number of requests that may be waiting for a response at the same time. If null 200 are allowed.
+	 */
+	@When("^web client sends (GET|POST|HEAD|PUT|OPTIONS|DELETE|TRACE|CONNECT|MOVE) requests to \"(http://.*)\" at (\\d+) requests per second for (\\d+) (seconds|milliseconds)(?: using request (\\d+) as a template)?(?: with at most (\\d+) requests in flight)?$")
+	public void webClientSendsLoad(HttpMethod method, String url, int requestsPerSecond, int duration, TimeUnit durationUnit, Integer templateIndex,
+			Integer maxInFlight) throws Exception {
+
+		HttpRequestData requestData = new HttpRequestData();
+		if (templateIndex != null) {
+			HttpRequestData template = getOrCreateRequestData(templateIndex);
+			for (NameValuePair header : template.getHeaders()) {
+				requestData.setHeader(header);
+			}
+			requestData.setBody(template.getBody());
+			requestData.setBodyFile(template.getBodyFile(), template.isBodyFileChunked(), template.isBodyFileGzipped());
+		}
+		requestData.setUrl(url);
+		requestData.setRequestMethod(method);
+
+		loadGenerator = new LoadGenerator(requestData, requestsPerSecond, durationUnit.toMillis(duration), maxInFlight == null ? 200 : maxInFlight);
+		loadGenerator.run(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData requestData) throws Exception {
+				return sendRequest(requestData);
+			}
+		});
+	}
+
+	/**
+	 * Sends one request for each row of a table and checks each response's status code as it arrives. Responses are not kept: use the bulk run steps to
+	 * validate the results. The columns are Method, URL, Body, Body File, Expected Status, and any number of "Header &lt;name&gt;" columns. Method and URL are
+	 * required. If Expected Status is empty the response must have a status code less than 400. Uses the connection pool or asynchronous engine if one is
+	 * configured.
+	 *
+	 * @param concurrency
+	 *            The maximum number of requests sent at the same time. If null the requests are sent one at a time in order.
+	 * @param rows
+	 *            The requests to send
+	 */
+	@When("^web client sends these requests(?: with concurrency (\\d+))?:$")
+	public void webClientSendsTheseRequests(Integer concurrency, List<Map<String, String>> rows) throws Exception {
+
+		runBulkRequests(rows.iterator(), concurrency);
+	}
+
+	/**
+	 * Sends one request for each row of a CSV file and checks each response's status code as it arrives. The file is read a row at a time as requests are
+	 * sent and responses are not kept, so files of any size run in constant memory. The first row holds the column names. The columns are the same as for
+	 * {@link #webClientSendsTheseRequests(Integer, List)}.
+	 *
+	 * @param file
+	 *            The path of the CSV file. It must be UTF-8.
+	 * @param concurrency
+	 *            The maximum number of requests sent at the same time. If null the requests are sent one at a time in order.
+	 */
+	@When("^web client sends the requests in CSV file \"(.+)\"(?: with concurrency (\\d+))?$")
+	public void webClientSendsRequestsInCsvFile(String file, Integer concurrency) throws Exception {
+
+		CsvRowIterator rows = new CsvRowIterator(new BufferedReader(new InputStreamReader(new FileInputStream(file), DataFormat.UTF8)));
+		try {
+			runBulkRequests(rows, concurrency);
+		} finally {
+			closeQuietly(rows);
+		}
+	}
+
+	private void runBulkRequests(Iterator<Map<String, String>> rows, Integer concurrency) throws Exception {
+
+		bulkRunner = new BulkRequestRunner(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData requestData) throws Exception {
+				return sendRequest(requestData);
+			}
+		}, concurrency == null ? 1 : concurrency);
+		bulkRunner.run(rows);
+	}
+
+	private List<HttpResponseData> sendAsync(List<HttpRequestData> requestData, int maxOutstanding) throws Exception {
+
+		if (bodyCapture != null) {
+			throw new RelishException("The web client asynchronous engine can not stream response bodies");
+		}
+		for (HttpRequestData data : requestData) {
+			if (data.getBodyFile() != null) {
+				throw new RelishException("The web client asynchronous engine can not stream request body files");
+			}
+		}
+		return asyncEngine.sendAll(requestData, maxOutstanding);
+	}
+
+	private HttpResponseData sendRequest(HttpRequestData requestData) throws Exception {
+
+		if (asyncEngine != null) {
+			return sendAsync(Collections.singletonList(requestData), 1).get(0);
+		}
+		if (connectionPool != null) {
+			return connectionPool.send(requestData, bodyCapture);
+		}
+
+		File bodyFile = requestData.getBodyFile();
+		byte[] body = bodyFile == null ? requestData.getBody() : null;
+		HttpURLConnection conn = (HttpURLConnection) new URL(requestData.getUrl()).openConnection();
+		conn.setDoOutput(body != null || bodyFile != null);
+		conn.setRequestMethod(requestData.getRequestMethod().toString());
+		for (NameValuePair header : requestData.getHeaders()) {
+			conn.setRequestProperty(header.getName(), header.getValue());
+		}
+		if (bodyFile != null) {
+			setStreamingMode(conn, requestData);
+		}
+		long startNanos = System.nanoTime();
+		conn.connect();
+		long connectNanos = System.nanoTime() - startNanos;
+
+		if (body != null) {
+			RelishUtil.writeToOutputStream(conn.getOutputStream(), body);
+		}
+		long uploadBytes = 0;
+		long uploadNanos = 0;
+		if (bodyFile != null) {
+			long uploadStartNanos = System.nanoTime();
+			OutputStream out = conn.getOutputStream();
+			uploadBytes = RequestBodyWriter.write(bodyFile, requestData.isBodyFileGzipped(), out);
+			out.close();
+			uploadNanos = System.nanoTime() - uploadStartNanos;
+		}
+
+		HttpResponseData responseData = new HttpResponseData();
+		// blocks until the status line has been read
+		int statusCode = conn.getResponseCode();
+		long firstByteNanos = System.nanoTime() - startNanos;
+		responseData.setStatusCode(statusCode);
+		for (String name : conn.getHeaderFields().keySet()) {
+			if (name != null) {
+				responseData.setHeader(name, conn.getHeaderField(name));
+			}
+		}
+		if (bodyCapture == null) {
 			responseData.setBody(getResponseBody(conn));
+		} else {
+			responseData.setBodySummary(captureResponseBody(conn, bodyCapture));
+		}
+		responseData.setTimings(connectNanos, firstByteNanos, System.nanoTime() - startNanos);
+		responseData.setUpload(uploadBytes, uploadNanos);
+
+		conn.disconnect();
+
+		return responseData;
+	}
 
-			conn.disconnect();
+	/**
+	 * Makes the connection stream the request body file instead of buffering the whole body to find its length
+	 */
+	private void setStreamingMode(HttpURLConnection conn, HttpRequestData requestData) {
+
+		if (requestData.isBodyFileGzipped() && requestData.getHeader("Content-Encoding") == null) {
+			conn.setRequestProperty("Content-Encoding", "gzip");
+		}
+		if (requestData.isBodyFileChunked()) {
+			conn.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
+			return;
+		}
+
+		long length = requestData.getBodyFile().length();
+		if (length > Integer.MAX_VALUE) {
+			// HttpURLConnection only takes a long length from Java 7 on
+			throw new RelishException("Web client request body file %s is over 2 GB so it must be sent chunked or with a connection pool", requestData
+					.getBodyFile());
+		}
+		conn.setFixedLengthStreamingMode((int) length);
+	}
+
+	private BodySummary captureResponseBody(HttpURLConnection conn, BodyCapture capture) throws IOException {
+
+		InputStream in = getResponseStream(conn);
+		if (in == null) {
+			return BodySummary.of(null);
+		}
+		try {
+			return capture.capture(in);
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private InputStream getResponseStream(HttpURLConnection conn) {
+
+		try {
+			return conn.getInputStream();
+		} catch (IOException e) {
+			return conn.getErrorStream();
 		}
 	}
 
@@ -189,12 +577,119 @@ public final class WebClientStepDefs {
 
 		int end = getEndIndex(startIndex, endIndex);
 		for (int i = startIndex; i <= end; i++) {
-			String bodyText = bodyFormat.bytesToText(getRequiredResponseData(i).getBody());
+			HttpResponseData responseData = getRequiredResponseData(i);
+			if (responseData.getBody() == null && responseData.getBodySummary() != null) {
+				throw new RelishException("Web client response %d body was streamed so only its size, digest, lines, start and end can be validated", i);
+			}
+			String bodyText = bodyFormat.bytesToText(responseData.getBody());
 			bodyRegex = bodyFormat.normalizeRegex(bodyRegex);
 			assertThat(bodyText, matches(bodyRegex), "Web client response %d body does not match", i);
 		}
 	}
 
+	/**
+	 * Validates the size of web client response bodies. Works for bodies kept in memory and streamed bodies.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param sizeQuantifier
+	 *            How to evaluate the size
+	 * @param size
+	 *            The size in bytes
+	 */
+	@Then("^web client responses? (\\d+)(?: thru (\\d+))? body size should be (at least|at most|exactly) (\\d+) bytes$")
+	public void webClientResponseBodySizeShouldBe(int startIndex, Integer endIndex, @Transform(CountQuantifierTransformer.class) CountQuantifier sizeQuantifier,
+			long size) {
+
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			assertThat(getBodySummary(i).getSize(), sizeQuantifier.newMatcher(size), "Web client response %d body size does not match", i);
+		}
+	}
+
+	/**
+	 * Validates the digest of web client response bodies. Works for bodies kept in memory and streamed bodies.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param algorithm
+	 *            SHA-256 or CRC-32
+	 * @param digest
+	 *            The expected digest in hex. Case is ignored.
+	 */
+	@Then("^web client responses? (\\d+)(?: thru (\\d+))? body (SHA-256|CRC-32) should be \"([0-9a-fA-F]+)\"$")
+	public void webClientResponseBodyDigestShouldBe(int startIndex, Integer endIndex, String algorithm, String digest) {
+
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			BodySummary summary = getBodySummary(i);
+			String actual = "SHA-256".equals(algorithm) ? summary.getSha256() : summary.getCrc32();
+			assertThat(actual, equalTo(digest.toLowerCase()), "Web client response %d body %s does not match", i, algorithm);
+		}
+	}
+
+	/**
+	 * Validates the number of lines in web client response bodies, for example the number of records in a CSV export. A last line without a newline is
+	 * counted. Works for bodies kept in memory and streamed bodies.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param lineQuantifier
+	 *            How to evaluate the line count
+	 * @param lineCount
+	 *            The number of lines
+	 */
+	@Then("^web client responses? (\\d+)(?: thru (\\d+))? body should have (at least|at most|exactly) (\\d+) lines?$")
+	public void webClientResponseBodyLineCountShouldBe(int startIndex, Integer endIndex,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier lineQuantifier, long lineCount) {
+
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			assertThat(getBodySummary(i).getLineCount(), lineQuantifier.newMatcher(lineCount), "Web client response %d body line count does not match", i);
+		}
+	}
+
+	/**
+	 * Validates the start or end of web client response bodies. For streamed bodies only the bytes kept in memory are matched so the regular expression must
+	 * match exactly the number of bytes kept.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param part
+	 *            start to match the first bytes kept or end to match the last bytes kept
+	 * @param bodyFormat
+	 *            The format the body is in
+	 * @param regex
+	 *            A regular expression which the kept bytes must match. If it contains multiple lines each line will have all leading and trailing whitespace
+	 *            removed then all lines will be concatenated into a single line.
+	 */
+	@Then("^web client responses? (\\d+)(?: thru (\\d+))? body (start|end) should match this (JSON|XML|text):$")
+	public void webClientResponseBodyPartShouldMatch(int startIndex, Integer endIndex, String part, DataFormat bodyFormat, String regex) {
+
+		String normalizedRegex = bodyFormat.normalizeRegex(regex);
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			BodySummary summary = getBodySummary(i);
+			byte[] bytes = "start".equals(part) ? summary.getHead() : summary.getTail();
+			if (bytes.length == 0 && summary.getSize() > 0) {
+				throw new RelishException("Web client response %d did not keep the %s of its body", i, part);
+			}
+			assertThat(bodyFormat.bytesToText(bytes), matches(normalizedRegex), "Web client response %d body %s does not match", i, part);
+		}
+	}
+
 	/**
 	 * Validates the headers received in a response to the specified web client. The values are in a table with "Name" and "Value" columns like this:
 	 * <code><pre>
@@ -278,6 +773,122 @@ public final class WebClientStepDefs {
 		}
 	}
 
+	/**
+	 * Validates that each of the specified web client responses was completely received within a time limit of when its request was started
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param time
+	 *            The time limit
+	 * @param timeUnit
+	 *            Unit of measure for the time
+	 */
+	@Then("^web client responses? (\\d+)(?: thru (\\d+))? should complete within (\\d+) (seconds|milliseconds)$")
+	public void webClientResponseShouldCompleteWithin(int startIndex, Integer endIndex, long time, TimeUnit timeUnit) {
+
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			assertThat(getRequiredResponseData(i).getTotalNanos(), lte(timeUnit.toNanos(time)), "Web client response %d total time in nanoseconds is too long",
+					i);
+		}
+	}
+
+	/**
+	 * Validates a statistic of the times taken by the specified web client responses
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param timing
+	 *            The time to check:
+	 *            <ul>
+	 *            <li>connect time: Time taken to open the connection. 0 for requests sent on a reused connection.</li>
+	 *            <li>time to first byte: Time from starting the request until the first byte of the response arrived</li>
+	 *            <li>total time: Time from starting the request until the whole response was read</li>
+	 *            </ul>
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @param timeQuantifier
+	 *            How to evaluate the time
+	 * @param time
+	 *            The time
+	 * @param timeUnit
+	 *            Unit of measure for the time
+	 */
+	@Then("^web client responses? (\\d+)(?: thru (\\d+))? (connect time|time to first byte|total time) (min|mean|max|p\\d+(?:\\.\\d+)?) should be (at least|at most) (\\d+) (seconds|milliseconds|microseconds)$")
+	public void webClientResponseTimeShouldBe(int startIndex, Integer endIndex, String timing, String statistic,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier timeQuantifier, long time, TimeUnit timeUnit) {
+
+		Histogram histogram = getResponseTimes(startIndex, endIndex, timing);
+		assertThat(histogram.getStatistic(statistic), timeQuantifier.newMatcher(timeUnit.toNanos(time)),
+				"Web client responses %d thru %d %s %s in nanoseconds does not match", startIndex, getEndIndex(startIndex, endIndex), timing, statistic);
+	}
+
+	/**
+	 * Validates the upload throughput of each web client request in the range that streamed its body from a file. Throughput is the number of body bytes
+	 * sent, compressed if the body was gzipped, divided by the time taken to write them.
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to validate: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to validate: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 * @param throughputQuantifier
+	 *            How to evaluate the throughput
+	 * @param throughput
+	 *            The throughput
+	 * @param unit
+	 *            The unit of the throughput: bytes, KB, or MB per second. KB is 1024 bytes.
+	 */
+	@Then("^web client requests? (\\d+)(?: thru (\\d+))? upload throughput should be (at least|at most) (\\d+(?:\\.\\d+)?) (bytes|KB|MB) per second$")
+	public void webClientUploadThroughputShouldBe(int startIndex, Integer endIndex,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier throughputQuantifier, double throughput, String unit) {
+
+		double bytesPerUnit = "MB".equals(unit) ? 1024 * 1024 : "KB".equals(unit) ? 1024 : 1;
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			assertThat(getUploadBytesPerSecond(i) / bytesPerUnit, throughputQuantifier.newMatcher(throughput),
+					"Web client request %d upload throughput in %s per second does not match", i, unit);
+		}
+	}
+
+	/**
+	 * Prints connect time, time to first byte, and total time statistics, and the upload throughput of bodies sent from files, for the specified web client responses
+	 *
+	 * @param startIndex
+	 *            The index of the first request in the range to configure: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to configure: 1 is the first request, 2 is the seconds request, etc. If null then startIndex is
+	 *            used.
+	 */
+	@Then("^print web client responses? (\\d+)(?: thru (\\d+))? timings$")
+	public void printWebClientResponseTimings(int startIndex, Integer endIndex) {
+
+		int end = getEndIndex(startIndex, endIndex);
+		StringBuilder report = new StringBuilder(String.format("Web client responses %d thru %d timings:%nconnect time: %s%ntime to first byte: %s%ntotal time: %s",
+				startIndex, end, getResponseTimes(startIndex, end, "connect time").toReport(TimeUnit.NANOSECONDS),
+				getResponseTimes(startIndex, end, "time to first byte").toReport(TimeUnit.NANOSECONDS),
+				getResponseTimes(startIndex, end, "total time").toReport(TimeUnit.NANOSECONDS)));
+
+		long uploadBytes = 0;
+		long uploadNanos = 0;
+		for (int i = startIndex; i <= end; i++) {
+			HttpResponseData responseData = getRequiredResponseData(i);
+			uploadBytes += responseData.getUploadBytes();
+			uploadNanos += responseData.getUploadNanos();
+		}
+		if (uploadNanos > 0) {
+			report.append(String.format("%nupload: bytes=%d, time=%.3fms, throughput=%.1fMB/s", uploadBytes, uploadNanos / 1000000.0, uploadBytes
+					* (double) TimeUnit.SECONDS.toNanos(1) / uploadNanos / (1024 * 1024)));
+		}
+		System.out.println(report);
+	}
+
 	/**
 	 * Validates the number of responses received by the specified web client.
 	 * 
@@ -289,7 +900,225 @@ public final class WebClientStepDefs {
 	@Then("^web client should have (at least|at most|exactly) (\\d+) responses?$")
 	public void webClientShouldHaveResponseCount(@Transform(CountQuantifierTransformer.class) CountQuantifier responseCountQuantifier, int responseCount) {
 
-		assertThat(responses.size(), responseCountQuantifier.newMatcher(responseCount), "Web client response counts do not match");
+		// responses are stored at their request index so requests that were not sent leave gaps
+		int count = 0;
+		for (HttpResponseData response : responses) {
+			if (response != null) {
+				count++;
+			}
+		}
+		assertThat(count, responseCountQuantifier.newMatcher(responseCount), "Web client response counts do not match");
+	}
+
+	/**
+	 * Validates the statistics of the web client connection pool
+	 *
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The count to match
+	 * @param stat
+	 *            The statistic to check:
+	 *            <ul>
+	 *            <li>hits: Requests sent on a connection reused from the pool</li>
+	 *            <li>new connections: Connections opened</li>
+	 *            <li>evictions: Pooled connections closed because they were idle too long or the server had closed them</li>
+	 *            </ul>
+	 */
+	@Then("^web client connection pool should have (at least|at most|exactly) (\\d+) (hits|new connections|evictions)$")
+	public void webClientConnectionPoolShouldHave(@Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, long count, String stat) {
+
+		HttpConnectionPool pool = getRequiredConnectionPool();
+		long actual = "hits".equals(stat) ? pool.getHitCount() : "new connections".equals(stat) ? pool.getNewConnectionCount() : pool.getEvictionCount();
+		assertThat(actual, countQuantifier.newMatcher(count), "Web client connection pool %s do not match", stat);
+	}
+
+	/**
+	 * Prints the web client connection pool statistics: hits, new connections, evictions, and idle connections
+	 */
+	@Then("^print web client connection pool stats$")
+	public void printWebClientConnectionPoolStats() {
+
+		System.out.println(String.format("Web client connection pool: %s", getRequiredConnectionPool().toReport()));
+	}
+
+	/**
+	 * Validates a statistic of the latency of the requests sent by the last load run. Latency is measured from when each request was scheduled to be sent.
+	 *
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @param timeQuantifier
+	 *            How to evaluate the time
+	 * @param time
+	 *            The time
+	 * @param timeUnit
+	 *            Unit of measure for the time
+	 */
+	@Then("^web client load latency (min|mean|max|p\\d+(?:\\.\\d+)?) should be (at least|at most) (\\d+) (seconds|milliseconds|microseconds)$")
+	public void webClientLoadLatencyShouldBe(String statistic, @Transform(CountQuantifierTransformer.class) CountQuantifier timeQuantifier, long time,
+			TimeUnit timeUnit) {
+
+		assertThat(getRequiredLoadGenerator().getLatencyNanos().getStatistic(statistic), timeQuantifier.newMatcher(timeUnit.toNanos(time)),
+				"Web client load latency %s in nanoseconds does not match", statistic);
+	}
+
+	/**
+	 * Validates the percentage of the requests sent by the last load run that failed. A request fails if it could not be sent or got a status code of 400 or
+	 * more.
+	 *
+	 * @param percentQuantifier
+	 *            How to evaluate the percentage
+	 * @param percent
+	 *            The percentage of completed requests
+	 */
+	@Then("^web client load error rate should be (at least|at most) (\\d+(?:\\.\\d+)?) percent$")
+	public void webClientLoadErrorRateShouldBe(@Transform(CountQuantifierTransformer.class) CountQuantifier percentQuantifier, double percent) {
+
+		assertThat(getRequiredLoadGenerator().getErrorPercent(), percentQuantifier.newMatcher(percent), "Web client load error rate does not match");
+	}
+
+	/**
+	 * Validates the number of requests sent by the last load run
+	 *
+	 * @param measure
+	 *            sent, completed, or failed
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of requests
+	 */
+	@Then("^web client load should have (sent|completed|failed) (at least|at most|exactly) (\\d+) requests?$")
+	public void webClientLoadShouldHaveRequestCount(String measure, @Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, long count) {
+
+		LoadGenerator generator = getRequiredLoadGenerator();
+		long actual = "sent".equals(measure) ? generator.getSentCount() : "completed".equals(measure) ? generator.getCompletedCount() : generator
+				.getFailedCount();
+		assertThat(actual, countQuantifier.newMatcher(count), "Web client load %s request count does not match", measure);
+	}
+
+	/**
+	 * Prints the results of the last load run: target and achieved rates, request counts, and latency and service time statistics
+	 */
+	@Then("^print web client load stats$")
+	public void printWebClientLoadStats() {
+
+		System.out.println(String.format("Web client load: %s", getRequiredLoadGenerator().toReport()));
+	}
+
+	private LoadGenerator getRequiredLoadGenerator() {
+
+		if (loadGenerator == null) {
+			throw new RelishException("The web client has not sent a load");
+		}
+		return loadGenerator;
+	}
+
+	/**
+	 * Validates the number of requests sent by the last bulk run. The assertion message lists the first failures.
+	 *
+	 * @param measure
+	 *            sent, passed, or failed
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of requests
+	 */
+	@Then("^web client bulk run should have (sent|passed|failed) (at least|at most|exactly) (\\d+) requests?$")
+	public void webClientBulkRunShouldHaveRequestCount(String measure, @Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier,
+			long count) {
+
+		BulkRequestRunner runner = getRequiredBulkRunner();
+		long actual = "sent".equals(measure) ? runner.getSentCount() : "passed".equals(measure) ? runner.getPassedCount() : runner.getFailedCount();
+		assertThat(actual, countQuantifier.newMatcher(count), "Web client bulk run %s request count does not match. Failures: %s", measure,
+				runner.getFailures());
+	}
+
+	/**
+	 * Prints the results of the last bulk run: request counts, status codes, latency statistics, and the first failures
+	 */
+	@Then("^print web client bulk run stats$")
+	public void printWebClientBulkRunStats() {
+
+		System.out.println(String.format("Web client bulk run: %s", getRequiredBulkRunner().toReport()));
+	}
+
+	private BulkRequestRunner getRequiredBulkRunner() {
+
+		if (bulkRunner == null) {
+			throw new RelishException("The web client has not sent a bulk run");
+		}
+		return bulkRunner;
+	}
+
+	/**
+	 * Validates the largest number of requests the web client asynchronous engine had waiting for a response at the same time
+	 *
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of requests
+	 */
+	@Then("^web client should have had (at least|at most|exactly) (\\d+) outstanding requests?$")
+	public void webClientShouldHaveHadOutstandingRequests(@Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, int count) {
+
+		if (asyncEngine == null) {
+			throw new RelishException("The web client is not using the asynchronous engine");
+		}
+		assertThat(asyncEngine.getPeakOutstanding(), countQuantifier.newMatcher(count), "Web client outstanding request count does not match");
+	}
+
+	private void closeEngines() {
+
+		if (connectionPool != null) {
+			connectionPool.close();
+			connectionPool = null;
+		}
+		if (asyncEngine != null) {
+			asyncEngine.stop();
+			asyncEngine = null;
+		}
+	}
+
+	private HttpConnectionPool getRequiredConnectionPool() {
+
+		if (connectionPool == null) {
+			throw new RelishException("The web client is not using a connection pool");
+		}
+		return connectionPool;
+	}
+
+	/**
+	 * @return Histogram of the nanoseconds of the specified timing for each response in the range
+	 */
+	private Histogram getResponseTimes(int startIndex, Integer endIndex, String timing) {
+
+		Histogram histogram = new Histogram();
+		int end = getEndIndex(startIndex, endIndex);
+		for (int i = startIndex; i <= end; i++) {
+			HttpResponseData responseData = getRequiredResponseData(i);
+			histogram.record("connect time".equals(timing) ? responseData.getConnectNanos() : "time to first byte".equals(timing) ? responseData
+					.getFirstByteNanos() : responseData.getTotalNanos());
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return The upload throughput of the specified request in bytes per second
+	 */
+	private double getUploadBytesPerSecond(int index) {
+
+		HttpResponseData responseData = getRequiredResponseData(index);
+		if (responseData.getUploadNanos() == 0) {
+			throw new RelishException("Web client request %d did not upload a body file", index);
+		}
+		return responseData.getUploadBytes() * (double) TimeUnit.SECONDS.toNanos(1) / responseData.getUploadNanos();
+	}
+
+	private BodySummary getBodySummary(int index) {
+
+		HttpResponseData responseData = getRequiredResponseData(index);
+		BodySummary summary = responseData.getBodySummary();
+		return summary != null ? summary : BodySummary.of(responseData.getBody());
 	}
 
 	private HttpRequestData getOrCreateRequestData(int index) {
@@ -313,18 +1142,6 @@ public final class WebClientStepDefs {
 		return responseData;
 	}
 
-	private HttpResponseData getOrCreateResponseData(int index) {
-
-		index--;
-		HttpResponseData responseData = responses.get(index);
-		if (responseData == null) {
-			responseData = new HttpResponseData();
-			responses.set(index, responseData);
-		}
-
-		return responseData;
-	}
-
 	private int getEndIndex(int startIndex, Integer endIndex) {
 		return endIndex == null ? startIndex : endIndex;
 	}
@@ -0,0 +1,305 @@
+package net.sf.relish.web.service;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+
+/**
+ * Makes a mock web service behave like a saturated backend. Requests are admitted while fewer than the concurrency limit are in flight. Requests over the limit
+ * wait in a bounded queue, suspended with a {@link Continuation} so waiting does not use a thread, until a slot frees up or they time out. A token bucket
+ * limits the rate requests are admitted at. Requests that exceed the rate limit are rejected with {@link #TOO_MANY_REQUESTS_429}. Requests that find the queue
+ * full or time out in it are rejected with 503. A request that finds the queue full gives back its token so saturation does not lower the admitted rate.
+ * Nothing is limited until one of the limits is set. This class is thread safe and does not lock.
+ */
+final class AdmissionController {
+
+	/**
+	 * Status code sent when a request exceeds the rate limit
+	 */
+	static final int TOO_MANY_REQUESTS_429 = 429;
+
+	/**
+	 * The result of {@link AdmissionController#admit(HttpServletRequest)}
+	 */
+	enum Decision {
+		/**
+		 * The request may be handled. Call {@link AdmissionController#release(HttpServletRequest)} when its response has been sent.
+		 */
+		ADMITTED,
+		/**
+		 * The request was suspended to wait in the queue. It is redispatched when it is given a slot or times out.
+		 */
+		QUEUED,
+		/**
+		 * The request was rejected because it exceeds the rate limit
+		 */
+		RATE_LIMITED,
+		/**
+		 * The request was rejected because the queue was full or the request timed out in the queue
+		 */
+		SATURATED
+	}
+
+	private static final String WAITER_ATTRIBUTE = AdmissionController.class.getName() + ".waiter";
+	private static final String SLOT_ATTRIBUTE = AdmissionController.class.getName() + ".slot";
+	private static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	private volatile boolean enabled;
+	private volatile int maxConcurrent = Integer.MAX_VALUE;
+	private volatile int maxQueued;
+	private volatile long queueTimeoutMillis = DEFAULT_QUEUE_TIMEOUT_MILLIS;
+	private volatile long emissionIntervalNanos;
+	private volatile long burstToleranceNanos;
+	private volatile int retryAfterSeconds = 1;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger queueSize = new AtomicInteger();
+	private final Queue<Waiter> queue = new ConcurrentLinkedQueue<Waiter>();
+	// theoretical arrival time of the next request for the generic cell rate algorithm form of the token bucket
+	private final AtomicLong theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+
+	private final AtomicLong admittedCount = new AtomicLong();
+	private final AtomicLong queuedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * Limits the number of requests in flight
+	 *
+	 * @param maxConcurrent
+	 *            The maximum number of requests being handled at the same time. Requests waiting for a delayed response count as being handled.
+	 * @param maxQueued
+	 *            The maximum number of requests waiting for a slot. 0 to reject requests as soon as the limit is reached.
+	 * @param queueTimeoutMillis
+	 *            How long a request waits in the queue before it is rejected. 0 to use the default of 30 seconds.
+	 */
+	void setConcurrencyLimit(int maxConcurrent, int maxQueued, long queueTimeoutMillis) {
+
+		this.maxConcurrent = validateGreaterThan("maxConcurrent", maxConcurrent, 0);
+		this.maxQueued = validateGreaterThan("maxQueued", maxQueued, -1);
+		this.queueTimeoutMillis = validateGreaterThan("queueTimeoutMillis", queueTimeoutMillis, -1L) == 0 ? DEFAULT_QUEUE_TIMEOUT_MILLIS : queueTimeoutMillis;
+		enabled = true;
+	}
+
+	/**
+	 * Limits the rate requests are admitted at with a token bucket
+	 *
+	 * @param requestsPerSecond
+	 *            The rate tokens are added to the bucket
+	 * @param burst
+	 *            The size of the bucket: the number of requests that may be admitted at once after a quiet period
+	 */
+	void setRateLimit(int requestsPerSecond, int burst) {
+
+		validateGreaterThan("requestsPerSecond", requestsPerSecond, 0);
+		validateGreaterThan("burst", burst, 0);
+
+		emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+		burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+		theoreticalArrivalNanos.set(System.nanoTime());
+		enabled = true;
+	}
+
+	/**
+	 * @param retryAfterSeconds
+	 *            The Retry-After value sent when a request is rejected because the service is saturated. Rate limited requests are told how long until the
+	 *            bucket has a token.
+	 */
+	void setRetryAfterSeconds(int retryAfterSeconds) {
+		this.retryAfterSeconds = validateGreaterThan("retryAfterSeconds", retryAfterSeconds, -1);
+	}
+
+	/**
+	 * @return True if any limit has been set
+	 */
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Decides whether a request may be handled. Call this on every dispatch of the request until it returns something other than {@link Decision#QUEUED}.
+	 */
+	Decision admit(HttpServletRequest request) {
+
+		Waiter waiter = (Waiter) request.getAttribute(WAITER_ATTRIBUTE);
+		if (waiter != null) {
+			// redispatched from the queue: either given a slot by release() or timed out
+			request.removeAttribute(WAITER_ATTRIBUTE);
+			if (waiter.claimed.compareAndSet(false, true)) {
+				queueSize.decrementAndGet();
+				queue.remove(waiter);
+				rejectedCount.incrementAndGet();
+				return Decision.SATURATED;
+			}
+			return admitted(request);
+		}
+
+		long tokenNanos = emissionIntervalNanos;
+		if (tokenNanos > 0 && !tryTakeToken()) {
+			rejectedCount.incrementAndGet();
+			return Decision.RATE_LIMITED;
+		}
+
+		if (tryAcquireSlot()) {
+			return admitted(request);
+		}
+
+		for (int size = queueSize.get(); size < maxQueued; size = queueSize.get()) {
+			if (queueSize.compareAndSet(size, size + 1)) {
+				queuedCount.incrementAndGet();
+				waiter = new Waiter(ContinuationSupport.getContinuation(request));
+				request.setAttribute(WAITER_ATTRIBUTE, waiter);
+				waiter.continuation.setTimeout(queueTimeoutMillis);
+				waiter.continuation.suspend();
+				queue.add(waiter);
+				// a slot may have been released before the waiter was added to the queue
+				grantWaitingRequests();
+				return Decision.QUEUED;
+			}
+		}
+
+		// a request rejected because the queue is full was not admitted so it gives back its token
+		if (tokenNanos > 0) {
+			theoreticalArrivalNanos.addAndGet(-tokenNanos);
+		}
+		rejectedCount.incrementAndGet();
+		return Decision.SATURATED;
+	}
+
+	/**
+	 * Releases the slot held by the request, if any, and gives it to the next request in the queue
+	 */
+	void release(HttpServletRequest request) {
+
+		if (request.getAttribute(SLOT_ATTRIBUTE) == null) {
+			return;
+		}
+
+		request.removeAttribute(SLOT_ATTRIBUTE);
+		inFlight.decrementAndGet();
+		grantWaitingRequests();
+	}
+
+	/**
+	 * @return The number of seconds to send in the Retry-After header of a rejected request
+	 */
+	int getRetryAfterSeconds(Decision decision) {
+
+		if (decision != Decision.RATE_LIMITED) {
+			return retryAfterSeconds;
+		}
+
+		long now = System.nanoTime();
+		long tat = theoreticalArrivalNanos.get();
+		long waitNanos = Math.max(0, tat - now - burstToleranceNanos);
+		return (int) Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+	}
+
+	/**
+	 * @return The number of requests admitted
+	 */
+	long getAdmittedCount() {
+		return admittedCount.get();
+	}
+
+	/**
+	 * @return The number of requests that waited in the queue, whether they were eventually admitted or rejected
+	 */
+	long getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	/**
+	 * @return The number of requests rejected because of the rate limit, a full queue, or timing out in the queue
+	 */
+	long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return The number of admitted requests currently holding a slot
+	 */
+	int getInFlight() {
+		return inFlight.get();
+	}
+
+	private Decision admitted(HttpServletRequest request) {
+
+		request.setAttribute(SLOT_ATTRIBUTE, Boolean.TRUE);
+		admittedCount.incrementAndGet();
+		return Decision.ADMITTED;
+	}
+
+	/**
+	 * Takes a token from the bucket if one is available
+	 *
+	 * @return True if a token was taken
+	 */
+	private boolean tryTakeToken() {
+
+		for (;;) {
+			long now = System.nanoTime();
+			long tat = theoreticalArrivalNanos.get();
+			long start = tat - now < 0 ? now : tat;
+			if (start - now > burstToleranceNanos) {
+				return false;
+			}
+			if (theoreticalArrivalNanos.compareAndSet(tat, start + emissionIntervalNanos)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean tryAcquireSlot() {
+
+		for (int current = inFlight.get(); current < maxConcurrent; current = inFlight.get()) {
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void grantWaitingRequests() {
+
+		while (!queue.isEmpty() && tryAcquireSlot()) {
+			Waiter waiter = queue.poll();
+			if (waiter == null || !waiter.claimed.compareAndSet(false, true)) {
+				// the queue emptied or the waiter timed out: give the slot back and look again
+				inFlight.decrementAndGet();
+				continue;
+			}
+
+			queueSize.decrementAndGet();
+			try {
+				waiter.continuation.resume();
+			} catch (IllegalStateException e) {
+				// the waiter's timeout redispatch is already running and will see that it was given the slot
+			}
+		}
+	}
+
+	/**
+	 * A queued request. Whichever of {@link AdmissionController#release(HttpServletRequest)} and the queue timeout claims it first decides whether it is
+	 * admitted or rejected.
+	 */
+	private static final class Waiter {
+
+		private final Continuation continuation;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		Waiter(Continuation continuation) {
+			this.continuation = continuation;
+		}
+	}
+}
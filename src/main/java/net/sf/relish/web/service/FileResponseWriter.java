@@ -0,0 +1,185 @@
+package net.sf.relish.web.service;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+
+/**
+ * Writes a file as the body of a mock web service response without reading the file into the heap. When the whole body can be sent in one piece the file is
+ * memory mapped and handed to Jetty as a direct buffer, which is the same path Jetty's DefaultServlet uses for static files, so the bytes go from the page
+ * cache to the socket without being copied into Java arrays. Otherwise the file is streamed through a small fixed size buffer. Single byte range requests are
+ * supported.
+ */
+final class FileResponseWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+	private static final long[] UNSATISFIABLE = new long[0];
+
+	private FileResponseWriter() {
+	}
+
+	/**
+	 * Writes the response headers and body. The response status must already be set. Range requests are only honored when the status is 200.
+	 *
+	 * @param file
+	 *            The file to send
+	 * @param chunked
+	 *            True to send the body with chunked transfer encoding instead of a Content-Length
+	 * @param gzip
+	 *            True to gzip the body as it is sent if the request accepts gzip encoding. Gzipped bodies are always chunked and ignore range requests.
+	 * @return The number of body bytes sent. For gzipped bodies this is the compressed size.
+	 */
+	static long write(File file, boolean chunked, boolean gzip, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long length = channel.size();
+
+			if (gzip && acceptsGzip(request)) {
+				response.setHeader("Content-Encoding", "gzip");
+				response.setHeader("Vary", "Accept-Encoding");
+				if (head) {
+					return 0;
+				}
+				CountingOutputStream countingOut = new CountingOutputStream(response.getOutputStream());
+				GZIPOutputStream out = new GZIPOutputStream(countingOut, BUFFER_SIZE);
+				copy(channel, 0, length, out, chunked);
+				out.finish();
+				return countingOut.getByteCount();
+			}
+
+			response.setHeader("Accept-Ranges", "bytes");
+
+			long start = 0;
+			long end = length - 1;
+			String rangeHeader = request.getHeader("Range");
+			if (rangeHeader != null && response.getStatus() == HttpStatus.OK_200) {
+				long[] range = parseRange(rangeHeader, length);
+				if (range == UNSATISFIABLE) {
+					response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE_416);
+					response.setHeader("Content-Range", "bytes */" + length);
+					return 0;
+				}
+				if (range != null) {
+					start = range[0];
+					end = range[1];
+					response.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+					response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+				}
+			}
+
+			long count = end - start + 1;
+			if (!chunked) {
+				response.setHeader("Content-Length", Long.toString(count));
+			}
+
+			if (head || count == 0) {
+				return 0;
+			}
+
+			OutputStream out = response.getOutputStream();
+			if (!chunked && count <= Integer.MAX_VALUE && out instanceof AbstractHttpConnection.Output) {
+				// mapped buffers stay valid after the channel is closed
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, count);
+				((AbstractHttpConnection.Output) out).sendContent(new DirectNIOBuffer(mapped, true));
+				return count;
+			}
+
+			return copy(channel, start, count, out, chunked);
+		} finally {
+			closeQuietly(randomAccessFile);
+		}
+	}
+
+	/**
+	 * Parses a Range header. Only single ranges are supported. Multiple ranges and invalid headers are ignored so the whole file is sent, which RFC 2616
+	 * allows.
+	 *
+	 * @return The first and last byte positions, inclusive, an empty array if no bytes of the file are in the range, or null if the header is ignored
+	 */
+	static long[] parseRange(String rangeHeader, long length) {
+
+		Matcher matcher = RANGE.matcher(rangeHeader.trim());
+		if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+			return null;
+		}
+
+		try {
+			long start;
+			long end;
+			if (matcher.group(1).isEmpty()) {
+				// suffix range: the last N bytes
+				long suffixLength = Long.parseLong(matcher.group(2));
+				if (suffixLength == 0) {
+					return UNSATISFIABLE;
+				}
+				start = Math.max(0, length - suffixLength);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(matcher.group(1));
+				end = matcher.group(2).isEmpty() ? length - 1 : Math.min(length - 1, Long.parseLong(matcher.group(2)));
+				if (end < start && start < length) {
+					return null;
+				}
+			}
+
+			return start >= length ? UNSATISFIABLE : new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return True if the request accepts gzip encoding. Does not look at q values.
+	 */
+	private static boolean acceptsGzip(HttpServletRequest request) {
+
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+	}
+
+	private static long copy(FileChannel channel, long start, long count, OutputStream out, boolean flushEachBuffer) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, count)));
+		long position = start;
+		long remaining = count;
+		while (remaining > 0) {
+			buffer.clear();
+			if (remaining < buffer.capacity()) {
+				buffer.limit((int) remaining);
+			}
+			int len = channel.read(buffer, position);
+			if (len < 0) {
+				break;
+			}
+			out.write(buffer.array(), 0, len);
+			if (flushEachBuffer) {
+				out.flush();
+			}
+			position += len;
+			remaining -= len;
+		}
+
+		return count - remaining;
+	}
+}
@@ -0,0 +1,126 @@
+package net.sf.relish.web.service;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie that finds the value with the longest prefix of a key. Lookups do not lock or allocate. To change the contents build a new trie. This class
+ * is thread safe.
+ */
+final class PrefixTrie<V> {
+
+	private static final PrefixTrie<Object> EMPTY = new PrefixTrie<Object>(new Node<Object>(new char[0], newNodeArray(0), null));
+
+	private final Node<V> root;
+
+	private PrefixTrie(Node<V> root) {
+		this.root = root;
+	}
+
+	/**
+	 * @return A trie with no values
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> PrefixTrie<V> empty() {
+		return (PrefixTrie<V>) EMPTY;
+	}
+
+	/**
+	 * @param valuesByPrefix
+	 *            The values to put in the trie keyed by their prefix. Null values are ignored.
+	 * @return A new trie containing the values
+	 */
+	static <V> PrefixTrie<V> build(Map<String, V> valuesByPrefix) {
+
+		validateNotNull("valuesByPrefix", valuesByPrefix);
+
+		Builder<V> root = new Builder<V>();
+		for (Map.Entry<String, V> entry : valuesByPrefix.entrySet()) {
+			if (entry.getValue() == null) {
+				continue;
+			}
+
+			Builder<V> builder = root;
+			String prefix = entry.getKey();
+			for (int i = 0; i < prefix.length(); i++) {
+				Builder<V> child = builder.children.get(prefix.charAt(i));
+				if (child == null) {
+					child = new Builder<V>();
+					builder.children.put(prefix.charAt(i), child);
+				}
+				builder = child;
+			}
+			builder.value = entry.getValue();
+		}
+
+		return new PrefixTrie<V>(root.build());
+	}
+
+	/**
+	 * @return The value with the longest prefix that key starts with or null if there is none
+	 */
+	V findLongestPrefix(String key) {
+
+		Node<V> node = root;
+		V value = node.value;
+		for (int i = 0; i < key.length(); i++) {
+			node = node.getChild(key.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.value != null) {
+				value = node.value;
+			}
+		}
+
+		return value;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <V> Node<V>[] newNodeArray(int size) {
+		return new Node[size];
+	}
+
+	private static final class Node<V> {
+
+		// sorted so children can be found with a binary search
+		private final char[] keys;
+		private final Node<V>[] children;
+		private final V value;
+
+		Node(char[] keys, Node<V>[] children, V value) {
+			this.keys = keys;
+			this.children = children;
+			this.value = value;
+		}
+
+		Node<V> getChild(char key) {
+
+			int index = Arrays.binarySearch(keys, key);
+			return index < 0 ? null : children[index];
+		}
+	}
+
+	private static final class Builder<V> {
+
+		private final TreeMap<Character, Builder<V>> children = new TreeMap<Character, Builder<V>>();
+		private V value;
+
+		Node<V> build() {
+
+			char[] keys = new char[children.size()];
+			Node<V>[] nodes = newNodeArray(children.size());
+			int i = 0;
+			for (Map.Entry<Character, Builder<V>> entry : children.entrySet()) {
+				keys[i] = entry.getKey();
+				nodes[i] = entry.getValue().build();
+				i++;
+			}
+
+			return new Node<V>(keys, nodes, value);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package net.sf.relish.web.service;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.relish.RelishException;
+import net.sf.relish.web.HttpResponseData;
+
+/**
+ * Selects the response for requests that do not have a response configured for their index. Responses are chosen from a table built when the policy is
+ * created so selection is O(1) and does not allocate. This class is immutable and thread safe.
+ */
+final class ResponsePolicy {
+
+	private static final int MAX_MIX_TABLE_SIZE = 10000;
+
+	private final HttpResponseData[] responses;
+	private final boolean random;
+
+	private ResponsePolicy(HttpResponseData[] responses, boolean random) {
+		this.responses = responses;
+		this.random = random;
+	}
+
+	/**
+	 * @return A policy that cycles through the responses in order: the first request uses the first response, the second request uses the second response,
+	 *         etc, starting over after the last response
+	 */
+	static ResponsePolicy cyclic(List<HttpResponseData> responses) {
+
+		validateNotNull("responses", responses);
+		validateGreaterThan("responses.size()", responses.size(), 0);
+		return new ResponsePolicy(responses.toArray(new HttpResponseData[responses.size()]), false);
+	}
+
+	/**
+	 * @param statusCodeMix
+	 *            The status codes and their relative weights in the form <code>200:95, 500:4, 503:1</code>. The weights do not need to add up to any
+	 *            particular value.
+	 * @return A policy where each request gets a response with a status code chosen at random from the mix. The choice is a hash of the request index so it
+	 *         is repeatable.
+	 */
+	static ResponsePolicy statusCodeMix(String statusCodeMix) {
+
+		validateNotEmpty("statusCodeMix", statusCodeMix);
+
+		List<Integer> statusCodes = new ArrayList<Integer>();
+		List<Integer> weights = new ArrayList<Integer>();
+		int gcd = 0;
+		long totalWeight = 0;
+		for (String entry : quickSplit(statusCodeMix, ',')) {
+			String[] parts = entry.trim().split("\\s*:\\s*");
+			try {
+				if (parts.length != 2) {
+					throw new IllegalArgumentException();
+				}
+				int statusCode = validateInRange("statusCode", Integer.parseInt(parts[0]), 100, 599);
+				int weight = validateGreaterThan("weight", Integer.parseInt(parts[1]), -1);
+				if (weight > 0) {
+					statusCodes.add(statusCode);
+					weights.add(weight);
+					gcd = BigInteger.valueOf(gcd).gcd(BigInteger.valueOf(weight)).intValue();
+					totalWeight += weight;
+				}
+			} catch (IllegalArgumentException e) {
+				throw new RelishException(e, "Invalid status code mix entry \"%s\" in: %s", entry.trim(), statusCodeMix);
+			}
+		}
+
+		if (totalWeight == 0) {
+			throw new RelishException("Status code mix has no entries with a weight greater than 0: %s", statusCodeMix);
+		}
+
+		long tableSize = totalWeight / gcd;
+		if (tableSize > MAX_MIX_TABLE_SIZE) {
+			throw new RelishException("Status code mix weights are too fine grained. Reduce them to whole percentages or similar: %s", statusCodeMix);
+		}
+
+		HttpResponseData[] responses = new HttpResponseData[(int) tableSize];
+		int index = 0;
+		for (int i = 0; i < statusCodes.size(); i++) {
+			HttpResponseData response = new HttpResponseData(statusCodes.get(i));
+			for (int j = weights.get(i) / gcd; j > 0; j--) {
+				responses[index++] = response;
+			}
+		}
+
+		return new ResponsePolicy(responses, true);
+	}
+
+	/**
+	 * @param requestIndex
+	 *            The index of the request. The first request is index 1.
+	 * @return The response for the request
+	 */
+	HttpResponseData selectResponse(int requestIndex) {
+
+		int slot = random ? mix(requestIndex) : requestIndex - 1;
+		return responses[(slot & Integer.MAX_VALUE) % responses.length];
+	}
+
+	/**
+	 * Scrambles the bits of value so consecutive values are spread evenly across the table (murmur3 finalizer)
+	 */
+	private static int mix(int value) {
+
+		value ^= value >>> 16;
+		value *= 0x85ebca6b;
+		value ^= value >>> 13;
+		value *= 0xc2b2ae35;
+		value ^= value >>> 16;
+		return value;
+	}
+}
@@ -0,0 +1,319 @@
+package net.sf.relish.web.service;
+
+import static net.sf.relish.RelishUtil.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpResponseData;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Selects responses by matching requests against rules instead of by the order requests arrive in. Rules are indexed by method and, for paths without
+ * wildcards, by exact path so a request is only checked against rules that could match it. When more than one rule matches the first rule added wins. This
+ * class is immutable and thread safe. Use {@link #withRule(HttpMethod, String, String, String, String, String, HttpResponseData)} to create a copy with an
+ * additional rule.
+ */
+final class ResponseRules {
+
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	private static final Rule[] NO_RULES = new Rule[0];
+
+	private final List<Rule> rules;
+	private final boolean checksJsonBody;
+	private final Map<HttpMethod, MethodIndex> indexByMethod = new EnumMap<HttpMethod, MethodIndex>(HttpMethod.class);
+	// rules that match any method
+	private final MethodIndex anyMethodIndex;
+
+	/**
+	 * Creates an instance with no rules
+	 */
+	ResponseRules() {
+		this(Collections.<Rule> emptyList());
+	}
+
+	private ResponseRules(List<Rule> rules) {
+
+		this.rules = rules;
+
+		boolean checksJson = false;
+		Map<HttpMethod, List<Rule>> rulesByMethod = new HashMap<HttpMethod, List<Rule>>();
+		for (Rule rule : rules) {
+			checksJson |= rule.jsonField != null;
+			List<Rule> methodRules = rulesByMethod.get(rule.method);
+			if (methodRules == null) {
+				methodRules = new ArrayList<Rule>();
+				rulesByMethod.put(rule.method, methodRules);
+			}
+			methodRules.add(rule);
+		}
+
+		for (Map.Entry<HttpMethod, List<Rule>> entry : rulesByMethod.entrySet()) {
+			if (entry.getKey() != null) {
+				indexByMethod.put(entry.getKey(), new MethodIndex(entry.getValue()));
+			}
+		}
+
+		List<Rule> anyMethodRules = rulesByMethod.get(null);
+		anyMethodIndex = anyMethodRules == null ? null : new MethodIndex(anyMethodRules);
+		checksJsonBody = checksJson;
+	}
+
+	/**
+	 * @param method
+	 *            The method the request must use. Null for any method.
+	 * @param pathPattern
+	 *            The path the request must be for. In the path "*" matches any characters except "/" and "**" matches any characters.
+	 * @param headerName
+	 *            The name of a header the request must have. Null to not check a header.
+	 * @param headerValueRegex
+	 *            A regular expression the value of the header must match. Ignored if headerName is null.
+	 * @param jsonField
+	 *            The path to a field in the JSON body of the request. Nested fields and array elements are separated by "." like this: orders.0.id. Null to not
+	 *            check the body.
+	 * @param jsonValue
+	 *            The value the JSON field must have. Ignored if jsonField is null.
+	 * @param response
+	 *            The response to use for requests matching the rule
+	 * @return A new instance with all the rules of this one plus the new rule
+	 */
+	ResponseRules withRule(HttpMethod method, String pathPattern, String headerName, String headerValueRegex, String jsonField, String jsonValue,
+			HttpResponseData response) {
+
+		List<Rule> newRules = new ArrayList<Rule>(rules);
+		newRules.add(new Rule(rules.size(), method, pathPattern, headerName, headerValueRegex, jsonField, jsonValue, response));
+		return new ResponseRules(newRules);
+	}
+
+	/**
+	 * @return True if there are no rules
+	 */
+	boolean isEmpty() {
+		return rules.isEmpty();
+	}
+
+	/**
+	 * @return True if any rule checks a field in the JSON body of the request. If not the body does not need to be passed to
+	 *         {@link #selectResponse(HttpServletRequest, HttpMethod, String, byte[])}.
+	 */
+	boolean checksJsonBody() {
+		return checksJsonBody;
+	}
+
+	/**
+	 * @param request
+	 *            The request. Used to read header values.
+	 * @param method
+	 *            The request's method
+	 * @param path
+	 *            The request's path
+	 * @param body
+	 *            The request's body. May be null.
+	 * @return The response of the first rule the request matches or null if it does not match any rule
+	 */
+	HttpResponseData selectResponse(HttpServletRequest request, HttpMethod method, String path, byte[] body) {
+
+		if (rules.isEmpty()) {
+			return null;
+		}
+
+		if (path == null) {
+			path = "";
+		}
+
+		RequestContext context = new RequestContext(request, body);
+		Rule best = null;
+		MethodIndex methodIndex = indexByMethod.get(method);
+		if (methodIndex != null) {
+			best = methodIndex.findFirstMatch(context, path, best);
+		}
+		if (anyMethodIndex != null) {
+			best = anyMethodIndex.findFirstMatch(context, path, best);
+		}
+
+		return best == null ? null : best.response;
+	}
+
+	/**
+	 * The rules for one method indexed by exact path with the rules that use wildcards kept separately
+	 */
+	private static final class MethodIndex {
+
+		private final Map<String, Rule[]> rulesByExactPath = new HashMap<String, Rule[]>();
+		private final Rule[] patternRules;
+
+		MethodIndex(List<Rule> rules) {
+
+			Map<String, List<Rule>> exact = new HashMap<String, List<Rule>>();
+			List<Rule> patterns = new ArrayList<Rule>();
+			for (Rule rule : rules) {
+				if (rule.pathRegex == null) {
+					List<Rule> pathRules = exact.get(rule.pathPattern);
+					if (pathRules == null) {
+						pathRules = new ArrayList<Rule>();
+						exact.put(rule.pathPattern, pathRules);
+					}
+					pathRules.add(rule);
+				} else {
+					patterns.add(rule);
+				}
+			}
+
+			for (Map.Entry<String, List<Rule>> entry : exact.entrySet()) {
+				rulesByExactPath.put(entry.getKey(), entry.getValue().toArray(new Rule[entry.getValue().size()]));
+			}
+			patternRules = patterns.toArray(new Rule[patterns.size()]);
+		}
+
+		/**
+		 * @return The matching rule added first: either best or a rule from this index added before best
+		 */
+		Rule findFirstMatch(RequestContext context, String path, Rule best) {
+
+			Rule[] exactRules = rulesByExactPath.get(path);
+			best = findFirstMatch(exactRules == null ? NO_RULES : exactRules, context, path, best);
+			return findFirstMatch(patternRules, context, path, best);
+		}
+
+		private Rule findFirstMatch(Rule[] rules, RequestContext context, String path, Rule best) {
+
+			// rules are in the order they were added so the first match is the only one that can beat best
+			for (Rule rule : rules) {
+				if (best != null && rule.order > best.order) {
+					break;
+				}
+				if (rule.matches(context, path)) {
+					return rule;
+				}
+			}
+
+			return best;
+		}
+	}
+
+	private static final class Rule {
+
+		private final int order;
+		private final HttpMethod method;
+		private final String pathPattern;
+		private final Pattern pathRegex;
+		private final String headerName;
+		private final Pattern headerValueRegex;
+		private final String[] jsonField;
+		private final String jsonValue;
+		private final HttpResponseData response;
+
+		Rule(int order, HttpMethod method, String pathPattern, String headerName, String headerValueRegex, String jsonField, String jsonValue,
+				HttpResponseData response) {
+
+			this.order = order;
+			this.method = method;
+			this.pathPattern = validateNotEmpty("pathPattern", pathPattern);
+			this.pathRegex = pathPattern.contains("*") ? globToRegex(pathPattern) : null;
+			this.headerName = headerName;
+			this.headerValueRegex = headerName == null ? null : Pattern.compile(validateNotNull("headerValueRegex", headerValueRegex));
+			this.jsonField = jsonField == null ? null : validateNotEmpty("jsonField", jsonField).split("\\.");
+			this.jsonValue = jsonField == null ? null : validateNotNull("jsonValue", jsonValue);
+			this.response = validateNotNull("response", response);
+		}
+
+		boolean matches(RequestContext context, String path) {
+
+			if (pathRegex != null && !pathRegex.matcher(path).matches()) {
+				return false;
+			}
+
+			if (headerName != null) {
+				String value = context.request.getHeader(headerName);
+				if (value == null || !headerValueRegex.matcher(value).matches()) {
+					return false;
+				}
+			}
+
+			if (jsonField != null) {
+				JsonNode node = context.getJson();
+				for (int i = 0; node != null && i < jsonField.length; i++) {
+					node = node.isArray() ? node.get(parseIndex(jsonField[i])) : node.get(jsonField[i]);
+				}
+				if (node == null || node.isContainerNode() || !jsonValue.equals(node.asText())) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private static int parseIndex(String value) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		private static Pattern globToRegex(String glob) {
+
+			StringBuilder regex = new StringBuilder();
+			int i = 0;
+			while (i < glob.length()) {
+				if (glob.startsWith("**", i)) {
+					regex.append(".*");
+					i += 2;
+				} else if (glob.charAt(i) == '*') {
+					regex.append("[^/]*");
+					i++;
+				} else {
+					int next = glob.indexOf('*', i);
+					String literal = next < 0 ? glob.substring(i) : glob.substring(i, next);
+					regex.append(Pattern.quote(literal));
+					i += literal.length();
+				}
+			}
+
+			return Pattern.compile(regex.toString());
+		}
+	}
+
+	/**
+	 * The request being matched. The JSON body is parsed the first time a rule needs it and only once.
+	 */
+	private static final class RequestContext {
+
+		private final HttpServletRequest request;
+		private final byte[] body;
+		private boolean jsonParsed;
+		private JsonNode json;
+
+		RequestContext(HttpServletRequest request, byte[] body) {
+			this.request = request;
+			this.body = body;
+		}
+
+		JsonNode getJson() {
+
+			if (!jsonParsed) {
+				jsonParsed = true;
+				if (body != null) {
+					try {
+						json = JSON_MAPPER.readTree(body);
+					} catch (Exception e) {
+						// a body that is not JSON does not match any JSON rule
+						json = null;
+					}
+				}
+			}
+
+			return json;
+		}
+	}
+}
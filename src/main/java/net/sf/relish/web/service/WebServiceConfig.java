@@ -2,32 +2,52 @@ package net.sf.relish.web.service;
 
 import static net.sf.relish.RelishUtil.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 
-import net.sf.relish.ExpandingArrayList;
+import net.sf.relish.BodyCapture;
+import net.sf.relish.BodySummary;
 import net.sf.relish.RelishException;
 import net.sf.relish.web.HttpMethod;
 import net.sf.relish.web.HttpRequestData;
 import net.sf.relish.web.HttpResponseData;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
 import org.eclipse.jetty.http.HttpStatus;
 
 /**
- * Configuration for mock web service processing by {@link WebServiceHandler}. This class is thread safe.
+ * Configuration for mock web service processing by {@link WebServiceHandler}. This class is thread safe. Requests are handled without locking so concurrent
+ * requests, including slow uploads, do not block each other. Each request is assigned its index once its body has been read.
  */
 final class WebServiceConfig {
 
-	private final List<HttpRequestData> requests = new ExpandingArrayList<HttpRequestData>();
-	private final List<HttpResponseData> responses = new ExpandingArrayList<HttpResponseData>();
-
-	private boolean serverEnabled;
-	private String target = "";
+	private final AtomicInteger lastRequestIndex = new AtomicInteger();
+	private final ConcurrentMap<Integer, HttpRequestData> requests = new ConcurrentHashMap<Integer, HttpRequestData>();
+	private final ConcurrentMap<Integer, HttpResponseData> responses = new ConcurrentHashMap<Integer, HttpResponseData>();
+	// responses used by rules are only selected by the rules, never by the index of the request
+	private final Set<Integer> ruleResponseIndexes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	private final WebServiceMetrics metrics = new WebServiceMetrics();
+	private final AdmissionController admissionController = new AdmissionController();
+	private final ConcurrentMap<Integer, WebServiceMetrics> instanceMetricsByPort = new ConcurrentHashMap<Integer, WebServiceMetrics>();
+
+	private volatile ResponseRules responseRules = new ResponseRules();
+	private volatile ResponsePolicy responsePolicy;
+	private volatile BodyCapture bodyCapture;
+	private volatile boolean serverEnabled;
+	private volatile String target = "";
 
 	/**
 	 * Enables the handler for this config.
@@ -66,37 +86,158 @@ final class WebServiceConfig {
 	 * @param request
 	 *            The received request
 	 * @return The data for the response. If this config is not {@link #enable(String) enable} the returned {@link HttpResponseData#getStatusCode()} will be
-	 *         {@link HttpStatus#NOT_FOUND_404}. If no response has been configured for this request the returned {@link HttpResponseData#getStatusCode()} will
-	 *         be {@link HttpStatus#SERVICE_UNAVAILABLE_503}.
+	 *         {@link HttpStatus#NOT_FOUND_404}. If the request matches a {@link #addResponseRule response rule} the rule's response is used. Otherwise the
+	 *         response configured for the request's index is used, unless that response is used by a rule. If no response has been configured for this
+	 *         request the {@link #setResponsePolicy(ResponsePolicy) response policy} selects the response. If there is no response policy the returned
+	 *         {@link HttpResponseData#getStatusCode()} will be {@link HttpStatus#SERVICE_UNAVAILABLE_503}.
 	 */
-	public synchronized HttpResponseData handleRequest(HttpServletRequest request) {
+	public HttpResponseData handleRequest(HttpServletRequest request) {
 
 		if (!serverEnabled) {
 			return new HttpResponseData(HttpStatus.NOT_FOUND_404);
 		}
 
-		HttpRequestData requestData = new HttpRequestData();
+		ResponsePolicy policy = responsePolicy;
+		ResponseRules rules = responseRules;
+		HttpMethod method = HttpMethod.valueOf(request.getMethod().toUpperCase());
+		HttpRequestData requestData = null;
+		byte[] body = null;
+		if (policy == null) {
+			requestData = newRequestData(request, method);
+			BodyCapture capture = bodyCapture;
+			if (capture == null) {
+				body = getRequestBody(request);
+				requestData.setBody(body);
+			} else {
+				requestData.setBodySummary(captureRequestBody(request, capture));
+			}
+		} else if (rules.checksJsonBody() && bodyCapture == null) {
+			body = getRequestBody(request);
+		} else {
+			// with a response policy requests are counted but not kept so unlimited traffic uses a fixed amount of memory
+			skipRequestBody(request);
+		}
 
-		Enumeration<String> headerNames = request.getHeaderNames();
-		while (headerNames.hasMoreElements()) {
-			String name = headerNames.nextElement();
-			String value = request.getHeader(name);
-			requestData.setHeader(name, value);
+		int index = lastRequestIndex.incrementAndGet();
+		if (requestData != null) {
+			requests.put(index, requestData);
 		}
 
-		requestData.setRequestMethod(HttpMethod.valueOf(request.getMethod().toUpperCase()));
-		String url = request.getQueryString() == null ? request.getRequestURL().toString() : request.getRequestURL() + request.getQueryString();
-		requestData.setUrl(url);
-		byte[] body = getRequestBody(request);
-		requestData.setBody(body);
+		HttpResponseData responseData = rules.isEmpty() ? null : rules.selectResponse(request, method, request.getRequestURI(), body);
+		if (responseData != null) {
+			return responseData;
+		}
+
+		responseData = ruleResponseIndexes.contains(index) ? null : responses.get(index);
+		if (responseData != null) {
+			return responseData;
+		}
+
+		return policy != null ? policy.selectResponse(index) : new HttpResponseData(HttpStatus.SERVICE_UNAVAILABLE_503);
+	}
+
+	/**
+	 * Adds a rule that selects the response for matching requests regardless of the order they arrive in. Rules take precedence over responses configured
+	 * by request index. The rule's response is only used for requests that match a rule. It is not used for the request with the same index. See
+	 * {@link ResponseRules#withRule(HttpMethod, String, String, String, String, String, HttpResponseData)} for the other parameters.
+	 *
+	 * @param responseIndex
+	 *            The index of the {@link #getResponseData(int) response} to use for matching requests
+	 */
+	public synchronized void addResponseRule(HttpMethod method, String pathPattern, String headerName, String headerValueRegex, String jsonField,
+			String jsonValue, int responseIndex) {
+
+		HttpResponseData response = getResponseData(responseIndex);
+		ruleResponseIndexes.add(responseIndex);
+		responseRules = responseRules.withRule(method, pathPattern, headerName, headerValueRegex, jsonField, jsonValue, response);
+	}
+
+	/**
+	 * Sets the policy used for requests that do not have a response configured for their index. While there is a policy requests are counted and added to
+	 * the metrics but their data is not kept, so a long running load uses a fixed amount of memory. {@link #getRequestData(int)} fails for these requests.
+	 *
+	 * @param responsePolicy
+	 *            The policy used to select the response for requests that do not have a response configured for their index. Null to send
+	 *            {@link HttpStatus#SERVICE_UNAVAILABLE_503} for these requests and keep the data of requests received from now on.
+	 */
+	public void setResponsePolicy(ResponsePolicy responsePolicy) {
+		this.responsePolicy = responsePolicy;
+	}
+
+	/**
+	 * @param bodyCapture
+	 *            How to capture request bodies without keeping them in memory. Requests captured this way have a {@link HttpRequestData#getBodySummary() body
+	 *            summary} instead of a body and do not match response rules that check the JSON body. Null to keep each request body in memory.
+	 */
+	public void setBodyCapture(BodyCapture bodyCapture) {
+		this.bodyCapture = bodyCapture;
+	}
+
+	/**
+	 * Deletes the temp files request bodies were spilled to
+	 */
+	public void deleteBodyFiles() {
+
+		for (HttpRequestData requestData : requests.values()) {
+			BodySummary summary = requestData.getBodySummary();
+			if (summary != null && summary.getFile() != null) {
+				summary.getFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * @return The request metrics for this web service
+	 */
+	public WebServiceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The concurrency and rate limits for this web service
+	 */
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	/**
+	 * Makes this web service a cluster of instances, one per port, which keep their own metrics. All instances share the same responses and rules.
+	 *
+	 * @param serverPorts
+	 *            The ports of the instances to add. Ports that are already instances are ignored.
+	 */
+	public void addInstances(List<Integer> serverPorts) {
+
+		for (int port : serverPorts) {
+			instanceMetricsByPort.putIfAbsent(port, new WebServiceMetrics());
+		}
+	}
+
+	/**
+	 * @return True if this web service has {@link #addInstances(List) instances}
+	 */
+	public boolean isClustered() {
+		return !instanceMetricsByPort.isEmpty();
+	}
+
+	/**
+	 * @return The ports of this web service's instances in ascending order. Empty if the web service is not clustered.
+	 */
+	public List<Integer> getInstancePorts() {
 
-		requests.add(requestData);
+		List<Integer> ports = new ArrayList<Integer>(instanceMetricsByPort.keySet());
+		Collections.sort(ports);
+		return ports;
+	}
 
-		HttpResponseData responseData = responses.get(requests.size() - 1);
-		return responseData != null ? responseData : new HttpResponseData(HttpStatus.SERVICE_UNAVAILABLE_503);
+	/**
+	 * @return The request metrics for the instance on the specified port or null if there is no instance on that port
+	 */
+	public WebServiceMetrics getInstanceMetrics(int serverPort) {
+		return instanceMetricsByPort.get(serverPort);
 	}
 
-	public synchronized String getTarget() {
+	public String getTarget() {
 		return target;
 	}
 
@@ -104,12 +245,15 @@ final class WebServiceConfig {
 	 * @return The {@link HttpRequestData request data} for the specified index. The first index is 1, not 0. If there is no request data for the specified
 	 *         index a {@link RelishException} is thrown.
 	 */
-	public synchronized HttpRequestData getRequestData(int index) {
+	public HttpRequestData getRequestData(int index) {
 
 		validateGreaterThan("index", index, 0);
 
-		HttpRequestData requestData = requests.get(index - 1);
+		HttpRequestData requestData = requests.get(index);
 		if (requestData == null) {
+			if (index <= getRequestCount()) {
+				throw new RelishException("Web service request %d was not kept because the web service had a response policy when it was received", index);
+			}
 			throw new RelishException("Web service request %d does not exist", index);
 		}
 
@@ -119,46 +263,115 @@ final class WebServiceConfig {
 	/**
 	 * @return The number of requests received by this web service.
 	 */
-	public synchronized int getRequestCount() {
-		return requests.size();
+	public int getRequestCount() {
+		return lastRequestIndex.get();
 	}
 
 	/**
 	 * @return The {@link HttpResponseData response data} for the specified index. The first index is 1, not 0. If there is no response data for the specified
 	 *         index one is created and set on that index.
 	 */
-	public synchronized HttpResponseData getResponseData(int index) {
+	public HttpResponseData getResponseData(int index) {
 
 		validateGreaterThan("index", index, 0);
 
-		index--;
 		HttpResponseData responseData = responses.get(index);
 		if (responseData == null) {
 			responseData = new HttpResponseData();
-			responses.set(index, responseData);
+			HttpResponseData existing = responses.putIfAbsent(index, responseData);
+			if (existing != null) {
+				responseData = existing;
+			}
 		}
 
 		return responseData;
 	}
 
+	private HttpRequestData newRequestData(HttpServletRequest request, HttpMethod method) {
+
+		HttpRequestData requestData = new HttpRequestData();
+
+		Enumeration<String> headerNames = request.getHeaderNames();
+		while (headerNames.hasMoreElements()) {
+			String name = headerNames.nextElement();
+			String value = request.getHeader(name);
+			requestData.setHeader(name, value);
+		}
+
+		requestData.setRequestMethod(method);
+		String url = request.getQueryString() == null ? request.getRequestURL().toString() : request.getRequestURL() + request.getQueryString();
+		requestData.setUrl(url);
+
+		return requestData;
+	}
+
 	private byte[] getRequestBody(HttpServletRequest request) {
 
 		try {
-			String contentEncoding = request.getHeader("Content-encoding");
-			InputStream in = request.getInputStream();
+			InputStream in = openRequestBody(request);
 			if (in == null) {
 				return null;
 			}
 
-			if ("gzip".equals(contentEncoding)) {
-				in = new GZIPInputStream(in);
-			}
-
 			byte[] requestBody = IOUtils.toByteArray(in);
 			return requestBody.length > 0 ? requestBody : null;
+		} catch (Exception e) {
+			throw new RelishException(e, "Failed to read HTTP request body");
+		}
+	}
+
+	private void skipRequestBody(HttpServletRequest request) {
+
+		try {
+			InputStream in = openRequestBody(request);
+			if (in != null) {
+				IOUtils.skip(in, Long.MAX_VALUE);
+			}
+		} catch (Exception e) {
+			throw new RelishException(e, "Failed to read HTTP request body");
+		}
+	}
 
+	private BodySummary captureRequestBody(HttpServletRequest request, BodyCapture capture) {
+
+		try {
+			InputStream in = openRequestBody(request);
+			return capture.capture(in == null ? new ByteArrayInputStream(new byte[0]) : in);
 		} catch (Exception e) {
 			throw new RelishException(e, "Failed to read HTTP request body");
 		}
 	}
+
+	private InputStream openRequestBody(HttpServletRequest request) throws IOException {
+
+		String contentEncoding = request.getHeader("Content-encoding");
+		InputStream in = request.getInputStream();
+		if (in == null) {
+			return null;
+		}
+
+		in = new MetricsInputStream(in);
+		if ("gzip".equals(contentEncoding)) {
+			in = new GZIPInputStream(in);
+		}
+
+		return in;
+	}
+
+	/**
+	 * Adds the bytes read from the request to the {@link #getMetrics() metrics} as they are read
+	 */
+	private final class MetricsInputStream extends ProxyInputStream {
+
+		MetricsInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		protected void afterRead(int n) {
+			if (n > 0) {
+				metrics.recordBytesIn(n);
+			}
+		}
+	}
 }
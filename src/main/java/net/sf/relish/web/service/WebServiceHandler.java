@@ -2,8 +2,10 @@ package net.sf.relish.web.service;
 
 import static net.sf.relish.RelishUtil.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -13,22 +15,32 @@ import javax.servlet.http.HttpServletResponse;
 import net.sf.relish.NameValuePair;
 import net.sf.relish.web.HttpResponseData;
 
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 /**
- * Mock web services
+ * Mock web services. Delayed responses are implemented by suspending the request with a {@link Continuation} so waiting for the delay does not use a thread.
+ * Each request is recorded in its web service's {@link WebServiceMetrics metrics} from when it arrives until its response body has been written. A suspended
+ * request is redispatched to the web service that first handled it even if the routes were rebuilt while it was suspended.
  */
 final class WebServiceHandler extends AbstractHandler {
 
+	private static final String DELAYED_RESPONSE_ATTRIBUTE = WebServiceHandler.class.getName() + ".delayedResponse";
+	private static final String ARRIVAL_NANOS_ATTRIBUTE = WebServiceHandler.class.getName() + ".arrivalNanos";
+	private static final String WEB_SERVICE_CONFIG_ATTRIBUTE = WebServiceHandler.class.getName() + ".webServiceConfig";
+
 	private final Map<String, WebServiceConfig> webServiceConfigByName;
+	private volatile PrefixTrie<WebServiceConfig> routes = PrefixTrie.empty();
 
 	/**
 	 * @param webServiceConfigByName
-	 *            Map of {@link WebServiceConfig} objects keyed by their name. Used to configure the handling of requests. When a request is received these are
-	 *            searched in their iteration order for one where the target of the request starts with the target specified in the {@link WebServiceConfig}.
-	 *            The first config found is used. This map must have been created with {@link Collections#synchronizedMap(Map)}.
+	 *            Map of {@link WebServiceConfig} objects keyed by their name. Used to configure the handling of requests. When a request is received the config
+	 *            with the longest {@link WebServiceConfig#getTarget() target} that the target of the request starts with is used. This map must have been
+	 *            created with {@link Collections#synchronizedMap(Map)}. Changes to it, or to the configs' targets, are not used until {@link #rebuildRoutes()}
+	 *            is called.
 	 */
 	public WebServiceHandler(Map<String, WebServiceConfig> webServiceConfigByName) {
 
@@ -36,23 +48,36 @@ final class WebServiceHandler extends AbstractHandler {
 	}
 
 	/**
-	 * @see org.eclipse.jetty.server.Handler#handle(java.lang.String, org.eclipse.jetty.server.Request, javax.servlet.http.HttpServletRequest,
-	 *      javax.servlet.http.HttpServletResponse)
+	 * Rebuilds the routes used to find the {@link WebServiceConfig} for a request from the current configs. Call this after a web service is started or
+	 * stopped. Requests being handled while the routes are rebuilt use the previous routes.
 	 */
-	@Override
-	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-
-		WebServiceConfig webServiceConfig = null;
+	public synchronized void rebuildRoutes() {
 
+		Map<String, WebServiceConfig> configByTarget = new LinkedHashMap<String, WebServiceConfig>();
 		synchronized (webServiceConfigByName) {
 			for (WebServiceConfig config : webServiceConfigByName.values()) {
-				if (target.startsWith(config.getTarget())) {
-					webServiceConfig = config;
-					break;
+				String configTarget = config.getTarget();
+				if (!configTarget.isEmpty() && !configByTarget.containsKey(configTarget)) {
+					configByTarget.put(configTarget, config);
 				}
 			}
 		}
 
+		routes = PrefixTrie.build(configByTarget);
+	}
+
+	/**
+	 * @see org.eclipse.jetty.server.Handler#handle(java.lang.String, org.eclipse.jetty.server.Request, javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+
+		// a redispatched request uses the config that admitted it so its admission slot and metrics are released on the same config
+		WebServiceConfig webServiceConfig = (WebServiceConfig) request.getAttribute(WEB_SERVICE_CONFIG_ATTRIBUTE);
+		if (webServiceConfig == null) {
+			webServiceConfig = routes.findLongestPrefix(target);
+		}
 		if (webServiceConfig == null) {
 			response.setStatus(HttpStatus.NOT_FOUND_404);
 			return;
@@ -60,16 +85,94 @@ final class WebServiceHandler extends AbstractHandler {
 
 		baseRequest.setHandled(true);
 
-		HttpResponseData responseData = webServiceConfig.handleRequest(request);
+		WebServiceMetrics metrics = webServiceConfig.getMetrics();
+		AdmissionController admission = webServiceConfig.getAdmissionController();
+		WebServiceMetrics instanceMetrics = webServiceConfig.isClustered() ? webServiceConfig.getInstanceMetrics(request.getLocalPort()) : null;
+
+		// if the request was suspended for a delay then this is the redispatch after the delay expired
+		HttpResponseData responseData = (HttpResponseData) request.getAttribute(DELAYED_RESPONSE_ATTRIBUTE);
+		long arrivalNanos;
+		if (responseData == null) {
+			// a request redispatched from the admission queue already has an arrival time
+			Long queuedArrivalNanos = (Long) request.getAttribute(ARRIVAL_NANOS_ATTRIBUTE);
+			if (queuedArrivalNanos == null) {
+				arrivalNanos = metrics.requestStarted();
+				if (instanceMetrics != null) {
+					instanceMetrics.requestStarted();
+				}
+			} else {
+				arrivalNanos = queuedArrivalNanos;
+			}
 
-		response.setStatus(responseData.getStatusCode());
+			if (admission.isEnabled()) {
+				AdmissionController.Decision decision = admission.admit(request);
+				if (decision == AdmissionController.Decision.QUEUED) {
+					request.setAttribute(ARRIVAL_NANOS_ATTRIBUTE, arrivalNanos);
+					request.setAttribute(WEB_SERVICE_CONFIG_ATTRIBUTE, webServiceConfig);
+					return;
+				}
+				if (decision != AdmissionController.Decision.ADMITTED) {
+					response.setStatus(decision == AdmissionController.Decision.RATE_LIMITED ? AdmissionController.TOO_MANY_REQUESTS_429
+							: HttpStatus.SERVICE_UNAVAILABLE_503);
+					response.setHeader("Retry-After", Integer.toString(admission.getRetryAfterSeconds(decision)));
+					requestCompleted(metrics, instanceMetrics, arrivalNanos, 0);
+					return;
+				}
+			}
 
-		for (NameValuePair header : responseData.getHeaders()) {
-			response.setHeader(header.getName(), header.getValue());
+			try {
+				responseData = webServiceConfig.handleRequest(request);
+			} catch (RuntimeException e) {
+				if (admission.isEnabled()) {
+					admission.release(request);
+				}
+				requestCompleted(metrics, instanceMetrics, arrivalNanos, 0);
+				throw e;
+			}
+
+			long delayMillis = responseData.sampleDelayMillis();
+			if (delayMillis > 0) {
+				request.setAttribute(DELAYED_RESPONSE_ATTRIBUTE, responseData);
+				request.setAttribute(ARRIVAL_NANOS_ATTRIBUTE, arrivalNanos);
+				request.setAttribute(WEB_SERVICE_CONFIG_ATTRIBUTE, webServiceConfig);
+				Continuation continuation = ContinuationSupport.getContinuation(request);
+				continuation.setTimeout(delayMillis);
+				continuation.suspend();
+				return;
+			}
+		} else {
+			arrivalNanos = (Long) request.getAttribute(ARRIVAL_NANOS_ATTRIBUTE);
 		}
 
-		if (responseData.getBody() != null) {
-			response.getOutputStream().write(responseData.getBody());
+		long bytesOut = 0;
+		try {
+			response.setStatus(responseData.getStatusCode());
+
+			for (NameValuePair header : responseData.getHeaders()) {
+				response.setHeader(header.getName(), header.getValue());
+			}
+
+			File bodyFile = responseData.getBodyFile();
+			byte[] body = responseData.getBody();
+			if (bodyFile != null) {
+				bytesOut = FileResponseWriter.write(bodyFile, responseData.isBodyFileChunked(), responseData.isBodyFileGzipped(), request, response);
+			} else if (body != null) {
+				response.getOutputStream().write(body);
+				bytesOut = body.length;
+			}
+		} finally {
+			if (admission.isEnabled()) {
+				admission.release(request);
+			}
+			requestCompleted(metrics, instanceMetrics, arrivalNanos, bytesOut);
+		}
+	}
+
+	private static void requestCompleted(WebServiceMetrics metrics, WebServiceMetrics instanceMetrics, long arrivalNanos, long bytesOut) {
+
+		metrics.requestCompleted(arrivalNanos, bytesOut);
+		if (instanceMetrics != null) {
+			instanceMetrics.requestCompleted(arrivalNanos, bytesOut);
 		}
 	}
 }
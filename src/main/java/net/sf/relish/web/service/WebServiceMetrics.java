@@ -0,0 +1,144 @@
+package net.sf.relish.web.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.relish.Histogram;
+
+/**
+ * Request metrics for one mock web service: arrival rate, concurrency, bytes transferred, and histograms of inter-arrival and response times. Everything is
+ * recorded with atomics so recording does not lock or allocate. Times are from {@link System#nanoTime()}. This class is thread safe.
+ */
+final class WebServiceMetrics {
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger peakConcurrency = new AtomicInteger();
+	private final AtomicLong arrivalCount = new AtomicLong();
+	private final AtomicLong firstArrivalNanos = new AtomicLong();
+	private final AtomicLong lastArrivalNanos = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final Histogram interArrivalNanos = new Histogram();
+	private final Histogram responseNanos = new Histogram();
+
+	/**
+	 * Records the arrival of a request. Every call must be followed by a call to {@link #requestCompleted(long, long)}.
+	 *
+	 * @return The arrival time to pass to {@link #requestCompleted(long, long)}
+	 */
+	long requestStarted() {
+
+		long now = System.nanoTime();
+
+		int concurrency = inFlight.incrementAndGet();
+		for (int peak = peakConcurrency.get(); concurrency > peak && !peakConcurrency.compareAndSet(peak, concurrency); peak = peakConcurrency.get()) {
+		}
+
+		if (arrivalCount.incrementAndGet() == 1) {
+			firstArrivalNanos.set(now);
+		}
+		long previous = lastArrivalNanos.getAndSet(now);
+		if (previous != 0) {
+			interArrivalNanos.record(now - previous);
+		}
+
+		return now;
+	}
+
+	/**
+	 * Records the completion of a request
+	 *
+	 * @param arrivalNanos
+	 *            The value returned by {@link #requestStarted()} for this request
+	 * @param responseBytes
+	 *            The number of response body bytes sent
+	 */
+	void requestCompleted(long arrivalNanos, long responseBytes) {
+
+		responseNanos.record(System.nanoTime() - arrivalNanos);
+		bytesOut.addAndGet(responseBytes);
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Records request body bytes received
+	 */
+	void recordBytesIn(long requestBytes) {
+		bytesIn.addAndGet(requestBytes);
+	}
+
+	/**
+	 * @return The number of requests that have arrived
+	 */
+	long getRequestCount() {
+		return arrivalCount.get();
+	}
+
+	/**
+	 * @return The number of requests currently being handled, including requests waiting for a delayed response
+	 */
+	int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return The largest number of requests that were being handled at the same time
+	 */
+	int getPeakConcurrency() {
+		return peakConcurrency.get();
+	}
+
+	/**
+	 * @return Requests per second between the first and last request arrivals. 0 if fewer than 2 requests have arrived.
+	 */
+	double getRequestRate() {
+
+		long count = arrivalCount.get();
+		long elapsedNanos = lastArrivalNanos.get() - firstArrivalNanos.get();
+		if (count < 2) {
+			return 0;
+		}
+
+		// requests that arrive in the same nanosecond tick are treated as 1 nanosecond apart
+		return (count - 1) * 1000000000.0 / Math.max(1, elapsedNanos);
+	}
+
+	/**
+	 * @return The number of request body bytes received as sent on the wire, before any content decoding
+	 */
+	long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	/**
+	 * @return The number of response body bytes sent
+	 */
+	long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/**
+	 * @return Histogram of the nanoseconds between consecutive request arrivals
+	 */
+	Histogram getInterArrivalNanos() {
+		return interArrivalNanos;
+	}
+
+	/**
+	 * @return Histogram of the nanoseconds from request arrival to the response body being written, including any configured delay
+	 */
+	Histogram getResponseNanos() {
+		return responseNanos;
+	}
+
+	/**
+	 * @return Multi-line summary of the metrics
+	 */
+	String toReport() {
+
+		return String.format("requests=%d, rate=%.1f/s, peak concurrency=%d, bytes in=%d, bytes out=%d%ninter-arrival: %s%nresponse time: %s",
+				getRequestCount(), getRequestRate(), getPeakConcurrency(), getBytesIn(), getBytesOut(), interArrivalNanos.toReport(TimeUnit.NANOSECONDS),
+				responseNanos.toReport(TimeUnit.NANOSECONDS));
+	}
+}
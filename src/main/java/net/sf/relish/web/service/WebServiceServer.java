@@ -1,6 +1,9 @@
 package net.sf.relish.web.service;
 
 import static net.sf.relish.RelishUtil.*;
+
+import java.util.List;
+
 import net.sf.relish.RelishException;
 import net.sf.relish.web.AbstractWebServer;
 
@@ -19,7 +22,8 @@ final class WebServiceServer extends AbstractWebServer {
 	}
 
 	/**
-	 * Starts the Jetty server on the specified port if it is not already running
+	 * Starts the Jetty server on the specified port if it is not already running. If the server is already running this port must be the one it was started
+	 * on.
 	 */
 	public void startServer(int serverPort) throws Exception {
 
@@ -34,4 +38,34 @@ final class WebServiceServer extends AbstractWebServer {
 
 		super.startServer(serverPort, webServiceHandler);
 	}
+
+	/**
+	 * @return The port the server was last started on or 0 if it has never been started
+	 */
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	/**
+	 * Starts the Jetty server if it is not already running and makes it listen on all the specified ports. Each port has its own connector so a web service
+	 * served on several ports looks like a cluster of instances to clients.
+	 *
+	 * @param serverPorts
+	 *            The ports to listen on. If the server is not running it is started on the first port. Ports the server is already listening on are ignored.
+	 */
+	public void startServer(List<Integer> serverPorts) throws Exception {
+
+		validateNotNull("serverPorts", serverPorts);
+		validateGreaterThan("serverPorts.size", serverPorts.size(), 0);
+
+		if (server == null) {
+			startServer(serverPorts.get(0));
+		}
+
+		for (int port : serverPorts) {
+			if (!hasPort(port)) {
+				addPort(port);
+			}
+		}
+	}
 }
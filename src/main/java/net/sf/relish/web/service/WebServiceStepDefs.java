@@ -5,19 +5,29 @@ import static net.sf.relish.matcher.RelishMatchers.*;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import net.sf.relish.BodyCapture;
+import net.sf.relish.BodySummary;
 import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
+import net.sf.relish.Histogram;
 import net.sf.relish.NameValuePair;
 import net.sf.relish.RelishException;
 import net.sf.relish.TableMatcher;
 import net.sf.relish.transformer.CountQuantifierTransformer;
+import net.sf.relish.transformer.DelayDistributionTransformer;
+import net.sf.relish.web.ConnectionStats;
+import net.sf.relish.web.DelayDistribution;
 import net.sf.relish.web.HttpMethod;
 import net.sf.relish.web.HttpRequestData;
 import net.sf.relish.web.HttpResponseData;
@@ -32,7 +42,8 @@ import cucumber.api.java.en.Then;
 public final class WebServiceStepDefs {
 
 	private final Map<String, WebServiceConfig> webServiceConfigByName = Collections.synchronizedMap(new HashMap<String, WebServiceConfig>());
-	private final WebServiceServer server = new WebServiceServer(new WebServiceHandler(webServiceConfigByName));
+	private final WebServiceHandler handler = new WebServiceHandler(webServiceConfigByName);
+	private final WebServiceServer server = new WebServiceServer(handler);
 	private final ObjectMapper jsonMapper = new ObjectMapper();
 
 	/**
@@ -41,6 +52,11 @@ public final class WebServiceStepDefs {
 	@After
 	public void after() throws Exception {
 		server.stopServer();
+		synchronized (webServiceConfigByName) {
+			for (WebServiceConfig config : webServiceConfigByName.values()) {
+				config.deleteBodyFiles();
+			}
+		}
 	}
 
 	/**
@@ -63,6 +79,81 @@ public final class WebServiceStepDefs {
 		if (!config.enable(path)) {
 			throw new RelishException("You cannot start web service %s because it is already running", webServiceName);
 		}
+
+		handler.rebuildRoutes();
+	}
+
+	/**
+	 * Starts a mock web service with the specified name as a cluster of instances, one on each port in a range, at the specified path. Each instance has its
+	 * own connector and metrics but all instances share the web service's responses and rules, like identical backends behind a load balancer.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param firstPort
+	 *            The port of the first instance
+	 * @param lastPort
+	 *            The port of the last instance
+	 * @param path
+	 *            The path to the web service. This would be the "context root" if the service were a web app.
+	 */
+	@Given("^web service \"(\\S.+\\S)\" is running on ports (\\d{2,5}) thru (\\d{2,5}) at \"(/\\S*)\"$")
+	public void webServiceIsRunningOnPorts(String webServiceName, int firstPort, int lastPort, String path) throws Exception {
+
+		validateInRange("lastPort", lastPort, firstPort, 0xffff);
+
+		List<Integer> ports = new ArrayList<Integer>();
+		for (int port = firstPort; port <= lastPort; port++) {
+			ports.add(port);
+		}
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+
+		server.startServer(ports);
+
+		if (!config.enable(path)) {
+			throw new RelishException("You cannot start web service %s because it is already running", webServiceName);
+		}
+		config.addInstances(ports);
+
+		handler.rebuildRoutes();
+	}
+
+	/**
+	 * Stops or restarts one instance of a mock web service started on several ports. A stopped instance closes its connections and refuses new ones so
+	 * clients have to fail over to the other instances.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param serverPort
+	 *            The port of the instance
+	 * @param action
+	 *            stopped or restarted
+	 */
+	@Given("^web service \"(\\S.+\\S)\" instance on port (\\d{2,5}) is (stopped|restarted)$")
+	public void webServiceInstanceIsStopped(String webServiceName, int serverPort, String action) throws Exception {
+
+		getRequiredInstanceMetrics(webServiceName, serverPort);
+		server.setPortOpen(serverPort, "restarted".equals(action));
+	}
+
+	/**
+	 * Tunes the Jetty connector and thread pool used by all mock web services. This must be done before any web service is started. Settings not in the table
+	 * use the value from the "relish.web.*" system property with the same name or Jetty's default if there is no system property.
+	 *
+	 * @param settings
+	 *            The settings to change. Valid names are acceptors, minThreads, maxThreads, acceptQueueSize, maxIdleTimeMillis, requestHeaderSize,
+	 *            requestBufferSize, responseHeaderSize, and responseBufferSize.
+	 */
+	@Given("^web services use these server settings:$")
+	public void webServicesUseTheseServerSettings(List<NameValuePair> settings) {
+
+		if (server.isRunning()) {
+			throw new RelishException("You cannot change the web service server settings because a web service is already running");
+		}
+
+		for (NameValuePair setting : settings) {
+			server.getSettings().set(setting.getName(), setting.getValue());
+		}
 	}
 
 	/**
@@ -79,6 +170,8 @@ public final class WebServiceStepDefs {
 		if (config == null || !config.disable()) {
 			throw new RelishException("You cannot stop web service %s because it is not running", webServiceName);
 		}
+
+		handler.rebuildRoutes();
 	}
 
 	/**
@@ -107,6 +200,39 @@ public final class WebServiceStepDefs {
 		}
 	}
 
+	/**
+	 * Configures the specified mock web service to send a file as the response body. The file is streamed from disk when the response is sent so it may be
+	 * larger than the heap. Single byte range requests are supported unless the body is gzipped.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param startIndex
+	 *            The index of the first response in the range to configure: 1 is the first response, 2 is the seconds response, etc
+	 * @param endIndex
+	 *            The index of the last response in the range to configure: 1 is the first response, 2 is the seconds response, etc. If null then startIndex is
+	 *            used.
+	 * @param path
+	 *            The path to the file
+	 * @param chunked
+	 *            Not null to send the file with chunked transfer encoding instead of a Content-Length
+	 * @param gzipped
+	 *            Not null to gzip the file as it is sent to clients that accept gzip encoding
+	 */
+	@Given("^web service \"(\\S.+\\S)\" responses? (\\d+)(?: thru (\\d+))? body is file \"(.+?)\"( sent chunked)?( gzipped)?$")
+	public void webServiceRespondsWithFile(String webServiceName, int startIndex, Integer endIndex, String path, String chunked, String gzipped) {
+
+		File file = new File(path);
+		if (!file.isFile()) {
+			throw new RelishException("Web service %s response body file %s does not exist", webServiceName, file.getAbsolutePath());
+		}
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		for (int i = startIndex; i <= getEndIndex(startIndex, endIndex); i++) {
+			HttpResponseData responseData = config.getResponseData(i);
+			responseData.setBodyFile(file, chunked != null, gzipped != null);
+		}
+	}
+
 	/**
 	 * Configures a response header for the specified mock web service.
 	 *
@@ -186,6 +312,194 @@ public final class WebServiceStepDefs {
 		}
 	}
 
+	/**
+	 * Makes the mock web service use the same response for every request that does not have a response configured for its index. This allows a service to
+	 * handle any number of requests. See {@link #webServiceResponsesCycleThrough(String, int, int)} for the steps that can check requests received while
+	 * this is in use.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param index
+	 *            The index of the response to use: 1 is the first response, 2 is the seconds response, etc
+	 */
+	@Given("^web service \"(\\S.+\\S)\" uses response (\\d+) for all other requests$")
+	public void webServiceUsesResponseForAllOtherRequests(String webServiceName, int index) {
+
+		webServiceResponsesCycleThrough(webServiceName, index, index);
+	}
+
+	/**
+	 * Makes the mock web service cycle through a range of responses for requests that do not have a response configured for their index. Request 1 uses the
+	 * first response in the range, request 2 the second, etc, starting over after the last response in the range.
+	 * <p>
+	 * So that any number of requests can be handled in a fixed amount of memory, requests received while this step, or another step that sets the response
+	 * for all other requests, is in use are counted but not kept. The request count, metrics, and connection steps work for these requests. Steps that check
+	 * a request's method, headers, or body fail.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param startIndex
+	 *            The index of the first response in the range: 1 is the first response, 2 is the seconds response, etc
+	 * @param endIndex
+	 *            The index of the last response in the range: 1 is the first response, 2 is the seconds response, etc
+	 */
+	@Given("^web service \"(\\S.+\\S)\" responses cycle through (\\d+) thru (\\d+)$")
+	public void webServiceResponsesCycleThrough(String webServiceName, int startIndex, int endIndex) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		List<HttpResponseData> responses = new ArrayList<HttpResponseData>();
+		for (int i = startIndex; i <= endIndex; i++) {
+			responses.add(config.getResponseData(i));
+		}
+		config.setResponsePolicy(ResponsePolicy.cyclic(responses));
+	}
+
+	/**
+	 * Makes the mock web service use a response for requests that match a rule, no matter what order they arrive in. Use this when the mock is called
+	 * concurrently. Rules take precedence over responses configured by request index. If a request matches more than one rule the rule added first is used.
+	 * A response used by a rule is not also used for the request with its index, so a request that does not match any rule never gets it.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param index
+	 *            The index of the response to use: 1 is the first response, 2 is the seconds response, etc
+	 * @param method
+	 *            The HTTP method the request must use or "any"
+	 * @param pathPattern
+	 *            The path the request must be for. "*" matches any characters except "/" and "**" matches any characters.
+	 * @param headerName
+	 *            The name of a header the request must have. Null to not check a header.
+	 * @param headerValueRegex
+	 *            A regular expression the header value must match
+	 * @param jsonField
+	 *            The path to a field in the request's JSON body, like "order.items.0.sku". Null to not check the body.
+	 * @param jsonValue
+	 *            The value the JSON field must have
+	 */
+	@Given("^web service \"(\\S.+\\S)\" uses response (\\d+) for (GET|POST|PUT|DELETE|HEAD|OPTIONS|TRACE|any) requests to \"(\\S+)\"(?: with header \"(\\S+)\" matching \"(.*?)\")?(?: with JSON field \"(\\S+)\" equal to \"(.*?)\")?$")
+	public void webServiceUsesResponseForRequestsMatching(String webServiceName, int index, String method, String pathPattern, String headerName,
+			String headerValueRegex, String jsonField, String jsonValue) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		HttpMethod httpMethod = "any".equals(method) ? null : HttpMethod.valueOf(method);
+		config.addResponseRule(httpMethod, pathPattern, headerName, headerValueRegex, jsonField, jsonValue, index);
+	}
+
+	/**
+	 * Makes the mock web service respond with a random mix of status codes to requests that do not have a response configured for their index. See
+	 * {@link #webServiceResponsesCycleThrough(String, int, int)} for the steps that can check requests received while this is in use.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param statusCodeMix
+	 *            The status codes and their relative weights in the form <code>200:95, 500:4, 503:1</code>
+	 */
+	@Given("^web service \"(\\S.+\\S)\" uses status code mix \"(.+)\" for all other requests$")
+	public void webServiceUsesStatusCodeMixForAllOtherRequests(String webServiceName, String statusCodeMix) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		config.setResponsePolicy(ResponsePolicy.statusCodeMix(statusCodeMix));
+	}
+
+	/**
+	 * Configures the delay before the mock web service sends the response. Delayed requests do not use a server thread while they wait.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param startIndex
+	 *            The index of the first response in the range to configure: 1 is the first response, 2 is the seconds response, etc
+	 * @param endIndex
+	 *            The index of the last response in the range to configure: 1 is the first response, 2 is the seconds response, etc. If null then startIndex is
+	 *            used.
+	 * @param delay
+	 *            The distribution each response's delay is sampled from. See {@link DelayDistribution#parse(String)} for the supported descriptions.
+	 */
+	@Given("^web service \"(\\S.+\\S)\" responses? (\\d+)(?: thru (\\d+))? (?:is|are) delayed (.+)$")
+	public void webServiceResponseIsDelayed(String webServiceName, int startIndex, Integer endIndex,
+			@Transform(DelayDistributionTransformer.class) DelayDistribution delay) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		for (int i = startIndex; i <= getEndIndex(startIndex, endIndex); i++) {
+			HttpResponseData responseData = config.getResponseData(i);
+			responseData.setDelayDistribution(delay);
+		}
+	}
+
+	/**
+	 * Makes the mock web service stream request bodies instead of keeping them in memory. Only the size, SHA-256 digest, CRC-32, and optionally the first bytes
+	 * of each body are kept so very large uploads do not use up the heap. Use the body size, digest, and "should start with" steps to validate these requests.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param headSize
+	 *            The number of bytes at the start of each body to keep in memory. Null to keep none.
+	 * @param toTempFiles
+	 *            Not null to also copy each body to a temp file. The files are deleted after the scenario.
+	 */
+	@Given("^web service \"(\\S.+\\S)\" streams request bodies(?: keeping the first (\\d+) bytes)?( to temp files)?$")
+	public void webServiceStreamsRequestBodies(String webServiceName, Integer headSize, String toTempFiles) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		config.setBodyCapture(new BodyCapture(headSize == null ? 0 : headSize, toTempFiles != null));
+	}
+
+	/**
+	 * Limits the number of requests the mock web service handles at the same time so it behaves like a saturated backend. Requests over the limit wait in a
+	 * queue without using a server thread. Requests that find the queue full or time out in it get a 503 response with a Retry-After header.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param maxConcurrent
+	 *            The maximum number of requests handled at the same time. Requests waiting for a delayed response count as being handled.
+	 * @param maxQueued
+	 *            The maximum number of requests waiting for a slot. If null requests over the limit are rejected immediately.
+	 * @param queueTimeout
+	 *            How long a request waits in the queue before it is rejected. If null requests wait up to 30 seconds.
+	 * @param queueTimeoutUnit
+	 *            Unit of measure for the queue timeout (seconds or milliseconds)
+	 */
+	@Given("^web service \"(\\S.+\\S)\" allows at most (\\d+) concurrent requests?(?: with a queue of (\\d+)(?: for up to (\\d+) (seconds|milliseconds))?)?$")
+	public void webServiceAllowsConcurrentRequests(String webServiceName, int maxConcurrent, Integer maxQueued, Integer queueTimeout,
+			TimeUnit queueTimeoutUnit) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		long queueTimeoutMillis = queueTimeout == null ? 0 : queueTimeoutUnit.toMillis(queueTimeout);
+		config.getAdmissionController().setConcurrencyLimit(maxConcurrent, maxQueued == null ? 0 : maxQueued, queueTimeoutMillis);
+	}
+
+	/**
+	 * Limits the rate the mock web service accepts requests at using a token bucket. Requests over the rate get a 429 response with a Retry-After header
+	 * giving the number of seconds until the next request would be accepted.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param requestsPerSecond
+	 *            The sustained number of requests accepted per second
+	 * @param burst
+	 *            The number of requests that may be accepted at once after a quiet period. If null then 1.
+	 */
+	@Given("^web service \"(\\S.+\\S)\" is rate limited to (\\d+) requests? per second(?: with bursts of (\\d+))?$")
+	public void webServiceIsRateLimited(String webServiceName, int requestsPerSecond, Integer burst) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		config.getAdmissionController().setRateLimit(requestsPerSecond, burst == null ? 1 : burst);
+	}
+
+	/**
+	 * Sets the Retry-After header sent by the mock web service when it rejects a request because it is saturated
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param retryAfterSeconds
+	 *            The number of seconds
+	 */
+	@Given("^web service \"(\\S.+\\S)\" tells rejected requests to retry after (\\d+) seconds?$")
+	public void webServiceRetryAfter(String webServiceName, int retryAfterSeconds) {
+
+		WebServiceConfig config = getOrCreateWebServiceConfig(webServiceName);
+		config.getAdmissionController().setRetryAfterSeconds(retryAfterSeconds);
+	}
+
 	/**
 	 * Validates a mock web service request body
 	 *
@@ -221,6 +535,95 @@ public final class WebServiceStepDefs {
 		}
 	}
 
+	/**
+	 * Validates the size of mock web service request bodies. Works for bodies kept in memory and bodies captured by streaming.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param startIndex
+	 *            The index of the first request in the range to validate: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to validate. If null then startIndex is used.
+	 * @param sizeQuantifier
+	 *            How to evaluate the size
+	 * @param size
+	 *            The size in bytes
+	 */
+	@Then("^web service \"(\\S.+\\S)\" requests? (\\d+)(?: thru (\\d+))? body size should be (at least|at most|exactly) (\\d+) bytes$")
+	public void webServiceRequestBodySizeShouldBe(String webServiceName, int startIndex, Integer endIndex,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier sizeQuantifier, long size) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		for (int i = startIndex; i <= getEndIndex(startIndex, endIndex); i++) {
+			BodySummary summary = getBodySummary(config.getRequestData(i));
+			assertThat(summary.getSize(), sizeQuantifier.newMatcher(size), "Web service %s request %d body size does not match", webServiceName, i);
+		}
+	}
+
+	/**
+	 * Validates the digest of mock web service request bodies. Works for bodies kept in memory and bodies captured by streaming.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param startIndex
+	 *            The index of the first request in the range to validate: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to validate. If null then startIndex is used.
+	 * @param algorithm
+	 *            SHA-256 or CRC-32
+	 * @param digest
+	 *            The expected digest in hex. Case is ignored.
+	 */
+	@Then("^web service \"(\\S.+\\S)\" requests? (\\d+)(?: thru (\\d+))? body (SHA-256|CRC-32) should be \"([0-9a-fA-F]+)\"$")
+	public void webServiceRequestBodyDigestShouldBe(String webServiceName, int startIndex, Integer endIndex, String algorithm, String digest) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		for (int i = startIndex; i <= getEndIndex(startIndex, endIndex); i++) {
+			BodySummary summary = getBodySummary(config.getRequestData(i));
+			String actual = "SHA-256".equals(algorithm) ? summary.getSha256() : summary.getCrc32();
+			assertThat(actual, equalTo(digest.toLowerCase()), "Web service %s request %d body %s does not match", webServiceName, i, algorithm);
+		}
+	}
+
+	/**
+	 * Validates the start of mock web service request bodies. For bodies captured by streaming the expected bytes may not be longer than the number of bytes
+	 * kept in memory.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param startIndex
+	 *            The index of the first request in the range to validate: 1 is the first request, 2 is the seconds request, etc
+	 * @param endIndex
+	 *            The index of the last request in the range to validate. If null then startIndex is used.
+	 * @param format
+	 *            The format the expected bytes are in. For binary this should be space delimited hexadecimal.
+	 * @param head
+	 *            The bytes each body must start with
+	 */
+	@Then("^web service \"(\\S.+\\S)\" requests? (\\d+)(?: thru (\\d+))? body should start with this (text|binary):$")
+	public void webServiceRequestBodyShouldStartWith(String webServiceName, int startIndex, Integer endIndex, DataFormat format, String head) {
+
+		byte[] expected = format.textToBytes(head);
+		if (expected == null) {
+			expected = new byte[0];
+		}
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		for (int i = startIndex; i <= getEndIndex(startIndex, endIndex); i++) {
+			BodySummary summary = getBodySummary(config.getRequestData(i));
+			byte[] actual = summary.getHead();
+			if (actual.length < expected.length && actual.length < summary.getSize()) {
+				throw new RelishException("Web service %s request %d only kept the first %d bytes of its body but %d bytes were expected", webServiceName, i,
+						actual.length, expected.length);
+			}
+			if (actual.length > expected.length) {
+				actual = Arrays.copyOf(actual, expected.length);
+			}
+			assertThat(format.bytesToText(actual), equalTo(format.bytesToText(expected)),
+					"Web service %s request %d body does not start with the expected bytes", webServiceName, i);
+		}
+	}
+
 	/**
 	 * Asserts that a particular JSON payload is equal to another JSON payload. Two payloads are equal if they both contain the same objects and those objects
 	 * have identical values. The order in which they appear in the JSON will not matter when the equivalency is determined.
@@ -395,6 +798,369 @@ public final class WebServiceStepDefs {
 		assertThatWithin(timeout, timeoutUnit, currentResponseCount, gte(requestCount), "Web service %s did not receive enough requests", webServiceName);
 	}
 
+	/**
+	 * Validates the largest number of requests the specified web service was handling at the same time. Requests waiting for a delayed response count as
+	 * being handled.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of concurrent requests
+	 */
+	@Then("^web service \"(\\S.+\\S)\" should have had (at least|at most|exactly) (\\d+) concurrent requests?$")
+	public void webServiceShouldHaveHadConcurrentRequests(String webServiceName, @Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier,
+			int count) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		assertThat(config.getMetrics().getPeakConcurrency(), countQuantifier.newMatcher(count), "Web service %s peak concurrent requests do not match",
+				webServiceName);
+	}
+
+	/**
+	 * Validates the number of requests the specified web service's concurrency and rate limits admitted, queued, or rejected
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param outcome
+	 *            admitted, queued, or rejected. Queued requests are also counted as admitted or rejected once they leave the queue.
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of requests
+	 */
+	@Then("^web service \"(\\S.+\\S)\" should have (admitted|queued|rejected) (at least|at most|exactly) (\\d+) requests?$")
+	public void webServiceShouldHaveAdmissionCount(String webServiceName, String outcome,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, long count) {
+
+		AdmissionController admission = getRequiredWebServiceConfig(webServiceName).getAdmissionController();
+		long actual = "admitted".equals(outcome) ? admission.getAdmittedCount() : "queued".equals(outcome) ? admission.getQueuedCount() : admission
+				.getRejectedCount();
+		assertThat(actual, countQuantifier.newMatcher(count), "Web service %s %s request count does not match", webServiceName, outcome);
+	}
+
+	/**
+	 * Validates the rate requests arrived at the specified web service, measured from the first request to the last
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param rateQuantifier
+	 *            How to evaluate the rate
+	 * @param rate
+	 *            Requests per second
+	 */
+	@Then("^web service \"(\\S.+\\S)\" request rate should be (at least|at most) (\\d+(?:\\.\\d+)?) per second$")
+	public void webServiceRequestRateShouldBe(String webServiceName, @Transform(CountQuantifierTransformer.class) CountQuantifier rateQuantifier, double rate) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		assertThat(config.getMetrics().getRequestRate(), rateQuantifier.newMatcher(rate), "Web service %s request rate does not match", webServiceName);
+	}
+
+	/**
+	 * Validates the number of body bytes received or sent by the specified web service. Received bytes are counted as sent on the wire, before any gzip
+	 * decoding.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param direction
+	 *            received or sent
+	 * @param byteQuantifier
+	 *            How to evaluate the byte count
+	 * @param bytes
+	 *            The number of bytes
+	 */
+	@Then("^web service \"(\\S.+\\S)\" should have (received|sent) (at least|at most|exactly) (\\d+) bytes$")
+	public void webServiceShouldHaveTransferredBytes(String webServiceName, String direction,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier byteQuantifier, long bytes) {
+
+		WebServiceMetrics metrics = getRequiredWebServiceConfig(webServiceName).getMetrics();
+		long actual = "received".equals(direction) ? metrics.getBytesIn() : metrics.getBytesOut();
+		assertThat(actual, byteQuantifier.newMatcher(bytes), "Web service %s bytes %s do not match", webServiceName, direction);
+	}
+
+	/**
+	 * Validates a statistic of the time between request arrivals or of the time the specified web service took to respond. Response time is measured from
+	 * when the request arrives until the response body has been written and includes any configured delay.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param metric
+	 *            inter-arrival or response
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @param timeQuantifier
+	 *            How to evaluate the time
+	 * @param time
+	 *            The time
+	 * @param timeUnit
+	 *            Unit of measure for the time
+	 */
+	@Then("^web service \"(\\S.+\\S)\" (inter-arrival|response) time (min|mean|max|p\\d+(?:\\.\\d+)?) should be (at least|at most) (\\d+) (seconds|milliseconds|microseconds)$")
+	public void webServiceTimeShouldBe(String webServiceName, String metric, String statistic,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier timeQuantifier, long time, TimeUnit timeUnit) {
+
+		WebServiceMetrics metrics = getRequiredWebServiceConfig(webServiceName).getMetrics();
+		Histogram histogram = "response".equals(metric) ? metrics.getResponseNanos() : metrics.getInterArrivalNanos();
+
+		assertThat(histogram.getStatistic(statistic), timeQuantifier.newMatcher(timeUnit.toNanos(time)),
+				"Web service %s %s time %s in nanoseconds does not match", webServiceName, metric, statistic);
+	}
+
+	/**
+	 * Validates the number of requests received by one instance of a mock web service started on several ports
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param serverPort
+	 *            The port of the instance
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of requests
+	 */
+	@Then("^web service \"(\\S.+\\S)\" instance on port (\\d{2,5}) should have (at least|at most|exactly) (\\d+) requests?$")
+	public void webServiceInstanceShouldHaveRequestCount(String webServiceName, int serverPort,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, long count) {
+
+		WebServiceMetrics metrics = getRequiredInstanceMetrics(webServiceName, serverPort);
+		assertThat(metrics.getRequestCount(), countQuantifier.newMatcher(count), "Web service %s instance on port %d request count does not match",
+				webServiceName, serverPort);
+	}
+
+	/**
+	 * Validates a statistic of the time one instance of a mock web service started on several ports took to respond
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param serverPort
+	 *            The port of the instance
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @param timeQuantifier
+	 *            How to evaluate the time
+	 * @param time
+	 *            The time
+	 * @param timeUnit
+	 *            Unit of measure for the time
+	 */
+	@Then("^web service \"(\\S.+\\S)\" instance on port (\\d{2,5}) response time (min|mean|max|p\\d+(?:\\.\\d+)?) should be (at least|at most) (\\d+) (seconds|milliseconds|microseconds)$")
+	public void webServiceInstanceResponseTimeShouldBe(String webServiceName, int serverPort, String statistic,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier timeQuantifier, long time, TimeUnit timeUnit) {
+
+		WebServiceMetrics metrics = getRequiredInstanceMetrics(webServiceName, serverPort);
+		assertThat(metrics.getResponseNanos().getStatistic(statistic), timeQuantifier.newMatcher(timeUnit.toNanos(time)),
+				"Web service %s instance on port %d response time %s in nanoseconds does not match", webServiceName, serverPort, statistic);
+	}
+
+	/**
+	 * Validates that the instances of a mock web service started on several ports received about the same number of requests. Stopped instances are not
+	 * included so this can be used to check that the remaining instances share the load after a failover.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param tolerancePercent
+	 *            How far each running instance's request count may be from the mean count of the running instances, as a percentage of the mean
+	 */
+	@Then("^web service \"(\\S.+\\S)\" requests should be evenly distributed across running instances within (\\d+) percent$")
+	public void webServiceRequestsShouldBeEvenlyDistributed(String webServiceName, int tolerancePercent) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		if (!config.isClustered()) {
+			throw new RelishException("Web service %s is not running on several ports", webServiceName);
+		}
+
+		Map<Integer, Long> countByPort = new TreeMap<Integer, Long>();
+		long total = 0;
+		for (int port : config.getInstancePorts()) {
+			if (server.isPortOpen(port)) {
+				long count = config.getInstanceMetrics(port).getRequestCount();
+				countByPort.put(port, count);
+				total += count;
+			}
+		}
+
+		if (countByPort.isEmpty()) {
+			throw new RelishException("Web service %s has no running instances", webServiceName);
+		}
+
+		double mean = (double) total / countByPort.size();
+		double tolerance = mean * tolerancePercent / 100;
+		for (Map.Entry<Integer, Long> entry : countByPort.entrySet()) {
+			assertThat((double) entry.getValue(), allOf(gte(mean - tolerance), lte(mean + tolerance)),
+					"Web service %s instance on port %d request count is not within %d%% of the mean. Request counts by port: %s", webServiceName,
+					entry.getKey(), tolerancePercent, countByPort);
+		}
+	}
+
+	/**
+	 * Prints the request metrics of each instance of a mock web service started on several ports
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 */
+	@Then("^print web service \"(\\S.+\\S)\" instance metrics$")
+	public void printWebServiceInstanceMetrics(String webServiceName) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		for (int port : config.getInstancePorts()) {
+			System.out.println(String.format("Web service %s instance on port %d (%s) metrics: %s", webServiceName, port,
+					server.isPortOpen(port) ? "running" : "stopped", config.getInstanceMetrics(port).toReport()));
+		}
+	}
+
+	/**
+	 * Validates that the specified web service's clients reused connections: the number of requests received and the number of connections they were sent
+	 * on. Connections are counted by the web service's ports so requests to other web services on the same port use up connections too.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param requestCount
+	 *            The exact number of requests the web service should have received
+	 * @param connectionQuantifier
+	 *            How to evaluate the connection count
+	 * @param connectionCount
+	 *            The number of connections
+	 */
+	@Then("^web service \"(\\S.+\\S)\" should have received (\\d+) requests? over (at least|at most|exactly) (\\d+) connections?$")
+	public void webServiceShouldHaveReceivedRequestsOverConnections(String webServiceName, int requestCount,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier connectionQuantifier, long connectionCount) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		ConnectionStats stats = getConnectionStats(webServiceName);
+		assertThat(config.getRequestCount(), equalTo(requestCount), "Web service %s request count does not match", webServiceName);
+		assertThat(stats.getAcceptedCount(), connectionQuantifier.newMatcher(connectionCount), "Web service %s connection count does not match",
+				webServiceName);
+	}
+
+	/**
+	 * Validates the number of connections accepted on the specified web service's ports, or the largest number that were open at the same time
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param measure
+	 *            accepted for the number of connections accepted or had concurrently open for the largest number open at the same time
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of connections
+	 */
+	@Then("^web service \"(\\S.+\\S)\" should have (accepted|had concurrently open) (at least|at most|exactly) (\\d+) connections?$")
+	public void webServiceShouldHaveConnectionCount(String webServiceName, String measure,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, long count) {
+
+		ConnectionStats stats = getConnectionStats(webServiceName);
+		long actual = "accepted".equals(measure) ? stats.getAcceptedCount() : stats.getPeakOpenCount();
+		assertThat(actual, countQuantifier.newMatcher(count), "Web service %s %s connection count does not match", webServiceName, measure);
+	}
+
+	/**
+	 * Validates a statistic of how long connections to the specified web service's ports stayed open. Only connections that have been closed are included.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @param timeQuantifier
+	 *            How to evaluate the lifetime
+	 * @param time
+	 *            The lifetime
+	 * @param timeUnit
+	 *            Unit of measure for the lifetime
+	 */
+	@Then("^web service \"(\\S.+\\S)\" connection lifetime (min|mean|max|p\\d+(?:\\.\\d+)?) should be (at least|at most) (\\d+) (seconds|milliseconds)$")
+	public void webServiceConnectionLifetimeShouldBe(String webServiceName, String statistic,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier timeQuantifier, long time, TimeUnit timeUnit) {
+
+		ConnectionStats stats = getConnectionStats(webServiceName);
+		assertThat(stats.getLifetimeMillis().getStatistic(statistic), timeQuantifier.newMatcher(timeUnit.toMillis(time)),
+				"Web service %s connection lifetime %s in milliseconds does not match", webServiceName, statistic);
+	}
+
+	/**
+	 * Validates a statistic of how many requests each connection to the specified web service's ports carried. Only connections that have been closed are
+	 * included.
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 * @param statistic
+	 *            min, mean, max, or a percentile like p50, p99, or p99.9
+	 * @param countQuantifier
+	 *            How to evaluate the count
+	 * @param count
+	 *            The number of requests
+	 */
+	@Then("^web service \"(\\S.+\\S)\" requests per connection (min|mean|max|p\\d+(?:\\.\\d+)?) should be (at least|at most) (\\d+)$")
+	public void webServiceRequestsPerConnectionShouldBe(String webServiceName, String statistic,
+			@Transform(CountQuantifierTransformer.class) CountQuantifier countQuantifier, long count) {
+
+		ConnectionStats stats = getConnectionStats(webServiceName);
+		assertThat(stats.getRequestsPerConnection().getStatistic(statistic), countQuantifier.newMatcher(count),
+				"Web service %s requests per connection %s does not match", webServiceName, statistic);
+	}
+
+	/**
+	 * Prints the connection statistics of the specified web service's ports: connections accepted and open, connection lifetimes, and requests per
+	 * connection
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 */
+	@Then("^print web service \"(\\S.+\\S)\" connection stats$")
+	public void printWebServiceConnectionStats(String webServiceName) {
+
+		System.out.println(String.format("Web service %s connections: %s", webServiceName, getConnectionStats(webServiceName).toReport()));
+	}
+
+	/**
+	 * Prints the request metrics of the specified web service: request count and rate, peak concurrency, bytes transferred, and inter-arrival and response
+	 * time statistics
+	 *
+	 * @param webServiceName
+	 *            The name used to refer to this web service in the DSL
+	 */
+	@Then("^print web service \"(\\S.+\\S)\" metrics$")
+	public void printWebServiceMetrics(String webServiceName) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		System.out.println(String.format("Web service %s metrics: %s", webServiceName, config.getMetrics().toReport()));
+	}
+
+	/**
+	 * @return The connection statistics of all the web service's ports combined
+	 */
+	private ConnectionStats getConnectionStats(String webServiceName) {
+
+		WebServiceConfig config = getRequiredWebServiceConfig(webServiceName);
+		List<Integer> ports = config.isClustered() ? config.getInstancePorts() : Collections.singletonList(server.getServerPort());
+
+		ConnectionStats total = new ConnectionStats();
+		for (int port : ports) {
+			ConnectionStats stats = server.getConnectionStats(port);
+			if (stats == null) {
+				throw new RelishException("Web service %s has no connection statistics because it has not been started", webServiceName);
+			}
+			total.add(stats);
+		}
+
+		return total;
+	}
+
+	private WebServiceMetrics getRequiredInstanceMetrics(String webServiceName, int serverPort) {
+
+		WebServiceMetrics metrics = getRequiredWebServiceConfig(webServiceName).getInstanceMetrics(serverPort);
+		if (metrics == null) {
+			throw new RelishException("Web service %s does not have an instance on port %d", webServiceName, serverPort);
+		}
+		return metrics;
+	}
+
+	private BodySummary getBodySummary(HttpRequestData requestData) {
+
+		BodySummary summary = requestData.getBodySummary();
+		return summary != null ? summary : BodySummary.of(requestData.getBody());
+	}
+
 	private WebServiceConfig getOrCreateWebServiceConfig(String webServiceName) {
 		WebServiceConfig config = webServiceConfigByName.get(webServiceName);
 		if (config == null) {
@@ -0,0 +1,179 @@
+package net.sf.relish;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BodyCaptureTest {
+
+	static final String HELLO_SHA256 = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+	static final String HELLO_CRC32 = "0d4a1185";
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_NegativeHeadSize() throws Exception {
+		new BodyCapture(-1, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_NegativeTailSize() throws Exception {
+		new BodyCapture(0, -1, false);
+	}
+
+	@Test
+	public void testCapture_DigestsOnly() throws Exception {
+
+		BodySummary summary = new BodyCapture(0, false).capture(stream("hello world"));
+
+		assertEquals(11, summary.getSize());
+		assertEquals(HELLO_SHA256, summary.getSha256());
+		assertEquals(HELLO_CRC32, summary.getCrc32());
+		assertEquals(0, summary.getHead().length);
+		assertEquals(0, summary.getTail().length);
+		assertEquals(1, summary.getLineCount());
+		assertNull(summary.getFile());
+	}
+
+	@Test
+	public void testCapture_Empty() throws Exception {
+
+		BodySummary summary = new BodyCapture(10, false).capture(stream(""));
+
+		assertEquals(0, summary.getSize());
+		assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", summary.getSha256());
+		assertEquals("00000000", summary.getCrc32());
+		assertEquals(0, summary.getHead().length);
+	}
+
+	@Test
+	public void testCapture_Head() throws Exception {
+
+		BodySummary summary = new BodyCapture(5, false).capture(stream("hello world"));
+		assertEquals("hello", new String(summary.getHead(), DataFormat.UTF8));
+
+		summary = new BodyCapture(50, false).capture(stream("hello world"));
+		assertEquals("hello world", new String(summary.getHead(), DataFormat.UTF8));
+	}
+
+	@Test
+	public void testCapture_Tail() throws Exception {
+
+		BodySummary summary = new BodyCapture(0, 5, false).capture(stream("hello world"));
+		assertEquals("world", new String(summary.getTail(), DataFormat.UTF8));
+
+		summary = new BodyCapture(0, 50, false).capture(stream("hello world"));
+		assertEquals("hello world", new String(summary.getTail(), DataFormat.UTF8));
+	}
+
+	@Test
+	public void testCapture_Tail_WrapsAcrossReads() throws Exception {
+
+		// reads of 3 bytes so the ring of 4 bytes wraps in the middle of reads
+		InputStream in = new ByteArrayInputStream("abcdefghijklm".getBytes(DataFormat.UTF8)) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+
+		BodySummary summary = new BodyCapture(2, 4, false).capture(in);
+		assertEquals("ab", new String(summary.getHead(), DataFormat.UTF8));
+		assertEquals("jklm", new String(summary.getTail(), DataFormat.UTF8));
+	}
+
+	@Test
+	public void testCapture_LineCount() throws Exception {
+
+		assertEquals(0, new BodyCapture(0, false).capture(stream("")).getLineCount());
+		assertEquals(1, new BodyCapture(0, false).capture(stream("\n")).getLineCount());
+		assertEquals(2, new BodyCapture(0, false).capture(stream("a\nb")).getLineCount());
+		assertEquals(2, new BodyCapture(0, false).capture(stream("a\r\nb\r\n")).getLineCount());
+		assertEquals(3, new BodyCapture(0, false).capture(stream("a\n\nb\n")).getLineCount());
+	}
+
+	@Test
+	public void testCapture_LargeBody() throws Exception {
+
+		byte[] body = new byte[200000];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) (i % 251);
+		}
+
+		BodySummary summary = new BodyCapture(100000, 1000, false).capture(new ByteArrayInputStream(body));
+
+		assertEquals(200000, summary.getSize());
+		assertEquals("e24bc62381f1224fbbb74688663f8f9743b9680b193edd666835e97b06e730eb", summary.getSha256());
+		assertEquals("a745c145", summary.getCrc32());
+		byte[] head = summary.getHead();
+		assertEquals(100000, head.length);
+		assertEquals((byte) (99999 % 251), head[99999]);
+		byte[] tail = summary.getTail();
+		assertEquals(1000, tail.length);
+		assertEquals((byte) (199000 % 251), tail[0]);
+		assertEquals((byte) (199999 % 251), tail[999]);
+	}
+
+	@Test
+	public void testCapture_SpillToFile() throws Exception {
+
+		BodySummary summary = new BodyCapture(0, true).capture(stream("hello world"));
+
+		try {
+			assertTrue(summary.getFile().isFile());
+			assertEquals("hello world", RelishUtil.getFileContentsAsString(summary.getFile()));
+			assertEquals(HELLO_SHA256, summary.getSha256());
+		} finally {
+			summary.getFile().delete();
+		}
+	}
+
+	@Test
+	public void testCapture_DoesNotCloseStream() throws Exception {
+
+		InputStream in = spy(stream("hello world"));
+		new BodyCapture(0, false).capture(in);
+		verify(in, never()).close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testCapture_ReadFails() throws Exception {
+
+		InputStream in = mock(InputStream.class);
+		when(in.read(any(byte[].class))).thenThrow(new IOException());
+		new BodyCapture(0, true).capture(in);
+	}
+
+	@Test
+	public void testSummaryOf() throws Exception {
+
+		BodySummary summary = BodySummary.of("hello world".getBytes(DataFormat.UTF8));
+
+		assertEquals(11, summary.getSize());
+		assertEquals(HELLO_SHA256, summary.getSha256());
+		assertEquals(HELLO_CRC32, summary.getCrc32());
+		assertEquals("hello world", new String(summary.getHead(), DataFormat.UTF8));
+		assertEquals("hello world", new String(summary.getTail(), DataFormat.UTF8));
+		assertEquals(1, summary.getLineCount());
+	}
+
+	@Test
+	public void testSummaryOf_Null() throws Exception {
+
+		BodySummary summary = BodySummary.of(null);
+		assertEquals(0, summary.getSize());
+		assertEquals(0, summary.getHead().length);
+		assertEquals(0, summary.getLineCount());
+	}
+
+	private InputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(DataFormat.UTF8));
+	}
+}
@@ -35,6 +35,27 @@ public class CountQuantifierTest {
 		assertTrue(matcher.matches(124));
 	}
 
+	@Test
+	public void testNewMatcher_Long() throws Exception {
+
+		assertTrue(AT_LEAST.newMatcher(5000000000L).matches(5000000000L));
+		assertFalse(AT_LEAST.newMatcher(5000000000L).matches(4999999999L));
+		assertTrue(AT_MOST.newMatcher(5000000000L).matches(4999999999L));
+		assertFalse(AT_MOST.newMatcher(5000000000L).matches(5000000001L));
+		assertTrue(EXACTLY.newMatcher(5000000000L).matches(5000000000L));
+		assertFalse(EXACTLY.newMatcher(5000000000L).matches(5000000001L));
+	}
+
+	@Test
+	public void testNewMatcher_Double() throws Exception {
+
+		assertTrue(AT_LEAST.newMatcher(2.5).matches(2.5));
+		assertFalse(AT_LEAST.newMatcher(2.5).matches(2.4));
+		assertTrue(AT_MOST.newMatcher(2.5).matches(2.4));
+		assertFalse(AT_MOST.newMatcher(2.5).matches(2.6));
+		assertTrue(EXACTLY.newMatcher(2.5).matches(2.5));
+	}
+
 	@Test
 	public void testNewMatcher_AtMost() throws Exception {
 		Matcher<Integer> matcher = AT_MOST.newMatcher(123);
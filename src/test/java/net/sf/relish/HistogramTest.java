@@ -0,0 +1,222 @@
+package net.sf.relish;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HistogramTest {
+
+	Histogram histogram = new Histogram();
+
+	@Test
+	public void testAdd() throws Exception {
+
+		Histogram other = new Histogram();
+		for (int i = 1; i <= 50; i++) {
+			histogram.record(i);
+			other.record(i + 50);
+		}
+
+		histogram.add(other);
+		histogram.add(new Histogram());
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0.0001);
+		assertEquals(75, histogram.getValueAtPercentile(75));
+		assertEquals(50, other.getCount());
+	}
+
+	@Test
+	public void testAdd_ToEmpty() throws Exception {
+
+		Histogram other = new Histogram();
+		other.record(7);
+		other.record(9);
+
+		histogram.add(other);
+
+		assertEquals(2, histogram.getCount());
+		assertEquals(7, histogram.getMin());
+		assertEquals(9, histogram.getMax());
+	}
+
+	@Test
+	public void testBucketIndex_RoundTrip() throws Exception {
+
+		Random random = new Random(17);
+		for (int i = 0; i < 100000; i++) {
+			long value = random.nextLong() >>> (1 + random.nextInt(63));
+			long highest = Histogram.bucketHighestValue(Histogram.bucketIndex(value));
+			assertTrue(value + " > " + highest, value <= highest);
+			assertTrue(value + " too far from " + highest, highest - value <= value / 64);
+		}
+
+		assertEquals(Long.MAX_VALUE, Histogram.bucketHighestValue(Histogram.bucketIndex(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testBucketIndex_SmallValuesAreExact() throws Exception {
+
+		for (long value = 0; value < 128; value++) {
+			assertEquals(value, Histogram.bucketHighestValue(Histogram.bucketIndex(value)));
+		}
+		assertEquals(129, Histogram.bucketHighestValue(Histogram.bucketIndex(128)));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getMean(), 0);
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void testRecord() throws Exception {
+
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		histogram.record(-5);
+
+		assertEquals(101, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(5050 / 101.0, histogram.getMean(), 0.0001);
+		assertEquals(0, histogram.getValueAtPercentile(0));
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		assertEquals(100, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testGetValueAtPercentile_LargeValues() throws Exception {
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000000L);
+		}
+
+		assertEquals(500000000, histogram.getValueAtPercentile(50), 500000000 / 64);
+		assertEquals(990000000, histogram.getValueAtPercentile(99), 990000000 / 64);
+		assertEquals(1000000000, histogram.getValueAtPercentile(100));
+		assertTrue(histogram.getValueAtPercentile(50) >= 500000000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetValueAtPercentile_TooHigh() throws Exception {
+		histogram.getValueAtPercentile(100.1);
+	}
+
+	@Test
+	public void testGetStatistic() throws Exception {
+
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(1, histogram.getStatistic("min"));
+		assertEquals(51, histogram.getStatistic("mean"));
+		assertEquals(100, histogram.getStatistic("max"));
+		assertEquals(50, histogram.getStatistic("p50"));
+		assertEquals(99, histogram.getStatistic("p99"));
+		assertEquals(100, histogram.getStatistic("p99.9"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetStatistic_Invalid() throws Exception {
+		new Histogram().getStatistic("median");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetStatistic_InvalidPercentile() throws Exception {
+		new Histogram().getStatistic("pxx");
+	}
+
+	@Test
+	public void testRecordCorrected() throws Exception {
+
+		histogram.recordCorrected(10, 100);
+		assertEquals(1, histogram.getCount());
+
+		histogram.recordCorrected(450, 100);
+		assertEquals(5, histogram.getCount());
+		assertEquals(10, histogram.getMin());
+		assertEquals(450, histogram.getMax());
+		assertEquals(10 + 450 + 350 + 250 + 150, histogram.getMean() * 5, 0.0001);
+
+		histogram.recordCorrected(450, 0);
+		assertEquals(6, histogram.getCount());
+	}
+
+	@Test
+	public void testReset() throws Exception {
+
+		histogram.record(123);
+		histogram.reset();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testToReport() throws Exception {
+
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+		assertEquals("count=1, min=2.000ms, mean=2.000ms, p50=2.000ms, p90=2.000ms, p99=2.000ms, p99.9=2.000ms, max=2.000ms",
+				histogram.toReport(TimeUnit.NANOSECONDS));
+
+		histogram.reset();
+		histogram.record(3);
+		assertEquals("count=1, min=3.000ms, mean=3.000ms, p50=3.000ms, p90=3.000ms, p99=3.000ms, p99.9=3.000ms, max=3.000ms",
+				histogram.toReport(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testRecord_Concurrent() throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						for (int i = 1; i <= 10000; i++) {
+							histogram.record(i);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(80000, histogram.getCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(10000, histogram.getMax());
+		assertEquals(5000.5, histogram.getMean(), 0.0001);
+	}
+}
@@ -0,0 +1,160 @@
+package net.sf.relish;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PayloadTemplateTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompile_NullFormat() throws Exception {
+		PayloadTemplate.compile(null, "abc");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompile_EmptyTemplate() throws Exception {
+		PayloadTemplate.compile(DataFormat.TEXT, "");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testCompile_Binary() throws Exception {
+		PayloadTemplate.compile(DataFormat.BINARY, "01 02");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testCompile_UnknownPlaceholder() throws Exception {
+		PayloadTemplate.compile(DataFormat.TEXT, "abc ${foo}");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testCompile_UnterminatedPlaceholder() throws Exception {
+		PayloadTemplate.compile(DataFormat.TEXT, "abc ${seq");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testCompile_InvalidRandomRange() throws Exception {
+		PayloadTemplate.compile(DataFormat.TEXT, "${random:10-1}");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testCompile_InvalidJson() throws Exception {
+		PayloadTemplate.compile(DataFormat.JSON, "{\"id\":${seq}");
+	}
+
+	@Test
+	public void testCompile_ValidJson() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.JSON, "{\"id\":${seq},\"device\":\"dev-${seq%3}\"}");
+		assertEquals("{\"id\":7,\"device\":\"dev-1\"}", new String(template.renderToBytes(7), DataFormat.UTF8));
+	}
+
+	@Test
+	public void testRender_Literal() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "hello world");
+		assertEquals(11, template.render(1));
+		assertEquals(11, template.getLength());
+		assertEquals("hello world", new String(template.getBuffer(), 0, template.getLength(), DataFormat.UTF8));
+	}
+
+	@Test
+	public void testRender_ReusesBuffer() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "msg ${seq}");
+		byte[] buffer = template.getBuffer();
+		template.render(1);
+		template.render(123456789);
+		assertSame(buffer, template.getBuffer());
+		assertEquals("msg 123456789", new String(template.getBuffer(), 0, template.getLength(), DataFormat.UTF8));
+	}
+
+	@Test
+	public void testRender_Sequence() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "${seq}");
+		assertEquals("0", render(template, 0));
+		assertEquals("9", render(template, 9));
+		assertEquals("10", render(template, 10));
+		assertEquals("-42", render(template, -42));
+		assertEquals(Long.toString(Long.MAX_VALUE), render(template, Long.MAX_VALUE));
+		assertEquals(Long.toString(Long.MIN_VALUE), render(template, Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testRender_SequenceModulus() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "device-${seq%100}");
+		assertEquals("device-1", render(template, 1));
+		assertEquals("device-0", render(template, 100));
+		assertEquals("device-99", render(template, 199));
+	}
+
+	@Test
+	public void testRender_Clock() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "${millis}");
+		long before = System.currentTimeMillis();
+		long rendered = Long.parseLong(render(template, 1));
+		assertTrue(rendered >= before);
+		assertTrue(rendered <= System.currentTimeMillis());
+
+		template = PayloadTemplate.compile(DataFormat.TEXT, "${nanos}");
+		before = System.nanoTime();
+		rendered = Long.parseLong(render(template, 1));
+		assertTrue(rendered - before >= 0);
+	}
+
+	@Test
+	public void testRender_Random() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "${random:5-8}");
+		Set<String> values = new HashSet<String>();
+		for (int i = 0; i < 1000; i++) {
+			values.add(render(template, i));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("5", "6", "7", "8")), values);
+	}
+
+	@Test
+	public void testRender_Hex() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "${hex:40}");
+		String value = render(template, 1);
+		assertTrue(value, value.matches("[0-9a-f]{40}"));
+		assertFalse(value.equals(render(template, 1)));
+	}
+
+	@Test
+	public void testRender_Cycle() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "${cycle:red|green|}");
+		assertEquals("red", render(template, 1));
+		assertEquals("green", render(template, 2));
+		assertEquals("", render(template, 3));
+		assertEquals("red", render(template, 4));
+	}
+
+	@Test
+	public void testRender_EscapedPlaceholder() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "$${seq} ${seq}");
+		assertEquals("${seq} 3", render(template, 3));
+	}
+
+	@Test
+	public void testRender_MultiByteCharacters() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "\u00e9t\u00e9 ${seq}");
+		assertEquals("\u00e9t\u00e9 2", render(template, 2));
+	}
+
+	@Test
+	public void testRenderToBytes_ReturnsCopy() throws Exception {
+		PayloadTemplate template = PayloadTemplate.compile(DataFormat.TEXT, "${seq}");
+		byte[] first = template.renderToBytes(1);
+		byte[] second = template.renderToBytes(2);
+		assertArrayEquals("1".getBytes(DataFormat.UTF8), first);
+		assertArrayEquals("2".getBytes(DataFormat.UTF8), second);
+	}
+
+	private String render(PayloadTemplate template, long sequence) {
+		template.render(sequence);
+		return new String(template.getBuffer(), 0, template.getLength(), DataFormat.UTF8);
+	}
+}
@@ -91,6 +91,14 @@ public class TestHttpServer {
 		return lastRequestHeaders.get(name);
 	}
 
+	/**
+	 * @return The body from the last request
+	 */
+	public final byte[] getRequestBody() {
+
+		return lastRequestBody;
+	}
+
 	/**
 	 * @return The body from the last request as a string with charset UTF-8.
 	 */
@@ -1,13 +1,31 @@
 package net.sf.relish.exec;
 
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.relish.CountQuantifier;
 import net.sf.relish.RelishException;
+import net.sf.relish.rule.ElapsedTime;
 
+import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class ExecStepDefsTest {
 
+	@Rule public final ElapsedTime elapsedTime = new ElapsedTime();
+
 	ExecStepDefs steps = new ExecStepDefs();
 
+	@After
+	public void after() {
+		steps.after();
+	}
+
 	@Test(expected = RelishException.class)
 	public void testApplicationIsExecutedWithCommandLine_NoSuchApp() {
 
@@ -92,4 +110,215 @@ public class ExecStepDefsTest {
 		steps.applicationIsExecutedWithCommandLine("foo", "echo abc");
 		steps.applicationOutputShouldMatchThisText("foo", "def");
 	}
+
+	@Test
+	public void testApplicationOutputIsCaptured_InFull_LargeOutput() throws Exception {
+
+		steps.applicationIsExecutedWithCommandLine("foo", "seq 200000");
+		steps.applicationOutputLineCountShouldBe("foo", CountQuantifier.EXACTLY, 200000);
+		steps.applicationOutputSizeShouldBe("foo", CountQuantifier.EXACTLY, 1288895);
+		steps.applicationOutputShouldMatchThisText("foo", "(?s)1\n2\n.*\n200000\n");
+	}
+
+	@Test
+	public void testApplicationOutputIsCaptured_HeadAndTail() throws Exception {
+
+		steps.applicationOutputIsCaptured("keeping the first 4 and last 7 bytes", 4, 7);
+		steps.applicationIsExecutedWithCommandLine("foo", "seq 200000");
+
+		steps.applicationOutputLineCountShouldBe("foo", CountQuantifier.EXACTLY, 200000);
+		steps.applicationOutputSizeShouldBe("foo", CountQuantifier.EXACTLY, 1288895);
+		steps.applicationOutputPartShouldMatchThisText("foo", "start", "1\n2\n");
+		steps.applicationOutputPartShouldMatchThisText("foo", "end", "200000\n");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testApplicationOutputIsCaptured_HeadAndTail_WholeOutputNotKept() throws Exception {
+
+		steps.applicationOutputIsCaptured("keeping the first 4 and last 7 bytes", 4, 7);
+		steps.applicationIsExecutedWithCommandLine("foo", "seq 200000");
+		steps.applicationOutputShouldMatchThisText("foo", ".*");
+	}
+
+	@Test
+	public void testApplicationOutputIsCaptured_HeadAndTail_ShortOutputKept() throws Exception {
+
+		steps.applicationOutputIsCaptured("keeping the first 100 and last 0 bytes", 100, 0);
+		steps.applicationIsExecutedWithCommandLine("foo", "echo abc");
+		steps.applicationOutputShouldMatchThisText("foo", "abc\n");
+	}
+
+	@Test
+	public void testApplicationOutputIsCaptured_TempFile() throws Exception {
+
+		steps.applicationOutputIsCaptured("in a temp file", null, null);
+		steps.applicationIsExecutedWithCommandLine("foo", "seq 50000");
+		steps.applicationOutputLineCountShouldBe("foo", CountQuantifier.EXACTLY, 50000);
+		steps.applicationOutputShouldMatchThisText("foo", "(?s)1\n.*\n50000\n");
+
+		// the output is piped from the file
+		steps.applicationOutputIsCaptured("in full", null, null);
+		steps.applicationIsExecutedWithCommandLineWithInputThatIsTheOutputOfTheApplication("bar", "wc -l", "foo");
+		steps.applicationOutputShouldMatchThisText("bar", "\\s*50000\\s*");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testApplicationOutputPartShouldMatchThisText_PartNotKept() throws Exception {
+
+		steps.applicationOutputIsCaptured("in a temp file", null, null);
+		steps.applicationIsExecutedWithCommandLine("foo", "echo abc");
+		steps.applicationOutputPartShouldMatchThisText("foo", "start", "abc");
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testApplicationOutputSizeShouldBe_DoesNotMatch() throws Exception {
+
+		steps.applicationIsExecutedWithCommandLine("foo", "echo abc");
+		steps.applicationOutputSizeShouldBe("foo", CountQuantifier.AT_LEAST, 5);
+	}
+
+	@Test
+	public void testApplicationCharsetIs() throws Exception {
+
+		steps.applicationCharsetIs("UTF-8");
+		steps.applicationIsExecutedWithCommandLineWithInputThatIsThisText("foo", "cat", "café\n");
+		steps.applicationOutputSizeShouldBe("foo", CountQuantifier.EXACTLY, 6);
+		steps.applicationOutputShouldMatchThisText("foo", "café\n");
+
+		steps.applicationCharsetIs("ISO-8859-1");
+		steps.applicationIsExecutedWithCommandLineWithInputThatIsThisText("foo", "cat", "café\n");
+		steps.applicationOutputSizeShouldBe("foo", CountQuantifier.EXACTLY, 5);
+		steps.applicationOutputShouldMatchThisText("foo", "café\n");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testApplicationCharsetIs_NotSupported() throws Exception {
+		steps.applicationCharsetIs("no-such-charset");
+	}
+
+	@Test
+	public void testApplicationIsStartedInTheBackground() throws Exception {
+
+		elapsedTime.expectMaxMillis(3000);
+
+		steps.applicationIsStartedInTheBackground("foo", "sh -c echo\\ starting;sleep\\ 0.2;echo\\ ready;sleep\\ 0.2;exit\\ 3");
+		steps.applicationOutputShouldContain("foo", "^ready$", 5L, TimeUnit.SECONDS);
+		steps.applicationOutputShouldContain("foo", "start", 5L, TimeUnit.SECONDS);
+		steps.applicationShouldExit("foo", 5L, TimeUnit.SECONDS);
+
+		steps.applicationExitCodeShouldBe("foo", 3);
+		steps.applicationOutputShouldMatchThisText("foo", "starting\nready\n");
+		steps.applicationOutputLineCountShouldBe("foo", CountQuantifier.EXACTLY, 2);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testApplicationOutputShouldContain_Timeout() throws Exception {
+
+		elapsedTime.expectMaxMillis(2000);
+
+		steps.applicationIsStartedInTheBackground("foo", "sleep 10");
+		try {
+			steps.applicationOutputShouldContain("foo", "ready", 100L, TimeUnit.MILLISECONDS);
+		} finally {
+			steps.after();
+		}
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testApplicationOutputShouldContain_ExitedFirst() throws Exception {
+
+		elapsedTime.expectMaxMillis(2000);
+
+		steps.applicationIsStartedInTheBackground("foo", "echo abc");
+		steps.applicationOutputShouldContain("foo", "ready", null, null);
+	}
+
+	@Test
+	public void testApplicationIsSentSignal() throws Exception {
+
+		elapsedTime.expectMaxMillis(3000);
+
+		steps.applicationIsStartedInTheBackground("foo", "sleep 10");
+		steps.applicationIsSentSignal("foo", "TERM");
+		steps.applicationShouldExit("foo", 2L, TimeUnit.SECONDS);
+		// killed by SIGTERM
+		steps.applicationExitCodeShouldBe("foo", 143);
+	}
+
+	@Test
+	public void testApplicationIsSentSignal_Trapped() throws Exception {
+
+		elapsedTime.expectMaxMillis(5000);
+
+		steps.applicationIsStartedInTheBackground("foo", "sh -c trap\\ 'echo\\ got\\ hup;exit\\ 7'\\ HUP;echo\\ ready;while\\ true;do\\ sleep\\ 0.05;done");
+		steps.applicationOutputShouldContain("foo", "ready", 2L, TimeUnit.SECONDS);
+		steps.applicationIsSentSignal("foo", "HUP");
+		steps.applicationOutputShouldContain("foo", "got hup", 2L, TimeUnit.SECONDS);
+		steps.applicationShouldExit("foo", 2L, TimeUnit.SECONDS);
+		steps.applicationExitCodeShouldBe("foo", 7);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testApplicationShouldExit_Timeout() throws Exception {
+
+		steps.applicationIsStartedInTheBackground("foo", "sleep 10");
+		try {
+			steps.applicationShouldExit("foo", 100L, TimeUnit.MILLISECONDS);
+		} finally {
+			steps.after();
+		}
+	}
+
+	@Test
+	public void testAfter_BackgroundApplicationTempFileDeleted() throws Exception {
+
+		elapsedTime.expectMaxMillis(3000);
+
+		Set<String> tempFiles = listBodyTempFiles();
+		steps.applicationOutputIsCaptured("in a temp file", null, null);
+		steps.applicationIsStartedInTheBackground("foo", "sh -c echo\\ ready;exec\\ sleep\\ 10");
+		steps.applicationOutputShouldContain("foo", "ready", 2L, TimeUnit.SECONDS);
+		assertEquals(tempFiles.size() + 1, listBodyTempFiles().size());
+
+		steps.after();
+		assertEquals(tempFiles, listBodyTempFiles());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testApplicationIsStartedInTheBackground_AlreadyRunning() throws Exception {
+
+		steps.applicationIsStartedInTheBackground("foo", "sleep 10");
+		try {
+			steps.applicationIsStartedInTheBackground("foo", "sleep 10");
+		} finally {
+			steps.after();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testApplicationExitCodeShouldBe_StillRunning() throws Exception {
+
+		steps.applicationIsStartedInTheBackground("foo", "sleep 10");
+		try {
+			steps.applicationExitCodeShouldBe("foo", 0);
+		} finally {
+			steps.after();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testApplicationIsSentSignal_NotRunning() throws Exception {
+		steps.applicationIsSentSignal("foo", "TERM");
+	}
+
+	private Set<String> listBodyTempFiles() {
+
+		Set<String> names = new HashSet<String>();
+		for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+			if (name.startsWith("relish-body-")) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
 }
@@ -0,0 +1,156 @@
+package net.sf.relish.exec;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import net.sf.relish.DataFormat;
+import net.sf.relish.RelishUtil;
+import net.sf.relish.rule.ElapsedTime;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class OutputLineMatcherTest {
+
+	@Rule public final ElapsedTime elapsedTime = new ElapsedTime();
+
+	OutputLineMatcher matcher = new OutputLineMatcher(DataFormat.UTF8);
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NullCharset() throws Exception {
+		new OutputLineMatcher(null);
+	}
+
+	@Test
+	public void testWrite_SplitsLines() throws Exception {
+
+		write("abc\r\nde");
+		assertEquals(1, matcher.getLineCount());
+		write("f\n\nghi");
+		assertEquals(3, matcher.getLineCount());
+		matcher.close();
+		assertEquals(4, matcher.getLineCount());
+
+		assertTrue(matcher.awaitLine(Pattern.compile("^abc$"), 0, TimeUnit.SECONDS));
+		assertTrue(matcher.awaitLine(Pattern.compile("^def$"), 0, TimeUnit.SECONDS));
+		assertTrue(matcher.awaitLine(Pattern.compile("^ghi$"), 0, TimeUnit.SECONDS));
+		assertFalse(matcher.awaitLine(Pattern.compile("cde"), 0, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testWrite_LongLineSplit() throws Exception {
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < OutputLineMatcher.MAX_LINE_LENGTH * 2 + 10; i++) {
+			text.append(i < OutputLineMatcher.MAX_LINE_LENGTH ? 'a' : 'b');
+		}
+		for (int i = 0; i < text.length(); i += 1000) {
+			write(text.substring(i, Math.min(i + 1000, text.length())));
+		}
+		assertEquals(2, matcher.getLineCount());
+		write("c\n");
+		assertEquals(3, matcher.getLineCount());
+
+		assertTrue(matcher.awaitLine(Pattern.compile("^a{" + OutputLineMatcher.MAX_LINE_LENGTH + "}$"), 0, TimeUnit.SECONDS));
+		assertTrue(matcher.awaitLine(Pattern.compile("^b{" + OutputLineMatcher.MAX_LINE_LENGTH + "}$"), 0, TimeUnit.SECONDS));
+		assertTrue(matcher.awaitLine(Pattern.compile("^b{10}c$"), 0, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testWrite_DecodesWithCharset() throws Exception {
+
+		matcher = new OutputLineMatcher(Charset.forName("ISO-8859-1"));
+		byte[] bytes = "café\n".getBytes("ISO-8859-1");
+		matcher.write(bytes, 0, bytes.length);
+		assertTrue(matcher.awaitLine(Pattern.compile("café"), 0, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAwaitLine_WaitsForLine() throws Exception {
+
+		elapsedTime.expectMinMillis(100);
+		elapsedTime.expectMaxMillis(2000);
+
+		new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					write("starting\nready\n");
+				} catch (Exception e) {
+				}
+			}
+		}.start();
+
+		assertTrue(matcher.awaitLine(Pattern.compile("ready"), 10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAwaitLine_Timeout() throws Exception {
+
+		elapsedTime.expectMinMillis(100);
+		elapsedTime.expectMaxMillis(1000);
+
+		write("starting\n");
+		assertFalse(matcher.awaitLine(Pattern.compile("ready"), 100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testAwaitLine_ReturnsWhenClosed() throws Exception {
+
+		elapsedTime.expectMaxMillis(1000);
+
+		new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					matcher.close();
+				} catch (Exception e) {
+				}
+			}
+		}.start();
+
+		assertFalse(matcher.awaitLine(Pattern.compile("ready"), Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void testAwaitLine_OldLinesDropped() throws Exception {
+
+		write("first\n");
+		for (int i = 0; i < OutputLineMatcher.MAX_LINES_KEPT * 2; i++) {
+			write("line\n");
+		}
+		matcher.close();
+
+		assertEquals(OutputLineMatcher.MAX_LINES_KEPT * 2 + 1, matcher.getLineCount());
+		assertFalse(matcher.awaitLine(Pattern.compile("first"), 0, TimeUnit.SECONDS));
+		assertTrue(matcher.awaitLine(Pattern.compile("line"), 0, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testWatch() throws Exception {
+
+		InputStream in = matcher.watch(new ByteArrayInputStream("abc\ndef".getBytes("UTF-8")));
+		assertEquals("abc\ndef", new String(RelishUtil.readFromInputStream(in), "UTF-8"));
+
+		assertEquals(2, matcher.getLineCount());
+		assertTrue(matcher.awaitLine(Pattern.compile("def"), 0, TimeUnit.SECONDS));
+	}
+
+	private void write(String text) throws Exception {
+
+		byte[] bytes = text.getBytes("UTF-8");
+		matcher.write(bytes, 0, bytes.length);
+	}
+}
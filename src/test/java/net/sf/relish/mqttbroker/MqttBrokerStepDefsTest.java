@@ -157,6 +157,29 @@ public class MqttBrokerStepDefsTest {
 		steps.mqttBrokerPublishesAMessage(false, 1, "foo", DataFormat.TEXT, "abc");
 	}
 
+	@Test
+	public void testMqttBrokerPublishesMessagesFromTemplate() throws Exception {
+
+		startBrokerAndClient();
+		client.subscribe(new Subscription[] { new Subscription("foo", QoS.AT_LEAST_ONCE) });
+
+		steps.mqttBrokerPublishesMessagesFromTemplate(2, false, 1, "foo", DataFormat.JSON, "{\"id\":${seq}}");
+
+		verify(listener, timeout(1000).times(2)).publishReceived(same(client), messageCaptor.capture());
+		PublishMessage message = messageCaptor.getAllValues().get(0);
+		assertFalse(message.isRetain());
+		assertEquals("{\"id\":1}", message.getPayloadString());
+		assertEquals(QoS.AT_LEAST_ONCE, message.getQoS());
+		assertEquals("foo", message.getTopic());
+		assertEquals("{\"id\":2}", messageCaptor.getAllValues().get(1).getPayloadString());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testMqttBrokerPublishesMessagesFromTemplate_BrokerNotRunning() throws Exception {
+
+		steps.mqttBrokerPublishesMessagesFromTemplate(2, false, 1, "foo", DataFormat.TEXT, "abc ${seq}");
+	}
+
 	@Test
 	public void testMqttBrokerPublishesAMessageFromFile_Retained() throws Exception {
 
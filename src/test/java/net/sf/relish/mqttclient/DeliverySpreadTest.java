@@ -0,0 +1,59 @@
+package net.sf.relish.mqttclient;
+
+import static org.junit.Assert.*;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DeliverySpreadTest {
+
+	@Test
+	public void testRelativeToPublish() throws Exception {
+
+		DeliverySpread spread = new DeliverySpread(1000, new long[] { 1400, 1100, 1300, 1200 });
+
+		assertEquals(4, spread.getSubscriberCount());
+		assertEquals(100, spread.getMinNanos());
+		assertEquals(200, spread.getMedianNanos());
+		assertEquals(400, spread.getMaxNanos());
+		assertEquals(400, spread.getP99Nanos());
+		assertEquals(300, spread.getSpreadNanos());
+	}
+
+	@Test
+	public void testGetPercentileNanos() throws Exception {
+
+		long[] receiveTimes = new long[200];
+		for (int i = 0; i < receiveTimes.length; i++) {
+			receiveTimes[i] = i + 1;
+		}
+		DeliverySpread spread = new DeliverySpread(0, receiveTimes);
+
+		assertEquals(1, spread.getPercentileNanos(0));
+		assertEquals(100, spread.getMedianNanos());
+		assertEquals(198, spread.getP99Nanos());
+		assertEquals(200, spread.getPercentileNanos(100));
+	}
+
+	@Test
+	public void testSingleSubscriber() throws Exception {
+
+		DeliverySpread spread = new DeliverySpread(5, new long[] { 7 });
+
+		assertEquals(2, spread.getMinNanos());
+		assertEquals(2, spread.getMedianNanos());
+		assertEquals(2, spread.getP99Nanos());
+		assertEquals(0, spread.getSpreadNanos());
+	}
+
+	@Test
+	public void testToReport() throws Exception {
+
+		DeliverySpread spread = new DeliverySpread(0, new long[] { 1000000, 3000000 });
+
+		assertEquals("msg: subscribers=2, delivery times (ms, from publish): min=1.000, median=1.000, max=3.000, p99=3.000, spread=2.000",
+				spread.toReport("msg"));
+	}
+}
@@ -0,0 +1,167 @@
+package net.sf.relish.mqttclient;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+
+import net.sf.relish.mqttclient.MessageCaptureStore.CapturedMessage;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MessageCaptureStoreTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF8");
+
+	MessageCaptureStore store = new MessageCaptureStore(16);
+
+	@Test
+	public void testAdd_IndexesPerTopic() throws Exception {
+
+		assertEquals(1, store.add("a", bytes("1"), 0, false, 100));
+		assertEquals(1, store.add("b", bytes("2"), 1, true, 200));
+		assertEquals(2, store.add("a", bytes("3"), 1, false, 300));
+
+		assertEquals(2, store.getMessageCount("a"));
+		assertEquals(1, store.getMessageCount("b"));
+		assertEquals(0, store.getMessageCount("c"));
+		assertEquals(3, store.getTotalMessageCount());
+
+		assertMessage(store.getMessage("a", 1), "a", "1", 0, false, 100);
+		assertMessage(store.getMessage("a", 2), "a", "3", 1, false, 300);
+		assertMessage(store.getMessage("b", 1), "b", "2", 1, true, 200);
+	}
+
+	@Test
+	public void testAdd_DeduplicatesPayloads() throws Exception {
+
+		for (int i = 0; i < 1000; i++) {
+			store.add("a", bytes("payload " + (i % 10)), 1, false, i);
+		}
+
+		assertEquals(1000, store.getMessageCount("a"));
+		assertEquals(10, store.getPayloadCount());
+		for (int i = 0; i < 1000; i++) {
+			assertMessage(store.getMessage("a", i + 1), "a", "payload " + (i % 10), 1, false, i);
+		}
+	}
+
+	@Test
+	public void testAdd_HashCollision() throws Exception {
+
+		// "Aa" and "BB" have the same hash code
+		store.add("a", bytes("Aa"), 0, false, 1);
+		store.add("a", bytes("BB"), 0, false, 2);
+
+		assertEquals(2, store.getPayloadCount());
+		assertMessage(store.getMessage("a", 1), "a", "Aa", 0, false, 1);
+		assertMessage(store.getMessage("a", 2), "a", "BB", 0, false, 2);
+	}
+
+	@Test
+	public void testAdd_PayloadLargerThanChunk() throws Exception {
+
+		store.add("a", bytes("small"), 0, false, 1);
+		store.add("a", bytes("this payload is larger than a chunk"), 0, false, 2);
+		store.add("a", bytes("tiny"), 0, false, 3);
+
+		assertMessage(store.getMessage("a", 1), "a", "small", 0, false, 1);
+		assertMessage(store.getMessage("a", 2), "a", "this payload is larger than a chunk", 0, false, 2);
+		assertMessage(store.getMessage("a", 3), "a", "tiny", 0, false, 3);
+	}
+
+	@Test
+	public void testAdd_EmptyPayload() throws Exception {
+
+		store.add("a", new byte[0], 0, false, 1);
+		assertArrayEquals(new byte[0], store.getMessage("a", 1).getPayload());
+	}
+
+	@Test
+	public void testAdd_CopiesPayload() throws Exception {
+
+		byte[] payload = bytes("abc");
+		store.add("a", payload, 0, false, 1);
+		payload[0] = 'x';
+
+		assertMessage(store.getMessage("a", 1), "a", "abc", 0, false, 1);
+	}
+
+	@Test
+	public void testAdd_ManyTopics() throws Exception {
+
+		for (int i = 0; i < 200; i++) {
+			store.add("topic" + i, bytes("x"), 0, false, i);
+		}
+
+		for (int i = 0; i < 200; i++) {
+			assertEquals(1, store.getMessageCount("topic" + i));
+			assertMessage(store.getMessage("topic" + i, 1), "topic" + i, "x", 0, false, i);
+		}
+	}
+
+	@Test
+	public void testGetMessage_NotReceived() throws Exception {
+
+		store.add("a", bytes("1"), 0, false, 1);
+
+		assertNull(store.getMessage("a", 0));
+		assertNull(store.getMessage("a", 2));
+		assertNull(store.getMessage("b", 1));
+	}
+
+	@Test
+	public void testGetFirstReceiveTime() throws Exception {
+
+		store.add("a", bytes("x"), 0, true, 100);
+		store.add("a", bytes("y"), 0, false, 200);
+		store.add("b", bytes("x"), 0, false, 250);
+		store.add("a", bytes("x"), 0, false, 300);
+		store.add("a", bytes("x"), 0, false, 400);
+
+		assertEquals(Long.valueOf(100), store.getFirstReceiveTime("a", bytes("x"), 100));
+		assertEquals(Long.valueOf(300), store.getFirstReceiveTime("a", bytes("x"), 101));
+		assertEquals(Long.valueOf(250), store.getFirstReceiveTime("b", bytes("x"), 0));
+		assertEquals(Long.valueOf(200), store.getFirstReceiveTime("a", bytes("y"), 200));
+	}
+
+	@Test
+	public void testGetFirstReceiveTime_NotReceived() throws Exception {
+
+		store.add("a", bytes("x"), 0, false, 100);
+		store.add("a", bytes("y"), 0, false, 200);
+
+		assertNull(store.getFirstReceiveTime("a", bytes("x"), 101));
+		assertNull(store.getFirstReceiveTime("a", bytes("z"), 0));
+		assertNull(store.getFirstReceiveTime("b", bytes("x"), 0));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+
+		store.add("a", bytes("1"), 0, false, 1);
+		store.clear();
+
+		assertEquals(0, store.getMessageCount("a"));
+		assertEquals(0, store.getPayloadCount());
+		assertNull(store.getMessage("a", 1));
+
+		assertEquals(1, store.add("a", bytes("2"), 0, false, 2));
+		assertMessage(store.getMessage("a", 1), "a", "2", 0, false, 2);
+	}
+
+	private void assertMessage(CapturedMessage msg, String topic, String payload, int qos, boolean retain, long timestamp) {
+
+		assertEquals(topic, msg.getTopic());
+		assertEquals(payload, new String(msg.getPayload(), UTF8));
+		assertEquals(qos, msg.getQos());
+		assertEquals(retain, msg.isRetain());
+		assertEquals(timestamp, msg.getTimestampNanos());
+	}
+
+	private byte[] bytes(String text) {
+		return text.getBytes(UTF8);
+	}
+}
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.*;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 import net.sf.relish.CountQuantifier;
@@ -255,6 +256,27 @@ public class MqttClientStepDefsTest {
 		assertEquals("hello world", new String(msg.getPayload(), Charset.forName("UTF8")));
 	}
 
+	@Test(expected = RelishException.class)
+	public void testMqttClientPublishesMessagesFromTemplate_NotConnected() throws Exception {
+
+		steps.mqttClientPublishesMessagesFromTemplate("foo", 2, false, 1, "my/topic", DataFormat.TEXT, "message ${seq}");
+	}
+
+	@Test
+	public void testMqttClientPublishesMessagesFromTemplate_Success() throws Exception {
+
+		connect();
+		steps.mqttClientPublishesMessagesFromTemplate("foo", 2, true, 1, "my/topic", DataFormat.TEXT, "message ${seq}");
+		verify(handler, timeout(1000).times(2)).publish(any(Client.class), (PubMessage) captor.capture());
+		PubMessage msg = (PubMessage) captor.getAllValues().get(0);
+		assertTrue(msg.isRetain());
+		assertEquals(1, msg.getQoSLevel());
+		assertEquals("my/topic", msg.getTopicName());
+		assertEquals("message 1", new String(msg.getPayload(), Charset.forName("UTF8")));
+		msg = (PubMessage) captor.getAllValues().get(1);
+		assertEquals("message 2", new String(msg.getPayload(), Charset.forName("UTF8")));
+	}
+
 	@Test(expected = RelishException.class)
 	public void testMqttClientPublishesAMessageFromFile_NotConnected() throws Exception {
 
@@ -413,6 +435,81 @@ public class MqttClientStepDefsTest {
 		steps.mqttClientShouldHaveMessageFromCountWithin("foo", 1, "my/topic", 1, TimeUnit.SECONDS);
 	}
 
+	@Test
+	public void testExpandClientIds() throws Exception {
+
+		assertEquals(Arrays.asList("a", "dev1", "dev2", "dev3", "b"), MqttClientStepDefs.expandClientIds("a, dev{1..3}, b"));
+		assertEquals(Arrays.asList("x9-y", "x10-y"), MqttClientStepDefs.expandClientIds("x{9..10}-y"));
+	}
+
+	@Test(expected = RelishException.class)
+	public void testExpandClientIds_InvalidRange() throws Exception {
+
+		MqttClientStepDefs.expandClientIds("dev{1..x}");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testExpandClientIds_Empty() throws Exception {
+
+		MqttClientStepDefs.expandClientIds(" , ");
+	}
+
+	@Test
+	public void testMqttClientsAreConnected() throws Exception {
+
+		steps.mqttClientsAreConnected("dev{1..3}", broker.getURI());
+		verify(handler, timeout(1000).times(3)).connect(any(Client.class), any(ConnectMessage.class));
+	}
+
+	@Test
+	public void testMqttClientsAreSubscribedToTopic() throws Exception {
+
+		steps.mqttClientsAreConnected("dev{1..2}", broker.getURI());
+		steps.mqttClientsAreSubscribedToTopic("dev{1..2}", "my/topic", 1);
+		verify(handler, timeout(1000).times(2)).subscribe(any(Client.class), any(SubscribeMessage.class));
+	}
+
+	@Test
+	public void testMqttClientsShouldReceiveLastMessageWithDeliverySpread_Success() throws Exception {
+
+		Client client = connect();
+		PublishTimeline.recordPublish("my/topic", "hello world".getBytes(Charset.forName("UTF8")));
+		publish(client, QoS.AT_LEAST_ONCE, false);
+		steps.mqttClientsShouldReceiveLastMessageWithDeliverySpread("foo", "my/topic", 1, TimeUnit.SECONDS, 1, TimeUnit.SECONDS);
+		steps.printMqttDeliverySpread();
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testMqttClientsShouldReceiveLastMessageWithDeliverySpread_TimesOut() throws Exception {
+
+		connect();
+		PublishTimeline.recordPublish("my/topic", "hello world".getBytes(Charset.forName("UTF8")));
+		steps.mqttClientsShouldReceiveLastMessageWithDeliverySpread("foo", "my/topic", 100, TimeUnit.MILLISECONDS, 1, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testMqttClientsShouldReceiveLastMessageWithDeliverySpread_ReceivedBeforePublish() throws Exception {
+
+		Client client = connect();
+		publish(client, QoS.AT_LEAST_ONCE, false);
+		steps.mqttClientShouldHaveMessageFromCountWithin("foo", 1, "my/topic", 1, TimeUnit.SECONDS);
+		PublishTimeline.recordPublish("my/topic", "hello world".getBytes(Charset.forName("UTF8")));
+		steps.mqttClientsShouldReceiveLastMessageWithDeliverySpread("foo", "my/topic", 100, TimeUnit.MILLISECONDS, 1, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testMqttClientsShouldReceiveLastMessageWithDeliverySpread_NotPublished() throws Exception {
+
+		connect();
+		steps.mqttClientsShouldReceiveLastMessageWithDeliverySpread("foo", "my/topic", 100, TimeUnit.MILLISECONDS, 1, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testPrintMqttDeliverySpread_NotMeasured() throws Exception {
+
+		steps.printMqttDeliverySpread();
+	}
+
 	private Client connect() throws Exception {
 		steps.mqttClientIsConnected("foo", false, broker.getURI(), null, null);
 		ArgumentCaptor<Client> clientCaptor = ArgumentCaptor.forClass(Client.class);
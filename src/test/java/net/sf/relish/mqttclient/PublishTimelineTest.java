@@ -0,0 +1,62 @@
+package net.sf.relish.mqttclient;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PublishTimelineTest {
+
+	@After
+	public void after() {
+		PublishTimeline.clear();
+	}
+
+	@Test
+	public void testRecordPublish() throws Exception {
+
+		byte[] payload = new byte[] { 1, 2, 3 };
+		long start = System.nanoTime();
+		PublishTimeline.recordPublish("a", payload);
+		long end = System.nanoTime();
+
+		PublishTimeline.Publish publish = PublishTimeline.getLastPublish("a");
+		assertSame(payload, publish.getPayload());
+		assertTrue(publish.getPublishNanos() - start >= 0);
+		assertTrue(end - publish.getPublishNanos() >= 0);
+	}
+
+	@Test
+	public void testRecordPublish_ReplacesPreviousPublishToTopic() throws Exception {
+
+		byte[] first = new byte[] { 1 };
+		byte[] second = new byte[] { 2 };
+		byte[] other = new byte[] { 3 };
+		PublishTimeline.recordPublish("a", first);
+		PublishTimeline.recordPublish("b", other);
+		PublishTimeline.recordPublish("a", second);
+
+		assertSame(second, PublishTimeline.getLastPublish("a").getPayload());
+		assertSame(other, PublishTimeline.getLastPublish("b").getPayload());
+	}
+
+	@Test
+	public void testGetLastPublish_NotPublished() throws Exception {
+
+		PublishTimeline.recordPublish("a", new byte[0]);
+
+		assertNull(PublishTimeline.getLastPublish("b"));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+
+		PublishTimeline.recordPublish("a", new byte[0]);
+		PublishTimeline.clear();
+
+		assertNull(PublishTimeline.getLastPublish("a"));
+	}
+}
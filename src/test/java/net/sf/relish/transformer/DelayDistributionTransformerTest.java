@@ -0,0 +1,26 @@
+package net.sf.relish.transformer;
+
+import static org.junit.Assert.*;
+
+import net.sf.relish.RelishException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DelayDistributionTransformerTest {
+
+	DelayDistributionTransformer transformer = new DelayDistributionTransformer();
+
+	@Test
+	public void testTransform() {
+
+		assertEquals(250, transformer.transform("by 250 milliseconds").sampleMillis());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testTransform_UnknownValue() {
+		transformer.transform("foo");
+	}
+}
@@ -6,7 +6,12 @@ import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
+import net.sf.relish.RelishException;
+
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
@@ -55,6 +60,41 @@ public class AbstractWebServerTest {
 		assertTrue(server.isRunning());
 	}
 
+	@Test
+	public void testStartServer_Settings() throws Exception {
+
+		WebServerSettings settings = new WebServerSettings();
+		settings.set(WebServerSettings.MAX_THREADS, 50);
+		settings.set(WebServerSettings.ACCEPT_QUEUE_SIZE, 512);
+		settings.set(WebServerSettings.MAX_IDLE_TIME_MILLIS, 5000);
+		server.setSettings(settings);
+		assertSame(settings, server.getSettings());
+
+		server.startServer(12473, handler);
+		assertTrue(isServerRunning());
+
+		Connector[] connectors = server.server.getConnectors();
+		assertEquals(1, connectors.length);
+		SelectChannelConnector connector = (SelectChannelConnector) connectors[0];
+		assertEquals(12473, connector.getPort());
+		assertEquals(512, connector.getAcceptQueueSize());
+		assertEquals(5000, connector.getMaxIdleTime());
+		assertEquals(50, ((QueuedThreadPool) server.server.getThreadPool()).getMaxThreads());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testSetSettings_ServerRunning() throws Exception {
+
+		server.startServer(12473, handler);
+		server.setSettings(new WebServerSettings());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetSettings_Null() throws Exception {
+
+		server.setSettings(null);
+	}
+
 	@Test
 	public void testStopServer_ServerNotRunning() throws Exception {
 		server.stopServer();
@@ -94,6 +134,87 @@ public class AbstractWebServerTest {
 		assertFalse(isServerRunning());
 	}
 
+	@Test
+	public void testAddPort() throws Exception {
+
+		server.startServer(12473, handler);
+		server.addPort(12474);
+
+		assertTrue(isServerRunning());
+		assertTrue(isServerRunning("http://localhost:12474/foo"));
+		assertTrue(server.hasPort(12474));
+		assertTrue(server.isPortOpen(12474));
+		assertEquals(2, server.server.getConnectors().length);
+
+		server.stopServer();
+		assertFalse(isServerRunning("http://localhost:12474/foo"));
+		assertFalse(server.hasPort(12474));
+	}
+
+	@Test(expected = RelishException.class)
+	public void testAddPort_ServerNotRunning() throws Exception {
+		server.addPort(12474);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testAddPort_AlreadyListening() throws Exception {
+
+		server.startServer(12473, handler);
+		server.addPort(12473);
+	}
+
+	@Test
+	public void testSetPortOpen() throws Exception {
+
+		server.startServer(12473, handler);
+		server.addPort(12474);
+
+		server.setPortOpen(12474, false);
+		assertFalse(server.isPortOpen(12474));
+		assertFalse(isServerRunning("http://localhost:12474/foo"));
+		assertTrue(server.isPortOpen(12473));
+		assertTrue(isServerRunning());
+
+		server.setPortOpen(12474, false);
+		server.setPortOpen(12474, true);
+		assertTrue(server.isPortOpen(12474));
+		assertTrue(isServerRunning("http://localhost:12474/foo"));
+	}
+
+	@Test(expected = RelishException.class)
+	public void testSetPortOpen_UnknownPort() throws Exception {
+
+		server.startServer(12473, handler);
+		server.setPortOpen(12474, true);
+	}
+
+	@Test
+	public void testGetConnectionStats() throws Exception {
+
+		assertNull(server.getConnectionStats(12473));
+		server.startServer(12473, handler);
+		server.addPort(12474);
+
+		for (int i = 0; i < 3; i++) {
+			HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:12473/foo").openConnection();
+			conn.setRequestProperty("Connection", "close");
+			conn.getResponseCode();
+		}
+
+		ConnectionStats stats = server.getConnectionStats(12473);
+		assertEquals(3, stats.getAcceptedCount());
+		assertEquals(0, server.getConnectionStats(12474).getAcceptedCount());
+
+		server.stopServer();
+		assertSame(stats, server.getConnectionStats(12473));
+		assertEquals(0, stats.getOpenCount());
+		assertEquals(3, stats.getRequestsPerConnection().getCount());
+
+		server.startServer(12473, handler);
+		assertNotSame(stats, server.getConnectionStats(12473));
+		assertNull(server.getConnectionStats(12474));
+	}
+
 	/**
 	 * @return true if there is a web server running at the specified url
 	 */
@@ -0,0 +1,77 @@
+package net.sf.relish.web;
+
+import static org.junit.Assert.*;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ConnectionStatsTest {
+
+	ConnectionStats stats = new ConnectionStats();
+
+	@Test
+	public void testEmpty() throws Exception {
+
+		assertEquals(0, stats.getAcceptedCount());
+		assertEquals(0, stats.getOpenCount());
+		assertEquals(0, stats.getPeakOpenCount());
+		assertEquals(0, stats.getLifetimeMillis().getCount());
+		assertEquals(0, stats.getRequestsPerConnection().getCount());
+	}
+
+	@Test
+	public void testOpenedAndClosed() throws Exception {
+
+		stats.connectionOpened();
+		stats.connectionOpened();
+		stats.connectionClosed(100, 5);
+		stats.connectionOpened();
+
+		assertEquals(3, stats.getAcceptedCount());
+		assertEquals(2, stats.getOpenCount());
+		assertEquals(2, stats.getPeakOpenCount());
+		assertEquals(100, stats.getLifetimeMillis().getMax());
+		assertEquals(5, stats.getRequestsPerConnection().getMax());
+		assertEquals(1, stats.getRequestsPerConnection().getCount());
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+
+		ConnectionStats other = new ConnectionStats();
+		other.connectionOpened();
+		other.connectionClosed(20, 1);
+		other.connectionOpened();
+		stats.connectionOpened();
+		stats.connectionClosed(40, 3);
+
+		ConnectionStats total = new ConnectionStats();
+		total.add(stats);
+		total.add(other);
+
+		assertEquals(3, total.getAcceptedCount());
+		assertEquals(1, total.getOpenCount());
+		assertEquals(2, total.getPeakOpenCount());
+		assertEquals(2, total.getLifetimeMillis().getCount());
+		assertEquals(20, total.getLifetimeMillis().getMin());
+		assertEquals(2, total.getRequestsPerConnection().getMean(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAdd_Null() throws Exception {
+		stats.add(null);
+	}
+
+	@Test
+	public void testToReport() throws Exception {
+
+		stats.connectionOpened();
+		stats.connectionClosed(2, 4);
+
+		String report = stats.toReport();
+		assertTrue(report, report.startsWith("accepted=1, open=0, peak open=1"));
+		assertTrue(report, report.contains("requests per closed connection: count=1, min=4"));
+	}
+}
@@ -0,0 +1,104 @@
+package net.sf.relish.web;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import net.sf.relish.RelishException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DelayDistributionTest {
+
+	@Test
+	public void testFixed() throws Exception {
+
+		DelayDistribution delay = DelayDistribution.fixed(123);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(123, delay.sampleMillis());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFixed_Negative() throws Exception {
+
+		DelayDistribution.fixed(-1);
+	}
+
+	@Test
+	public void testUniform() throws Exception {
+
+		DelayDistribution delay = DelayDistribution.uniform(10, 13);
+		boolean[] seen = new boolean[4];
+		for (int i = 0; i < 1000; i++) {
+			long sample = delay.sampleMillis();
+			assertTrue(sample >= 10 && sample <= 13);
+			seen[(int) sample - 10] = true;
+		}
+		assertTrue(Arrays.toString(seen), seen[0] && seen[1] && seen[2] && seen[3]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUniform_MaxLessThanMin() throws Exception {
+
+		DelayDistribution.uniform(10, 9);
+	}
+
+	@Test
+	public void testNormal() throws Exception {
+
+		long[] samples = sample(DelayDistribution.normal(200, 20), 10000);
+		assertEquals(200, samples[samples.length / 2], 5);
+		assertTrue(samples[0] >= 0);
+	}
+
+	@Test
+	public void testNormal_NeverNegative() throws Exception {
+
+		long[] samples = sample(DelayDistribution.normal(1, 100), 1000);
+		assertTrue(samples[0] >= 0);
+	}
+
+	@Test
+	public void testLognormal() throws Exception {
+
+		long[] samples = sample(DelayDistribution.lognormal(100, 1000), 20000);
+		assertEquals(100, samples[samples.length / 2], 10);
+		assertEquals(1000, samples[samples.length * 99 / 100], 150);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLognormal_P99LessThanP50() throws Exception {
+
+		DelayDistribution.lognormal(100, 99);
+	}
+
+	@Test
+	public void testParse() throws Exception {
+
+		assertEquals(200, DelayDistribution.parse("by 200 milliseconds").sampleMillis());
+		assertEquals(2000, DelayDistribution.parse(" by 2 seconds ").sampleMillis());
+		assertEquals(3000, DelayDistribution.parse("uniformly between 3 and 3 seconds").sampleMillis());
+		assertEquals(50, DelayDistribution.parse("normally with mean 50 and standard deviation 0 milliseconds").sampleMillis());
+		assertEquals(70, DelayDistribution.parse("lognormally with p50 70 and p99 70 milliseconds").sampleMillis());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testParse_Invalid() throws Exception {
+
+		DelayDistribution.parse("by a lot");
+	}
+
+	private long[] sample(DelayDistribution delay, int count) {
+
+		long[] samples = new long[count];
+		for (int i = 0; i < count; i++) {
+			samples[i] = delay.sampleMillis();
+		}
+		Arrays.sort(samples);
+		return samples;
+	}
+}
@@ -2,6 +2,7 @@ package net.sf.relish.web;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 
@@ -12,6 +13,31 @@ import org.junit.runners.MethodSorters;
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class HttpRequestDataTest {
 
+	@Test
+	public void testSetBodyFile() {
+
+		HttpRequestData data = new HttpRequestData();
+		assertNull(data.getBodyFile());
+
+		File file = new File("foo");
+		data.setBodyFile(file, true, false);
+		assertSame(file, data.getBodyFile());
+		assertTrue(data.isBodyFileChunked());
+		assertFalse(data.isBodyFileGzipped());
+
+		data.setBodyFile(file, false, false);
+		assertFalse(data.isBodyFileChunked());
+	}
+
+	@Test
+	public void testSetBodyFile_GzippedIsChunked() {
+
+		HttpRequestData data = new HttpRequestData();
+		data.setBodyFile(new File("foo"), false, true);
+		assertTrue(data.isBodyFileChunked());
+		assertTrue(data.isBodyFileGzipped());
+	}
+
 	@Test
 	public void assertAllPublicMethodsSynchronized() {
 
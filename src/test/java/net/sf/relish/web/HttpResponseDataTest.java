@@ -12,6 +12,48 @@ import org.junit.runners.MethodSorters;
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class HttpResponseDataTest {
 
+	@Test
+	public void testSampleDelayMillis() {
+
+		HttpResponseData data = new HttpResponseData();
+		assertEquals(0, data.sampleDelayMillis());
+
+		data.setDelayMillis(10);
+		assertEquals(10, data.sampleDelayMillis());
+
+		data.setDelayDistribution(DelayDistribution.fixed(20));
+		assertEquals(20, data.sampleDelayMillis());
+		assertEquals(10, data.getDelayMillis());
+
+		data.setDelayMillis(30);
+		assertNull(data.getDelayDistribution());
+		assertEquals(30, data.sampleDelayMillis());
+	}
+
+	@Test
+	public void testSetTimings() {
+
+		HttpResponseData data = new HttpResponseData();
+		assertEquals(0, data.getTotalNanos());
+
+		data.setTimings(1, 2, 3);
+		assertEquals(1, data.getConnectNanos());
+		assertEquals(2, data.getFirstByteNanos());
+		assertEquals(3, data.getTotalNanos());
+	}
+
+	@Test
+	public void testSetUpload() {
+
+		HttpResponseData data = new HttpResponseData();
+		assertEquals(0, data.getUploadBytes());
+		assertEquals(0, data.getUploadNanos());
+
+		data.setUpload(100, 2000);
+		assertEquals(100, data.getUploadBytes());
+		assertEquals(2000, data.getUploadNanos());
+	}
+
 	@Test
 	public void assertAllPublicMethodsSynchronized() {
 
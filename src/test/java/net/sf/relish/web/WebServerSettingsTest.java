@@ -0,0 +1,147 @@
+package net.sf.relish.web;
+
+import static org.junit.Assert.*;
+
+import net.sf.relish.RelishException;
+
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WebServerSettingsTest {
+
+	WebServerSettings settings = new WebServerSettings();
+
+	@After
+	public void after() {
+		System.clearProperty("relish.web.maxThreads");
+		System.clearProperty("relish.web.acceptQueueSize");
+	}
+
+	@Test
+	public void testFromSystemProperties() throws Exception {
+
+		System.setProperty("relish.web.maxThreads", "321");
+		System.setProperty("relish.web.acceptQueueSize", "0");
+
+		settings = WebServerSettings.fromSystemProperties();
+		assertEquals(Integer.valueOf(321), settings.get(WebServerSettings.MAX_THREADS));
+		assertEquals(Integer.valueOf(0), settings.get(WebServerSettings.ACCEPT_QUEUE_SIZE));
+		assertNull(settings.get(WebServerSettings.MIN_THREADS));
+	}
+
+	@Test
+	public void testFromSystemProperties_NoneSet() throws Exception {
+
+		settings = WebServerSettings.fromSystemProperties();
+		for (String name : WebServerSettings.getNames()) {
+			assertNull(settings.get(name));
+		}
+	}
+
+	@Test
+	public void testSet_String() throws Exception {
+
+		settings.set("maxIdleTimeMillis", " 1500 ");
+		assertEquals(Integer.valueOf(1500), settings.get(WebServerSettings.MAX_IDLE_TIME_MILLIS));
+	}
+
+	@Test(expected = RelishException.class)
+	public void testSet_String_NotANumber() throws Exception {
+
+		settings.set("maxThreads", "lots");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testSet_UnknownName() throws Exception {
+
+		settings.set("fooThreads", 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSet_Zero() throws Exception {
+
+		settings.set("maxThreads", 0);
+	}
+
+	@Test
+	public void testSet_AcceptQueueSizeZero() throws Exception {
+
+		settings.set("acceptQueueSize", 0);
+		assertEquals(Integer.valueOf(0), settings.get("acceptQueueSize"));
+	}
+
+	@Test
+	public void testConfigure() throws Exception {
+
+		settings.set(WebServerSettings.ACCEPTORS, 3);
+		settings.set(WebServerSettings.ACCEPT_QUEUE_SIZE, 1024);
+		settings.set(WebServerSettings.MAX_IDLE_TIME_MILLIS, 1234);
+		settings.set(WebServerSettings.REQUEST_HEADER_SIZE, 8000);
+		settings.set(WebServerSettings.REQUEST_BUFFER_SIZE, 16000);
+		settings.set(WebServerSettings.RESPONSE_HEADER_SIZE, 9000);
+		settings.set(WebServerSettings.RESPONSE_BUFFER_SIZE, 32000);
+
+		SelectChannelConnector connector = new SelectChannelConnector();
+		settings.configure(connector);
+
+		assertEquals(3, connector.getAcceptors());
+		assertEquals(1024, connector.getAcceptQueueSize());
+		assertEquals(1234, connector.getMaxIdleTime());
+		assertEquals(8000, connector.getRequestHeaderSize());
+		assertEquals(16000, connector.getRequestBufferSize());
+		assertEquals(9000, connector.getResponseHeaderSize());
+		assertEquals(32000, connector.getResponseBufferSize());
+	}
+
+	@Test
+	public void testConfigure_NothingSet() throws Exception {
+
+		SelectChannelConnector expected = new SelectChannelConnector();
+		SelectChannelConnector connector = new SelectChannelConnector();
+		settings.configure(connector);
+
+		assertEquals(expected.getAcceptors(), connector.getAcceptors());
+		assertEquals(expected.getAcceptQueueSize(), connector.getAcceptQueueSize());
+		assertEquals(expected.getMaxIdleTime(), connector.getMaxIdleTime());
+	}
+
+	@Test
+	public void testNewThreadPool() throws Exception {
+
+		settings.set(WebServerSettings.MIN_THREADS, 20);
+		settings.set(WebServerSettings.MAX_THREADS, 400);
+
+		QueuedThreadPool threadPool = settings.newThreadPool();
+		assertEquals(20, threadPool.getMinThreads());
+		assertEquals(400, threadPool.getMaxThreads());
+	}
+
+	@Test
+	public void testNewThreadPool_MinAboveDefaultMax() throws Exception {
+
+		int defaultMax = new QueuedThreadPool().getMaxThreads();
+		settings.set(WebServerSettings.MIN_THREADS, defaultMax + 1);
+
+		try {
+			settings.newThreadPool();
+			fail("Expected exception");
+		} catch (RelishException e) {
+		}
+
+		settings.set(WebServerSettings.MAX_THREADS, defaultMax + 1);
+		assertEquals(defaultMax + 1, settings.newThreadPool().getMaxThreads());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testNewThreadPool_MinGreaterThanMax() throws Exception {
+
+		settings.set(WebServerSettings.MIN_THREADS, 20);
+		settings.set(WebServerSettings.MAX_THREADS, 10);
+		settings.newThreadPool();
+	}
+}
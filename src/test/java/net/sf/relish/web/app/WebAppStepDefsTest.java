@@ -2,6 +2,8 @@ package net.sf.relish.web.app;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.FixMethodOrder;
 import org.junit.Rule;
@@ -9,6 +11,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runners.MethodSorters;
 
+import net.sf.relish.NameValuePair;
 import net.sf.relish.RelishException;
 import net.sf.relish.web.AbstractWebServerTest;
 
@@ -29,6 +32,20 @@ public class WebAppStepDefsTest {
 		steps.after();
 	}
 
+	@Test
+	public void testWebAppsUseTheseServerSettings() throws Exception {
+
+		steps.webAppsUseTheseServerSettings(Arrays.asList(new NameValuePair("minThreads", "4"), new NameValuePair("maxThreads", "20")));
+		steps.webAppIsRunningOnPort("test-web-app", 12473);
+		assertTrue(isServerRunning());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebAppsUseTheseServerSettings_UnknownSetting() throws Exception {
+
+		steps.webAppsUseTheseServerSettings(Arrays.asList(new NameValuePair("fooThreads", "4")));
+	}
+
 	@Test
 	public void testAfter_WebAppRunning_InProject() throws Exception {
 
@@ -0,0 +1,132 @@
+package net.sf.relish.web.client;
+
+import static org.junit.Assert.*;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.relish.CountQuantifier;
+import net.sf.relish.DataFormat;
+import net.sf.relish.TestHttpServer;
+import net.sf.relish.rule.ElapsedTime;
+import net.sf.relish.web.DelayDistribution;
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+import net.sf.relish.web.service.WebServiceStepDefs;
+
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class AsyncHttpEngineTest {
+
+	@Rule public final ElapsedTime elapsedTime = new ElapsedTime();
+
+	TestHttpServer server = new TestHttpServer();
+	WebServiceStepDefs webService = new WebServiceStepDefs();
+	AsyncHttpEngine engine;
+
+	@After
+	public void after() throws Exception {
+		if (engine != null) {
+			engine.stop();
+		}
+		webService.after();
+		server.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroConnectionsPerHost() throws Exception {
+		new AsyncHttpEngine(0, 1000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroTimeout() throws Exception {
+		new AsyncHttpEngine(1, 0);
+	}
+
+	@Test
+	public void testSendAll_RequestAndResponse() throws Exception {
+
+		server.setResponseStatus(201);
+		server.setResponseHeader("X-Foo", "bar");
+		server.setResponseBody("hello back");
+		engine = new AsyncHttpEngine(10, 5000);
+
+		HttpRequestData request = newRequest(server.getBaseURL() + "fubar", HttpMethod.POST);
+		request.setHeader("X-Abc", "123");
+		request.setBody("hello world".getBytes("UTF-8"));
+
+		HttpResponseData response = engine.sendAll(Arrays.asList(request), 1).get(0);
+
+		assertEquals("/fubar", server.getTarget());
+		assertEquals("123", server.getRequestHeader("X-Abc"));
+		assertEquals("hello world", server.getRequestBodyString());
+		assertEquals(201, response.getStatusCode());
+		assertEquals("bar", response.getHeaderValue("X-Foo"));
+		assertEquals("hello back", new String(response.getBody(), "UTF-8"));
+		assertTrue(response.getTotalNanos() > 0);
+	}
+
+	@Test
+	public void testSendAll_ManyOutstanding() throws Exception {
+
+		elapsedTime.expectMaxMillis(3000);
+
+		webService.webServiceRespondsWithBody("foo", 1, 500, DataFormat.TEXT, "response");
+		webService.webServiceResponseIsDelayed("foo", 1, 500, DelayDistribution.fixed(500));
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+		engine = new AsyncHttpEngine(Integer.MAX_VALUE, 5000);
+
+		List<HttpRequestData> requests = new ArrayList<HttpRequestData>();
+		for (int i = 0; i < 500; i++) {
+			requests.add(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+		}
+		List<HttpResponseData> responses = engine.sendAll(requests, Integer.MAX_VALUE);
+
+		assertEquals(500, responses.size());
+		for (HttpResponseData response : responses) {
+			assertEquals("response", new String(response.getBody(), "UTF-8"));
+		}
+		// sent one after another each request would wait 500ms so the elapsed time shows they were outstanding together
+		assertTrue(engine.getPeakOutstanding() > 250);
+	}
+
+	@Test
+	public void testSendAll_MaxOutstanding() throws Exception {
+
+		webService.webServiceResponseIsDelayed("foo", 1, 6, DelayDistribution.fixed(100));
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+		engine = new AsyncHttpEngine(Integer.MAX_VALUE, 5000);
+
+		List<HttpRequestData> requests = new ArrayList<HttpRequestData>();
+		for (int i = 0; i < 6; i++) {
+			requests.add(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+		}
+		engine.sendAll(requests, 2);
+
+		assertEquals(2, engine.getPeakOutstanding());
+		webService.webServiceShouldHaveHadConcurrentRequests("foo", CountQuantifier.AT_MOST, 2);
+	}
+
+	@Test(expected = ConnectException.class)
+	public void testSendAll_ConnectionRefused() throws Exception {
+
+		engine = new AsyncHttpEngine(10, 5000);
+		engine.sendAll(Arrays.asList(newRequest(server.getBaseURL(), HttpMethod.GET), newRequest("http://localhost:12479/foo", HttpMethod.GET)), 2);
+	}
+
+	private static HttpRequestData newRequest(String url, HttpMethod method) {
+
+		HttpRequestData request = new HttpRequestData();
+		request.setUrl(url);
+		request.setRequestMethod(method);
+		return request;
+	}
+}
@@ -0,0 +1,210 @@
+package net.sf.relish.web.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.relish.DataFormat;
+import net.sf.relish.RelishException;
+import net.sf.relish.RelishUtil;
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BulkRequestRunnerTest {
+
+	List<HttpRequestData> sent = Collections.synchronizedList(new ArrayList<HttpRequestData>());
+	List<Map<String, String>> table = new ArrayList<Map<String, String>>();
+
+	RequestSender sender = new RequestSender() {
+
+		@Override
+		public HttpResponseData send(HttpRequestData requestData) throws Exception {
+
+			sent.add(requestData);
+			if (requestData.getUrl().endsWith("/throw")) {
+				throw new RuntimeException("boom");
+			}
+			return new HttpResponseData(Integer.parseInt(requestData.getUrl().substring(requestData.getUrl().lastIndexOf('/') + 1)));
+		}
+	};
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroConcurrency() throws Exception {
+		new BulkRequestRunner(sender, 0);
+	}
+
+	@Test
+	public void testRun_BuildsRequests() throws Exception {
+
+		File file = File.createTempFile("relish-test", ".txt");
+		try {
+			RelishUtil.writeToFile(file, new ByteArrayInputStream("file body".getBytes(DataFormat.UTF8)));
+
+			BulkRequestRunner runner = new BulkRequestRunner(sender, 1);
+			addRow("Method", "post", "URL", "http://localhost/200", "Header X-Foo", "bar", "Body", "hello");
+			addRow("Method", "PUT", "URL", "http://localhost/201", "Body File", file.getPath(), "Expected Status", "201");
+			runner.run(table.iterator());
+
+			assertEquals(2, sent.size());
+			assertEquals(HttpMethod.POST, sent.get(0).getRequestMethod());
+			assertEquals("bar", sent.get(0).getHeaderValue("X-Foo"));
+			assertEquals("hello", new String(sent.get(0).getBody(), DataFormat.UTF8));
+			assertEquals(HttpMethod.PUT, sent.get(1).getRequestMethod());
+			assertEquals(file, sent.get(1).getBodyFile());
+			assertFalse(sent.get(1).isBodyFileChunked());
+			assertEquals(2, runner.getPassedCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testRun_ChecksStatus() throws Exception {
+
+		BulkRequestRunner runner = new BulkRequestRunner(sender, 4);
+		addRow("Method", "GET", "URL", "http://localhost/200");
+		addRow("Method", "GET", "URL", "http://localhost/404");
+		addRow("Method", "GET", "URL", "http://localhost/404", "Expected Status", "404");
+		addRow("Method", "GET", "URL", "http://localhost/200", "Expected Status", "201");
+		addRow("Method", "GET", "URL", "http://localhost/throw");
+		runner.run(table.iterator());
+
+		assertEquals(5, runner.getSentCount());
+		assertEquals(2, runner.getPassedCount());
+		assertEquals(3, runner.getFailedCount());
+		assertEquals(5, runner.getLatencyNanos().getCount());
+		assertEquals(Long.valueOf(2), runner.getStatusCounts().get(200));
+		assertEquals(Long.valueOf(2), runner.getStatusCounts().get(404));
+
+		List<String> failures = runner.getFailures();
+		Collections.sort(failures);
+		assertEquals(3, failures.size());
+		assertEquals("row 2: GET http://localhost/404 expected status < 400 but was 404", failures.get(0));
+		assertEquals("row 4: GET http://localhost/200 expected status 201 but was 200", failures.get(1));
+		assertTrue(failures.get(2), failures.get(2).startsWith("row 5: GET http://localhost/throw failed: java.lang.RuntimeException: boom"));
+		assertTrue(runner.toReport(), runner.toReport().contains("first 3 failures:"));
+	}
+
+	@Test
+	public void testRun_KeepsFirstFailuresOnly() throws Exception {
+
+		final int rowCount = BulkRequestRunner.MAX_FAILURES_KEPT * 3;
+		BulkRequestRunner runner = new BulkRequestRunner(sender, 8);
+		runner.run(new Iterator<Map<String, String>>() {
+
+			int count;
+
+			@Override
+			public boolean hasNext() {
+				return count < rowCount;
+			}
+
+			@Override
+			public Map<String, String> next() {
+				count++;
+				return row("Method", "GET", "URL", "http://localhost/500");
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+
+		assertEquals(rowCount, runner.getFailedCount());
+		assertEquals(BulkRequestRunner.MAX_FAILURES_KEPT, runner.getFailures().size());
+	}
+
+	@Test
+	public void testRun_BoundsConcurrency() throws Exception {
+
+		final AtomicInteger current = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		BulkRequestRunner runner = new BulkRequestRunner(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData requestData) throws Exception {
+
+				int now = current.incrementAndGet();
+				synchronized (peak) {
+					peak.set(Math.max(peak.get(), now));
+				}
+				Thread.sleep(20);
+				current.decrementAndGet();
+				return new HttpResponseData(200);
+			}
+		}, 3);
+
+		List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < 20; i++) {
+			rows.add(row("Method", "GET", "URL", "http://localhost/200"));
+		}
+		runner.run(rows.iterator());
+
+		assertEquals(20, runner.getPassedCount());
+		assertTrue(String.valueOf(peak.get()), peak.get() > 1 && peak.get() <= 3);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testRun_MissingUrl() throws Exception {
+		addRow("Method", "GET");
+		new BulkRequestRunner(sender, 1).run(table.iterator());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testRun_UnknownColumn() throws Exception {
+		addRow("Method", "GET", "URL", "http://localhost/200", "Foo", "bar");
+		new BulkRequestRunner(sender, 1).run(table.iterator());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testRun_UnknownMethod() throws Exception {
+		addRow("Method", "FETCH", "URL", "http://localhost/200");
+		new BulkRequestRunner(sender, 1).run(table.iterator());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testRun_BodyAndBodyFile() throws Exception {
+		addRow("Method", "GET", "URL", "http://localhost/200", "Body", "a", "Body File", "b");
+		new BulkRequestRunner(sender, 1).run(table.iterator());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testRun_BodyFileMissing() throws Exception {
+		addRow("Method", "PUT", "URL", "http://localhost/200", "Body File", "no/such/file");
+		new BulkRequestRunner(sender, 1).run(table.iterator());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testRun_ExpectedStatusNotNumber() throws Exception {
+		addRow("Method", "GET", "URL", "http://localhost/200", "Expected Status", "ok");
+		new BulkRequestRunner(sender, 1).run(table.iterator());
+	}
+
+	private void addRow(String... namesAndValues) {
+		table.add(row(namesAndValues));
+	}
+
+	private static Map<String, String> row(String... namesAndValues) {
+
+		Map<String, String> row = new HashMap<String, String>();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			row.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return row;
+	}
+}
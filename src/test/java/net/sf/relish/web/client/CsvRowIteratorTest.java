@@ -0,0 +1,85 @@
+package net.sf.relish.web.client;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import net.sf.relish.RelishException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CsvRowIteratorTest {
+
+	@Test(expected = RelishException.class)
+	public void testConstructor_Empty() throws Exception {
+		new CsvRowIterator(new StringReader(""));
+	}
+
+	@Test
+	public void testConstructor_HeaderOnly() throws Exception {
+
+		CsvRowIterator rows = new CsvRowIterator(new StringReader("a,b,c\n"));
+		assertEquals(Arrays.asList("a", "b", "c"), rows.getColumnNames());
+		assertFalse(rows.hasNext());
+	}
+
+	@Test
+	public void testNext_SimpleRows() throws Exception {
+
+		CsvRowIterator rows = new CsvRowIterator(new StringReader("a,b\r\n1,2\r\n\r\n3,\n4"));
+
+		Map<String, String> row = rows.next();
+		assertEquals("1", row.get("a"));
+		assertEquals("2", row.get("b"));
+
+		row = rows.next();
+		assertEquals("3", row.get("a"));
+		assertEquals("", row.get("b"));
+
+		row = rows.next();
+		assertEquals("4", row.get("a"));
+		assertFalse(row.containsKey("b"));
+
+		assertFalse(rows.hasNext());
+	}
+
+	@Test
+	public void testNext_QuotedFields() throws Exception {
+
+		CsvRowIterator rows = new CsvRowIterator(new StringReader("a,b,c\n\"x,y\",\"say \"\"hi\"\"\",\"line1\nline2\"\n5,6,7\n"));
+
+		Map<String, String> row = rows.next();
+		assertEquals("x,y", row.get("a"));
+		assertEquals("say \"hi\"", row.get("b"));
+		assertEquals("line1\nline2", row.get("c"));
+
+		row = rows.next();
+		assertEquals("7", row.get("c"));
+		assertFalse(rows.hasNext());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testNext_TooManyFields() throws Exception {
+
+		CsvRowIterator rows = new CsvRowIterator(new StringReader("a\n1,2\n"));
+		rows.next();
+	}
+
+	@Test(expected = RelishException.class)
+	public void testNext_UnclosedQuote() throws Exception {
+		new CsvRowIterator(new StringReader("a\n\"1\n"));
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testNext_NoMoreRows() throws Exception {
+
+		CsvRowIterator rows = new CsvRowIterator(new StringReader("a\n"));
+		rows.next();
+	}
+}
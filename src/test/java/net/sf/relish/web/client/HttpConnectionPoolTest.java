@@ -0,0 +1,396 @@
+package net.sf.relish.web.client;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.relish.CountQuantifier;
+import net.sf.relish.DataFormat;
+import net.sf.relish.RelishException;
+import net.sf.relish.RelishUtil;
+import net.sf.relish.TestHttpServer;
+import net.sf.relish.web.DelayDistribution;
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+import net.sf.relish.web.service.WebServiceStepDefs;
+
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HttpConnectionPoolTest {
+
+	static final String BODY_FILE_TEXT = newBodyFileText();
+
+	TestHttpServer server = new TestHttpServer();
+	WebServiceStepDefs webService = new WebServiceStepDefs();
+	HttpConnectionPool pool = new HttpConnectionPool(10, 60000);
+
+	@After
+	public void after() throws Exception {
+		pool.close();
+		webService.after();
+		server.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroConnectionsPerHost() throws Exception {
+		new HttpConnectionPool(0, 1000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroIdleTimeout() throws Exception {
+		new HttpConnectionPool(1, 0);
+	}
+
+	@Test
+	public void testSend_RequestAndResponse() throws Exception {
+
+		server.setResponseStatus(201);
+		server.setResponseHeader("X-Foo", "bar");
+		server.setResponseBody("hello back");
+
+		HttpRequestData request = newRequest(server.getBaseURL() + "fubar?a=b", HttpMethod.POST);
+		request.setHeader("X-Abc", "123");
+		request.setBody("hello world".getBytes("UTF-8"));
+
+		HttpResponseData response = pool.send(request);
+
+		assertEquals("/fubar", server.getTarget());
+		assertEquals("123", server.getRequestHeader("X-Abc"));
+		assertEquals("hello world", server.getRequestBodyString());
+		assertEquals(201, response.getStatusCode());
+		assertEquals("bar", response.getHeaderValue("X-Foo"));
+		assertEquals("hello back", new String(response.getBody(), "UTF-8"));
+	}
+
+	@Test
+	public void testSend_ReusesConnection() throws Exception {
+
+		webService.webServiceRespondsWithBody("foo", 1, 20, DataFormat.TEXT, "response");
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+
+		for (int i = 0; i < 20; i++) {
+			HttpResponseData response = pool.send(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+			assertEquals("response", new String(response.getBody(), "UTF-8"));
+		}
+
+		assertEquals(1, pool.getNewConnectionCount());
+		assertEquals(19, pool.getHitCount());
+		assertEquals(0, pool.getEvictionCount());
+		assertEquals(1, pool.getIdleCount());
+		webService.webServiceShouldHaveReceivedRequestsOverConnections("foo", 20, CountQuantifier.EXACTLY, 1);
+	}
+
+	@Test
+	public void testSend_Head_NoBodyRead() throws Exception {
+
+		server.setResponseBody("hello");
+
+		HttpResponseData response = pool.send(newRequest(server.getBaseURL(), HttpMethod.HEAD));
+		assertEquals(0, response.getBody().length);
+
+		response = pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+		assertEquals("hello", new String(response.getBody(), "UTF-8"));
+		assertEquals(1, pool.getNewConnectionCount());
+		assertEquals(1, pool.getHitCount());
+	}
+
+	@Test
+	public void testSend_ConnectionCloseNotReused() throws Exception {
+
+		server.setResponseHeader("Connection", "close");
+
+		pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+		pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+
+		assertEquals(2, pool.getNewConnectionCount());
+		assertEquals(0, pool.getHitCount());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testSend_IdleTimeout() throws Exception {
+
+		pool = new HttpConnectionPool(10, 50);
+
+		pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+		Thread.sleep(100);
+		pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+
+		assertEquals(2, pool.getNewConnectionCount());
+		assertEquals(0, pool.getHitCount());
+		assertEquals(1, pool.getEvictionCount());
+	}
+
+	@Test
+	public void testSend_ServerClosedIdleConnection() throws Exception {
+
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+		pool.send(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+
+		webService.after();
+		webService = new WebServiceStepDefs();
+		webService.webServiceRespondsWithBody("foo", 1, null, DataFormat.TEXT, "response");
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+
+		HttpResponseData response = pool.send(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+
+		assertEquals("response", new String(response.getBody(), "UTF-8"));
+		assertEquals(2, pool.getNewConnectionCount());
+		assertEquals(1, pool.getHitCount());
+		assertEquals(1, pool.getEvictionCount());
+	}
+
+	@Test
+	public void testSend_PerHostLimit() throws Exception {
+
+		pool = new HttpConnectionPool(2, 60000);
+		webService.webServiceResponseIsDelayed("foo", 1, 8, DelayDistribution.fixed(100));
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<HttpResponseData>> futures = new ArrayList<Future<HttpResponseData>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<HttpResponseData>() {
+
+					@Override
+					public HttpResponseData call() throws Exception {
+						return pool.send(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+					}
+				}));
+			}
+			for (Future<HttpResponseData> future : futures) {
+				assertEquals(200, future.get().getStatusCode());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(2, pool.getNewConnectionCount());
+		assertEquals(6, pool.getHitCount());
+		webService.webServiceShouldHaveConnectionCount("foo", "accepted", CountQuantifier.EXACTLY, 2);
+	}
+
+	@Test
+	public void testSend_ConnectionRefused_ReleasesPermit() throws Exception {
+
+		pool = new HttpConnectionPool(1, 60000);
+		try {
+			pool.send(newRequest("http://localhost:12479/foo", HttpMethod.GET));
+			fail();
+		} catch (ConnectException e) {
+		}
+
+		// the failed connection must not hold the only permit
+		pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+		assertEquals(1, pool.getNewConnectionCount());
+	}
+
+	@Test
+	public void testSend_BodyFile() throws Exception {
+
+		File file = newBodyFile();
+		try {
+			HttpRequestData request = newRequest(server.getBaseURL(), HttpMethod.PUT);
+			request.setBodyFile(file, false, false);
+			HttpResponseData response = pool.send(request);
+
+			assertEquals(BODY_FILE_TEXT, server.getRequestBodyString());
+			assertEquals(String.valueOf(file.length()), server.getRequestHeader("Content-Length"));
+			assertEquals(file.length(), response.getUploadBytes());
+			assertTrue(response.getUploadNanos() > 0);
+
+			// the connection is still usable after the body
+			pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+			assertEquals(1, pool.getHitCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSend_BodyFileChunked() throws Exception {
+
+		File file = newBodyFile();
+		try {
+			HttpRequestData request = newRequest(server.getBaseURL(), HttpMethod.POST);
+			request.setBodyFile(file, true, false);
+			HttpResponseData response = pool.send(request);
+
+			assertEquals(BODY_FILE_TEXT, server.getRequestBodyString());
+			assertEquals("chunked", server.getRequestHeader("Transfer-Encoding"));
+			assertNull(server.getRequestHeader("Content-Length"));
+			assertEquals(file.length(), response.getUploadBytes());
+
+			pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+			assertEquals(1, pool.getHitCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSend_BodyFileGzipped() throws Exception {
+
+		File file = newBodyFile();
+		try {
+			HttpRequestData request = newRequest(server.getBaseURL(), HttpMethod.POST);
+			request.setBodyFile(file, false, true);
+			HttpResponseData response = pool.send(request);
+
+			assertEquals("chunked", server.getRequestHeader("Transfer-Encoding"));
+			assertEquals("gzip", server.getRequestHeader("Content-Encoding"));
+			byte[] body = server.getRequestBody();
+			assertEquals(body.length, response.getUploadBytes());
+			assertTrue(body.length < file.length());
+			assertEquals(BODY_FILE_TEXT, new String(RelishUtil.readFromInputStream(new GZIPInputStream(new ByteArrayInputStream(body))), DataFormat.UTF8));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSend_RuntimeException_ReleasesConnection() throws Exception {
+
+		pool = new HttpConnectionPool(1, 60000, 1000);
+		ServerSocket serverSocket = new ServerSocket(12479);
+		Thread serverThread = newBadResponseServer(serverSocket, "HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n");
+		try {
+			for (int i = 0; i < 3; i++) {
+				try {
+					pool.send(newRequest("http://localhost:12479/foo", HttpMethod.GET));
+					fail();
+				} catch (NumberFormatException e) {
+				}
+			}
+			assertEquals(0, pool.getIdleCount());
+			assertEquals(3, pool.getNewConnectionCount());
+		} finally {
+			serverSocket.close();
+			serverThread.join(5000);
+		}
+	}
+
+	@Test
+	public void testSend_LeaseTimeout() throws Exception {
+
+		pool = new HttpConnectionPool(1, 60000, 100);
+		webService.webServiceResponseIsDelayed("foo", 1, null, DelayDistribution.fixed(1000));
+		webService.webServiceIsRunningAt("foo", 12481, "/foo");
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<HttpResponseData> future = executor.submit(new Callable<HttpResponseData>() {
+
+				@Override
+				public HttpResponseData call() throws Exception {
+					return pool.send(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+				}
+			});
+			webService.webServiceShouldHaveRequestCountWithin("foo", 1, 5, TimeUnit.SECONDS);
+
+			try {
+				pool.send(newRequest("http://localhost:12481/foo", HttpMethod.GET));
+				fail();
+			} catch (RelishException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("waiting for one of the 1 connections to localhost:12481"));
+			}
+			assertEquals(200, future.get().getStatusCode());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroLeaseTimeout() throws Exception {
+		new HttpConnectionPool(1, 1000, 0);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testSend_NotHttp() throws Exception {
+		pool.send(newRequest("https://localhost:12479/foo", HttpMethod.GET));
+	}
+
+	@Test
+	public void testToReport() throws Exception {
+
+		pool.send(newRequest(server.getBaseURL(), HttpMethod.GET));
+		assertEquals("hits=0, new connections=1, evictions=0, idle=1", pool.toReport());
+	}
+
+	static String newBodyFileText() {
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			text.append("line ").append(i).append(" of the file body\n");
+		}
+		return text.toString();
+	}
+
+	static File newBodyFile() throws Exception {
+
+		File file = File.createTempFile("relish-test", ".txt");
+		RelishUtil.writeToFile(file, new ByteArrayInputStream(BODY_FILE_TEXT.getBytes(DataFormat.UTF8)));
+		return file;
+	}
+
+	/**
+	 * @return A started thread that answers every connection accepted by the server socket with the response then closes the connection
+	 */
+	private static Thread newBadResponseServer(final ServerSocket serverSocket, final String response) {
+
+		Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					for (;;) {
+						Socket socket = serverSocket.accept();
+						try {
+							BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+							for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+							}
+							socket.getOutputStream().write(response.getBytes("ISO-8859-1"));
+							socket.getOutputStream().flush();
+						} finally {
+							socket.close();
+						}
+					}
+				} catch (IOException e) {
+					// the server socket was closed
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static HttpRequestData newRequest(String url, HttpMethod method) {
+
+		HttpRequestData request = new HttpRequestData();
+		request.setUrl(url);
+		request.setRequestMethod(method);
+		return request;
+	}
+}
@@ -0,0 +1,142 @@
+package net.sf.relish.web.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.relish.rule.ElapsedTime;
+import net.sf.relish.web.HttpRequestData;
+import net.sf.relish.web.HttpResponseData;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LoadGeneratorTest {
+
+	@Rule public final ElapsedTime elapsedTime = new ElapsedTime();
+
+	HttpRequestData requestData = new HttpRequestData();
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroRate() throws Exception {
+		new LoadGenerator(requestData, 0, 1000, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroDuration() throws Exception {
+		new LoadGenerator(requestData, 1, 0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ZeroInFlight() throws Exception {
+		new LoadGenerator(requestData, 1, 1000, 0);
+	}
+
+	@Test
+	public void testRun_SendsAtRate() throws Exception {
+
+		elapsedTime.expectMinMillis(450);
+		elapsedTime.expectMaxMillis(1000);
+
+		final AtomicInteger count = new AtomicInteger();
+		LoadGenerator generator = new LoadGenerator(requestData, 100, 500, 10);
+		generator.run(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData data) throws Exception {
+				assertSame(requestData, data);
+				count.incrementAndGet();
+				return new HttpResponseData(200);
+			}
+		});
+
+		assertEquals(50, count.get());
+		assertEquals(50, generator.getSentCount());
+		assertEquals(50, generator.getCompletedCount());
+		assertEquals(0, generator.getFailedCount());
+		assertEquals(0, generator.getErrorPercent(), 0);
+		assertEquals(50, generator.getLatencyNanos().getCount());
+		assertEquals(100, generator.getAchievedRequestsPerSecond(), 15);
+	}
+
+	@Test
+	public void testRun_DoesNotSlowDownForSlowServer() throws Exception {
+
+		elapsedTime.expectMaxMillis(700);
+
+		LoadGenerator generator = new LoadGenerator(requestData, 100, 200, 100);
+		generator.run(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData data) throws Exception {
+				Thread.sleep(200);
+				return new HttpResponseData(200);
+			}
+		});
+
+		assertEquals(20, generator.getCompletedCount());
+		assertTrue(generator.getLatencyNanos().getMin() >= TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void testRun_LatencyIncludesWaitingForThread() throws Exception {
+
+		// one thread and each request takes 50ms but requests are scheduled every 10ms so they queue up behind each other
+		LoadGenerator generator = new LoadGenerator(requestData, 100, 100, 1);
+		generator.run(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData data) throws Exception {
+				Thread.sleep(50);
+				return new HttpResponseData(200);
+			}
+		});
+
+		assertEquals(10, generator.getCompletedCount());
+		assertTrue(generator.getServiceNanos().getMax() < TimeUnit.MILLISECONDS.toNanos(150));
+		assertTrue(generator.getLatencyNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(400));
+	}
+
+	@Test
+	public void testRun_Failures() throws Exception {
+
+		final AtomicInteger count = new AtomicInteger();
+		LoadGenerator generator = new LoadGenerator(requestData, 1000, 10, 1);
+		generator.run(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData data) throws Exception {
+				int i = count.incrementAndGet();
+				if (i <= 2) {
+					throw new IOException();
+				}
+				return new HttpResponseData(i <= 5 ? 503 : 200);
+			}
+		});
+
+		assertEquals(10, generator.getCompletedCount());
+		assertEquals(5, generator.getFailedCount());
+		assertEquals(50, generator.getErrorPercent(), 0);
+	}
+
+	@Test
+	public void testToReport() throws Exception {
+
+		LoadGenerator generator = new LoadGenerator(requestData, 1000, 1, 1);
+		generator.run(new RequestSender() {
+
+			@Override
+			public HttpResponseData send(HttpRequestData data) throws Exception {
+				return new HttpResponseData(200);
+			}
+		});
+
+		assertTrue(generator.toReport(), generator.toReport().startsWith("target rate=1000/s, achieved rate="));
+		assertTrue(generator.toReport(), generator.toReport().contains("sent=1, completed=1, failed=0 (0.00%)"));
+	}
+}
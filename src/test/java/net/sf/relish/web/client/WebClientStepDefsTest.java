@@ -2,23 +2,41 @@ package net.sf.relish.web.client;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.ConnectException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
 
 import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
 import net.sf.relish.NameValuePair;
+import net.sf.relish.RelishException;
+import net.sf.relish.RelishUtil;
 import net.sf.relish.TableMatcher;
 import net.sf.relish.TestHttpServer;
+import net.sf.relish.rule.ElapsedTime;
+import net.sf.relish.web.DelayDistribution;
 import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.service.WebServiceStepDefs;
 
 import org.junit.FixMethodOrder;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class WebClientStepDefsTest {
 
+	@Rule public final ElapsedTime elapsedTime = new ElapsedTime();
+
 	TestHttpServer server = new TestHttpServer();
 	WebClientStepDefs steps = new WebClientStepDefs();
 	List<NameValuePair> headers = Arrays.asList(new NameValuePair[] { new NameValuePair("foo", "bar"), new NameValuePair("abc", "123") });
@@ -27,16 +45,25 @@ public class WebClientStepDefsTest {
 	public void testWebClientRequestBodyIs() throws Exception {
 
 		steps.webClientRequestBodyIs(1, 1, DataFormat.TEXT, "hello world");
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 
 		assertEquals("hello world", server.getRequestBodyString());
 	}
 
+	@Test
+	public void testWebClientRequestBodyIsTemplate() throws Exception {
+
+		steps.webClientRequestBodyIsTemplate(2, 3, DataFormat.JSON, "{\"id\":${seq}}");
+		steps.webClientRequestIsSentTo(3, 3, server.getBaseURL(), HttpMethod.POST, null);
+
+		assertEquals("{\"id\":3}", server.getRequestBodyString());
+	}
+
 	@Test
 	public void testWebClientRequestHeaderIs() throws Exception {
 
 		steps.webClientRequestHeaderIs(1, 1, "foo", "bar");
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 
 		assertEquals("bar", server.getRequestHeader("foo"));
 	}
@@ -45,7 +72,7 @@ public class WebClientStepDefsTest {
 	public void testWebClientRequestUsesHeaders() throws Exception {
 
 		steps.webClientRequestUsesHeaders(1, 1, headers);
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 
 		assertEquals("bar", server.getRequestHeader("foo"));
 		assertEquals("123", server.getRequestHeader("abc"));
@@ -54,7 +81,7 @@ public class WebClientStepDefsTest {
 	@Test
 	public void testWebClientRequestIsSentTo_Success() throws Exception {
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET, null);
 
 		assertEquals("/fubar", server.getTarget());
 	}
@@ -63,7 +90,7 @@ public class WebClientStepDefsTest {
 	public void testWebClientRequestIsSentTo_ServerReturnsError_NoBody() throws Exception {
 
 		server.setResponseStatus(500);
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET, null);
 
 		assertEquals("/fubar", server.getTarget());
 	}
@@ -73,7 +100,7 @@ public class WebClientStepDefsTest {
 
 		server.setResponseStatus(500);
 		server.setResponseBody("hello world");
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET, null);
 		steps.webClientResponseBodyShouldBe(1, 1, DataFormat.TEXT, "hello world");
 	}
 
@@ -81,7 +108,7 @@ public class WebClientStepDefsTest {
 	public void testWebClientResponseBodyShouldBe_ServerReturnsSuccess() throws Exception {
 
 		server.setResponseBody("hello world");
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL() + "fubar", HttpMethod.GET, null);
 		steps.webClientResponseBodyShouldBe(1, 1, DataFormat.TEXT, "hello world");
 	}
 
@@ -95,7 +122,7 @@ public class WebClientStepDefsTest {
 		headers = Arrays.asList(new NameValuePair[] { new NameValuePair("Content-Length", "0"), new NameValuePair("Server", "test server"),
 				new NameValuePair("foo", "bar"), new NameValuePair("abc", "123") });
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseHeadersShouldBe(1, 1, TableMatcher.BE, headers);
 	}
 
@@ -108,7 +135,7 @@ public class WebClientStepDefsTest {
 		headers = Arrays.asList(new NameValuePair[] { new NameValuePair("Content-Length", "0"), new NameValuePair("Server", "test server"),
 				new NameValuePair("abc", "123") });
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseHeadersShouldBe(1, 1, TableMatcher.BE, headers);
 	}
 
@@ -120,7 +147,7 @@ public class WebClientStepDefsTest {
 		headers = Arrays.asList(new NameValuePair[] { new NameValuePair("Content-Length", "0"), new NameValuePair("Server", "test server"),
 				new NameValuePair("foo", "bar"), new NameValuePair("abc", "123") });
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseHeadersShouldBe(1, 1, TableMatcher.BE, headers);
 	}
 
@@ -134,7 +161,7 @@ public class WebClientStepDefsTest {
 		headers = Arrays.asList(new NameValuePair[] { new NameValuePair("Content-Length", "0"), new NameValuePair("Server", "test server"),
 				new NameValuePair("foo", "bar"), new NameValuePair("abc", "123") });
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseHeadersShouldBe(1, 1, TableMatcher.BE, headers);
 	}
 
@@ -148,7 +175,7 @@ public class WebClientStepDefsTest {
 		headers = Arrays.asList(new NameValuePair[] { new NameValuePair("Content-Length", "0"), new NameValuePair("Server", "test server"),
 				new NameValuePair("abc", "123") });
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseHeadersShouldBe(1, 1, TableMatcher.INCLUDE, headers);
 	}
 
@@ -160,51 +187,590 @@ public class WebClientStepDefsTest {
 		headers = Arrays.asList(new NameValuePair[] { new NameValuePair("Content-Length", "0"), new NameValuePair("Server", "test server"),
 				new NameValuePair("foo", "bar"), new NameValuePair("abc", "123") });
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseHeadersShouldBe(1, 1, TableMatcher.INCLUDE, headers);
 	}
 
 	@Test
 	public void testWebClientResponseStatusCodeShouldBe_Success() throws Exception {
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseStatusCodeShouldBe(1, 1, 200);
 	}
 
 	@Test(expected = AssertionError.class)
 	public void testWebClientResponseStatusCodeShouldBe_Fail() throws Exception {
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientResponseStatusCodeShouldBe(1, 1, 201);
 	}
 
 	@Test
 	public void testWebClientShouldHaveResponseCount_EXACTLY_Success() throws Exception {
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientRequestIsSentTo(2, 2, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 2);
 	}
 
 	@Test
 	public void testWebClientShouldHaveResponseCount_AT_LEAST_Success() throws Exception {
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientRequestIsSentTo(2, 2, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientShouldHaveResponseCount(CountQuantifier.AT_LEAST, 1);
 	}
 
 	@Test
 	public void testWebClientShouldHaveResponseCount_AT_MOST_Success() throws Exception {
 
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientRequestIsSentTo(2, 2, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientShouldHaveResponseCount(CountQuantifier.AT_MOST, 3);
 	}
 
 	@Test(expected = AssertionError.class)
 	public void testWebClientShouldHaveResponseCount_Fail() throws Exception {
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
-		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientRequestIsSentTo(2, 2, server.getBaseURL(), HttpMethod.GET, null);
 		steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 1);
 	}
+
+	@Test
+	public void testWebClientShouldHaveResponseCount_ResentRequestReplacesResponse() throws Exception {
+
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 1);
+	}
+
+	@Test
+	public void testWebClientRequestIsSentTo_ResponseStoredAtRequestIndex() throws Exception {
+
+		server.setResponseStatus(201);
+		steps.webClientRequestIsSentTo(3, 3, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientResponseStatusCodeShouldBe(3, 3, 201);
+	}
+
+	@Test
+	public void testWebClientShouldHaveResponseCount_OnlyResponsesSentCounted() throws Exception {
+
+		steps.webClientRequestIsSentTo(3, 3, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 1);
+	}
+
+	@Test
+	public void testWebClientRequestIsSentTo_WithConcurrency() throws Exception {
+
+		elapsedTime.expectMaxMillis(1500);
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			for (int i = 1; i <= 10; i++) {
+				webService.webServiceRespondsWithBody("foo", i, null, DataFormat.TEXT, "response " + i);
+				webService.webServiceUsesResponseForRequestsMatching("foo", i, "any", "/foo", "X-Seq", Integer.toString(i), null, null);
+				steps.webClientRequestHeaderIs(i, i, "X-Seq", Integer.toString(i));
+			}
+			webService.webServiceResponseIsDelayed("foo", 1, 10, DelayDistribution.fixed(300));
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			steps.webClientRequestIsSentTo(1, 10, "http://localhost:12473/foo", HttpMethod.GET, 10);
+
+			steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 10);
+			for (int i = 1; i <= 10; i++) {
+				steps.webClientResponseBodyShouldBe(i, i, DataFormat.TEXT, "response " + i);
+			}
+			webService.webServiceShouldHaveHadConcurrentRequests("foo", CountQuantifier.AT_LEAST, 2);
+		} finally {
+			webService.after();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWebClientRequestIsSentTo_ZeroConcurrency() throws Exception {
+		steps.webClientRequestIsSentTo(1, 2, server.getBaseURL(), HttpMethod.GET, 0);
+	}
+
+	@Test(expected = ConnectException.class)
+	public void testWebClientRequestIsSentTo_WithConcurrency_ConnectionRefused() throws Exception {
+		steps.webClientRequestIsSentTo(1, 3, "http://localhost:12479/foo", HttpMethod.GET, 2);
+	}
+
+	@Test
+	public void testWebClientUsesConnectionPool() throws Exception {
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			webService.webServiceRespondsWithBody("foo", 1, 10, DataFormat.TEXT, "response");
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			steps.webClientUsesConnectionPool(2, 30, TimeUnit.SECONDS);
+			steps.webClientRequestIsSentTo(1, 10, "http://localhost:12473/foo", HttpMethod.GET, 4);
+
+			steps.webClientResponseBodyShouldBe(1, 10, DataFormat.TEXT, "response");
+			steps.webClientConnectionPoolShouldHave(CountQuantifier.EXACTLY, 2, "new connections");
+			steps.webClientConnectionPoolShouldHave(CountQuantifier.EXACTLY, 8, "hits");
+			steps.webClientConnectionPoolShouldHave(CountQuantifier.EXACTLY, 0, "evictions");
+			steps.printWebClientConnectionPoolStats();
+			webService.webServiceShouldHaveReceivedRequestsOverConnections("foo", 10, CountQuantifier.AT_MOST, 2);
+		} finally {
+			steps.after();
+			webService.after();
+		}
+	}
+
+	@Test
+	public void testWebClientUsesConnectionPool_Defaults() throws Exception {
+
+		steps.webClientUsesConnectionPool(null, null, null);
+		steps.webClientRequestIsSentTo(1, 3, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientConnectionPoolShouldHave(CountQuantifier.EXACTLY, 1, "new connections");
+		steps.webClientConnectionPoolShouldHave(CountQuantifier.EXACTLY, 2, "hits");
+		steps.after();
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebClientConnectionPoolShouldHave_Fails() throws Exception {
+
+		steps.webClientUsesConnectionPool(null, null, null);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientConnectionPoolShouldHave(CountQuantifier.AT_LEAST, 1, "hits");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientConnectionPoolShouldHave_NoPool() throws Exception {
+		steps.webClientConnectionPoolShouldHave(CountQuantifier.AT_LEAST, 1, "hits");
+	}
+
+	@Test
+	public void testWebClientSendsLoad() throws Exception {
+
+		elapsedTime.expectMaxMillis(3000);
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			webService.webServiceRespondsWithBody("foo", 1, 100, DataFormat.TEXT, "response");
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			steps.webClientRequestHeaderIs(3, 3, "X-Foo", "bar");
+			steps.webClientRequestBodyIs(3, 3, DataFormat.TEXT, "hello");
+			steps.webClientUsesConnectionPool(null, null, null);
+			steps.webClientSendsLoad(HttpMethod.POST, "http://localhost:12473/foo", 200, 500, TimeUnit.MILLISECONDS, 3, 20);
+
+			steps.webClientLoadShouldHaveRequestCount("sent", CountQuantifier.EXACTLY, 100);
+			steps.webClientLoadShouldHaveRequestCount("completed", CountQuantifier.EXACTLY, 100);
+			steps.webClientLoadShouldHaveRequestCount("failed", CountQuantifier.EXACTLY, 0);
+			steps.webClientLoadErrorRateShouldBe(CountQuantifier.AT_MOST, 0.0);
+			steps.webClientLoadLatencyShouldBe("p99", CountQuantifier.AT_MOST, 1, TimeUnit.SECONDS);
+			steps.webClientLoadLatencyShouldBe("min", CountQuantifier.AT_LEAST, 1, TimeUnit.MICROSECONDS);
+			steps.printWebClientLoadStats();
+
+			webService.webServiceShouldHaveReceivedRequestsOverConnections("foo", 100, CountQuantifier.AT_MOST, 20);
+			webService.webServiceRequestHeaderShouldBe("foo", 1, 100, "X-Foo", "bar");
+		} finally {
+			steps.after();
+			webService.after();
+		}
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebClientLoadErrorRateShouldBe_Fails() throws Exception {
+
+		server.setResponseStatus(500);
+		steps.webClientSendsLoad(HttpMethod.GET, server.getBaseURL(), 100, 50, TimeUnit.MILLISECONDS, null, null);
+
+		steps.webClientLoadShouldHaveRequestCount("failed", CountQuantifier.EXACTLY, 5);
+		steps.webClientLoadErrorRateShouldBe(CountQuantifier.AT_MOST, 50.0);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientLoadLatencyShouldBe_NoLoad() throws Exception {
+		steps.webClientLoadLatencyShouldBe("p99", CountQuantifier.AT_MOST, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testWebClientResponseTimings() throws Exception {
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			webService.webServiceRespondsWithBody("foo", 1, 4, DataFormat.TEXT, "response");
+			webService.webServiceResponseIsDelayed("foo", 3, 4, DelayDistribution.fixed(200));
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			steps.webClientUsesConnectionPool(null, null, null);
+			steps.webClientRequestIsSentTo(1, 4, "http://localhost:12473/foo", HttpMethod.GET, null);
+
+			steps.webClientResponseShouldCompleteWithin(1, 2, 150, TimeUnit.MILLISECONDS);
+			steps.webClientResponseTimeShouldBe(3, 4, "time to first byte", "min", CountQuantifier.AT_LEAST, 200, TimeUnit.MILLISECONDS);
+			steps.webClientResponseTimeShouldBe(3, 4, "total time", "p95", CountQuantifier.AT_LEAST, 200, TimeUnit.MILLISECONDS);
+			steps.webClientResponseTimeShouldBe(1, 1, "connect time", "max", CountQuantifier.AT_LEAST, 1, TimeUnit.MICROSECONDS);
+			// the rest were sent on the pooled connection
+			steps.webClientResponseTimeShouldBe(2, 4, "connect time", "max", CountQuantifier.AT_MOST, 0, TimeUnit.MICROSECONDS);
+			steps.printWebClientResponseTimings(1, 4);
+		} finally {
+			steps.after();
+			webService.after();
+		}
+	}
+
+	@Test
+	public void testWebClientResponseTimings_NotPooled() throws Exception {
+
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientResponseShouldCompleteWithin(1, null, 5, TimeUnit.SECONDS);
+		steps.webClientResponseTimeShouldBe(1, null, "total time", "min", CountQuantifier.AT_LEAST, 1, TimeUnit.MICROSECONDS);
+		steps.webClientResponseTimeShouldBe(1, null, "time to first byte", "max", CountQuantifier.AT_MOST, 5, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebClientResponseShouldCompleteWithin_Fails() throws Exception {
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			webService.webServiceResponseIsDelayed("foo", 1, null, DelayDistribution.fixed(100));
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+			steps.webClientRequestIsSentTo(1, 1, "http://localhost:12473/foo", HttpMethod.GET, null);
+
+			steps.webClientResponseShouldCompleteWithin(1, null, 50, TimeUnit.MILLISECONDS);
+		} finally {
+			webService.after();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientResponseTimeShouldBe_NoResponse() throws Exception {
+		steps.webClientResponseTimeShouldBe(1, 2, "total time", "p95", CountQuantifier.AT_MOST, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testWebClientStreamsResponseBodies() throws Exception {
+
+		server.setResponseBody("id,name\n1,foo\n2,bar\n3,baz\n");
+
+		steps.webClientStreamsResponseBodies(7, 6);
+		steps.webClientRequestIsSentTo(1, 2, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientResponseBodySizeShouldBe(1, 2, CountQuantifier.EXACTLY, 26);
+		steps.webClientResponseBodyDigestShouldBe(1, 2, "CRC-32", String.format("%08X", crc32("id,name\n1,foo\n2,bar\n3,baz\n")));
+		steps.webClientResponseBodyLineCountShouldBe(1, 2, CountQuantifier.EXACTLY, 4);
+		steps.webClientResponseBodyPartShouldMatch(1, 2, "start", DataFormat.TEXT, "id,name");
+		steps.webClientResponseBodyPartShouldMatch(1, 2, "end", DataFormat.TEXT, "3,baz\\s");
+	}
+
+	@Test
+	public void testWebClientStreamsResponseBodies_Pooled() throws Exception {
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			webService.webServiceRespondsWithBody("foo", 1, 3, DataFormat.TEXT, "line 1\nline 2\nline 3");
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			steps.webClientUsesConnectionPool(1, null, null);
+			steps.webClientStreamsResponseBodies(null, 6);
+			steps.webClientRequestIsSentTo(1, 3, "http://localhost:12473/foo", HttpMethod.GET, null);
+
+			steps.webClientConnectionPoolShouldHave(CountQuantifier.EXACTLY, 1, "new connections");
+			steps.webClientResponseBodySizeShouldBe(1, 3, CountQuantifier.EXACTLY, 20);
+			steps.webClientResponseBodyLineCountShouldBe(1, 3, CountQuantifier.EXACTLY, 3);
+			steps.webClientResponseBodyPartShouldMatch(1, 3, "end", DataFormat.TEXT, "line \\d");
+		} finally {
+			steps.after();
+			webService.after();
+		}
+	}
+
+	@Test
+	public void testWebClientResponseBodyDigestShouldBe_InMemoryBody() throws Exception {
+
+		server.setResponseBody("hello world");
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientResponseBodyDigestShouldBe(1, null, "SHA-256", "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9");
+		steps.webClientResponseBodyLineCountShouldBe(1, null, CountQuantifier.EXACTLY, 1);
+		steps.webClientResponseBodyPartShouldMatch(1, null, "start", DataFormat.TEXT, "hello world");
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebClientResponseBodyLineCountShouldBe_Fails() throws Exception {
+
+		server.setResponseBody("a\nb");
+		steps.webClientStreamsResponseBodies(null, null);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientResponseBodyLineCountShouldBe(1, null, CountQuantifier.AT_LEAST, 3);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientResponseBodyPartShouldMatch_NotKept() throws Exception {
+
+		server.setResponseBody("hello");
+		steps.webClientStreamsResponseBodies(5, null);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientResponseBodyPartShouldMatch(1, null, "end", DataFormat.TEXT, "hello");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientResponseBodyShouldBe_Streamed() throws Exception {
+
+		server.setResponseBody("hello");
+		steps.webClientStreamsResponseBodies(5, null);
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+
+		steps.webClientResponseBodyShouldBe(1, null, DataFormat.TEXT, "hello");
+	}
+
+	@Test
+	public void testWebClientUsesAsyncEngine() throws Exception {
+
+		elapsedTime.expectMaxMillis(3000);
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		try {
+			for (int i = 1; i <= 200; i++) {
+				webService.webServiceRespondsWithBody("foo", i, null, DataFormat.TEXT, "response " + i);
+				webService.webServiceUsesResponseForRequestsMatching("foo", i, "any", "/foo", "X-Seq", Integer.toString(i), null, null);
+				steps.webClientRequestHeaderIs(i, i, "X-Seq", Integer.toString(i));
+			}
+			webService.webServiceResponseIsDelayed("foo", 1, 200, DelayDistribution.fixed(500));
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			steps.webClientUsesAsyncEngine(null, 10, TimeUnit.SECONDS);
+			steps.webClientRequestIsSentTo(1, 200, "http://localhost:12473/foo", HttpMethod.GET, null);
+
+			steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 200);
+			for (int i = 1; i <= 200; i++) {
+				steps.webClientResponseBodyShouldBe(i, i, DataFormat.TEXT, "response " + i);
+			}
+			steps.webClientShouldHaveHadOutstandingRequests(CountQuantifier.AT_LEAST, 100);
+			steps.webClientResponseTimeShouldBe(1, 200, "time to first byte", "min", CountQuantifier.AT_LEAST, 500, TimeUnit.MILLISECONDS);
+		} finally {
+			steps.after();
+			webService.after();
+		}
+	}
+
+	@Test
+	public void testWebClientUsesAsyncEngine_WithConcurrency() throws Exception {
+
+		steps.webClientUsesAsyncEngine(1, null, null);
+		steps.webClientRequestIsSentTo(1, 3, server.getBaseURL(), HttpMethod.GET, 1);
+
+		steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 3);
+		steps.webClientShouldHaveHadOutstandingRequests(CountQuantifier.EXACTLY, 1);
+		steps.after();
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientUsesAsyncEngine_StreamingNotSupported() throws Exception {
+
+		steps.webClientUsesAsyncEngine(null, null, null);
+		steps.webClientStreamsResponseBodies(null, null);
+		try {
+			steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		} finally {
+			steps.after();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientShouldHaveHadOutstandingRequests_NoAsyncEngine() throws Exception {
+		steps.webClientShouldHaveHadOutstandingRequests(CountQuantifier.AT_LEAST, 1);
+	}
+
+	@Test
+	public void testWebClientSendsTheseRequests() throws Exception {
+
+		List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < 10; i++) {
+			Map<String, String> row = new HashMap<String, String>();
+			row.put("Method", "POST");
+			row.put("URL", server.getBaseURL());
+			row.put("Header X-Foo", "bar");
+			row.put("Body", "hello");
+			row.put("Expected Status", "200");
+			rows.add(row);
+		}
+		steps.webClientSendsTheseRequests(4, rows);
+
+		steps.webClientBulkRunShouldHaveRequestCount("sent", CountQuantifier.EXACTLY, 10);
+		steps.webClientBulkRunShouldHaveRequestCount("passed", CountQuantifier.EXACTLY, 10);
+		steps.webClientBulkRunShouldHaveRequestCount("failed", CountQuantifier.EXACTLY, 0);
+		steps.printWebClientBulkRunStats();
+		assertEquals("bar", server.getRequestHeader("X-Foo"));
+		assertEquals("hello", server.getRequestBodyString());
+		// responses are not kept
+		steps.webClientShouldHaveResponseCount(CountQuantifier.EXACTLY, 0);
+	}
+
+	@Test
+	public void testWebClientSendsRequestsInCsvFile() throws Exception {
+
+		WebServiceStepDefs webService = new WebServiceStepDefs();
+		File file = File.createTempFile("relish-test", ".csv");
+		try {
+			StringBuilder csv = new StringBuilder("Method,URL,Expected Status\r\n");
+			for (int i = 0; i < 50; i++) {
+				csv.append("GET,http://localhost:12473/foo,200\r\n");
+			}
+			csv.append("GET,http://localhost:12473/foo,201\r\n");
+			RelishUtil.writeToFile(file, new ByteArrayInputStream(csv.toString().getBytes(DataFormat.UTF8)));
+
+			webService.webServiceRespondsWithBody("foo", 1, 51, DataFormat.TEXT, "response");
+			webService.webServiceIsRunningAt("foo", 12473, "/foo");
+			steps.webClientSendsRequestsInCsvFile(file.getPath(), 5);
+
+			steps.webClientBulkRunShouldHaveRequestCount("sent", CountQuantifier.EXACTLY, 51);
+			steps.webClientBulkRunShouldHaveRequestCount("passed", CountQuantifier.EXACTLY, 50);
+			steps.webClientBulkRunShouldHaveRequestCount("failed", CountQuantifier.EXACTLY, 1);
+		} finally {
+			webService.after();
+			file.delete();
+		}
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebClientBulkRunShouldHaveRequestCount_Fails() throws Exception {
+
+		server.setResponseStatus(500);
+		Map<String, String> row = new HashMap<String, String>();
+		row.put("Method", "GET");
+		row.put("URL", server.getBaseURL());
+		steps.webClientSendsTheseRequests(null, Collections.singletonList(row));
+
+		steps.webClientBulkRunShouldHaveRequestCount("failed", CountQuantifier.EXACTLY, 0);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientBulkRunShouldHaveRequestCount_NoBulkRun() throws Exception {
+		steps.webClientBulkRunShouldHaveRequestCount("sent", CountQuantifier.AT_LEAST, 1);
+	}
+
+	@Test
+	public void testWebClientRequestBodyIsFile() throws Exception {
+
+		File file = newBodyFile("the file body");
+		try {
+			steps.webClientRequestBodyIsFile(1, 2, file.getPath(), null, null);
+			steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.PUT, null);
+			assertEquals("the file body", server.getRequestBodyString());
+			assertEquals("13", server.getRequestHeader("Content-Length"));
+
+			steps.webClientRequestBodyIsFile(2, null, file.getPath(), " sent chunked", null);
+			steps.webClientRequestIsSentTo(2, 2, server.getBaseURL(), HttpMethod.POST, null);
+			assertEquals("the file body", server.getRequestBodyString());
+			assertEquals("chunked", server.getRequestHeader("Transfer-Encoding"));
+
+			steps.webClientUploadThroughputShouldBe(1, 2, CountQuantifier.AT_LEAST, 1, "bytes");
+			steps.printWebClientResponseTimings(1, 2);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWebClientRequestBodyIsFile_Gzipped() throws Exception {
+
+		File file = newBodyFile("the file body");
+		try {
+			steps.webClientRequestBodyIsFile(1, null, file.getPath(), null, " gzipped");
+			steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.POST, null);
+
+			assertEquals("gzip", server.getRequestHeader("Content-Encoding"));
+			assertEquals("chunked", server.getRequestHeader("Transfer-Encoding"));
+			assertEquals("the file body",
+					new String(RelishUtil.readFromInputStream(new GZIPInputStream(new ByteArrayInputStream(server.getRequestBody()))), DataFormat.UTF8));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWebClientRequestBodyIsFile_ConnectionPool() throws Exception {
+
+		File file = newBodyFile("the file body");
+		try {
+			steps.webClientUsesConnectionPool(null, null, null);
+			steps.webClientRequestBodyIsFile(1, null, file.getPath(), " sent chunked", null);
+			steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.POST, null);
+
+			assertEquals("the file body", server.getRequestBodyString());
+			steps.webClientUploadThroughputShouldBe(1, null, CountQuantifier.AT_LEAST, 0.001, "KB");
+		} finally {
+			steps.after();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWebClientRequestBodyIsFile_LoadTemplate() throws Exception {
+
+		File file = newBodyFile("the file body");
+		try {
+			steps.webClientUsesConnectionPool(null, null, null);
+			steps.webClientRequestBodyIsFile(1, null, file.getPath(), " sent chunked", null);
+			steps.webClientSendsLoad(HttpMethod.POST, server.getBaseURL(), 20, 100, TimeUnit.MILLISECONDS, 1, 1);
+
+			steps.webClientLoadShouldHaveRequestCount("failed", CountQuantifier.EXACTLY, 0);
+			assertEquals("the file body", server.getRequestBodyString());
+			assertEquals("chunked", server.getRequestHeader("Transfer-Encoding"));
+		} finally {
+			steps.after();
+			file.delete();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientRequestBodyIsFile_NoFile() throws Exception {
+		steps.webClientRequestBodyIsFile(1, null, "no/such/file", null, null);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientRequestBodyIsFile_AsyncEngineNotSupported() throws Exception {
+
+		File file = newBodyFile("the file body");
+		try {
+			steps.webClientUsesAsyncEngine(null, null, null);
+			steps.webClientRequestBodyIsFile(1, null, file.getPath(), null, null);
+			steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.POST, null);
+		} finally {
+			steps.after();
+			file.delete();
+		}
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebClientUploadThroughputShouldBe_Fails() throws Exception {
+
+		File file = newBodyFile("the file body");
+		try {
+			steps.webClientRequestBodyIsFile(1, null, file.getPath(), null, null);
+			steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.PUT, null);
+			steps.webClientUploadThroughputShouldBe(1, null, CountQuantifier.AT_MOST, 1, "bytes");
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebClientUploadThroughputShouldBe_NoBodyFile() throws Exception {
+
+		steps.webClientRequestIsSentTo(1, 1, server.getBaseURL(), HttpMethod.GET, null);
+		steps.webClientUploadThroughputShouldBe(1, null, CountQuantifier.AT_LEAST, 1, "bytes");
+	}
+
+	private static File newBodyFile(String text) throws Exception {
+
+		File file = File.createTempFile("relish-test", ".txt");
+		RelishUtil.writeToFile(file, new ByteArrayInputStream(text.getBytes(DataFormat.UTF8)));
+		return file;
+	}
+
+	private static long crc32(String text) throws Exception {
+
+		CRC32 crc = new CRC32();
+		crc.update(text.getBytes("UTF-8"));
+		return crc.getValue();
+	}
 }
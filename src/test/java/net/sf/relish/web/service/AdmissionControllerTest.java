@@ -0,0 +1,255 @@
+package net.sf.relish.web.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import net.sf.relish.web.service.AdmissionController.Decision;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class AdmissionControllerTest {
+
+	AdmissionController admission = new AdmissionController();
+
+	@Test
+	public void testIsEnabled() throws Exception {
+
+		assertFalse(admission.isEnabled());
+		admission.setConcurrencyLimit(1, 0, 0);
+		assertTrue(admission.isEnabled());
+
+		admission = new AdmissionController();
+		admission.setRateLimit(1, 1);
+		assertTrue(admission.isEnabled());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetConcurrencyLimit_ZeroConcurrent() throws Exception {
+		admission.setConcurrencyLimit(0, 0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetConcurrencyLimit_NegativeQueue() throws Exception {
+		admission.setConcurrencyLimit(1, -1, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetRateLimit_ZeroRate() throws Exception {
+		admission.setRateLimit(0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetRateLimit_ZeroBurst() throws Exception {
+		admission.setRateLimit(1, 0);
+	}
+
+	@Test
+	public void testAdmit_ConcurrencyLimit_NoQueue() throws Exception {
+
+		admission.setConcurrencyLimit(2, 0, 0);
+		admission.setRetryAfterSeconds(5);
+
+		HttpServletRequest request1 = newRequest();
+		HttpServletRequest request2 = newRequest();
+		HttpServletRequest request3 = newRequest();
+
+		assertEquals(Decision.ADMITTED, admission.admit(request1));
+		assertEquals(Decision.ADMITTED, admission.admit(request2));
+		assertEquals(Decision.SATURATED, admission.admit(request3));
+		assertEquals(5, admission.getRetryAfterSeconds(Decision.SATURATED));
+		assertEquals(2, admission.getInFlight());
+
+		admission.release(request1);
+		assertEquals(1, admission.getInFlight());
+		assertEquals(Decision.ADMITTED, admission.admit(request3));
+
+		assertEquals(3, admission.getAdmittedCount());
+		assertEquals(0, admission.getQueuedCount());
+		assertEquals(1, admission.getRejectedCount());
+	}
+
+	@Test
+	public void testRelease_NotAdmitted() throws Exception {
+
+		admission.setConcurrencyLimit(1, 0, 0);
+		HttpServletRequest request1 = newRequest();
+		HttpServletRequest request2 = newRequest();
+
+		assertEquals(Decision.ADMITTED, admission.admit(request1));
+		assertEquals(Decision.SATURATED, admission.admit(request2));
+
+		admission.release(request2);
+		assertEquals(1, admission.getInFlight());
+
+		admission.release(request1);
+		admission.release(request1);
+		assertEquals(0, admission.getInFlight());
+	}
+
+	@Test
+	public void testAdmit_Queued_GivenSlot() throws Exception {
+
+		admission.setConcurrencyLimit(1, 1, 2000);
+
+		HttpServletRequest request1 = newRequest();
+		HttpServletRequest request2 = newRequest();
+		HttpServletRequest request3 = newRequest();
+		Continuation continuation2 = getContinuation(request2);
+
+		assertEquals(Decision.ADMITTED, admission.admit(request1));
+		assertEquals(Decision.QUEUED, admission.admit(request2));
+		verify(continuation2).setTimeout(2000);
+		verify(continuation2).suspend();
+		assertEquals(Decision.SATURATED, admission.admit(request3));
+
+		admission.release(request1);
+		verify(continuation2).resume();
+		assertEquals(1, admission.getInFlight());
+
+		// redispatch after resume
+		assertEquals(Decision.ADMITTED, admission.admit(request2));
+		admission.release(request2);
+		assertEquals(0, admission.getInFlight());
+
+		assertEquals(2, admission.getAdmittedCount());
+		assertEquals(1, admission.getQueuedCount());
+		assertEquals(1, admission.getRejectedCount());
+	}
+
+	@Test
+	public void testAdmit_Queued_TimedOut() throws Exception {
+
+		admission.setConcurrencyLimit(1, 1, 0);
+
+		HttpServletRequest request1 = newRequest();
+		HttpServletRequest request2 = newRequest();
+		HttpServletRequest request3 = newRequest();
+		Continuation continuation2 = getContinuation(request2);
+
+		assertEquals(Decision.ADMITTED, admission.admit(request1));
+		assertEquals(Decision.QUEUED, admission.admit(request2));
+		verify(continuation2).setTimeout(30000);
+
+		// redispatch after the timeout expires
+		assertEquals(Decision.SATURATED, admission.admit(request2));
+
+		// the queue has room again and the released slot is not given to the timed out request
+		assertEquals(Decision.QUEUED, admission.admit(request3));
+		admission.release(request1);
+		verify(continuation2, never()).resume();
+		verify(getContinuation(request3)).resume();
+		assertEquals(Decision.ADMITTED, admission.admit(request3));
+
+		assertEquals(2, admission.getAdmittedCount());
+		assertEquals(2, admission.getQueuedCount());
+		assertEquals(1, admission.getRejectedCount());
+	}
+
+	@Test
+	public void testAdmit_RateLimit() throws Exception {
+
+		admission.setRateLimit(1, 3);
+
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+		assertEquals(Decision.RATE_LIMITED, admission.admit(newRequest()));
+		assertEquals(1, admission.getRetryAfterSeconds(Decision.RATE_LIMITED));
+
+		// checking the retry after does not take a token
+		assertEquals(Decision.RATE_LIMITED, admission.admit(newRequest()));
+
+		assertEquals(3, admission.getAdmittedCount());
+		assertEquals(2, admission.getRejectedCount());
+	}
+
+	@Test
+	public void testAdmit_RateLimit_Refills() throws Exception {
+
+		admission.setRateLimit(20, 1);
+
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+		assertEquals(Decision.RATE_LIMITED, admission.admit(newRequest()));
+		Thread.sleep(60);
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+	}
+
+	@Test
+	public void testAdmit_RateLimitCheckedBeforeConcurrency() throws Exception {
+
+		admission.setRateLimit(1, 1);
+		admission.setConcurrencyLimit(1, 1, 0);
+
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+		assertEquals(Decision.RATE_LIMITED, admission.admit(newRequest()));
+		assertEquals(0, admission.getQueuedCount());
+	}
+
+	@Test
+	public void testAdmit_RateAndConcurrencyLimits_SaturatedDoesNotUseToken() throws Exception {
+
+		admission.setRateLimit(1, 2);
+		admission.setConcurrencyLimit(1, 0, 0);
+
+		HttpServletRequest request1 = newRequest();
+		assertEquals(Decision.ADMITTED, admission.admit(request1));
+		assertEquals(Decision.SATURATED, admission.admit(newRequest()));
+		assertEquals(Decision.SATURATED, admission.admit(newRequest()));
+
+		// the second token of the burst is still in the bucket
+		admission.release(request1);
+		assertEquals(Decision.ADMITTED, admission.admit(newRequest()));
+		assertEquals(Decision.RATE_LIMITED, admission.admit(newRequest()));
+		assertEquals(2, admission.getAdmittedCount());
+		assertEquals(3, admission.getRejectedCount());
+	}
+
+	private static Continuation getContinuation(HttpServletRequest request) {
+		return (Continuation) request.getAttribute(Continuation.ATTRIBUTE);
+	}
+
+	private static HttpServletRequest newRequest() {
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put(Continuation.ATTRIBUTE, mock(Continuation.class));
+
+		when(request.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return attributes.get(invocation.getArguments()[0]);
+			}
+		});
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(request).setAttribute(anyString(), any());
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				attributes.remove(invocation.getArguments()[0]);
+				return null;
+			}
+		}).when(request).removeAttribute(anyString());
+
+		return request;
+	}
+}
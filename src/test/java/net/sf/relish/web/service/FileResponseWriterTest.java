@@ -0,0 +1,191 @@
+package net.sf.relish.web.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.relish.RelishUtil;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FileResponseWriterTest {
+
+	File file;
+	byte[] content;
+	Server server;
+	volatile boolean chunked;
+	volatile boolean gzip;
+
+	@Before
+	public void before() throws Exception {
+
+		content = new byte[300000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 251);
+		}
+		file = File.createTempFile("relish-test", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(content);
+		out.close();
+
+		server = new Server(12473);
+		server.setHandler(new AbstractHandler() {
+
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException,
+					ServletException {
+				baseRequest.setHandled(true);
+				response.setStatus(200);
+				FileResponseWriter.write(file, chunked, gzip, request, response);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void after() throws Exception {
+		server.stop();
+		server.join();
+		file.delete();
+	}
+
+	@Test
+	public void testParseRange() throws Exception {
+
+		assertArrayEquals(new long[] { 0, 99 }, FileResponseWriter.parseRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] { 500, 999 }, FileResponseWriter.parseRange("bytes=500-", 1000));
+		assertArrayEquals(new long[] { 900, 999 }, FileResponseWriter.parseRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] { 0, 999 }, FileResponseWriter.parseRange("bytes=-5000", 1000));
+		assertArrayEquals(new long[] { 990, 999 }, FileResponseWriter.parseRange("bytes=990-5000", 1000));
+		assertArrayEquals(new long[] { 3000000000L, 5999999999L }, FileResponseWriter.parseRange("bytes=3000000000-", 6000000000L));
+	}
+
+	@Test
+	public void testParseRange_Ignored() throws Exception {
+
+		assertNull(FileResponseWriter.parseRange("bytes=0-9,20-29", 1000));
+		assertNull(FileResponseWriter.parseRange("bytes=-", 1000));
+		assertNull(FileResponseWriter.parseRange("lines=0-9", 1000));
+		assertNull(FileResponseWriter.parseRange("bytes=9-0", 1000));
+		assertNull(FileResponseWriter.parseRange("bytes=99999999999999999999-", 1000));
+	}
+
+	@Test
+	public void testParseRange_Unsatisfiable() throws Exception {
+
+		assertEquals(0, FileResponseWriter.parseRange("bytes=1000-", 1000).length);
+		assertEquals(0, FileResponseWriter.parseRange("bytes=2000-3000", 1000).length);
+		assertEquals(0, FileResponseWriter.parseRange("bytes=-0", 1000).length);
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+
+		HttpURLConnection conn = newConnection();
+		assertEquals(200, conn.getResponseCode());
+		assertEquals("300000", conn.getHeaderField("Content-Length"));
+		assertEquals("bytes", conn.getHeaderField("Accept-Ranges"));
+		assertArrayEquals(content, read(conn.getInputStream()));
+	}
+
+	@Test
+	public void testWrite_Range() throws Exception {
+
+		HttpURLConnection conn = newConnection();
+		conn.setRequestProperty("Range", "bytes=1000-1999");
+		assertEquals(206, conn.getResponseCode());
+		assertEquals("1000", conn.getHeaderField("Content-Length"));
+		assertEquals("bytes 1000-1999/300000", conn.getHeaderField("Content-Range"));
+		assertArrayEquals(copy(1000, 2000), read(conn.getInputStream()));
+	}
+
+	@Test
+	public void testWrite_Range_Unsatisfiable() throws Exception {
+
+		HttpURLConnection conn = newConnection();
+		conn.setRequestProperty("Range", "bytes=300000-");
+		assertEquals(416, conn.getResponseCode());
+		assertEquals("bytes */300000", conn.getHeaderField("Content-Range"));
+	}
+
+	@Test
+	public void testWrite_Chunked() throws Exception {
+
+		chunked = true;
+		HttpURLConnection conn = newConnection();
+		conn.setRequestProperty("Range", "bytes=-100000");
+		assertEquals(206, conn.getResponseCode());
+		assertEquals("chunked", conn.getHeaderField("Transfer-Encoding"));
+		assertNull(conn.getHeaderField("Content-Length"));
+		assertArrayEquals(copy(200000, 300000), read(conn.getInputStream()));
+	}
+
+	@Test
+	public void testWrite_Gzip() throws Exception {
+
+		gzip = true;
+		HttpURLConnection conn = newConnection();
+		conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		conn.setRequestProperty("Range", "bytes=0-9");
+		assertEquals(200, conn.getResponseCode());
+		assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+		assertArrayEquals(content, read(new GZIPInputStream(conn.getInputStream())));
+	}
+
+	@Test
+	public void testWrite_Gzip_NotAccepted() throws Exception {
+
+		gzip = true;
+		HttpURLConnection conn = newConnection();
+		conn.setRequestProperty("Accept-Encoding", "identity");
+		assertEquals(200, conn.getResponseCode());
+		assertNull(conn.getHeaderField("Content-Encoding"));
+		assertArrayEquals(content, read(conn.getInputStream()));
+	}
+
+	@Test
+	public void testWrite_Head() throws Exception {
+
+		HttpURLConnection conn = newConnection();
+		conn.setRequestMethod("HEAD");
+		assertEquals(200, conn.getResponseCode());
+		assertEquals("300000", conn.getHeaderField("Content-Length"));
+	}
+
+	private HttpURLConnection newConnection() throws Exception {
+		return (HttpURLConnection) new URL("http://localhost:12473/foo").openConnection();
+	}
+
+	private byte[] copy(int from, int to) {
+
+		byte[] bytes = new byte[to - from];
+		System.arraycopy(content, from, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	private byte[] read(InputStream in) throws Exception {
+		try {
+			return RelishUtil.readFromInputStream(in);
+		} finally {
+			in.close();
+		}
+	}
+}
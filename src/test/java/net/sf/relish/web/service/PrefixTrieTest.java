@@ -0,0 +1,82 @@
+package net.sf.relish.web.service;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PrefixTrieTest {
+
+	Map<String, String> valuesByPrefix = new HashMap<String, String>();
+
+	@Test
+	public void testEmpty() throws Exception {
+
+		PrefixTrie<String> trie = PrefixTrie.empty();
+		assertNull(trie.findLongestPrefix(""));
+		assertNull(trie.findLongestPrefix("/foo"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuild_NullMap() throws Exception {
+
+		PrefixTrie.build(null);
+	}
+
+	@Test
+	public void testFindLongestPrefix() throws Exception {
+
+		valuesByPrefix.put("/foo", "foo");
+		valuesByPrefix.put("/foo/bar", "bar");
+		valuesByPrefix.put("/abc", "abc");
+		PrefixTrie<String> trie = PrefixTrie.build(valuesByPrefix);
+
+		assertEquals("foo", trie.findLongestPrefix("/foo"));
+		assertEquals("foo", trie.findLongestPrefix("/foo/"));
+		assertEquals("foo", trie.findLongestPrefix("/foo/ba"));
+		assertEquals("bar", trie.findLongestPrefix("/foo/bar"));
+		assertEquals("bar", trie.findLongestPrefix("/foo/bar/123"));
+		assertEquals("foo", trie.findLongestPrefix("/foobar"));
+		assertEquals("abc", trie.findLongestPrefix("/abc?x=1"));
+		assertNull(trie.findLongestPrefix("/fo"));
+		assertNull(trie.findLongestPrefix("/xyz"));
+		assertNull(trie.findLongestPrefix(""));
+	}
+
+	@Test
+	public void testFindLongestPrefix_EmptyPrefix() throws Exception {
+
+		valuesByPrefix.put("", "root");
+		valuesByPrefix.put("/foo", "foo");
+		PrefixTrie<String> trie = PrefixTrie.build(valuesByPrefix);
+
+		assertEquals("root", trie.findLongestPrefix(""));
+		assertEquals("root", trie.findLongestPrefix("/xyz"));
+		assertEquals("foo", trie.findLongestPrefix("/foo/bar"));
+	}
+
+	@Test
+	public void testBuild_NullValuesIgnored() throws Exception {
+
+		valuesByPrefix.put("/foo", "foo");
+		valuesByPrefix.put("/foo/bar", null);
+		PrefixTrie<String> trie = PrefixTrie.build(valuesByPrefix);
+
+		assertEquals("foo", trie.findLongestPrefix("/foo/bar"));
+	}
+
+	@Test
+	public void testBuild_ChangesToMapNotVisible() throws Exception {
+
+		valuesByPrefix.put("/foo", "foo");
+		PrefixTrie<String> trie = PrefixTrie.build(valuesByPrefix);
+		valuesByPrefix.put("/foo/bar", "bar");
+
+		assertEquals("foo", trie.findLongestPrefix("/foo/bar"));
+	}
+}
@@ -0,0 +1,108 @@
+package net.sf.relish.web.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.relish.RelishException;
+import net.sf.relish.web.HttpResponseData;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResponsePolicyTest {
+
+	HttpResponseData response1 = new HttpResponseData(201);
+	HttpResponseData response2 = new HttpResponseData(202);
+	HttpResponseData response3 = new HttpResponseData(203);
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCyclic_Empty() throws Exception {
+
+		ResponsePolicy.cyclic(Collections.<HttpResponseData> emptyList());
+	}
+
+	@Test
+	public void testCyclic_SingleResponse() throws Exception {
+
+		ResponsePolicy policy = ResponsePolicy.cyclic(Arrays.asList(response1));
+		for (int i = 1; i < 100; i++) {
+			assertSame(response1, policy.selectResponse(i));
+		}
+		assertSame(response1, policy.selectResponse(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testCyclic() throws Exception {
+
+		ResponsePolicy policy = ResponsePolicy.cyclic(Arrays.asList(response1, response2, response3));
+		assertSame(response1, policy.selectResponse(1));
+		assertSame(response2, policy.selectResponse(2));
+		assertSame(response3, policy.selectResponse(3));
+		assertSame(response1, policy.selectResponse(4));
+		assertSame(response3, policy.selectResponse(1000002));
+	}
+
+	@Test
+	public void testStatusCodeMix() throws Exception {
+
+		ResponsePolicy policy = ResponsePolicy.statusCodeMix("200:90, 500:8, 503 : 2, 404:0");
+
+		Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		HttpResponseData response200 = null;
+		for (int i = 1; i <= 100000; i++) {
+			HttpResponseData response = policy.selectResponse(i);
+			Integer count = counts.get(response.getStatusCode());
+			counts.put(response.getStatusCode(), count == null ? 1 : count + 1);
+			if (response.getStatusCode() == 200) {
+				if (response200 != null) {
+					assertSame(response200, response);
+				}
+				response200 = response;
+			}
+		}
+
+		assertEquals(3, counts.size());
+		assertEquals(90000, counts.get(200), 1000);
+		assertEquals(8000, counts.get(500), 500);
+		assertEquals(2000, counts.get(503), 300);
+	}
+
+	@Test
+	public void testStatusCodeMix_Repeatable() throws Exception {
+
+		ResponsePolicy policy = ResponsePolicy.statusCodeMix("200:1, 500:1");
+		for (int i = 1; i <= 100; i++) {
+			assertSame(policy.selectResponse(i), policy.selectResponse(i));
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testStatusCodeMix_InvalidEntry() throws Exception {
+
+		ResponsePolicy.statusCodeMix("200:90, 500");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testStatusCodeMix_InvalidStatusCode() throws Exception {
+
+		ResponsePolicy.statusCodeMix("2000:90");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testStatusCodeMix_NoWeights() throws Exception {
+
+		ResponsePolicy.statusCodeMix("200:0");
+	}
+
+	@Test(expected = RelishException.class)
+	public void testStatusCodeMix_TooFineGrained() throws Exception {
+
+		ResponsePolicy.statusCodeMix("200:99999, 500:2");
+	}
+}
@@ -0,0 +1,143 @@
+package net.sf.relish.web.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.relish.DataFormat;
+import net.sf.relish.web.HttpMethod;
+import net.sf.relish.web.HttpResponseData;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResponseRulesTest {
+
+	@Mock HttpServletRequest request;
+	ResponseRules rules = new ResponseRules();
+	HttpResponseData response1 = new HttpResponseData(201);
+	HttpResponseData response2 = new HttpResponseData(202);
+	HttpResponseData response3 = new HttpResponseData(203);
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+	}
+
+	@Test
+	public void testSelectResponse_NoRules() throws Exception {
+
+		assertTrue(rules.isEmpty());
+		assertNull(rules.selectResponse(request, HttpMethod.GET, "/foo", null));
+	}
+
+	@Test
+	public void testWithRule_DoesNotChangeOriginal() throws Exception {
+
+		ResponseRules newRules = rules.withRule(HttpMethod.GET, "/foo", null, null, null, null, response1);
+
+		assertTrue(rules.isEmpty());
+		assertFalse(newRules.isEmpty());
+		assertNull(rules.selectResponse(request, HttpMethod.GET, "/foo", null));
+		assertSame(response1, newRules.selectResponse(request, HttpMethod.GET, "/foo", null));
+	}
+
+	@Test
+	public void testSelectResponse_Method() throws Exception {
+
+		rules = rules.withRule(HttpMethod.GET, "/foo", null, null, null, null, response1);
+		rules = rules.withRule(HttpMethod.POST, "/foo", null, null, null, null, response2);
+		rules = rules.withRule(null, "/foo", null, null, null, null, response3);
+
+		assertSame(response1, rules.selectResponse(request, HttpMethod.GET, "/foo", null));
+		assertSame(response2, rules.selectResponse(request, HttpMethod.POST, "/foo", null));
+		assertSame(response3, rules.selectResponse(request, HttpMethod.DELETE, "/foo", null));
+		assertNull(rules.selectResponse(request, HttpMethod.GET, "/bar", null));
+	}
+
+	@Test
+	public void testSelectResponse_PathPattern() throws Exception {
+
+		rules = rules.withRule(HttpMethod.GET, "/orders/*", null, null, null, null, response1);
+		rules = rules.withRule(HttpMethod.GET, "/orders/**", null, null, null, null, response2);
+		rules = rules.withRule(HttpMethod.GET, "/a.b", null, null, null, null, response3);
+
+		assertSame(response1, rules.selectResponse(request, HttpMethod.GET, "/orders/123", null));
+		assertSame(response2, rules.selectResponse(request, HttpMethod.GET, "/orders/123/items", null));
+		assertSame(response3, rules.selectResponse(request, HttpMethod.GET, "/a.b", null));
+		assertNull(rules.selectResponse(request, HttpMethod.GET, "/axb", null));
+		assertNull(rules.selectResponse(request, HttpMethod.GET, "/order", null));
+	}
+
+	@Test
+	public void testSelectResponse_FirstRuleAddedWins() throws Exception {
+
+		rules = rules.withRule(null, "/orders/**", null, null, null, null, response1);
+		rules = rules.withRule(HttpMethod.GET, "/orders/1", null, null, null, null, response2);
+		rules = rules.withRule(HttpMethod.GET, "/orders/*", null, null, null, null, response3);
+
+		assertSame(response1, rules.selectResponse(request, HttpMethod.GET, "/orders/1", null));
+
+		rules = new ResponseRules().withRule(HttpMethod.GET, "/orders/*", null, null, null, null, response3);
+		rules = rules.withRule(HttpMethod.GET, "/orders/1", null, null, null, null, response2);
+
+		assertSame(response3, rules.selectResponse(request, HttpMethod.GET, "/orders/1", null));
+	}
+
+	@Test
+	public void testSelectResponse_Header() throws Exception {
+
+		when(request.getHeader("X-Tenant")).thenReturn("acme-1");
+		rules = rules.withRule(HttpMethod.GET, "/foo", "X-Tenant", "other.*", null, null, response1);
+		rules = rules.withRule(HttpMethod.GET, "/foo", "X-Tenant", "acme-\\d", null, null, response2);
+		rules = rules.withRule(HttpMethod.GET, "/foo", "X-Missing", ".*", null, null, response3);
+
+		assertSame(response2, rules.selectResponse(request, HttpMethod.GET, "/foo", null));
+	}
+
+	@Test
+	public void testSelectResponse_JsonField() throws Exception {
+
+		rules = rules.withRule(HttpMethod.POST, "/foo", null, null, "order.items.1.sku", "B2", response1);
+		rules = rules.withRule(HttpMethod.POST, "/foo", null, null, "order.id", "17", response2);
+		rules = rules.withRule(HttpMethod.POST, "/foo", null, null, "order", "x", response3);
+
+		assertSame(response1, rules.selectResponse(request, HttpMethod.POST, "/foo", json("{'order':{'id':17,'items':[{'sku':'A1'},{'sku':'B2'}]}}")));
+		assertSame(response2, rules.selectResponse(request, HttpMethod.POST, "/foo", json("{'order':{'id':17,'items':[]}}")));
+		assertNull(rules.selectResponse(request, HttpMethod.POST, "/foo", json("{'order':{'id':18}}")));
+		assertNull(rules.selectResponse(request, HttpMethod.POST, "/foo", "not json".getBytes(DataFormat.UTF8)));
+		assertNull(rules.selectResponse(request, HttpMethod.POST, "/foo", null));
+	}
+
+	@Test
+	public void testChecksJsonBody() throws Exception {
+
+		assertFalse(rules.checksJsonBody());
+		rules = rules.withRule(HttpMethod.POST, "/foo", "X-Foo", "bar", null, null, response1);
+		assertFalse(rules.checksJsonBody());
+		rules = rules.withRule(HttpMethod.POST, "/foo", null, null, "order.id", "17", response2);
+		assertTrue(rules.checksJsonBody());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWithRule_EmptyPath() throws Exception {
+
+		rules.withRule(HttpMethod.GET, "", null, null, null, null, response1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWithRule_NullResponse() throws Exception {
+
+		rules.withRule(HttpMethod.GET, "/foo", null, null, null, null, null);
+	}
+
+	private byte[] json(String json) {
+		return json.replace('\'', '"').getBytes(DataFormat.UTF8);
+	}
+}
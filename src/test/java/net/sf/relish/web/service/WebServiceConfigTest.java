@@ -6,9 +6,19 @@ import static org.mockito.Mockito.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -23,6 +33,9 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import net.sf.relish.BodyCapture;
+import net.sf.relish.BodySummary;
+import net.sf.relish.DataFormat;
 import net.sf.relish.RelishException;
 import net.sf.relish.web.HttpMethod;
 import net.sf.relish.web.HttpRequestData;
@@ -145,6 +158,165 @@ public class WebServiceConfigTest {
 		assertEquals("http://www.foo.com/abc", data.getUrl());
 	}
 
+	@Test
+	public void testHandleRequest_BodyCapture() throws Exception {
+
+		when(request.getInputStream()).thenReturn(new TestInputStream());
+		config.enable("/foo");
+		config.setBodyCapture(new BodyCapture(2, true));
+
+		config.handleRequest(request);
+
+		HttpRequestData data = config.getRequestData(1);
+		assertNull(data.getBody());
+		BodySummary summary = data.getBodySummary();
+		assertEquals(3, summary.getSize());
+		assertEquals("039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81", summary.getSha256());
+		assertEquals("55bc801d", summary.getCrc32());
+		assertArrayEquals(new byte[] { 1, 2 }, summary.getHead());
+		assertTrue(summary.getFile().isFile());
+
+		config.deleteBodyFiles();
+		assertFalse(summary.getFile().exists());
+	}
+
+	@Test
+	public void testHandleRequest_BodyCapture_NoInputStream() throws Exception {
+
+		config.enable("/foo");
+		config.setBodyCapture(new BodyCapture(2, false));
+
+		config.handleRequest(request);
+
+		assertEquals(0, config.getRequestData(1).getBodySummary().getSize());
+	}
+
+	@Test
+	public void testHandleRequest_ResponsePolicy() throws Exception {
+
+		config.enable("/foo");
+		HttpResponseData responseData1 = config.getResponseData(1);
+		HttpResponseData responseData2 = config.getResponseData(2);
+		HttpResponseData defaultResponseData = new HttpResponseData(202);
+		config.setResponsePolicy(ResponsePolicy.cyclic(Arrays.asList(defaultResponseData)));
+
+		assertSame(responseData1, config.handleRequest(request));
+		assertSame(responseData2, config.handleRequest(request));
+		assertSame(defaultResponseData, config.handleRequest(request));
+		assertSame(defaultResponseData, config.handleRequest(request));
+		assertEquals(4, config.getRequestCount());
+
+		config.setResponsePolicy(null);
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, config.handleRequest(request).getStatusCode());
+	}
+
+	@Test
+	public void testHandleRequest_ResponsePolicy_RequestsNotKept() throws Exception {
+
+		TestInputStream in = new TestInputStream();
+		when(request.getInputStream()).thenReturn(in);
+		config.enable("/foo");
+		config.handleRequest(request);
+
+		HttpResponseData defaultResponseData = new HttpResponseData(202);
+		config.setResponsePolicy(ResponsePolicy.cyclic(Arrays.asList(defaultResponseData)));
+		for (int i = 0; i < 3; i++) {
+			in.in.reset();
+			assertSame(defaultResponseData, config.handleRequest(request));
+			assertEquals(0, in.in.available());
+		}
+
+		assertEquals(4, config.getRequestCount());
+		assertEquals(12, config.getMetrics().getBytesIn());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, config.getRequestData(1).getBody());
+		try {
+			config.getRequestData(2);
+			fail();
+		} catch (RelishException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("response policy"));
+		}
+
+		config.setResponsePolicy(null);
+		in.in.reset();
+		config.handleRequest(request);
+		assertEquals(HttpMethod.GET, config.getRequestData(5).getRequestMethod());
+	}
+
+	@Test
+	public void testHandleRequest_ResponsePolicy_BodyOnlyReadForJsonRules() throws Exception {
+
+		TestInputStream in = new TestInputStream();
+		in.in = new ByteArrayInputStream("{\"id\":17}".getBytes(DataFormat.UTF8));
+		when(request.getInputStream()).thenReturn(in);
+		when(request.getMethod()).thenReturn("POST");
+		when(request.getRequestURI()).thenReturn("/foo/orders");
+		config.enable("/foo");
+		HttpResponseData defaultResponseData = new HttpResponseData(202);
+		config.setResponsePolicy(ResponsePolicy.cyclic(Arrays.asList(defaultResponseData)));
+		HttpResponseData headerRuleResponseData = config.getResponseData(5);
+		config.addResponseRule(HttpMethod.POST, "/foo/orders", "X-Foo", "bar", null, null, 5);
+
+		// no rule checks the body so it is skipped
+		assertSame(defaultResponseData, config.handleRequest(request));
+		assertEquals(0, in.in.available());
+		when(request.getHeader("X-Foo")).thenReturn("bar");
+		in.in.reset();
+		assertSame(headerRuleResponseData, config.handleRequest(request));
+		assertEquals(0, in.in.available());
+
+		when(request.getHeader("X-Foo")).thenReturn(null);
+		HttpResponseData jsonRuleResponseData = config.getResponseData(6);
+		config.addResponseRule(HttpMethod.POST, "/foo/orders", null, null, "id", "17", 6);
+		in.in.reset();
+		assertSame(jsonRuleResponseData, config.handleRequest(request));
+
+		// captured bodies do not match JSON rules so they are skipped too
+		config.setBodyCapture(new BodyCapture(2, false));
+		in.in.reset();
+		assertSame(defaultResponseData, config.handleRequest(request));
+		assertEquals(0, in.in.available());
+		assertEquals(4, config.getRequestCount());
+	}
+
+	@Test
+	public void testHandleRequest_ResponseRules() throws Exception {
+
+		when(request.getRequestURI()).thenReturn("/foo/orders/1");
+		config.enable("/foo");
+		HttpResponseData responseData1 = config.getResponseData(1);
+		HttpResponseData ruleResponseData = config.getResponseData(5);
+		config.addResponseRule(HttpMethod.GET, "/foo/orders/*", null, null, null, null, 5);
+
+		assertSame(ruleResponseData, config.handleRequest(request));
+		assertSame(ruleResponseData, config.handleRequest(request));
+		assertEquals(2, config.getRequestCount());
+
+		when(request.getRequestURI()).thenReturn("/foo/customers");
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, config.handleRequest(request).getStatusCode());
+		assertNotSame(responseData1, config.handleRequest(request));
+	}
+
+	@Test
+	public void testHandleRequest_ResponseRules_RuleResponseNotUsedForItsIndex() throws Exception {
+
+		when(request.getRequestURI()).thenReturn("/foo/customers");
+		config.enable("/foo");
+		HttpResponseData ruleResponseData = config.getResponseData(2);
+		ruleResponseData.setStatusCode(202);
+		config.addResponseRule(HttpMethod.GET, "/foo/orders/*", null, null, null, null, 2);
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, config.handleRequest(request).getStatusCode());
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, config.handleRequest(request).getStatusCode());
+
+		HttpResponseData defaultResponseData = new HttpResponseData(200);
+		config.setResponsePolicy(ResponsePolicy.cyclic(Arrays.asList(defaultResponseData)));
+		config.addResponseRule(HttpMethod.GET, "/foo/invoices/*", null, null, null, null, 3);
+		assertSame(defaultResponseData, config.handleRequest(request));
+
+		when(request.getRequestURI()).thenReturn("/foo/orders/1");
+		assertSame(ruleResponseData, config.handleRequest(request));
+	}
+
 	@Test
 	public void testGetTarget() throws Exception {
 
@@ -172,15 +344,125 @@ public class WebServiceConfigTest {
 	}
 
 	@Test
-	public void assertAllPublicMethodsSynchronized() {
+	public void testHandleRequest_SlowBodyDoesNotBlockOtherRequests() throws Exception {
+
+		final CountDownLatch slowBodyStarted = new CountDownLatch(1);
+		final CountDownLatch slowBodyRelease = new CountDownLatch(1);
+		final HttpServletRequest slowRequest = newRequest("http://www.foo.com/slow");
+		when(slowRequest.getInputStream()).thenReturn(new TestInputStream() {
 
-		for (Method method : WebServiceConfig.class.getMethods()) {
-			if (method.getDeclaringClass() != Object.class) {
-				assertTrue("Method is not synchronized: " + method, Modifier.isSynchronized(method.getModifiers()));
+			@Override
+			public int read() throws IOException {
+				slowBodyStarted.countDown();
+				try {
+					slowBodyRelease.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return super.read();
 			}
+		});
+
+		config.enable("/foo");
+		config.getResponseData(1).setStatusCode(201);
+		config.getResponseData(2).setStatusCode(202);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<HttpResponseData> slowResponse = executor.submit(new Callable<HttpResponseData>() {
+
+				@Override
+				public HttpResponseData call() throws Exception {
+					return config.handleRequest(slowRequest);
+				}
+			});
+			assertTrue(slowBodyStarted.await(1, TimeUnit.SECONDS));
+
+			// the fast request completes first so it gets the first index
+			assertEquals(201, config.handleRequest(request).getStatusCode());
+			assertEquals(1, config.getRequestCount());
+
+			slowBodyRelease.countDown();
+			assertEquals(202, slowResponse.get(1, TimeUnit.SECONDS).getStatusCode());
+			assertEquals(2, config.getRequestCount());
+			assertEquals("http://www.foo.com/slow", config.getRequestData(2).getUrl());
+		} finally {
+			slowBodyRelease.countDown();
+			executor.shutdownNow();
 		}
 	}
 
+	@Test
+	public void testHandleRequest_Concurrent() throws Exception {
+
+		config.enable("/foo");
+		for (int i = 1; i <= 800; i++) {
+			config.getResponseData(i).setStatusCode(200);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<HttpResponseData>> futures = new ArrayList<Future<HttpResponseData>>();
+			for (int i = 0; i < 800; i++) {
+				final HttpServletRequest concurrentRequest = newRequest("http://www.foo.com/" + i);
+				futures.add(executor.submit(new Callable<HttpResponseData>() {
+
+					@Override
+					public HttpResponseData call() throws Exception {
+						return config.handleRequest(concurrentRequest);
+					}
+				}));
+			}
+
+			Set<HttpResponseData> responses = Collections.newSetFromMap(new IdentityHashMap<HttpResponseData, Boolean>());
+			for (Future<HttpResponseData> future : futures) {
+				responses.add(future.get(5, TimeUnit.SECONDS));
+			}
+
+			assertEquals(800, responses.size());
+			assertEquals(800, config.getRequestCount());
+			for (int i = 1; i <= 800; i++) {
+				assertNotNull(config.getRequestData(i));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testGetResponseData_SameInstanceForIndex() throws Exception {
+
+		assertSame(config.getResponseData(2), config.getResponseData(2));
+		assertNotSame(config.getResponseData(1), config.getResponseData(2));
+	}
+
+	@Test
+	public void testAddInstances() throws Exception {
+
+		assertFalse(config.isClustered());
+		assertTrue(config.getInstancePorts().isEmpty());
+		assertNull(config.getInstanceMetrics(12473));
+
+		config.addInstances(Arrays.asList(12475, 12473, 12474));
+		WebServiceMetrics metrics = config.getInstanceMetrics(12473);
+		config.addInstances(Arrays.asList(12473));
+
+		assertTrue(config.isClustered());
+		assertEquals(Arrays.asList(12473, 12474, 12475), config.getInstancePorts());
+		assertSame(metrics, config.getInstanceMetrics(12473));
+		assertNotSame(metrics, config.getInstanceMetrics(12474));
+		assertNotSame(config.getMetrics(), metrics);
+	}
+
+	private HttpServletRequest newRequest(String url) {
+
+		HttpServletRequest newRequest = mock(HttpServletRequest.class);
+		when(newRequest.getHeaderNames()).thenReturn(new Hashtable<String, String>().keys());
+		when(newRequest.getMethod()).thenReturn("POST");
+		when(newRequest.getRequestURL()).thenReturn(new StringBuffer(url));
+		return newRequest;
+	}
+
 	private static class TestInputStream extends ServletInputStream {
 
 		ByteArrayInputStream in = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
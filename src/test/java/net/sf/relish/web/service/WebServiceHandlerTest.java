@@ -1,11 +1,13 @@
 package net.sf.relish.web.service;
 
+import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
@@ -15,11 +17,13 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.server.Request;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -45,6 +49,7 @@ public class WebServiceHandlerTest {
 		MockitoAnnotations.initMocks(this);
 		config.enable("/foo");
 		webServiceConfigByName.put("/foo", config);
+		handler.rebuildRoutes();
 
 		when(request.getHeaderNames()).thenReturn(headers.keys());
 		when(request.getMethod()).thenReturn("GET");
@@ -65,7 +70,9 @@ public class WebServiceHandlerTest {
 
 		handler.handle("/abc", baseRequest, request, response);
 		verify(response).setStatus(404);
-		verifyZeroInteractions(baseRequest, request);
+		verify(request).getAttribute(contains("webServiceConfig"));
+		verifyZeroInteractions(baseRequest);
+		verifyNoMoreInteractions(request);
 		verifyNoMoreInteractions(response);
 	}
 
@@ -77,8 +84,8 @@ public class WebServiceHandlerTest {
 		handler.handle("/foo", baseRequest, request, response);
 		verify(response).setStatus(404);
 		verify(baseRequest).setHandled(true);
-		verifyZeroInteractions(request);
-		verifyNoMoreInteractions(response, baseRequest);
+		verify(request, times(3)).getAttribute(anyString());
+		verifyNoMoreInteractions(request, response, baseRequest);
 	}
 
 	@Test
@@ -118,6 +125,296 @@ public class WebServiceHandlerTest {
 		verifyNoMoreInteractions(response, baseRequest);
 	}
 
+	@Test
+	public void testHandle_LongestPrefixWins() throws Exception {
+
+		WebServiceConfig barConfig = new WebServiceConfig();
+		barConfig.enable("/foo/bar");
+		barConfig.getResponseData(1).setStatusCode(201);
+		config.getResponseData(1).setStatusCode(202);
+		webServiceConfigByName.put("/foo/bar", barConfig);
+		handler.rebuildRoutes();
+
+		handler.handle("/foo/bar/abc", baseRequest, request, response);
+		verify(response).setStatus(201);
+
+		handler.handle("/foo/baz", baseRequest, request, response);
+		verify(response).setStatus(202);
+
+		assertEquals(1, barConfig.getRequestCount());
+		assertEquals(1, config.getRequestCount());
+	}
+
+	@Test
+	public void testHandle_RoutesNotChangedUntilRebuilt() throws Exception {
+
+		WebServiceConfig barConfig = new WebServiceConfig();
+		barConfig.enable("/bar");
+		webServiceConfigByName.put("/bar", barConfig);
+
+		handler.handle("/bar", baseRequest, request, response);
+		verify(response).setStatus(404);
+		verifyZeroInteractions(baseRequest);
+
+		handler.rebuildRoutes();
+		handler.handle("/bar", baseRequest, request, response);
+		verify(baseRequest).setHandled(true);
+		verify(response).setStatus(503);
+	}
+
+	@Test
+	public void testRebuildRoutes_ConfigNotStartedIsNotRouted() throws Exception {
+
+		webServiceConfigByName.put("other", new WebServiceConfig());
+		handler.rebuildRoutes();
+
+		handler.handle("/abc", baseRequest, request, response);
+		verify(response).setStatus(404);
+		verify(request).getAttribute(contains("webServiceConfig"));
+		verifyZeroInteractions(baseRequest);
+		verifyNoMoreInteractions(request);
+	}
+
+	@Test
+	public void testHandle_Metrics() throws Exception {
+
+		when(request.getInputStream()).thenReturn(new TestInputStream());
+		config.getResponseData(1).setBody(new byte[] { 4, 5, 6, 7 });
+		config.getResponseData(2).setBody(new byte[] { 8 });
+
+		handler.handle("/foo", baseRequest, request, response);
+		handler.handle("/foo", baseRequest, request, response);
+
+		WebServiceMetrics metrics = config.getMetrics();
+		assertEquals(2, metrics.getRequestCount());
+		assertEquals(0, metrics.getInFlight());
+		assertEquals(1, metrics.getPeakConcurrency());
+		assertEquals(3, metrics.getBytesIn());
+		assertEquals(5, metrics.getBytesOut());
+		assertEquals(2, metrics.getResponseNanos().getCount());
+		assertEquals(1, metrics.getInterArrivalNanos().getCount());
+	}
+
+	@Test
+	public void testHandle_Metrics_HandleRequestFails() throws Exception {
+
+		when(request.getMethod()).thenReturn("NOT_A_METHOD");
+
+		try {
+			handler.handle("/foo", baseRequest, request, response);
+			fail("Expected exception");
+		} catch (IllegalArgumentException e) {
+		}
+
+		assertEquals(1, config.getMetrics().getRequestCount());
+		assertEquals(0, config.getMetrics().getInFlight());
+	}
+
+	@Test
+	public void testHandle_Delayed() throws Exception {
+
+		Continuation continuation = mock(Continuation.class);
+		when(request.getAttribute(Continuation.ATTRIBUTE)).thenReturn(continuation);
+
+		HttpResponseData responseData = config.getResponseData(1);
+		responseData.setStatusCode(201);
+		responseData.setDelayMillis(250);
+
+		handler.handle("/foo", baseRequest, request, response);
+
+		ArgumentCaptor<Object> attributeCaptor = ArgumentCaptor.forClass(Object.class);
+		verify(request).setAttribute(contains("delayedResponse"), attributeCaptor.capture());
+		assertSame(responseData, attributeCaptor.getValue());
+		ArgumentCaptor<Object> arrivalCaptor = ArgumentCaptor.forClass(Object.class);
+		verify(request).setAttribute(contains("arrivalNanos"), arrivalCaptor.capture());
+		verify(continuation).setTimeout(250);
+		verify(continuation).suspend();
+		verify(baseRequest).setHandled(true);
+		verifyZeroInteractions(response);
+		assertEquals(1, config.getRequestCount());
+		assertEquals(1, config.getMetrics().getInFlight());
+
+		// redispatch after the delay expires
+		when(request.getAttribute(contains("delayedResponse"))).thenReturn(responseData);
+		when(request.getAttribute(contains("arrivalNanos"))).thenReturn(arrivalCaptor.getValue());
+		handler.handle("/foo", baseRequest, request, response);
+
+		verify(response).setStatus(201);
+		verifyNoMoreInteractions(continuation);
+		assertEquals(1, config.getRequestCount());
+		assertEquals(0, config.getMetrics().getInFlight());
+		assertEquals(1, config.getMetrics().getResponseNanos().getCount());
+	}
+
+	@Test
+	public void testHandle_Delayed_RoutesRebuiltWhileDelayed() throws Exception {
+
+		mockAttributes(request);
+		when(request.getAttribute(Continuation.ATTRIBUTE)).thenReturn(mock(Continuation.class));
+		config.getAdmissionController().setConcurrencyLimit(1, 0, 0);
+		HttpResponseData responseData = config.getResponseData(1);
+		responseData.setStatusCode(201);
+		responseData.setDelayMillis(250);
+
+		handler.handle("/foo", baseRequest, request, response);
+		assertEquals(1, config.getAdmissionController().getInFlight());
+		assertEquals(1, config.getMetrics().getInFlight());
+
+		// a web service with a longer matching target starts while the request is delayed
+		WebServiceConfig barConfig = new WebServiceConfig();
+		barConfig.enable("/foo/bar");
+		webServiceConfigByName.put("/foo/bar", barConfig);
+		handler.rebuildRoutes();
+
+		handler.handle("/foo/bar", baseRequest, request, response);
+		verify(response).setStatus(201);
+		assertEquals(0, config.getAdmissionController().getInFlight());
+		assertEquals(0, config.getMetrics().getInFlight());
+		assertEquals(1, config.getMetrics().getResponseNanos().getCount());
+		assertEquals(0, barConfig.getMetrics().getRequestCount());
+	}
+
+	@Test
+	public void testHandle_InstanceMetrics() throws Exception {
+
+		config.addInstances(Arrays.asList(12473, 12474));
+		config.getResponseData(1).setBody(new byte[] { 4, 5 });
+
+		when(request.getLocalPort()).thenReturn(12474);
+		handler.handle("/foo", baseRequest, request, response);
+		handler.handle("/foo", baseRequest, request, response);
+
+		// a port that is not an instance is only counted for the whole web service
+		when(request.getLocalPort()).thenReturn(8080);
+		handler.handle("/foo", baseRequest, request, response);
+
+		assertEquals(3, config.getMetrics().getRequestCount());
+		assertEquals(0, config.getInstanceMetrics(12473).getRequestCount());
+		WebServiceMetrics instanceMetrics = config.getInstanceMetrics(12474);
+		assertEquals(2, instanceMetrics.getRequestCount());
+		assertEquals(2, instanceMetrics.getResponseNanos().getCount());
+		assertEquals(2, instanceMetrics.getBytesOut());
+		assertEquals(0, instanceMetrics.getInFlight());
+	}
+
+	@Test
+	public void testHandle_Admission_RateLimited() throws Exception {
+
+		config.getAdmissionController().setRateLimit(1, 1);
+		config.getResponseData(1).setStatusCode(200);
+
+		handler.handle("/foo", baseRequest, request, response);
+		verify(response).setStatus(200);
+
+		handler.handle("/foo", baseRequest, request, response);
+		verify(response).setStatus(429);
+		verify(response).setHeader("Retry-After", "1");
+
+		assertEquals(1, config.getRequestCount());
+		assertEquals(1, config.getAdmissionController().getAdmittedCount());
+		assertEquals(1, config.getAdmissionController().getRejectedCount());
+		assertEquals(2, config.getMetrics().getRequestCount());
+		assertEquals(0, config.getMetrics().getInFlight());
+	}
+
+	@Test
+	public void testHandle_Admission_Saturated() throws Exception {
+
+		mockAttributes(request);
+		when(request.getAttribute(Continuation.ATTRIBUTE)).thenReturn(mock(Continuation.class));
+		config.getAdmissionController().setConcurrencyLimit(1, 0, 0);
+		config.getAdmissionController().setRetryAfterSeconds(7);
+		HttpResponseData responseData = config.getResponseData(1);
+		responseData.setStatusCode(200);
+		responseData.setDelayMillis(250);
+
+		// the first request holds the only slot while it is delayed
+		handler.handle("/foo", baseRequest, request, response);
+		assertEquals(1, config.getAdmissionController().getInFlight());
+
+		HttpServletRequest request2 = mock(HttpServletRequest.class);
+		mockAttributes(request2);
+		handler.handle("/foo", baseRequest, request2, response);
+		verify(response).setStatus(503);
+		verify(response).setHeader("Retry-After", "7");
+		assertEquals(1, config.getRequestCount());
+
+		// redispatch of the first request after the delay releases the slot
+		handler.handle("/foo", baseRequest, request, response);
+		verify(response).setStatus(200);
+		assertEquals(0, config.getAdmissionController().getInFlight());
+		assertEquals(1, config.getAdmissionController().getRejectedCount());
+	}
+
+	@Test
+	public void testHandle_Admission_Queued() throws Exception {
+
+		config.getAdmissionController().setConcurrencyLimit(1, 1, 0);
+		config.getResponseData(1).setStatusCode(200);
+		config.getResponseData(2).setStatusCode(201);
+		config.getResponseData(1).setDelayMillis(250);
+
+		Continuation continuation1 = mock(Continuation.class);
+		mockAttributes(request);
+		when(request.getAttribute(Continuation.ATTRIBUTE)).thenReturn(continuation1);
+		handler.handle("/foo", baseRequest, request, response);
+
+		Continuation continuation2 = mock(Continuation.class);
+		HttpServletRequest request2 = mock(HttpServletRequest.class);
+		mockAttributes(request2);
+		when(request2.getAttribute(Continuation.ATTRIBUTE)).thenReturn(continuation2);
+		when(request2.getHeaderNames()).thenReturn(headers.keys());
+		when(request2.getMethod()).thenReturn("GET");
+		when(request2.getRequestURL()).thenReturn(new StringBuffer("http://www.foo.com/abc"));
+		handler.handle("/foo", baseRequest, request2, response);
+
+		verify(continuation2).suspend();
+		assertEquals(1, config.getRequestCount());
+		assertEquals(1, config.getAdmissionController().getQueuedCount());
+		assertEquals(2, config.getMetrics().getInFlight());
+
+		// the first request's response releases its slot to the queued request
+		handler.handle("/foo", baseRequest, request, response);
+		verify(response).setStatus(200);
+		verify(continuation2).resume();
+
+		handler.handle("/foo", baseRequest, request2, response);
+		verify(response).setStatus(201);
+		assertEquals(2, config.getRequestCount());
+		assertEquals(2, config.getAdmissionController().getAdmittedCount());
+		assertEquals(0, config.getAdmissionController().getInFlight());
+		assertEquals(0, config.getMetrics().getInFlight());
+	}
+
+	private static Map<String, Object> mockAttributes(HttpServletRequest request) {
+
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		when(request.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return attributes.get(invocation.getArguments()[0]);
+			}
+		});
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(request).setAttribute(anyString(), any());
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				attributes.remove(invocation.getArguments()[0]);
+				return null;
+			}
+		}).when(request).removeAttribute(anyString());
+		return attributes;
+	}
+
 	private static class TestInputStream extends ServletInputStream {
 
 		ByteArrayInputStream in = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
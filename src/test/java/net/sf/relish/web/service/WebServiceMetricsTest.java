@@ -0,0 +1,107 @@
+package net.sf.relish.web.service;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WebServiceMetricsTest {
+
+	WebServiceMetrics metrics = new WebServiceMetrics();
+
+	@Test
+	public void testNoRequests() throws Exception {
+
+		assertEquals(0, metrics.getRequestCount());
+		assertEquals(0, metrics.getPeakConcurrency());
+		assertEquals(0, metrics.getRequestRate(), 0);
+		assertEquals(0, metrics.getInterArrivalNanos().getCount());
+	}
+
+	@Test
+	public void testRequestStartedAndCompleted() throws Exception {
+
+		long arrival1 = metrics.requestStarted();
+		long arrival2 = metrics.requestStarted();
+		assertEquals(2, metrics.getInFlight());
+		metrics.requestCompleted(arrival1, 100);
+		metrics.recordBytesIn(7);
+		long arrival3 = metrics.requestStarted();
+		metrics.requestCompleted(arrival2, 20);
+		metrics.requestCompleted(arrival3, 3);
+
+		assertEquals(3, metrics.getRequestCount());
+		assertEquals(0, metrics.getInFlight());
+		assertEquals(2, metrics.getPeakConcurrency());
+		assertEquals(7, metrics.getBytesIn());
+		assertEquals(123, metrics.getBytesOut());
+		assertEquals(2, metrics.getInterArrivalNanos().getCount());
+		assertEquals(3, metrics.getResponseNanos().getCount());
+		assertTrue(metrics.getRequestRate() > 0);
+	}
+
+	@Test
+	public void testGetRequestRate() throws Exception {
+
+		for (int i = 0; i < 11; i++) {
+			metrics.requestCompleted(metrics.requestStarted(), 0);
+			Thread.sleep(10);
+		}
+
+		// 10 intervals of at least 10 millis each
+		assertTrue(String.valueOf(metrics.getRequestRate()), metrics.getRequestRate() <= 100);
+		assertTrue(String.valueOf(metrics.getRequestRate()), metrics.getRequestRate() > 20);
+	}
+
+	@Test
+	public void testPeakConcurrency_Concurrent() throws Exception {
+
+		final CountDownLatch started = new CountDownLatch(20);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		try {
+			for (int i = 0; i < 20; i++) {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						long arrival = metrics.requestStarted();
+						started.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+						}
+						metrics.requestCompleted(arrival, 1);
+					}
+				});
+			}
+
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertEquals(20, metrics.getInFlight());
+			release.countDown();
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+
+		assertEquals(20, metrics.getPeakConcurrency());
+		assertEquals(0, metrics.getInFlight());
+		assertEquals(20, metrics.getBytesOut());
+	}
+
+	@Test
+	public void testToReport() throws Exception {
+
+		metrics.requestCompleted(metrics.requestStarted(), 10);
+		String report = metrics.toReport();
+		assertTrue(report, report.startsWith("requests=1, rate=0.0/s, peak concurrency=1, bytes in=0, bytes out=10"));
+		assertTrue(report, report.contains("response time: count=1"));
+	}
+}
@@ -2,6 +2,8 @@ package net.sf.relish.web.service;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -56,6 +58,34 @@ public class WebServiceServerTest {
 		server.startServer(12474);
 	}
 
+	@Test
+	public void testStartServer_MultiplePorts() throws Exception {
+
+		server.startServer(Arrays.asList(12473, 12474, 12475));
+		assertTrue(isServerRunning());
+		assertTrue(AbstractWebServerTest.isServerRunning("http://localhost:12474/foo"));
+		assertTrue(AbstractWebServerTest.isServerRunning("http://localhost:12475/foo"));
+
+		// ports already listened on are ignored
+		server.startServer(Arrays.asList(12474, 12476));
+		assertTrue(server.isPortOpen(12476));
+	}
+
+	@Test
+	public void testStartServer_MultiplePorts_ServerAlreadyRunning() throws Exception {
+
+		server.startServer(12473);
+		server.startServer(Arrays.asList(12474, 12475));
+		assertTrue(isServerRunning());
+		assertTrue(server.isPortOpen(12474));
+		assertTrue(server.isPortOpen(12475));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStartServer_MultiplePorts_Empty() throws Exception {
+		server.startServer(new ArrayList<Integer>());
+	}
+
 	private boolean isServerRunning() throws Exception {
 		return AbstractWebServerTest.isServerRunning("http://localhost:12473/foo");
 	}
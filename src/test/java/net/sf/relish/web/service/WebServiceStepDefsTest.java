@@ -2,14 +2,22 @@ package net.sf.relish.web.service;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import net.sf.relish.CountQuantifier;
 import net.sf.relish.DataFormat;
@@ -19,6 +27,7 @@ import net.sf.relish.RelishUtil;
 import net.sf.relish.TableMatcher;
 import net.sf.relish.rule.ElapsedTime;
 import net.sf.relish.web.AbstractWebServerTest;
+import net.sf.relish.web.DelayDistribution;
 import net.sf.relish.web.HttpMethod;
 
 import org.junit.After;
@@ -386,9 +395,547 @@ public class WebServiceStepDefsTest {
 		steps.webServiceRequestBodyJsonShouldBe("foo", 1, null, "{\"a\":\"b\",\"c\":1,\"d\":true,\"e\":[\"hello\",\"world\"],\"f\":{\"y\":\"z\"}}");
 	}
 
+	@Test
+	public void testWebServicesUseTheseServerSettings() throws Exception {
+
+		steps.webServicesUseTheseServerSettings(Arrays.asList(new NameValuePair("maxThreads", "20"), new NameValuePair("acceptQueueSize", "100")));
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		assertEquals(201, newConnection().getResponseCode());
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebServicesUseTheseServerSettings_ServerRunning() throws Exception {
+
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+		steps.webServicesUseTheseServerSettings(Arrays.asList(new NameValuePair("maxThreads", "20")));
+	}
+
+	@Test
+	public void testWebServiceStreamsRequestBodies() throws Exception {
+
+		steps.webServiceStreamsRequestBodies("foo", 5, null);
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		HttpURLConnection conn = newConnection();
+		conn.setDoOutput(true);
+		conn.setChunkedStreamingMode(4096);
+		conn.getOutputStream().write("hello world".getBytes(DataFormat.UTF8));
+		assertEquals(201, conn.getResponseCode());
+
+		steps.webServiceRequestBodySizeShouldBe("foo", 1, null, CountQuantifier.EXACTLY, 11);
+		steps.webServiceRequestBodyDigestShouldBe("foo", 1, null, "SHA-256", "B94D27B9934D3E08A52E52D7DA7DABFAC484EFE37A5380EE9088F7ACE2EFCDE9");
+		steps.webServiceRequestBodyDigestShouldBe("foo", 1, null, "CRC-32", "0d4a1185");
+		steps.webServiceRequestBodyShouldStartWith("foo", 1, null, DataFormat.TEXT, "hell");
+		steps.webServiceRequestBodyShouldStartWith("foo", 1, null, DataFormat.BINARY, "68 65 6c 6c 6f");
+	}
+
+	@Test
+	public void testWebServiceRequestBodySizeShouldBe_BodyInMemory() throws Exception {
+
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		HttpURLConnection conn = newConnection();
+		conn.setDoOutput(true);
+		conn.getOutputStream().write("hello world".getBytes(DataFormat.UTF8));
+		conn.getResponseCode();
+
+		steps.webServiceRequestBodySizeShouldBe("foo", 1, null, CountQuantifier.AT_LEAST, 11);
+		steps.webServiceRequestBodyDigestShouldBe("foo", 1, null, "CRC-32", "0d4a1185");
+		steps.webServiceRequestBodyShouldStartWith("foo", 1, null, DataFormat.TEXT, "hello world");
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceRequestBodySizeShouldBe_Mismatch() throws Exception {
+
+		steps.webServiceStreamsRequestBodies("foo", null, null);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		HttpURLConnection conn = newConnection();
+		conn.setDoOutput(true);
+		conn.getOutputStream().write("hello world".getBytes(DataFormat.UTF8));
+		conn.getResponseCode();
+
+		steps.webServiceRequestBodySizeShouldBe("foo", 1, null, CountQuantifier.AT_MOST, 10);
+	}
+
+	@Test
+	public void testWebServiceRequestBodyShouldStartWith_NotEnoughBytesKept() throws Exception {
+
+		steps.webServiceStreamsRequestBodies("foo", 2, " to temp files");
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		HttpURLConnection conn = newConnection();
+		conn.setDoOutput(true);
+		conn.getOutputStream().write("hello world".getBytes(DataFormat.UTF8));
+		conn.getResponseCode();
+
+		expectedException.expect(RelishException.class);
+		steps.webServiceRequestBodyShouldStartWith("foo", 1, null, DataFormat.TEXT, "hello");
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceRequestBodyShouldStartWith_Mismatch() throws Exception {
+
+		steps.webServiceStreamsRequestBodies("foo", 20, null);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		HttpURLConnection conn = newConnection();
+		conn.setDoOutput(true);
+		conn.getOutputStream().write("hello world".getBytes(DataFormat.UTF8));
+		conn.getResponseCode();
+
+		steps.webServiceRequestBodyShouldStartWith("foo", 1, null, DataFormat.TEXT, "help");
+	}
+
+	@Test
+	public void testWebServiceRespondsWithFile() throws Exception {
+
+		File file = File.createTempFile("relish-test", ".txt");
+		try {
+			RelishUtil.writeToFile(file, new ByteArrayInputStream("the file body".getBytes(DataFormat.UTF8)));
+			steps.webServiceRespondsWithFile("foo", 1, 2, file.getPath(), null, null);
+			steps.webServiceRespondsWithFile("foo", 3, null, file.getPath(), " sent chunked", " gzipped");
+			steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+			HttpURLConnection conn = newConnection();
+			assertEquals(200, conn.getResponseCode());
+			assertEquals("the file body", getResponseBody(conn));
+
+			conn = newConnection();
+			conn.setRequestProperty("Range", "bytes=4-7");
+			assertEquals(206, conn.getResponseCode());
+			assertEquals("file", getResponseBody(conn));
+
+			conn = newConnection();
+			conn.setRequestProperty("Accept-Encoding", "gzip");
+			assertEquals(200, conn.getResponseCode());
+			assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+			assertEquals("the file body", new String(RelishUtil.readFromInputStream(new GZIPInputStream(conn.getInputStream())), DataFormat.UTF8));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebServiceRespondsWithFile_FileDoesNotExist() throws Exception {
+
+		steps.webServiceRespondsWithFile("foo", 1, null, "no/such/file.bin", null, null);
+	}
+
+	@Test
+	public void testWebServiceMetrics() throws Exception {
+
+		steps.webServiceRespondsWithBody("foo", 1, 20, DataFormat.TEXT, "0123456789");
+		steps.webServiceResponseIsDelayed("foo", 1, 20, DelayDistribution.fixed(300));
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() throws Exception {
+						HttpURLConnection conn = newConnection();
+						conn.setDoOutput(true);
+						conn.getOutputStream().write(new byte[] { 1, 2, 3, 4 });
+						getResponseBody(conn);
+						return conn.getResponseCode();
+					}
+				}));
+			}
+			for (Future<Integer> future : futures) {
+				assertEquals(200, future.get().intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		steps.webServiceShouldHaveHadConcurrentRequests("foo", CountQuantifier.AT_MOST, 10);
+		steps.webServiceShouldHaveHadConcurrentRequests("foo", CountQuantifier.AT_LEAST, 2);
+		steps.webServiceRequestRateShouldBe("foo", CountQuantifier.AT_LEAST, 1);
+		steps.webServiceShouldHaveTransferredBytes("foo", "received", CountQuantifier.EXACTLY, 40);
+		steps.webServiceShouldHaveTransferredBytes("foo", "sent", CountQuantifier.EXACTLY, 100);
+		steps.webServiceTimeShouldBe("foo", "response", "min", CountQuantifier.AT_LEAST, 250, TimeUnit.MILLISECONDS);
+		steps.webServiceTimeShouldBe("foo", "response", "p99.9", CountQuantifier.AT_MOST, 5, TimeUnit.SECONDS);
+		steps.webServiceTimeShouldBe("foo", "inter-arrival", "mean", CountQuantifier.AT_MOST, 5, TimeUnit.SECONDS);
+		steps.printWebServiceMetrics("foo");
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceShouldHaveHadConcurrentRequests_TooMany() throws Exception {
+
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+		newConnection().getResponseCode();
+
+		steps.webServiceShouldHaveHadConcurrentRequests("foo", CountQuantifier.EXACTLY, 0);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceRequestRateShouldBe_TooLow() throws Exception {
+
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+		newConnection().getResponseCode();
+
+		steps.webServiceRequestRateShouldBe("foo", CountQuantifier.AT_LEAST, 1);
+	}
+
+	@Test
+	public void testWebServiceUsesResponseForAllOtherRequests() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceRespondsWithStatusCode("foo", 2, null, 202);
+		steps.webServiceUsesResponseForAllOtherRequests("foo", 2);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		assertEquals(201, newConnection().getResponseCode());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(202, newConnection().getResponseCode());
+		}
+	}
+
+	@Test
+	public void testWebServiceResponsesCycleThrough() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceRespondsWithStatusCode("foo", 2, null, 202);
+		steps.webServiceResponsesCycleThrough("foo", 1, 2);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(201, newConnection().getResponseCode());
+			assertEquals(202, newConnection().getResponseCode());
+		}
+	}
+
+	@Test
+	public void testWebServiceUsesResponseForRequestsMatching() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceRespondsWithStatusCode("foo", 2, null, 202);
+		steps.webServiceRespondsWithStatusCode("foo", 3, null, 203);
+		steps.webServiceUsesResponseForRequestsMatching("foo", 2, "GET", "/foo/orders/*", null, null, null, null);
+		steps.webServiceUsesResponseForRequestsMatching("foo", 3, "POST", "/foo/orders", "X-Tenant", "acme-\\d", "order.type", "rush");
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		assertEquals(202, newConnection("/orders/17").getResponseCode());
+		assertEquals(202, newConnection("/orders/18").getResponseCode());
+
+		HttpURLConnection conn = newConnection("/orders");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("X-Tenant", "acme-1");
+		conn.getOutputStream().write("{\"order\":{\"type\":\"rush\"}}".getBytes(DataFormat.UTF8));
+		assertEquals(203, conn.getResponseCode());
+
+		// no rule matches and this is the 4th request so there is no response for it
+		assertEquals(503, newConnection("/customers").getResponseCode());
+	}
+
+	@Test
+	public void testWebServiceUsesResponseForRequestsMatching_NotUsedForItsIndex() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 2, null, 202);
+		steps.webServiceUsesResponseForRequestsMatching("foo", 2, "GET", "/foo/orders/*", null, null, null, null);
+		steps.webServiceUsesStatusCodeMixForAllOtherRequests("foo", "204:1");
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		assertEquals(204, newConnection("/customers").getResponseCode());
+		// the second request does not match the rule so it does not get the rule's response
+		assertEquals(204, newConnection("/customers").getResponseCode());
+		assertEquals(202, newConnection("/orders/1").getResponseCode());
+	}
+
+	@Test
+	public void testWebServiceUsesStatusCodeMixForAllOtherRequests() throws Exception {
+
+		steps.webServiceUsesStatusCodeMixForAllOtherRequests("foo", "204:1");
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		assertEquals(204, newConnection().getResponseCode());
+		assertEquals(204, newConnection().getResponseCode());
+	}
+
+	@Test
+	public void testWebServiceResponseIsDelayed() throws Exception {
+
+		elapsedTime.expectMinMillis(500);
+		elapsedTime.expectMaxMillis(2000);
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceResponseIsDelayed("foo", 1, null, DelayDistribution.fixed(500));
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		HttpURLConnection conn = newConnection();
+		assertEquals(201, conn.getResponseCode());
+	}
+
+	@Test
+	public void testWebServiceResponseIsDelayed_Concurrent() throws Exception {
+
+		elapsedTime.expectMinMillis(500);
+		elapsedTime.expectMaxMillis(3000);
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 20, 201);
+		steps.webServiceResponseIsDelayed("foo", 1, 20, DelayDistribution.uniform(500, 600));
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 20; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() throws Exception {
+						return newConnection().getResponseCode();
+					}
+				}));
+			}
+
+			for (Future<Integer> future : futures) {
+				assertEquals(201, future.get().intValue());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWebServiceAllowsConcurrentRequests_Queued() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 6, 201);
+		steps.webServiceResponseIsDelayed("foo", 1, 6, DelayDistribution.fixed(200));
+		steps.webServiceAllowsConcurrentRequests("foo", 2, 2, 5, TimeUnit.SECONDS);
+		steps.webServiceRetryAfter("foo", 3);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		List<HttpURLConnection> connections = new ArrayList<HttpURLConnection>();
+		ExecutorService executor = Executors.newFixedThreadPool(6);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 6; i++) {
+				final HttpURLConnection conn = newConnection();
+				connections.add(conn);
+				futures.add(executor.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() throws Exception {
+						return conn.getResponseCode();
+					}
+				}));
+			}
+
+			int okCount = 0;
+			for (int i = 0; i < futures.size(); i++) {
+				int status = futures.get(i).get();
+				if (status == 201) {
+					okCount++;
+				} else {
+					assertEquals(503, status);
+					assertEquals("3", connections.get(i).getHeaderField("Retry-After"));
+				}
+			}
+			assertEquals(4, okCount);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		steps.webServiceShouldHaveAdmissionCount("foo", "admitted", CountQuantifier.EXACTLY, 4);
+		steps.webServiceShouldHaveAdmissionCount("foo", "queued", CountQuantifier.EXACTLY, 2);
+		steps.webServiceShouldHaveAdmissionCount("foo", "rejected", CountQuantifier.EXACTLY, 2);
+		steps.webServiceShouldHaveHadConcurrentRequests("foo", CountQuantifier.AT_LEAST, 4);
+	}
+
+	@Test
+	public void testWebServiceAllowsConcurrentRequests_QueueTimeout() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 201);
+		steps.webServiceResponseIsDelayed("foo", 1, null, DelayDistribution.fixed(1000));
+		steps.webServiceAllowsConcurrentRequests("foo", 1, 1, 100, TimeUnit.MILLISECONDS);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Integer> first = executor.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					return newConnection().getResponseCode();
+				}
+			});
+			steps.webServiceShouldHaveRequestCountWithin("foo", 1, 5, TimeUnit.SECONDS);
+
+			assertEquals(503, newConnection().getResponseCode());
+			assertEquals(201, first.get().intValue());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		steps.webServiceShouldHaveAdmissionCount("foo", "queued", CountQuantifier.EXACTLY, 1);
+		steps.webServiceShouldHaveAdmissionCount("foo", "rejected", CountQuantifier.EXACTLY, 1);
+	}
+
+	@Test
+	public void testWebServiceIsRateLimited() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 10, 201);
+		steps.webServiceIsRateLimited("foo", 1, 2);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		assertEquals(201, newConnection().getResponseCode());
+		assertEquals(201, newConnection().getResponseCode());
+		HttpURLConnection conn = newConnection();
+		assertEquals(429, conn.getResponseCode());
+		assertEquals("1", conn.getHeaderField("Retry-After"));
+
+		steps.webServiceShouldHaveAdmissionCount("foo", "admitted", CountQuantifier.EXACTLY, 2);
+		steps.webServiceShouldHaveAdmissionCount("foo", "rejected", CountQuantifier.EXACTLY, 1);
+		steps.webServiceShouldHaveRequestCount("foo", CountQuantifier.EXACTLY, 2);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceShouldHaveAdmissionCount_Mismatch() throws Exception {
+
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+		newConnection().getResponseCode();
+
+		steps.webServiceShouldHaveAdmissionCount("foo", "admitted", CountQuantifier.EXACTLY, 1);
+	}
+
+	@Test
+	public void testWebServiceIsRunningOnPorts() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 12, 201);
+		steps.webServiceIsRunningOnPorts("foo", 12473, 12475, "/foo");
+
+		for (int i = 0; i < 4; i++) {
+			for (int port = 12473; port <= 12475; port++) {
+				HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port + "/foo").openConnection();
+				assertEquals(201, conn.getResponseCode());
+			}
+		}
+
+		steps.webServiceShouldHaveRequestCount("foo", CountQuantifier.EXACTLY, 12);
+		steps.webServiceInstanceShouldHaveRequestCount("foo", 12474, CountQuantifier.EXACTLY, 4);
+		steps.webServiceInstanceResponseTimeShouldBe("foo", 12475, "p99", CountQuantifier.AT_MOST, 5, TimeUnit.SECONDS);
+		steps.webServiceRequestsShouldBeEvenlyDistributed("foo", 0);
+		steps.printWebServiceInstanceMetrics("foo");
+	}
+
+	@Test
+	public void testWebServiceInstanceIsStopped() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 10, 201);
+		steps.webServiceIsRunningOnPorts("foo", 12473, 12474, "/foo");
+
+		steps.webServiceInstanceIsStopped("foo", 12474, "stopped");
+		assertFalse(AbstractWebServerTest.isServerRunning("http://localhost:12474/foo"));
+		assertEquals(201, newConnection().getResponseCode());
+		assertEquals(201, newConnection().getResponseCode());
+		steps.webServiceInstanceShouldHaveRequestCount("foo", 12474, CountQuantifier.EXACTLY, 0);
+		steps.webServiceRequestsShouldBeEvenlyDistributed("foo", 0);
+
+		steps.webServiceInstanceIsStopped("foo", 12474, "restarted");
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:12474/foo").openConnection();
+		assertEquals(201, conn.getResponseCode());
+		steps.webServiceInstanceShouldHaveRequestCount("foo", 12474, CountQuantifier.EXACTLY, 1);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceRequestsShouldBeEvenlyDistributed_Uneven() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 10, 201);
+		steps.webServiceIsRunningOnPorts("foo", 12473, 12474, "/foo");
+		newConnection().getResponseCode();
+		newConnection().getResponseCode();
+		newConnection().getResponseCode();
+
+		steps.webServiceRequestsShouldBeEvenlyDistributed("foo", 50);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebServiceRequestsShouldBeEvenlyDistributed_NotClustered() throws Exception {
+
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+		steps.webServiceRequestsShouldBeEvenlyDistributed("foo", 50);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebServiceInstanceShouldHaveRequestCount_NoInstance() throws Exception {
+
+		steps.webServiceIsRunningOnPorts("foo", 12473, 12474, "/foo");
+		steps.webServiceInstanceShouldHaveRequestCount("foo", 12475, CountQuantifier.EXACTLY, 0);
+	}
+
+	@Test
+	public void testWebServiceConnectionStats_KeepAlive() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 20, 200);
+		steps.webServiceRespondsWithBody("foo", 1, 20, DataFormat.TEXT, "ok");
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals("ok", getResponseBody(newConnection()));
+		}
+
+		steps.webServiceShouldHaveReceivedRequestsOverConnections("foo", 20, CountQuantifier.AT_MOST, 2);
+		steps.webServiceShouldHaveConnectionCount("foo", "had concurrently open", CountQuantifier.AT_MOST, 2);
+		steps.printWebServiceConnectionStats("foo");
+	}
+
+	@Test
+	public void testWebServiceConnectionStats_NoKeepAlive() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 5, 200);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		for (int i = 0; i < 5; i++) {
+			HttpURLConnection conn = newConnection();
+			conn.setRequestProperty("Connection", "close");
+			assertEquals(200, conn.getResponseCode());
+		}
+
+		steps.webServiceShouldHaveConnectionCount("foo", "accepted", CountQuantifier.EXACTLY, 5);
+		steps.after();
+		steps.webServiceRequestsPerConnectionShouldBe("foo", "min", CountQuantifier.AT_LEAST, 1);
+		steps.webServiceRequestsPerConnectionShouldBe("foo", "max", CountQuantifier.AT_MOST, 1);
+		steps.webServiceConnectionLifetimeShouldBe("foo", "p99", CountQuantifier.AT_MOST, 5, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = AssertionError.class)
+	public void testWebServiceShouldHaveReceivedRequestsOverConnections_TooManyConnections() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, 3, 200);
+		steps.webServiceIsRunningAt("foo", 12473, "/foo");
+
+		for (int i = 0; i < 3; i++) {
+			HttpURLConnection conn = newConnection();
+			conn.setRequestProperty("Connection", "close");
+			conn.getResponseCode();
+		}
+
+		steps.webServiceShouldHaveReceivedRequestsOverConnections("foo", 3, CountQuantifier.AT_MOST, 1);
+	}
+
+	@Test(expected = RelishException.class)
+	public void testWebServiceConnectionStats_NotStarted() throws Exception {
+
+		steps.webServiceRespondsWithStatusCode("foo", 1, null, 200);
+		steps.webServiceShouldHaveConnectionCount("foo", "accepted", CountQuantifier.EXACTLY, 0);
+	}
+
 	private HttpURLConnection newConnection() throws Exception {
 
-		return (HttpURLConnection) new URL("http://localhost:12473/foo").openConnection();
+		return newConnection("");
+	}
+
+	private HttpURLConnection newConnection(String path) throws Exception {
+
+		return (HttpURLConnection) new URL("http://localhost:12473/foo" + path).openConnection();
 	}
 
 	private boolean isServerRunning() throws Exception {
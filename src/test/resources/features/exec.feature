@@ -2,6 +2,10 @@ Feature: Application Executor
 	Executes external applications and provides access to their output
 	
 Scenario: Execute an application 
+	Given application output is captured in full
+	Given application output is captured keeping the first 4096 and last 4096 bytes
+	Given application output is captured in a temp file
+	Given application charset is "UTF-8"
 	When application "foo" is executed with command line "foo a b\\ c d" 
 	When application "foo" is executed with command line "foo a b c" with input that is this text: 
 		"""
@@ -15,4 +19,25 @@ Scenario: Validate application output
 	Then application "foo" output should match this text: 
 		"""
 a regex to match to the foo app's output
-"""
\ No newline at end of file
+"""
+	Then application "foo" output start should match this text: 
+		"""
+the first line
+"""
+	Then application "foo" output end should match this text: 
+		"""
+.*the last line\s*
+"""
+	Then application "foo" output size should be at least 1000000000 bytes
+	Then application "foo" output should have exactly 1000000 lines
+
+Scenario: Run an application in the background
+	Given application "daemon" is started in the background with command line "mydaemon --port 8080"
+	Then application "daemon" output should contain "listening on port \d+" within 10 seconds
+	Then application "daemon" output should contain "ready"
+	When application "daemon" is sent signal HUP
+	Then application "daemon" output should contain "reloaded" within 500 milliseconds
+	When application "daemon" is sent signal TERM
+	Then application "daemon" should exit within 5 seconds
+	Then application "daemon" should exit
+	Then application "daemon" exit code should be 0
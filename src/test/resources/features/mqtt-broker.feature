@@ -21,6 +21,10 @@ Scenario: Publish message
     <myxml>abc</myxml>
     """
 	When MQTT broker publishes a message at QoS 0 to "/my/topic1" from file "test.dat"
+    When MQTT broker publishes 100 messages at QoS 1 to "/my/topic1" using this JSON template:
+    """
+    {"id":${seq},"device":"dev-${seq%10}","ts":${millis}}
+    """
     
 Scenario: Verify published message by client
 
@@ -11,12 +11,14 @@ Scenario: Connect
 	Given MQTT client "foo" is connected to "tcp://m2m.io:1883" as user "abc" 
 	Given MQTT client "foo" is connected to "tcp://m2m.io:1883" as user "abc" with password "123" 
 	Given MQTT client "foo" is connected with a clean session to "tcp://m2m.io:1883" as user "abc" with password "123" 
+	Given MQTT clients "device{1..1000}, monitor" are connected to "tcp://m2m.io:1883"
 	
 Scenario: Disconnect 
 	When MQTT client "foo" is disconnected 
 	
 Scenario: Subscribe 
 	Given MQTT client "foo" is subscribed to topic "/my/topic1" at QoS 1 
+	Given MQTT clients "device{1..1000}, monitor" are subscribed to topic "/firmware/notice" at QoS 1
 	
 Scenario: Unsubscribe 
 	When MQTT client "foo" is unsubscribed from topic "/my/topic1" 
@@ -31,6 +33,10 @@ Scenario: Publish message
     <myxml>abc</myxml>
     """
 	When MQTT client "foo" publishes a message at QoS 0 to "/my/topic1" from file "test.dat"
+	When MQTT client "foo" publishes 100 messages at QoS 1 to "/my/topic1" using this JSON template: 
+		"""
+    {"id":${seq},"value":${random:1-100},"state":"${cycle:on|off}"}
+    """
 		
 Scenario: Verify published message
     
@@ -49,3 +55,5 @@ Scenario: Verify published message
     Then MQTT client "foo" should have at least 5 messages from "/my/topic1" within 3 seconds
     Then MQTT client "foo" should have at most 5 messages from "/my/topic1"
     Then MQTT client "foo" should have exactly 5 messages from "/my/topic1"
+    Then MQTT clients "device{1..1000}, monitor" should receive the last message published to "/firmware/notice" within 30 seconds with a delivery spread of at most 500 milliseconds
+    Then print MQTT delivery spread
@@ -1,6 +1,11 @@
 Feature: Web App
 
 Scenario: Start/stop web app in project
+	Given web apps use these server settings:
+	| Name | Value |
+	| acceptors | 2 |
+	| minThreads | 10 |
+	| maxThreads | 200 |
 	Given web app "test-web-app" is running on port 13847
 	When web app "test-web-app" is stopped
 
@@ -19,16 +19,77 @@ Scenario: Configure web client requests
     """
     01 fa c3
     """
+    Given web client requests 5 thru 10 body is this JSON template:
+    """
+    {"id":${seq},"token":"${hex:16}"}
+    """
+    Given web client request 11 body is file "target/upload.bin"
+    Given web client requests 12 thru 20 body is file "target/upload.bin" sent chunked
+    Given web client request 21 body is file "target/upload.csv" sent chunked gzipped
+    Given web client uses a connection pool
+    Given web client uses the asynchronous engine
+    Given web client uses the asynchronous engine with at most 100 connections per host timing out requests after 90 seconds
+    Given web client streams response bodies
+    Given web client streams response bodies keeping the first 1024 bytes
+    Given web client streams response bodies keeping the first 1024 and last 256 bytes
+    Given web client streams response bodies keeping the last 256 bytes
+    Given web client uses a connection pool with at most 8 connections per host keeping idle connections for 30 seconds
 
 Scenario: Send web client responses
 	Then web client request 1 is sent to "http://localhost:8080/pump" using method "GET"
 	Then web client requests 1 thru 10 are sent to "http://localhost:8080/pump" using method "PUT"
+	Then web client requests 1 thru 1000 are sent to "http://localhost:8080/pump" using method "GET" with concurrency 50
+	Then web client requests 1 thru 5000 are sent to "http://localhost:8080/poll" using method "GET"
+	Then web client should have had at least 5000 outstanding requests
+	Then web client connection pool should have at least 990 hits
+	Then web client connection pool should have at most 8 new connections
+	Then web client connection pool should have exactly 0 evictions
+	Then print web client connection pool stats
+	When web client sends GET requests to "http://localhost:8080/pump" at 2000 requests per second for 60 seconds
+	When web client sends POST requests to "http://localhost:8080/pump" at 500 requests per second for 10 seconds using request 3 as a template with at most 50 requests in flight
+	Then web client load latency p99 should be at most 250 milliseconds
+	Then web client load latency p99.9 should be at most 1 seconds
+	Then web client load error rate should be at most 0.1 percent
+	Then web client load should have completed at least 119000 requests
+	Then print web client load stats
+	When web client sends these requests:
+	| Method | URL | Header Content-Type | Body | Expected Status |
+	| POST | http://localhost:8080/pump | application/json | {"id":1} | 201 |
+	| GET | http://localhost:8080/pump/1 | | | 200 |
+	| DELETE | http://localhost:8080/pump/2 | | | 404 |
+	When web client sends these requests with concurrency 10:
+	| Method | URL | Body File |
+	| PUT | http://localhost:8080/pump/1 | src/test/resources/pump.json |
+	When web client sends the requests in CSV file "target/requests.csv" with concurrency 50
+	Then web client bulk run should have sent exactly 1000000 requests
+	Then web client bulk run should have passed at least 999990 requests
+	Then web client bulk run should have failed at most 10 requests
+	Then print web client bulk run stats
 	
 Scenario: Validate web client responses
 	Steps that use "should be" compare equality directly.
 	Steps that use "should match" compare using a regex.
 	
     Then web client response 1 header "abc" should match "123"
+    Then web client responses 1 thru 5 body size should be at least 2000000000 bytes
+    Then web client response 1 body SHA-256 should be "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9"
+    Then web client response 1 body CRC-32 should be "0d4a1185"
+    Then web client responses 1 thru 5 body should have exactly 1000001 lines
+    Then web client response 1 body start should match this text:
+    """
+    id,name,.*
+    """
+    Then web client response 1 body end should match this text:
+    """
+    .*,done\s*
+    """
+    Then web client responses 1 thru 100 should complete within 50 milliseconds
+    Then web client responses 1 thru 100 time to first byte p95 should be at most 20 milliseconds
+    Then web client responses 1 thru 100 connect time max should be at most 5 milliseconds
+    Then web client response 1 total time mean should be at least 100 microseconds
+    Then print web client responses 1 thru 100 timings
+    Then web client request 11 upload throughput should be at least 50 MB per second
+    Then web client requests 12 thru 20 upload throughput should be at most 1.5 KB per second
     Then web client responses 1 thru 5 header "def" should match "(?:456|789)"
     Then web client response 2 headers should include:
     | Name | Value |
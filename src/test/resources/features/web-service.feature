@@ -3,8 +3,16 @@ Feature: Web Service
 	what to do when the response queue is empty: block or send the always stuff?
 	
 Scenario: Start/stop web service
+    Given web services use these server settings:
+    | Name | Value |
+    | maxThreads | 500 |
+    | acceptQueueSize | 1024 |
+    | maxIdleTimeMillis | 30000 |
     Given web service "pump" is running at "http://localhost:8080/pump"
     Given web service "pump" is stopped
+    Given web service "pumps" is running on ports 8081 thru 8083 at "/pump"
+    Given web service "pumps" instance on port 8082 is stopped
+    Given web service "pumps" instance on port 8082 is restarted
 
 Scenario: Configure web service responses
     Given web service "pump" response 1 header "abc" is "123"
@@ -21,12 +29,33 @@ Scenario: Configure web service responses
     """
     the response text
     """
+    Given web service "pump" response 5 body is file "src/test/resources/large-object.bin"
+    Given web service "pump" responses 6 thru 8 body is file "src/test/resources/large-object.bin" sent chunked gzipped
     Given web service "pump" response 4 body is this binary:
     """
     01 fa c3
     """
     Given web service "pump" responses 5 thru 24 use status code 200
     Given web service "pump" response 7 uses status code 200
+    Given web service "pump" response 1 is delayed by 2 seconds
+    Given web service "pump" responses 2 thru 100 are delayed uniformly between 100 and 300 milliseconds
+    Given web service "pump" responses 101 thru 200 are delayed normally with mean 200 and standard deviation 50 milliseconds
+    Given web service "pump" responses 201 thru 10000 are delayed lognormally with p50 100 and p99 2000 milliseconds
+    Given web service "pump" uses response 7 for all other requests
+    Given web service "pump" responses cycle through 5 thru 24
+    Given web service "pump" uses status code mix "200:95, 500:4, 503:1" for all other requests
+    Given web service "pump" uses response 3 for POST requests to "/pump/orders/*" with JSON field "order.type" equal to "rush"
+    Given web service "pump" streams request bodies
+    Given web service "pump" streams request bodies keeping the first 1024 bytes
+    Given web service "pump" streams request bodies keeping the first 1024 bytes to temp files
+    Given web service "pump" uses response 4 for any requests to "/pump/health"
+    Given web service "pump" uses response 5 for GET requests to "/pump/**" with header "X-Tenant" matching "acme-.*"
+    Given web service "pump" allows at most 10 concurrent requests
+    Given web service "pump" allows at most 10 concurrent requests with a queue of 50
+    Given web service "pump" allows at most 10 concurrent requests with a queue of 50 for up to 500 milliseconds
+    Given web service "pump" is rate limited to 100 requests per second
+    Given web service "pump" is rate limited to 100 requests per second with bursts of 20
+    Given web service "pump" tells rejected requests to retry after 5 seconds
     
 Scenario: Validate web service requests
 	Steps that use "should be" compare equality directly.
@@ -52,6 +81,39 @@ Scenario: Validate web service requests
     """
     ^this is (?:my|our) regular expression$
     """
+    Then web service "pump" request 1 body size should be exactly 524288000 bytes
+    Then web service "pump" requests 1 thru 5 body size should be at most 1024 bytes
+    Then web service "pump" request 1 body SHA-256 should be "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9"
+    Then web service "pump" requests 2 thru 3 body CRC-32 should be "0d4a1185"
+    Then web service "pump" request 1 body should start with this text:
+    """
+    %PDF-1.4
+    """
+    Then web service "pump" request 2 body should start with this binary:
+    """
+    1f 8b 08
+    """
+    Then web service "pump" should have had at most 20 concurrent requests
+    Then web service "pump" request rate should be at least 500 per second
+    Then web service "pump" should have received at most 1048576 bytes
+    Then web service "pump" should have sent at least 1024 bytes
+    Then web service "pump" response time p99 should be at most 250 milliseconds
+    Then web service "pump" inter-arrival time p50 should be at most 2 milliseconds
+    Then web service "pump" should have admitted at least 100 requests
+    Then web service "pump" should have queued at most 50 requests
+    Then web service "pump" should have rejected exactly 0 requests
+    Then print web service "pump" metrics
+    Then web service "pump" should have received 1000 requests over at most 10 connections
+    Then web service "pump" should have accepted at most 10 connections
+    Then web service "pump" should have had concurrently open at most 10 connections
+    Then web service "pump" connection lifetime min should be at least 1 seconds
+    Then web service "pump" requests per connection p50 should be at least 50
+    Then print web service "pump" connection stats
+    Then web service "pumps" instance on port 8081 should have at least 100 requests
+    Then web service "pumps" instance on port 8082 should have exactly 0 requests
+    Then web service "pumps" instance on port 8083 response time p99 should be at most 250 milliseconds
+    Then web service "pumps" requests should be evenly distributed across running instances within 10 percent
+    Then print web service "pumps" instance metrics
     Then web service "pump" should have at least 5 requests
     Then web service "pump" should have at least 5 requests within 2 seconds
     Then web service "pump" should have at least 1 request within 2 seconds